@@ -5,8 +5,18 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
@@ -18,6 +28,15 @@ import fi.csc.microarray.messaging.message.ModuleDescriptionMessage;
 import fi.csc.microarray.util.Files;
 
 
+/**
+ * <p>Tool modules loaded from the modules dir. Tools are looked up from an index, which is
+ * replaced as a whole when the modules are reloaded, so that the readers don't need locking and
+ * always see a consistent set of tools. Module description messages are serialised once per
+ * reload.</p>
+ * 
+ * <p>When the modules are in a plain directory, {@link #startWatching()} reloads them after
+ * the files have changed.</p>
+ */
 public class Toolbox {
 
 	private static final Logger logger = Logger
@@ -26,8 +45,43 @@ public class Toolbox {
 	private static final String MODULES_DIR_NAME = "modules";
 	private static final String TOOLS_DIST_BASENAME = "chipster-tools";
 	
-	private List<ToolboxModule> modules = new LinkedList<ToolboxModule>();
+	// wait for this long without changes before reloading, so that an update of several files is loaded at once
+	private static final long RELOAD_DELAY = 2000;
+	
+	/**
+	 * Modules and everything derived from them. Never modified after the constructor.
+	 */
+	private static class ToolIndex {
+		private List<ToolboxModule> modules;
+		private HashMap<String, ToolboxTool> tools = new HashMap<String, ToolboxTool>();
+		private HashMap<String, ToolboxModule> modulesByName = new HashMap<String, ToolboxModule>();
+		private List<ModuleDescriptionMessage> moduleDescriptions = new ArrayList<ModuleDescriptionMessage>();
+		
+		private ToolIndex(List<ToolboxModule> modules) {
+			this.modules = Collections.unmodifiableList(modules);
+			
+			// the first module wins like when the modules were searched in order
+			for (ToolboxModule module : modules) {
+				for (ToolboxTool tool : module.getAll()) {
+					if (tools.containsKey(tool.getId())) {
+						logger.warn("tool " + tool.getId() + " of module " + module.getName() + " ignored, it's already in module " + tools.get(tool.getId()).getModule());
+					} else {
+						tools.put(tool.getId(), tool);
+					}
+				}
+				if (!modulesByName.containsKey(module.getName())) {
+					modulesByName.put(module.getName(), module);
+				}
+				ModuleDescriptionMessage message = module.getModuleDescriptionMessage();
+				moduleDescriptions.add(new ModuleDescriptionMessage(message.getModuleName(), message.getModuleXmlString()));
+			}
+		}
+	}
+	
+	private volatile ToolIndex index;
 	private File modulesDir = null;
+	private boolean modulesDirInArchive = false;
+	private WatchService watchService;
 	
 	
 	/**
@@ -45,26 +99,16 @@ public class Toolbox {
 		
 		
 		// load tools
-		loadModuleDescriptions();
+		this.index = new ToolIndex(loadModules(Collections.<ToolboxModule>emptyList()));
 	}
 
 	public ToolboxTool getTool(String id) {
-		
-		// Iterate over modules and return description if it is found
-		for (ToolboxModule module : modules) {
-			ToolboxTool tool = module.getTool(id);
-			if (tool != null) {
-				return tool;
-			}
-		}
-		
-		// Nothing was found
-		return null;
+		return index.tools.get(id);
 	}
 	
 	public List<ToolboxTool> getAll() {
 		List<ToolboxTool> list = new LinkedList<ToolboxTool>();
-		for (ToolboxModule module : modules) {
+		for (ToolboxModule module : index.modules) {
 			list.addAll(module.getAll());
 		}
 		
@@ -72,33 +116,123 @@ public class Toolbox {
 	}
 	
 	public List<ToolboxModule> getModules() {
-		return this.modules;
+		return index.modules;
 	}
 	
 	public ToolboxModule getModule(String name) {
-		for (ToolboxModule module : modules) {
-			if (module.getName().equals(name)) {
-				return module;
-			}
-		}
-		return null;
+		return index.modulesByName.get(name);
 	}
 	
 	
 	/**
 	 * @return a list of DescriptionMessages about available tool modules
-	 * that can be sent to client.
+	 * that can be sent to client. The messages are new instances, the caller 
+	 * may modify them.
 	 */
 	public List<ModuleDescriptionMessage> getModuleDescriptions() {
 		
 		LinkedList<ModuleDescriptionMessage> moduleDescriptions = new LinkedList<ModuleDescriptionMessage>();
 
-		for (ToolboxModule module : modules) {
-			moduleDescriptions.add(module.getModuleDescriptionMessage());
+		for (ModuleDescriptionMessage message : index.moduleDescriptions) {
+			moduleDescriptions.add(new ModuleDescriptionMessage(message.getModuleName(), message.getModuleXmlString()));
 		}
 		
 	    return moduleDescriptions;
 	}
+	
+	/**
+	 * Load the modules again and replace the current ones. If a module file can't be
+	 * loaded, its previous version is kept.
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void reload() throws IOException {
+		long t = System.currentTimeMillis();
+		this.index = new ToolIndex(loadModules(index.modules));
+		logger.info("tools reloaded in " + (System.currentTimeMillis() - t) + " ms");
+	}
+	
+	/**
+	 * Reload the modules on a background thread when the files in the modules dir change. 
+	 * Does nothing if the modules are in a tar package.
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void startWatching() throws IOException {
+		if (modulesDirInArchive) {
+			logger.info("modules are in a tar package, tools won't be reloaded when they change");
+			return;
+		}
+		if (watchService != null) {
+			return;
+		}
+		watchService = FileSystems.getDefault().newWatchService();
+		register(modulesDir);
+		
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				watch();
+			}
+		}, "chipster-toolbox-watcher");
+		thread.setDaemon(true);
+		thread.start();
+		logger.info("watching " + modulesDir + " for tool changes");
+	}
+	
+	/**
+	 * Stop watching the modules dir.
+	 */
+	public synchronized void close() {
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (IOException e) {
+				logger.warn("closing the watch service failed", e);
+			}
+			watchService = null;
+		}
+	}
+	
+	private void watch() {
+		WatchService watchService = this.watchService;
+		try {
+			while (true) {
+				WatchKey key = watchService.take();
+				
+				// collect the events until there is a quiet moment 
+				while (key != null) {
+					key.pollEvents();
+					key.reset();
+					key = watchService.poll(RELOAD_DELAY, TimeUnit.MILLISECONDS);
+				}
+				
+				logger.info("changes in " + modulesDir + ", reloading tools");
+				try {
+					reload();
+					// watch new directories too
+					register(modulesDir);
+				} catch (Exception e) {
+					logger.error("reloading tools failed", e);
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			logger.info("stopped watching " + modulesDir);
+		}
+	}
+	
+	private void register(File dir) throws IOException {
+		Path path = dir.toPath();
+		path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+		File[] children = dir.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				if (child.isDirectory()) {
+					register(child);
+				}
+			}
+		}
+	}
 
 	
 	/**
@@ -183,6 +317,7 @@ public class Toolbox {
 				File possibleModulesDir = new TFile(toolsDirInTar, MODULES_DIR_NAME);
 				if (possibleModulesDir.exists() && possibleModulesDir.isDirectory()) {
 					this.modulesDir = possibleModulesDir;
+					this.modulesDirInArchive = true;
 					logger.info("modules dir " + this.modulesDir + " found");
 				} else {
 					logger.info("modules dir " + possibleModulesDir + " not found");
@@ -194,13 +329,16 @@ public class Toolbox {
 	}
 
 	/**
-	 * Load all the tool modules in this toolbox. Put them to the modules list.
+	 * Load all the tool modules in this toolbox.
 	 * 
+	 * @param previousModules modules to use when loading a module file fails
+	 * @return loaded modules
 	 * @throws IOException
 	 */
-	private void loadModuleDescriptions() throws IOException {
+	private List<ToolboxModule> loadModules(List<ToolboxModule> previousModules) throws IOException {
 	
 		// Iterate over all module directories, and over all module files inside them
+		List<ToolboxModule> modules = new ArrayList<ToolboxModule>();
 		List<String> moduleLoadSummaries = new LinkedList<String>();
 		for (String moduleDirName : modulesDir.list()) {
 			TFile moduleDir = new TFile(modulesDir, moduleDirName);
@@ -222,7 +360,11 @@ public class Toolbox {
 								summary = module.getSummary();
 							} catch (Exception e) {
 								logger.warn("loading " + moduleFilename + " failed", e);
-								continue;
+								module = getModuleOfFile(previousModules, moduleFile);
+								if (module == null) {
+									continue;
+								}
+								summary = "kept previous version of " + moduleFilename + ": " + module.getSummary();
 							}
 							// Register the module
 							modules.add(module);
@@ -239,6 +381,17 @@ public class Toolbox {
 			logger.info(summary);
 		}
 		logger.info("------ tool summary ------ ");
+		
+		return modules;
+	}
+	
+	private static ToolboxModule getModuleOfFile(List<ToolboxModule> modules, File moduleFile) {
+		for (ToolboxModule module : modules) {
+			if (module.getModuleFile().equals(moduleFile)) {
+				return module;
+			}
+		}
+		return null;
 	}
 
 	/**
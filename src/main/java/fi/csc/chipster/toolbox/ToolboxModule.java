@@ -120,6 +120,10 @@ public class ToolboxModule {
 		return summary;
 	}
 
+	public File getModuleFile() {
+		return moduleFile;
+	}
+
 	
 	/**
 	 * Parses a module file and loads all tools listed in it.
@@ -210,6 +214,17 @@ public class ToolboxModule {
 		    		continue;
 		    	}
 
+		    	// Tool resources (cores and memory in megabytes), comp uses its defaults if not set
+		    	int cpu;
+		    	int memory;
+		    	try {
+		    		cpu = parseResourceAttribute(toolElement, "cpu");
+		    		memory = parseResourceAttribute(toolElement, "memory");
+		    	} catch (NumberFormatException e) {
+		    		logger.warn("not loading " + resource + ": cpu or memory is not a positive integer");
+		    		continue;
+		    	}
+
 		    	// Tool module
 		    	File toolModuleDir;
 		    	String nonDefaultModuleName = toolElement.getAttribute("module");
@@ -307,6 +322,8 @@ public class ToolboxModule {
 		    	// Register the tool, override existing
 		    	
 		    	ToolboxTool toolboxTool = new ToolboxTool(toolId, sadlDescription, parsedScript.SADL, parsedScript.code, parsedScript.source, resource, moduleDir.getName(), runtimeName);
+		    	toolboxTool.setCpu(cpu);
+		    	toolboxTool.setMemory(memory);
 		    	tools.put(toolId, toolboxTool);
 		    	successfullyLoadedCount++;
 
@@ -331,6 +348,22 @@ public class ToolboxModule {
 		logger.info(summary);
 	}
 
+	/**
+	 * @return value of the attribute or 0 if the attribute isn't set
+	 * @throws NumberFormatException if the value isn't a positive integer
+	 */
+	private int parseResourceAttribute(Element toolElement, String name) {
+		String value = toolElement.getAttribute(name);
+		if (value == null || value.isEmpty()) {
+			return 0;
+		}
+		int intValue = Integer.parseInt(value.trim());
+		if (intValue <= 0) {
+			throw new NumberFormatException(name + " must be positive: " + value);
+		}
+		return intValue;
+	}
+
 	public String getName() {
 		return this.moduleName;
 	}
@@ -13,6 +13,10 @@ public class ToolboxTool {
 	private String resourceName;
 	private String module;
 	private String runtime;
+	
+	// resources needed by the tool, 0 if not declared
+	private int cpu;
+	private int memory;
 
 	public ToolboxTool() {
 	}
@@ -59,5 +63,27 @@ public class ToolboxTool {
 	public String getModule() {
 		return module;
 	}
+
+	/**
+	 * @return number of processor cores needed by the tool or 0 if not declared
+	 */
+	public int getCpu() {
+		return cpu;
+	}
+
+	public void setCpu(int cpu) {
+		this.cpu = cpu;
+	}
+
+	/**
+	 * @return memory needed by the tool in megabytes or 0 if not declared
+	 */
+	public int getMemory() {
+		return memory;
+	}
+
+	public void setMemory(int memory) {
+		this.memory = memory;
+	}
 	
 }
@@ -0,0 +1,479 @@
+package fi.csc.microarray.client.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * <p>Writes session zip files using several threads. The content of an entry is read in blocks,
+ * which are deflated in parallel like pigz does: each block is compressed with the end of the
+ * previous block as a preset dictionary and flushed to a byte boundary, so that the compressed
+ * blocks form one continuous deflate stream. Content that is already compressed is stored
+ * without compression. The calling thread reads the input (and calculates its checksums)
+ * while the previous blocks are being compressed.</p>
+ *
+ * <p>Local headers are written before the content and updated when the entry is complete.
+ * When the output is a file, the headers are updated in place. Otherwise the whole zip is kept
+ * in memory until {@link #finish()}, which is fine for sessions without data. Zip64 extensions
+ * are used for large entries and large files.</p>
+ */
+public class ParallelZipWriter {
+
+	private static final int BLOCK_SIZE = 512 * 1024;
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+
+	private static final int STORED = 0;
+	private static final int DEFLATED = 8;
+
+	private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+	/**
+	 * Reserve zip64 fields in the local header for entries larger than this, because deflating
+	 * incompressible data makes it slightly larger.
+	 */
+	private static final long ZIP64_LOCAL_THRESHOLD = ZIP64_LIMIT - 64 * 1024 * 1024;
+
+	private static final int VERSION = 20;
+	private static final int VERSION_ZIP64 = 45;
+	private static final int FLAG_UTF8 = 1 << 11;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private enum ChunkType { HEADER, DATA, END }
+
+	private static class Entry {
+		byte[] name;
+		int method;
+		boolean zip64Local;
+		long offset;
+		long crc;
+		long size;
+		long compressedSize;
+	}
+
+	private static class Chunk {
+		Entry entry;
+		ChunkType type;
+		byte[] bytes;
+		Future<byte[]> compressedBytes;
+
+		Chunk(Entry entry, ChunkType type, byte[] bytes, Future<byte[]> compressedBytes) {
+			this.entry = entry;
+			this.type = type;
+			this.bytes = bytes;
+			this.compressedBytes = compressedBytes;
+		}
+	}
+
+	/**
+	 * Allows updating of the bytes that are already written.
+	 */
+	private static class PatchableBuffer extends ByteArrayOutputStream {
+		public void patch(int position, byte[] bytes) {
+			System.arraycopy(bytes, 0, buf, position, bytes.length);
+		}
+	}
+
+	private OutputStream out;
+	private FileChannel channel;
+	private PatchableBuffer buffer;
+	private long position;
+
+	private int level;
+	private int dosTime = toDosTime(System.currentTimeMillis());
+	private ExecutorService executor;
+	private int maxPendingChunks;
+	private LinkedList<Chunk> pendingChunks = new LinkedList<Chunk>();
+	private List<Entry> entries = new ArrayList<Entry>();
+
+	/**
+	 * @param out output, which is written through its channel if it's a FileOutputStream
+	 * @param level compression level, see {@link Deflater}
+	 */
+	public ParallelZipWriter(OutputStream out, int level) throws IOException {
+		this(out, level, Runtime.getRuntime().availableProcessors());
+	}
+
+	public ParallelZipWriter(OutputStream out, int level, int threads) throws IOException {
+		this.out = out;
+		this.level = level;
+
+		if (out instanceof FileOutputStream) {
+			this.channel = ((FileOutputStream) out).getChannel();
+			this.position = channel.position();
+		} else {
+			this.buffer = new PatchableBuffer();
+		}
+
+		this.maxPendingChunks = threads * 4;
+		this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private AtomicInteger threadNumber = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "session-zip-writer-" + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Write an entry. The input is read to the end, but not closed.
+	 *
+	 * @param compress false if the content is already compressed
+	 * @param sizeHint expected size of the content or -1 if not known
+	 */
+	public void putEntry(String name, InputStream in, boolean compress, long sizeHint) throws IOException {
+
+		Entry entry = new Entry();
+		entry.name = name.getBytes(UTF8);
+		entry.method = compress ? DEFLATED : STORED;
+		entry.zip64Local = sizeHint < 0 || sizeHint >= ZIP64_LOCAL_THRESHOLD;
+		entries.add(entry);
+
+		queue(new Chunk(entry, ChunkType.HEADER, createLocalHeader(entry), null));
+
+		CRC32 crc = new CRC32();
+		long size = 0;
+		byte[] previous = null;
+		byte[] block = readBlock(in);
+
+		while (true) {
+			crc.update(block);
+			size += block.length;
+
+			// a short block is the last one, but a full block may be followed by an empty one
+			byte[] next = block.length < BLOCK_SIZE ? null : readBlock(in);
+			boolean last = next == null || next.length == 0;
+
+			if (compress) {
+				queue(new Chunk(entry, ChunkType.DATA, null, executor.submit(new DeflateTask(block, previous, last))));
+			} else {
+				queue(new Chunk(entry, ChunkType.DATA, block, null));
+			}
+
+			if (last) {
+				break;
+			}
+			previous = block;
+			block = next;
+		}
+
+		entry.crc = crc.getValue();
+		entry.size = size;
+		queue(new Chunk(entry, ChunkType.END, null, null));
+	}
+
+	public void putEntry(String name, byte[] content) throws IOException {
+		putEntry(name, new ByteArrayInputStream(content), true, content.length);
+	}
+
+	/**
+	 * Write the remaining content and the central directory. Doesn't close the output.
+	 */
+	public void finish() throws IOException {
+		while (!pendingChunks.isEmpty()) {
+			write(pendingChunks.removeFirst());
+		}
+
+		long directoryOffset = position;
+		for (Entry entry : entries) {
+			write(createCentralDirectoryHeader(entry));
+		}
+		long directorySize = position - directoryOffset;
+
+		boolean zip64 = entries.size() >= 0xFFFF || directoryOffset >= ZIP64_LIMIT || directorySize >= ZIP64_LIMIT;
+		if (zip64) {
+			long zip64EndOffset = position;
+
+			ByteBuffer zip64End = allocate(56 + 20);
+			zip64End.putInt(0x06064b50);
+			zip64End.putLong(44);
+			zip64End.putShort((short) VERSION_ZIP64);
+			zip64End.putShort((short) VERSION_ZIP64);
+			zip64End.putInt(0);
+			zip64End.putInt(0);
+			zip64End.putLong(entries.size());
+			zip64End.putLong(entries.size());
+			zip64End.putLong(directorySize);
+			zip64End.putLong(directoryOffset);
+
+			// locator
+			zip64End.putInt(0x07064b50);
+			zip64End.putInt(0);
+			zip64End.putLong(zip64EndOffset);
+			zip64End.putInt(1);
+			write(zip64End.array());
+		}
+
+		ByteBuffer end = allocate(22);
+		end.putInt(0x06054b50);
+		end.putShort((short) 0);
+		end.putShort((short) 0);
+		end.putShort((short) Math.min(entries.size(), 0xFFFF));
+		end.putShort((short) Math.min(entries.size(), 0xFFFF));
+		end.putInt((int) Math.min(directorySize, ZIP64_LIMIT));
+		end.putInt((int) Math.min(directoryOffset, ZIP64_LIMIT));
+		end.putShort((short) 0);
+		write(end.array());
+
+		if (buffer != null) {
+			buffer.writeTo(out);
+		}
+	}
+
+	/**
+	 * Stop the compression threads. Call always, also when writing fails.
+	 */
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	private void queue(Chunk chunk) throws IOException {
+		pendingChunks.add(chunk);
+		while (pendingChunks.size() > maxPendingChunks) {
+			write(pendingChunks.removeFirst());
+		}
+	}
+
+	private void write(Chunk chunk) throws IOException {
+		Entry entry = chunk.entry;
+
+		switch (chunk.type) {
+		case HEADER:
+			entry.offset = position;
+			write(chunk.bytes);
+			break;
+
+		case DATA:
+			byte[] bytes = chunk.bytes;
+			if (chunk.compressedBytes != null) {
+				try {
+					bytes = chunk.compressedBytes.get();
+				} catch (InterruptedException e) {
+					throw new IOException("interrupted while compressing " + new String(entry.name, UTF8), e);
+				} catch (ExecutionException e) {
+					throw new IOException("compression of " + new String(entry.name, UTF8) + " failed", e.getCause());
+				}
+			}
+			entry.compressedSize += bytes.length;
+			write(bytes);
+			break;
+
+		case END:
+			updateLocalHeader(entry);
+			break;
+		}
+	}
+
+	private void write(byte[] bytes) throws IOException {
+		if (channel != null) {
+			ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+			while (byteBuffer.hasRemaining()) {
+				channel.write(byteBuffer);
+			}
+		} else {
+			buffer.write(bytes);
+		}
+		position += bytes.length;
+	}
+
+	private void patch(long patchPosition, byte[] bytes) throws IOException {
+		if (channel != null) {
+			ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+			while (byteBuffer.hasRemaining()) {
+				channel.write(byteBuffer, patchPosition + byteBuffer.position());
+			}
+		} else {
+			buffer.patch((int) patchPosition, bytes);
+		}
+	}
+
+	private byte[] createLocalHeader(Entry entry) {
+		ByteBuffer header = allocate(30 + entry.name.length + (entry.zip64Local ? 20 : 0));
+		header.putInt(0x04034b50);
+		header.putShort((short) (entry.zip64Local ? VERSION_ZIP64 : VERSION));
+		header.putShort((short) FLAG_UTF8);
+		header.putShort((short) entry.method);
+		header.putInt(dosTime);
+		// crc and sizes are updated when the entry is complete
+		header.putInt(0);
+		header.putInt(0);
+		header.putInt(0);
+		header.putShort((short) entry.name.length);
+		header.putShort((short) (entry.zip64Local ? 20 : 0));
+		header.put(entry.name);
+		if (entry.zip64Local) {
+			header.putShort((short) 0x0001);
+			header.putShort((short) 16);
+			header.putLong(0);
+			header.putLong(0);
+		}
+		return header.array();
+	}
+
+	private void updateLocalHeader(Entry entry) throws IOException {
+		if (!entry.zip64Local && (entry.size >= ZIP64_LIMIT || entry.compressedSize >= ZIP64_LIMIT)) {
+			throw new ZipException("entry " + new String(entry.name, UTF8) + " is larger than expected: " + entry.size + " bytes");
+		}
+
+		ByteBuffer fields = allocate(12);
+		fields.putInt((int) entry.crc);
+		fields.putInt((int) (entry.zip64Local ? ZIP64_LIMIT : entry.compressedSize));
+		fields.putInt((int) (entry.zip64Local ? ZIP64_LIMIT : entry.size));
+		patch(entry.offset + 14, fields.array());
+
+		if (entry.zip64Local) {
+			ByteBuffer extra = allocate(16);
+			extra.putLong(entry.size);
+			extra.putLong(entry.compressedSize);
+			patch(entry.offset + 30 + entry.name.length + 4, extra.array());
+		}
+	}
+
+	private byte[] createCentralDirectoryHeader(Entry entry) {
+		boolean zip64Size = entry.size >= ZIP64_LIMIT;
+		boolean zip64CompressedSize = entry.compressedSize >= ZIP64_LIMIT;
+		boolean zip64Offset = entry.offset >= ZIP64_LIMIT;
+		int zip64Length = (zip64Size ? 8 : 0) + (zip64CompressedSize ? 8 : 0) + (zip64Offset ? 8 : 0);
+		int extraLength = zip64Length > 0 ? 4 + zip64Length : 0;
+		boolean zip64 = entry.zip64Local || zip64Length > 0;
+
+		ByteBuffer header = allocate(46 + entry.name.length + extraLength);
+		header.putInt(0x02014b50);
+		header.putShort((short) VERSION_ZIP64);
+		header.putShort((short) (zip64 ? VERSION_ZIP64 : VERSION));
+		header.putShort((short) FLAG_UTF8);
+		header.putShort((short) entry.method);
+		header.putInt(dosTime);
+		header.putInt((int) entry.crc);
+		header.putInt((int) Math.min(entry.compressedSize, ZIP64_LIMIT));
+		header.putInt((int) Math.min(entry.size, ZIP64_LIMIT));
+		header.putShort((short) entry.name.length);
+		header.putShort((short) extraLength);
+		header.putShort((short) 0); // comment
+		header.putShort((short) 0); // disk
+		header.putShort((short) 0); // internal attributes
+		header.putInt(0); // external attributes
+		header.putInt((int) Math.min(entry.offset, ZIP64_LIMIT));
+		header.put(entry.name);
+		if (zip64Length > 0) {
+			header.putShort((short) 0x0001);
+			header.putShort((short) zip64Length);
+			if (zip64Size) {
+				header.putLong(entry.size);
+			}
+			if (zip64CompressedSize) {
+				header.putLong(entry.compressedSize);
+			}
+			if (zip64Offset) {
+				header.putLong(entry.offset);
+			}
+		}
+		return header.array();
+	}
+
+	/**
+	 * @return next block, shorter than BLOCK_SIZE only at the end of the stream
+	 */
+	private static byte[] readBlock(InputStream in) throws IOException {
+		byte[] block = new byte[BLOCK_SIZE];
+		int length = 0;
+		int read;
+		while (length < BLOCK_SIZE && (read = in.read(block, length, BLOCK_SIZE - length)) != -1) {
+			length += read;
+		}
+		if (length < BLOCK_SIZE) {
+			byte[] shortBlock = new byte[length];
+			System.arraycopy(block, 0, shortBlock, 0, length);
+			return shortBlock;
+		}
+		return block;
+	}
+
+	private static ByteBuffer allocate(int size) {
+		return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static int toDosTime(long time) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(time);
+		int year = calendar.get(Calendar.YEAR);
+		if (year < 1980) {
+			return (1 << 21) | (1 << 16);
+		}
+		return (year - 1980) << 25
+				| (calendar.get(Calendar.MONTH) + 1) << 21
+				| calendar.get(Calendar.DAY_OF_MONTH) << 16
+				| calendar.get(Calendar.HOUR_OF_DAY) << 11
+				| calendar.get(Calendar.MINUTE) << 5
+				| calendar.get(Calendar.SECOND) >> 1;
+	}
+
+	private class DeflateTask implements Callable<byte[]> {
+
+		private byte[] block;
+		private byte[] previousBlock;
+		private boolean last;
+
+		public DeflateTask(byte[] block, byte[] previousBlock, boolean last) {
+			this.block = block;
+			this.previousBlock = previousBlock;
+			this.last = last;
+		}
+
+		@Override
+		public byte[] call() throws Exception {
+			Deflater deflater = new Deflater(level, true);
+			try {
+				if (previousBlock != null) {
+					// the decompressor has seen the previous block, so back-references to it are fine
+					deflater.setDictionary(previousBlock, previousBlock.length - DICTIONARY_SIZE, DICTIONARY_SIZE);
+				}
+				deflater.setInput(block);
+
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream(block.length / 2 + 64);
+				byte[] buffer = new byte[64 * 1024];
+				int length;
+				if (last) {
+					deflater.finish();
+					while (!deflater.finished()) {
+						length = deflater.deflate(buffer);
+						compressed.write(buffer, 0, length);
+					}
+				} else {
+					// flush to a byte boundary without ending the stream
+					do {
+						length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+						compressed.write(buffer, 0, length);
+					} while (length == buffer.length);
+				}
+				return compressed.toByteArray();
+
+			} finally {
+				deflater.end();
+			}
+		}
+	}
+}
@@ -21,6 +21,7 @@ public class SessionLoader {
 	private String sessionId;
 	private boolean isDatalessSession;
 	private Integer xOffset;
+	private boolean lazy = false;
 	private String sessionNotes;
 	private List<OperationRecord> unfinishedJobs;
 
@@ -79,6 +80,7 @@ public class SessionLoader {
 				impl = new SessionLoaderImpl2(sessionId, dataManager, isDatalessSession);
 			}
 			impl.setXOffset(xOffset);
+			impl.setLazy(lazy);
 			impl.loadSession();
 			sessionNotes = impl.getSessionNotes();
 			unfinishedJobs = impl.getUnfinishedOperations();
@@ -89,6 +91,14 @@ public class SessionLoader {
 		this.xOffset = xOffset;
 	}
 
+	/**
+	 * Open the session without reading or checking the dataset contents. The contents are
+	 * checked when they are used for the first time. Not supported for the old session format.
+	 */
+	public void setLazy(boolean lazy) {
+		this.lazy = lazy;
+	}
+
 	public String getSessionNotes() {
 		return this.sessionNotes;
 	}
@@ -9,8 +9,11 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipInputStream;
@@ -81,6 +84,12 @@ public class SessionLoaderImpl2 {
 
 
 	private String sessionNotes;
+	
+	/**
+	 * Open the session without touching the contents of the datasets. Content locations 
+	 * are checked and type tags added only when the dataset is used for the first time.
+	 */
+	private boolean lazy = false;
 
 
 	public SessionLoaderImpl2(File sessionFile, DataManager dataManager, boolean isDatalessSession) {
@@ -240,7 +249,13 @@ public class SessionLoaderImpl2 {
 						url = new URL(sessionFile.toURI().toURL(), "#" + url.getRef());
 					}
 
-					dataManager.addContentLocationForDataBean(dataBean, StorageMethod.valueOfConverted(location.getMethod()), url);
+					StorageMethod method = StorageMethod.valueOfConverted(location.getMethod());
+					if (lazy && dataType.getSize() != null) {
+						// content length is compared to the size in metadata when the location is used
+						dataManager.addUnverifiedContentLocationForDataBean(dataBean, method, url);
+					} else {
+						dataManager.addContentLocationForDataBean(dataBean, method, url);
+					}
 				}
 				
 				// Set file size from metadata. If there are external
@@ -281,7 +296,43 @@ public class SessionLoaderImpl2 {
 	}
 
 	
+	/**
+	 * Ask the sizes of the beans that are only in the filebroker with a single request. Otherwise 
+	 * the type tagging would ask them one by one.
+	 */
+	private void fetchContentLengths() {
+		
+		List<String> dataIds = new LinkedList<String>();
+		for (DataBean dataBean : dataBeans.values()) {
+			if (dataBean.getSize() == null && dataManager.getContentLocationsForDataBeanSaving(dataBean).isEmpty()) {
+				dataIds.add(dataBean.getId());
+			}
+		}
+		
+		if (dataIds.isEmpty()) {
+			return;
+		}
+		
+		try {
+			FileBrokerClient fileBrokerClient = Session.getSession().getServiceAccessor().getFileBrokerClient();
+			Map<String, Long> contentLengths = fileBrokerClient.getContentLengths(dataIds);
+			
+			for (DataBean dataBean : dataBeans.values()) {
+				Long contentLength = contentLengths.get(dataBean.getId());
+				if (contentLength != null) {
+					dataBean.setSize(contentLength);
+				}
+			}
+		} catch (Exception e) {
+			// not fatal, sizes will be asked later one by one
+			logger.warn("could not get content lengths from the filebroker", e);
+		}
+	}
+	
 	private void createOperations() {
+		
+		Map<String, String> sourceCodes = readSourceCodes();
+		
 		for (OperationType operationType : sessionType.getOperation()) {
 			String operationSessionId = operationType.getId();
 
@@ -314,10 +365,8 @@ public class SessionLoaderImpl2 {
 			// source code
 			String sourceCodeFileName = operationType.getSourceCodeFile();
 			if (sourceCodeFileName != null && !sourceCodeFileName.isEmpty()) {
-				String sourceCode = null;
-				try {
-					sourceCode = getSourceCode(sourceCodeFileName);
-				} catch (Exception e) {
+				String sourceCode = sourceCodes.get(sourceCodeFileName);
+				if (sourceCode == null) {
 					logger.warn("could not load source code from " + sourceCodeFileName);
 				}
 
@@ -395,7 +444,7 @@ public class SessionLoaderImpl2 {
 		}
 		
 		// connect children in parallel
-		dataManager.connectChildren(children, parent);
+		dataManager.connectChildren(children, parent, !lazy);
 		
 		for (DataFolder folder : folders) {
 			linkDataItemChildren(folder);
@@ -514,22 +563,67 @@ public class SessionLoaderImpl2 {
 		return new NameID(name.getId(), name.getDisplayName(), name.getDescription());
 	}
 
-	private String getSourceCode(String sourceCodeFileName) throws Exception {
-		InputStream sourceCodeInputStream = null;
-		StringWriter stringWriter = null;
-		try {			
-			sourceCodeInputStream = getStreamOfZipEntry(sourceCodeFileName);
-
-			stringWriter = new StringWriter();
-			IOUtils.copy(sourceCodeInputStream, new WriterOutputStream(stringWriter));
-			stringWriter.flush();
+	/**
+	 * Read the source codes of all operations with a single pass over the session file. 
+	 * Opening the file for each operation is slow for large sessions and remote sessions 
+	 * would be downloaded again for each operation.
+	 * 
+	 * @return source codes by the entry name, missing source codes are logged and left out
+	 */
+	private Map<String, String> readSourceCodes() {
+		
+		HashSet<String> entryNames = new HashSet<String>();
+		for (OperationType operationType : sessionType.getOperation()) {
+			String sourceCodeFileName = operationType.getSourceCodeFile();
+			if (sourceCodeFileName != null && !sourceCodeFileName.isEmpty()) {
+				entryNames.add(sourceCodeFileName);
+			}
 		}
-		finally {
+		
+		HashMap<String, String> sourceCodes = new HashMap<String, String>();
+		if (entryNames.isEmpty()) {
+			return sourceCodes;
+		}
+		
+		try {
+			if (sessionFile != null) {
+				zipFile = new ZipFile(sessionFile);
+				for (String entryName : entryNames) {
+					InputStream entryStream = zipFile.getInputStream(entryName);
+					if (entryStream != null) {
+						try {
+							sourceCodes.put(entryName, readString(entryStream));
+						} finally {
+							IOUtils.closeIfPossible(entryStream);
+						}
+					}
+				}
+				
+			} else if (sessionId != null) {
+				FileBrokerClient fileBrokerClient = Session.getSession().getServiceAccessor().getFileBrokerClient();
+				zipStream = new ZipInputStream(fileBrokerClient.getInputStream(sessionId));
+				ZipEntry entry;
+				while ((entry = zipStream.getNextEntry()) != null) {
+					if (entryNames.contains(entry.getName())) {
+						sourceCodes.put(entry.getName(), readString(zipStream));
+					}
+				}
+			}
+		} catch (Exception e) {
+			logger.warn("could not load source codes", e);
+		} finally {
 			ZipUtils.closeIfPossible(zipFile);
 			IOUtils.closeIfPossible(zipStream);
-			IOUtils.closeIfPossible(stringWriter);
 		}
 
+		return sourceCodes;
+	}
+
+	private String readString(InputStream in) throws IOException {
+		StringWriter stringWriter = new StringWriter();
+		WriterOutputStream out = new WriterOutputStream(stringWriter);
+		IOUtils.copy(in, out);
+		out.flush();
 		return stringWriter.toString();
 	}
 
@@ -541,6 +635,7 @@ public class SessionLoaderImpl2 {
 		// create the basic objects from the jaxb classes 
 		createFolders();
 		createDataBeans();
+		fetchContentLengths();
 		createOperations();
 		linkOperationsToOutputs();
 				
@@ -556,6 +651,10 @@ public class SessionLoaderImpl2 {
 		this.xOffset = xOffset;
 	}
 	
+	public void setLazy(boolean lazy) {
+		this.lazy = lazy;
+	}
+	
 	public String getSessionNotes() {
 		return this.sessionNotes;
 	}
@@ -7,8 +7,11 @@ import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 import javax.swing.Timer;
@@ -22,8 +25,11 @@ import fi.csc.microarray.client.dialog.DialogInfo.Severity;
 import fi.csc.microarray.client.operation.OperationRecord;
 import fi.csc.microarray.client.tasks.TaskExecutor;
 import fi.csc.microarray.config.DirectoryLayout;
+import fi.csc.microarray.databeans.ContentChangedEvent;
+import fi.csc.microarray.databeans.DataBean;
 import fi.csc.microarray.databeans.DataChangeEvent;
 import fi.csc.microarray.databeans.DataChangeListener;
+import fi.csc.microarray.databeans.DataItemCreatedEvent;
 import fi.csc.microarray.databeans.DataManager;
 import fi.csc.microarray.filebroker.DbSession;
 import fi.csc.microarray.filebroker.DerbyMetadataServer;
@@ -69,6 +75,18 @@ public class SessionManager {
 	private String sessionNotes;
 	private String currentSessionName;
 	private String currentRemoteSession;
+	
+	/**
+	 * The storage session saved last and the datasets linked to it, so that the next save of 
+	 * the same session can send only the changes. 
+	 */
+	private String storedSessionId;
+	private String storedSessionName;
+	private Set<String> storedDataIds;
+	/**
+	 * Datasets created or changed after the last save of a storage session.
+	 */
+	private Set<String> changedDataIds = Collections.synchronizedSet(new HashSet<String>());
 
 	protected boolean unsavedChanges = false;
 	protected boolean unbackuppedChanges = false;
@@ -108,6 +126,11 @@ public class SessionManager {
 			public void dataChanged(DataChangeEvent event) {
 				unsavedChanges = true;
 				unbackuppedChanges = true;
+				
+				if (event.getDataItem() instanceof DataBean && 
+						(event instanceof DataItemCreatedEvent || event instanceof ContentChangedEvent)) {
+					changedDataIds.add(((DataBean) event.getDataItem()).getId());
+				}
 			}
 		});
 
@@ -217,6 +240,7 @@ public class SessionManager {
 	private void loadSession(SessionLoader sessionLoader, Integer xOffset)
 			throws Exception {
 		sessionLoader.setXOffset(xOffset);
+		sessionLoader.setLazy(isLazySessionLoadingEnabled());
 		sessionLoader.loadSession();
 		// set session notes directly to field because this doesn't trigger
 		// unsaved changes
@@ -280,17 +304,72 @@ public class SessionManager {
 		return buffer.toString();
 	}
 
+	/**
+	 * Save a storage session. If the same session was saved previously, only the changed 
+	 * datasets are uploaded and only the changes in the dataset list are sent to the file broker. 
+	 */
 	public String saveStorageSession(String name) throws Exception {
 
 		String sessionId = CryptoKey.generateRandom();
 		SessionSaver sessionSaver = new SessionSaver(sessionId, dataManager);
 		sessionSaver.setSessionNotes(sessionNotes);
 		sessionSaver.setUnfinishedJobs(callback.getUnfinishedJobs());
-		// upload/move data files and upload metadata files, if needed
-		LinkedList<String> dataIds = sessionSaver.saveStorageSession();
+		
+		boolean isUpdate = storedSessionId != null && storedSessionId.equals(currentRemoteSession) && name.equals(storedSessionName);
+		
+		// changes after this point will be saved next time
+		Set<String> changed;
+		synchronized (changedDataIds) {
+			changed = new HashSet<String>(changedDataIds);
+			changedDataIds.clear();
+		}
+		
+		LinkedList<String> dataIds;
+		try {
+			if (isUpdate) {
+				Set<String> unchanged = new HashSet<String>(storedDataIds);
+				unchanged.removeAll(changed);
+				// upload/move only changed data files and upload metadata files, if needed
+				dataIds = sessionSaver.saveStorageSession(unchanged);
+
+				List<String> added = new LinkedList<String>();
+				for (String dataId : dataIds) {
+					if (!storedDataIds.contains(dataId)) {
+						added.add(dataId);
+					}
+				}
+				List<String> removed = new LinkedList<String>(storedDataIds);
+				removed.removeAll(dataIds);
+				
+				try {
+					// replace the previous revision in the file broker database
+					fileBrokerClient.updateRemoteSession(name, storedSessionId, sessionId, added, removed);
+				} catch (FileBrokerException e) {
+					logger.warn("updating session " + name + " failed, saving it again", e);
+					// the failed update may have used the session id already, write the metadata with a new one
+					sessionId = CryptoKey.generateRandom();
+					sessionSaver = new SessionSaver(sessionId, dataManager);
+					sessionSaver.setSessionNotes(sessionNotes);
+					sessionSaver.setUnfinishedJobs(callback.getUnfinishedJobs());
+					sessionSaver.saveStorageSession(new HashSet<String>(dataIds));
+					fileBrokerClient.saveRemoteSession(name, sessionId, dataIds);
+				}
+				
+			} else {
+				// upload/move data files and upload metadata files, if needed
+				dataIds = sessionSaver.saveStorageSession();
 
-		// add metadata to file broker database (make session visible)
-		fileBrokerClient.saveRemoteSession(name, sessionId, dataIds);
+				// add metadata to file broker database (make session visible)
+				fileBrokerClient.saveRemoteSession(name, sessionId, dataIds);
+			}
+		} catch (Exception e) {
+			changedDataIds.addAll(changed);
+			throw e;
+		}
+		
+		storedSessionId = sessionId;
+		storedSessionName = name;
+		storedDataIds = new HashSet<String>(dataIds);
 
 		return sessionId;
 	}
@@ -411,6 +490,11 @@ public class SessionManager {
 		return conf || specialUser;
 	}
 
+	private boolean isLazySessionLoadingEnabled() {
+		return DirectoryLayout.getInstance().getConfiguration()
+				.getBoolean("client", "lazy-session-loading");
+	}
+
 	public void restoreSessionAndWait(File file) {
 		loadSessionAndWait(file, null, true, true, false, 0);
 	}
@@ -1,20 +1,22 @@
 package fi.csc.microarray.client.session;
 
-import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.zip.Deflater;
 
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
@@ -26,8 +28,6 @@ import org.apache.log4j.Logger;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
-import de.schlichtherle.truezip.zip.ZipEntry;
-import de.schlichtherle.truezip.zip.ZipOutputStream;
 import fi.csc.microarray.client.NameID;
 import fi.csc.microarray.client.Session;
 import fi.csc.microarray.client.operation.OperationRecord;
@@ -68,7 +68,10 @@ public class SessionSaver {
 	private static final Logger logger = Logger.getLogger(SessionSaver.class);
 
 	
-	private final int DATA_BLOCK_SIZE = 64*1024;
+	private static final List<String> COMPRESSED_CONTENT_TYPES = Arrays.asList(new String[] {
+			"application/gzip", "application/bam", "image/png", "image/jpeg", "application/pdf" });
+	private static final String[] COMPRESSED_EXTENSIONS = new String[] {
+			".gz", ".bgz", ".bz2", ".xz", ".zip", ".bam", ".cram", ".png", ".jpg", ".jpeg" };
 	
 	private File sessionFile;
 	private String sessionId;
@@ -154,29 +157,38 @@ public class SessionSaver {
 		return saveRemoteSession(FileBrokerArea.STORAGE);
 	}
 
+	/**
+	 * Save a new revision of a storage session.
+	 * 
+	 * @param unchangedDataIds datasets that are stored already and haven't changed since, 
+	 * these are not uploaded or checked
+	 * @return dataIds of all datasets in the session
+	 */
+	public LinkedList<String> saveStorageSession(Set<String> unchangedDataIds) throws Exception {
+		return saveRemoteSession(FileBrokerArea.STORAGE, unchangedDataIds);
+	}
+
 	public LinkedList<String> saveRemoteSession(FileBrokerArea area) throws Exception {
-		// move data bean contents to filebroker
+		return saveRemoteSession(area, Collections.<String>emptySet());
+	}
+
+	private LinkedList<String> saveRemoteSession(FileBrokerArea area, Set<String> unchangedDataIds) throws Exception {
+		// move data bean contents to filebroker, asking availability and urls of all beans at once
 		LinkedList<String> dataIds = new LinkedList<String>();
 		
+		List<DataBean> changedBeans = new LinkedList<DataBean>();
 		for (DataBean dataBean : dataManager.databeans()) {
-			
-			boolean success;
-			switch(area) {
-			case STORAGE:
-				success = dataManager.uploadToStorageIfNeeded(dataBean);
-				break;
-			case CACHE:
-				success = dataManager.uploadToCacheIfNeeded(dataBean, null);
-				break;
-			default:
-				throw new IllegalArgumentException("unknown filebroker area");
-			}
-				
-			if (success) {
-				dataIds.add(dataBean.getId());				
+			if (unchangedDataIds.contains(dataBean.getId())) {
+				dataIds.add(dataBean.getId());
+			} else {
+				changedBeans.add(dataBean);
 			}
 		}
 		
+		for (DataBean dataBean : dataManager.uploadIfNeeded(changedBeans, area)) {
+			dataIds.add(dataBean.getId());
+		}
+		
 		// save metadata
 		gatherMetadata(false, true);		
 		writeRemoteSession(area);
@@ -322,36 +334,29 @@ public class SessionSaver {
 
 	private void writeSessionContents(boolean saveData, OutputStream out) throws Exception {
 
-		ZipOutputStream zipOutputStream = null;
+		ParallelZipWriter zipWriter = new ParallelZipWriter(out, Deflater.BEST_SPEED); // quite slow with bigger values
 		try {	
-			zipOutputStream = new ZipOutputStream(new BufferedOutputStream(out));
-			zipOutputStream.setLevel(1); // quite slow with bigger values														
-
 			// save meta data
-			ZipEntry sessionDataZipEntry = new ZipEntry(UserSession.SESSION_DATA_FILENAME);
-			zipOutputStream.putNextEntry(sessionDataZipEntry);
+			ByteArrayOutputStream metadata = new ByteArrayOutputStream();
 			Marshaller marshaller = UserSession.getJAXBContext().createMarshaller();
 			marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
 			// TODO disable validation
 			marshaller.setEventHandler(new NonStoppingValidationEventHandler());
-			marshaller.marshal(factory.createSession(sessionType), zipOutputStream);
-			zipOutputStream.closeEntry();							
+			marshaller.marshal(factory.createSession(sessionType), metadata);
+			zipWriter.putEntry(UserSession.SESSION_DATA_FILENAME, metadata.toByteArray());
 
 			// save data bean contents
 			if (saveData) {
-				writeDataBeanContentsToZipFile(zipOutputStream);
+				writeDataBeanContentsToZipFile(zipWriter);
 			}
 			
 			// save source codes
-			writeSourceCodesToZip(zipOutputStream);
+			writeSourceCodesToZip(zipWriter);
 			
-			// close the zip stream
-			zipOutputStream.close();
-		} 
-		
-		catch (Exception e) {
-			IOUtils.closeIfPossible(zipOutputStream);
-			throw e;
+			// write the central directory
+			zipWriter.finish();
+		} finally {
+			zipWriter.close();
 		}
 	}
 
@@ -657,7 +662,11 @@ public class SessionSaver {
 		return "source-code-" + sourceCodeEntryCounter++ + "-" + prefix + ".txt";
 	}
 	
-	private void writeDataBeanContentsToZipFile(ZipOutputStream zipOutputStream) throws IOException {
+	/**
+	 * Contents of the beans are read one at a time, but the zip writer compresses them with 
+	 * several threads. Already compressed contents are stored without compression.
+	 */
+	private void writeDataBeanContentsToZipFile(ParallelZipWriter zipWriter) throws IOException {
 		for (Entry<DataBean, URL> entry : this.newURLs.entrySet()) {
 			DataBean bean = entry.getKey();
 			URL url = entry.getValue();
@@ -669,7 +678,7 @@ public class SessionSaver {
 
 			// write bean contents to zip
 			try (ChecksumInputStream in = Session.getSession().getDataManager().getContentStream(entry.getKey(), DataNotAvailableHandling.EXCEPTION_ON_NA)) {
-				writeFile(zipOutputStream, entryName, in);
+				zipWriter.putEntry(entryName, in, !isCompressed(bean), bean.getSize() != null ? bean.getSize() : -1);
 				streamLength = in.getContentLength();
 				streamChecksum = in.getChecksum();
 				in.verifyContentLength(bean.getSize());
@@ -702,28 +711,29 @@ public class SessionSaver {
 		}
 	}
 	
-	private void writeSourceCodesToZip(ZipOutputStream zipOutputStream) throws IOException {
+	private void writeSourceCodesToZip(ParallelZipWriter zipWriter) throws IOException {
 		for (Entry<String, OperationType> entry : this.operationRecordTypeMap.entrySet()) {
 			String sourceCodeFileName = entry.getValue().getSourceCodeFile();
 			if (sourceCodeFileName != null && !sourceCodeFileName.isEmpty()) {
-				writeFile(zipOutputStream, sourceCodeFileName, new ByteArrayInputStream(this.operationRecordIdMap.get(entry.getKey()).getSourceCode().getBytes()));
+				zipWriter.putEntry(sourceCodeFileName, this.operationRecordIdMap.get(entry.getKey()).getSourceCode().getBytes());
 			}
 		}
 	}
 	
-	private void writeFile(ZipOutputStream out, String name, InputStream in) throws IOException {
-		
-		int byteCount;
-		ZipEntry cpZipEntry = new ZipEntry(name);
-		out.putNextEntry(cpZipEntry);
-
-		byte[] b = new byte[DATA_BLOCK_SIZE];
-
-		while ( (byteCount = in.read(b, 0, DATA_BLOCK_SIZE)) != -1 ) {
-			out.write(b, 0, byteCount);
+	/**
+	 * Compressing these again would only waste time.
+	 */
+	private boolean isCompressed(DataBean bean) {
+		if (bean.getContentType() != null && COMPRESSED_CONTENT_TYPES.contains(bean.getContentType().getType())) {
+			return true;
 		}
-
-		out.closeEntry();							
+		String name = bean.getName().toLowerCase();
+		for (String extension : COMPRESSED_EXTENSIONS) {
+			if (name.endsWith(extension)) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	
@@ -28,6 +28,7 @@ public class BamDataSource extends DataSource {
 	
 	private ChromosomeNameUnnormaliser chromosomeNameUnnormaliser = ChromosomeNameUnnormaliser.newIdentityPreversingUnnormaliser();
 	private SAMFileReader reader;
+	private DataUrl indexUrl;
 
     /**
      * Generally we would like to have both data and index files,
@@ -40,6 +41,7 @@ public class BamDataSource extends DataSource {
      */
     public BamDataSource(DataUrl data, DataUrl index) throws URISyntaxException, IOException {
         super(data);
+        this.indexUrl = index;
 
     	// BAMFileReader emits useless warning to System.err that can't be turned off,
     	// so we direct it to other stream and discard. 
@@ -67,6 +69,10 @@ public class BamDataSource extends DataSource {
         System.setErr(originalErr);
     }
 
+	public DataUrl getIndexUrl() {
+		return indexUrl;
+	}
+
 	public void close() {
 		SamBamUtils.closeIfPossible(reader);
 	}	
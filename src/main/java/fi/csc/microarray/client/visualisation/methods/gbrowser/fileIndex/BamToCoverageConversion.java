@@ -31,16 +31,30 @@ import fi.csc.microarray.util.BamUtils;
  */
 public class BamToCoverageConversion extends DataThread {
 	
+	/**
+	 * Size of the region that is calculated and cached at once. Must be a multiple of {@link CoverageTool#BIN_SIZE}.
+	 */
+	private static final long STEP = 10_000;
+	
+	/**
+	 * Estimated size of one coverage feature in the {@link CoverageCache}.
+	 */
+	private static final int FEATURE_BYTES = 256;
+	
 	private BamDataSource dataSource;
 
 	private CoverageType coverageType;
 	
+	private CoverageCache cache = CoverageCache.getInstance();
+	private String cacheName;
+	
 	public BamToCoverageConversion(BamDataSource file, CoverageType coverageType, final GBrowser browser) {
 	    
 		super(browser, file);
 		
 		this.dataSource = file;
 		this.coverageType = coverageType;
+		this.cacheName = getClass().getSimpleName() + " " + coverageType;
 	}
 		
 	@Override
@@ -53,19 +67,49 @@ public class BamToCoverageConversion extends DataThread {
 	@Override
 	protected void processDataRequest(DataRequest request) throws InterruptedException {							
 		
-		long step = 10_000;
-		
-		// Divide visible region into subregions and iterate over them
-		for (long pos = request.start.bp; pos < request.end.bp; pos += step ) {
+		// Divide visible region into subregions and iterate over them. Subregions are aligned, so that they can be cached.
+		for (long pos = request.start.bp / STEP * STEP; pos < request.end.bp; pos += STEP) {
+			
+			if (isRequestObsolete(request)) {
+				return;
+			}
 
 			BpCoord from = new BpCoord(pos, request.start.chr);
-			BpCoord to = new BpCoord(Math.min(pos + step, request.end.bp), request.start.chr);
+			BpCoord to = new BpCoord(pos + STEP - 1, request.start.chr);
 
-			calculateCoverage(request, from, to);									
+			CoverageCache.Key key = new CoverageCache.Key(dataSource.toString(), cacheName, from.chr, pos / STEP, STEP);
+			Coverage coverage = (Coverage) cache.get(key);
+			
+			if (coverage == null) {
+				coverage = calculateCoverage(from, to);
+				cache.put(key, coverage, (coverage.resultList.size() + coverage.averageCoverage.size()) * FEATURE_BYTES);
+			}
+			
+			// Send copies of the lists, because the receivers are allowed to modify them
+			if (request.getRequestedContents().contains(DataType.COVERAGE)) {		
+				super.createDataResult(new DataResult(request, new LinkedList<Feature>(coverage.resultList)));
+			}
+			
+			if (request.getRequestedContents().contains(DataType.COVERAGE_AVERAGE)) {
+				super.createDataResult(new DataResult(request, new LinkedList<Feature>(coverage.averageCoverage)));
+			}
+		}
+	}
+	
+	/**
+	 * Coverage of one subregion, both as single nucleotides and as averages.
+	 */
+	private static class Coverage {
+		private LinkedList<Feature> resultList;
+		private LinkedList<Feature> averageCoverage;
+		
+		public Coverage(LinkedList<Feature> resultList, LinkedList<Feature> averageCoverage) {
+			this.resultList = resultList;
+			this.averageCoverage = averageCoverage;
 		}
 	}
 
-	private void calculateCoverage(DataRequest request, BpCoord from, BpCoord to) throws InterruptedException {	
+	private Coverage calculateCoverage(BpCoord from, BpCoord to) {	
 				
 		//query data for full average bins, because merging them later would be difficult
 		long start = CoverageTool.getBin(from.bp);		
@@ -87,7 +131,7 @@ public class BamToCoverageConversion extends DataThread {
 			
 			LinkedHashMap<DataType, Object> values = new LinkedHashMap<DataType, Object>();
 
-			Region recordRegion = new Region((long) record.getAlignmentStart(), (long) record.getAlignmentEnd(), request.start.chr);
+			Region recordRegion = new Region((long) record.getAlignmentStart(), (long) record.getAlignmentEnd(), from.chr);
 			
 			Feature read = new Feature(recordRegion, values);
 
@@ -134,13 +178,7 @@ public class BamToCoverageConversion extends DataThread {
 		
 		LinkedList<Feature> averageCoverage = CoverageTool.average(resultList, from.chr);
 		
-		if (request.getRequestedContents().contains(DataType.COVERAGE)) {		
-			super.createDataResult(new DataResult(request, resultList));
-		}
-		
-		if (request.getRequestedContents().contains(DataType.COVERAGE_AVERAGE)) {
-			super.createDataResult(new DataResult(request, averageCoverage));
-		}
+		return new Coverage(resultList, averageCoverage);
 	}
 
 	private void createResultList(BpCoord from, BaseStorage baseStorage,
@@ -1,14 +1,19 @@
 package fi.csc.microarray.client.visualisation.methods.gbrowser.fileIndex;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
-import java.util.SortedMap;
 
 import net.sf.samtools.SAMRecord;
 import net.sf.samtools.util.CloseableIterator;
+
+import org.apache.log4j.Logger;
+
 import fi.csc.microarray.client.visualisation.methods.gbrowser.GBrowser;
-import fi.csc.microarray.client.visualisation.methods.gbrowser.fileIndex.ConcisedValueCache.Counts;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.gui.GBrowserSettings.CoverageType;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.BpCoord;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataRequest;
@@ -25,26 +30,73 @@ import fi.csc.microarray.util.BamUtils;
 
 /**
  * This conversion class uses Picard to read Bam files and creates a coverage estimate by sampling.
+ * For local files a {@link CoverageSummaryIndex} is created in the background and used instead of 
+ * sampling when it's ready.
  * 
  * @author Aleksi Kallio, Petri Klemelä
  *
  */
 public class BamToCoverageEstimateConversion extends DataThread {
 	
+	private static final Logger logger = Logger.getLogger(BamToCoverageEstimateConversion.class);
+	
 	public final static int SAMPLE_SIZE_BP = 1000;
+	
+	/**
+	 * Maximum number of summary bins returned for one request.
+	 */
+	private static final int MAX_SUMMARY_BINS = 256;
+	
+	/**
+	 * Estimated size of one cached sample in the {@link CoverageCache}, including the key.
+	 */
+	private static final int SAMPLE_BYTES = 128;
 
 	private BamDataSource dataSource;
 	
-	private ConcisedValueCache cache = new ConcisedValueCache();
+	private CoverageCache cache = CoverageCache.getInstance();
+	private String cacheName;
 
 	private CoverageType coverageType;
 
+	private File bamFile;
+	private File summaryFile;
+	private CoverageSummaryIndex summary;
+
 	public BamToCoverageEstimateConversion(BamDataSource file, CoverageType coverageType, final GBrowser browser) {
 	    
 		super(browser, file);
 		
 		this.dataSource = file;
 		this.coverageType = coverageType;
+		this.cacheName = getClass().getSimpleName() + " " + coverageType;
+		
+		initSummary();
+	}
+	
+	/**
+	 * Open the coverage summary or start creating it, if the BAM file and its index are local files.
+	 */
+	private void initSummary() {
+		try {
+			URL bamUrl = dataSource.getDataUrl().getUrl();
+			URL indexUrl = dataSource.getIndexUrl().getUrl();
+			
+			if ("file".equals(bamUrl.getProtocol()) && "file".equals(indexUrl.getProtocol())) {
+				
+				File indexFile = new File(indexUrl.toURI());
+				this.bamFile = new File(bamUrl.toURI());
+				this.summaryFile = CoverageSummaryIndex.getSummaryFile(indexFile, coverageType);
+				this.summary = CoverageSummaryIndex.open(summaryFile, bamFile);
+				
+				if (summary == null) {
+					CoverageSummaryIndex.buildInBackground(bamFile, indexFile, coverageType);
+				}
+			}
+		} catch (IOException | URISyntaxException e) {
+			// sampling works without the summary
+			logger.warn("coverage summary not available, using sampling", e);
+		}
 	}
 		
 	@Override
@@ -61,6 +113,16 @@ public class BamToCoverageEstimateConversion extends DataThread {
 			return;
 		}
 		
+		// Summary may have been completed after the previous request
+		if (summary == null && summaryFile != null) {
+			summary = CoverageSummaryIndex.open(summaryFile, bamFile);
+		}
+		
+		if (summary != null) {
+			super.createDataResult(new DataResult(request.getStatus(), summary.query(request, MAX_SUMMARY_BINS)));
+			return;
+		}
+		
 		processCoverageEstimateRequest(request);
 		
 		if (!hasNewRequest()) {
@@ -113,60 +175,51 @@ public class BamToCoverageEstimateConversion extends DataThread {
 	 */
 	public void processCoverageEstimateRequest(DataRequest request) throws GBrowserException, InterruptedException {
 
-		// How many times file is read
-		int step = request.getLength().intValue() / CoverageEstimateTrack.SAMPLING_GRANULARITY;
-
-		int countHits = 0;
-		int countReads = 0;		
+		/* How many times file is read. Round the step to a power of two and align the samples to it,
+		 * so that the samples can be shared between requests and other tracks of the same file.
+		 */
+		long step = Long.highestOneBit(Math.max(1, request.getLength() / CoverageEstimateTrack.SAMPLING_GRANULARITY));
 		
 		// Divide visible region into subregions and iterate over them
-		for (long pos = request.start.bp; pos < request.end.bp; pos += step) {
+		for (long pos = request.start.bp / step * step; pos < request.end.bp; pos += step) {
+			
+			if (isRequestObsolete(request)) {
+				return;
+			}
 
 			BpCoord from = new BpCoord(pos, request.start.chr);
 			BpCoord to = new BpCoord(pos + step, request.start.chr);
 
 			// Use cached content, if exists for this region
-			SortedMap<BpCoord, Counts> indexedValues = cache.subMap(from, to);
+			CoverageCache.Key key = new CoverageCache.Key(dataSource.toString(), cacheName, from.chr, pos / step, step);
+			int[] counts = (int[]) cache.get(key);
 			
-			if (!indexedValues.isEmpty()) {
-				
-				countHits++;
-				convertCacheHits(request, step, pos, indexedValues);
-
-			} else {
-				countReads++;	
-				sampleToGetEstimateRegion(request, from, to);				
-			}			
-		}
-		//System.out.println("Cache: " + countHits + "\tFile: " + countReads);
-	}
-
-	private void convertCacheHits(DataRequest request, int step, long pos, SortedMap<BpCoord, Counts> indexedValues) throws InterruptedException {
-
-		// Return one result pair for each region covered by one cache hit
-		LinkedList<Feature> responseList = new LinkedList<Feature>(); 
-		long cachePos = 0; 
-
-		for (BpCoord coord : indexedValues.keySet()) {
-
-			cachePos = coord.bp;
+			if (counts == null) {
+				counts = sampleToGetEstimateRegion(from, to);
+				cache.put(key, counts, SAMPLE_BYTES);
+			}
 			
-			Region recordRegion = new Region(
-					cachePos - SAMPLE_SIZE_BP / 2, 
-					cachePos + SAMPLE_SIZE_BP / 2, request.start.chr);
+			// Send result
+			long stepMiddlepoint = (from.bp + to.bp) / 2;
+			Region region = new Region(stepMiddlepoint - SAMPLE_SIZE_BP / 2, stepMiddlepoint + SAMPLE_SIZE_BP / 2, from.chr);
 			
 			LinkedHashMap<DataType, Object> values = new LinkedHashMap<DataType, Object>();
-			values.put(DataType.COVERAGE_ESTIMATE_FORWARD, indexedValues.get(coord).forwardCount);
-			values.put(DataType.COVERAGE_ESTIMATE_REVERSE,  indexedValues.get(coord).reverseCount);
-			responseList.add(new Feature(recordRegion, values));
+			values.put(DataType.COVERAGE_ESTIMATE_FORWARD, counts[0]);
+			values.put(DataType.COVERAGE_ESTIMATE_REVERSE, counts[1]);
+			
+			LinkedList<Feature> content = new LinkedList<Feature>();
+			content.add(new Feature(region, values));
+			
+			super.createDataResult(new DataResult(request.getStatus(), content));
 		}
-		
-		super.createDataResult(new DataResult(request.getStatus(), responseList));
 	}
 
-	private void sampleToGetEstimateRegion(DataRequest request, BpCoord from, BpCoord to) throws GBrowserException, InterruptedException {	
-		
-		long t = System.currentTimeMillis();
+	/**
+	 * Count reads in a sample taken from the middle of the given area.
+	 * 
+	 * @return read lengths summed separately for forward and reverse strands
+	 */
+	private int[] sampleToGetEstimateRegion(BpCoord from, BpCoord to) throws GBrowserException {	
 		
 		// Fetch new content by taking sample from the middle of this area
 		long stepMiddlepoint = (from.bp + to.bp) / 2;
@@ -192,16 +245,8 @@ public class BamToCoverageEstimateConversion extends DataThread {
 		int countRejected1 = 0;
 		int countRejected2 = 0;
 		
-		boolean interrupted = false;
-		
 		for (Iterator<SAMRecord> i = iterator; i.hasNext();) {			
 			
-//			if (super.hasNewRequest()) {
-//				//Stop iteration, but send results
-//				interrupted = true;
-//				break;
-//			}
-			
 			SAMRecord record = i.next();
 
 			// Accept only records that start in this area (very rough approximation for spliced reads)
@@ -225,25 +270,12 @@ public class BamToCoverageEstimateConversion extends DataThread {
 			}
 		}
 
-		//System.out.println("Forward: " + countForward + "\tReverse: " + countReverse + "\tRejected1: " + countRejected1 + "\tRejected2: " + countRejected2 + "\t" + (System.currentTimeMillis() - t) + " ms");
+		//System.out.println("Forward: " + countForward + "\tReverse: " + countReverse + "\tRejected1: " + countRejected1 + "\tRejected2: " + countRejected2);
 		
 		// We are done
 		iterator.close();
 		
-		if (!interrupted) {
-			cache.store(new BpCoord(stepMiddlepoint, from.chr), countForward, countReverse);		
-
-			// Send result
-			LinkedList<Feature> content = new LinkedList<Feature>();
-
-			LinkedHashMap<DataType, Object> values = new LinkedHashMap<DataType, Object>();
-			values.put(DataType.COVERAGE_ESTIMATE_FORWARD, countForward);
-			values.put(DataType.COVERAGE_ESTIMATE_REVERSE, countReverse);
-
-			content.add(new Feature(new Region(start, end, from.chr), values));
-
-			super.createDataResult(new DataResult(request.getStatus(), content));
-		}
+		return new int[] { countForward, countReverse };
 	}
 	
 	public String toString() {
@@ -64,8 +64,8 @@ public class BamToDetailsConversion extends DataThread {
 		// Read the given region
 		CloseableIterator<SAMRecord> iterator = dataSource.query(request.start.chr, request.start.bp.intValue(), request.end.bp.intValue());
 		
-		// Produce results
-		while (iterator.hasNext()) {
+		// Produce results, unless the view doesn't need them anymore
+		while (iterator.hasNext() && !isRequestObsolete(request)) {
 
 			List<Feature> responseList = new LinkedList<Feature>();
 
@@ -0,0 +1,169 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.fileIndex;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Chromosome;
+
+/**
+ * Cache for coverage values calculated from BAM files, shared by all coverage and coverage estimate
+ * conversions. Two tracks showing the same file in the same resolution can use the results of each
+ * other, so the file has to be read only once.
+ *
+ * <p>The size of the cache is limited by the estimated size of the cached values in bytes. When the
+ * limit is reached, least recently used values are removed first. The cache keeps count of hits and
+ * misses, which can be shown in the user interface.</p>
+ */
+public class CoverageCache {
+
+	/**
+	 * Identifies cached values. The data source and the kind of the values together define the
+	 * sampling method, which is then applied to the bin of given size.
+	 */
+	public static class Key {
+
+		private final String dataSource;
+		private final String kind;
+		private final Chromosome chr;
+		private final long bin;
+		private final long resolution;
+
+		/**
+		 * @param dataSource identifier of the data, e.g. url
+		 * @param kind what kind of values, e.g. name of the conversion and coverage type
+		 * @param chr chromosome
+		 * @param bin index of the bin
+		 * @param resolution size of the bin in bps
+		 */
+		public Key(String dataSource, String kind, Chromosome chr, long bin, long resolution) {
+			this.dataSource = dataSource;
+			this.kind = kind;
+			this.chr = chr;
+			this.bin = bin;
+			this.resolution = resolution;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = dataSource.hashCode();
+			result = prime * result + kind.hashCode();
+			result = prime * result + chr.hashCode();
+			result = prime * result + (int) (bin ^ (bin >>> 32));
+			result = prime * result + (int) (resolution ^ (resolution >>> 32));
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return bin == other.bin && resolution == other.resolution && chr.equals(other.chr) &&
+					kind.equals(other.kind) && dataSource.equals(other.dataSource);
+		}
+	}
+
+	private static class Item {
+		Object value;
+		long bytes;
+
+		public Item(Object value, long bytes) {
+			this.value = value;
+			this.bytes = bytes;
+		}
+	}
+
+	private static final long MAX_BYTES = 64 * 1024 * 1024;
+	private static final int MAX_HEAP_FRACTION = 8;
+
+	private static CoverageCache instance;
+
+	private final long maxBytes;
+	private long bytes = 0;
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * Access ordered, iteration starts from the least recently used item.
+	 */
+	private LinkedHashMap<Key, Item> items = new LinkedHashMap<Key, Item>(16, 0.75f, true);
+
+	public CoverageCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return the cache shared by all conversions in this JVM
+	 */
+	public static synchronized CoverageCache getInstance() {
+		if (instance == null) {
+			instance = new CoverageCache(Math.min(MAX_BYTES, Runtime.getRuntime().maxMemory() / MAX_HEAP_FRACTION));
+		}
+		return instance;
+	}
+
+	/**
+	 * @return cached value or null, if not found
+	 */
+	public synchronized Object get(Key key) {
+		Item item = items.get(key);
+		if (item != null) {
+			hits++;
+			return item.value;
+		} else {
+			misses++;
+			return null;
+		}
+	}
+
+	/**
+	 * Stores a value and removes least recently used values, if the cache is full.
+	 *
+	 * @param bytes estimated size of the value in bytes
+	 */
+	public synchronized void put(Key key, Object value, long bytes) {
+		Item previous = items.put(key, new Item(value, bytes));
+		if (previous != null) {
+			this.bytes -= previous.bytes;
+		}
+		this.bytes += bytes;
+		shrink();
+	}
+
+	private void shrink() {
+		Iterator<Entry<Key, Item>> iterator = items.entrySet().iterator();
+		while (bytes > maxBytes && iterator.hasNext()) {
+			bytes -= iterator.next().getValue().bytes;
+			iterator.remove();
+		}
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public synchronized int size() {
+		return items.size();
+	}
+
+	/**
+	 * @return summary of the cache usage for the user interface
+	 */
+	public synchronized String getStatistics() {
+		long requests = hits + misses;
+		long hitPercent = requests > 0 ? hits * 100 / requests : 0;
+		return "Coverage cache: " + hitPercent + " % hits (" + hits + "/" + requests + "), " +
+				items.size() + " items, " + bytes / 1024 + " / " + maxBytes / 1024 + " kB";
+	}
+}
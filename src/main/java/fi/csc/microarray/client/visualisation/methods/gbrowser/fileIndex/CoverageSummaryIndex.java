@@ -0,0 +1,361 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.fileIndex;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMRecordIterator;
+import net.sf.samtools.SAMSequenceRecord;
+
+import org.apache.log4j.Logger;
+
+import fi.csc.microarray.client.visualisation.methods.gbrowser.gui.GBrowserSettings.CoverageType;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Chromosome;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataType;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Feature;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Strand;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.util.SamBamUtils;
+import fi.csc.microarray.util.BamUtils;
+import fi.csc.microarray.util.IOUtils;
+
+/**
+ * <p>Multi-resolution coverage summary of a BAM file, stored next to the BAM index file. The summary
+ * is created once by reading through the whole BAM file in a background thread. After that coverage
+ * estimates of any region can be read from a memory mapped file instead of sampling the BAM file.</p>
+ *
+ * <p>The finest level has one bin for each {@link #BIN_SIZE} bases. Each bin has the sum of read lengths
+ * of the forward and reverse reads starting in that bin, which is the same value that
+ * {@link BamToCoverageEstimateConversion} gets by sampling. Each coarser level is {@link #LEVEL_FACTOR}
+ * times coarser and stores the average of the finest level bins that it covers.</p>
+ *
+ * <p>File format: magic number, version, BAM file size and modification time (for detecting stale
+ * summaries), chromosome count and for each chromosome its name and for each level the bin count and the
+ * data offset relative to the end of the header. Data of each level is an int array of forward counts
+ * followed by an int array of reverse counts.</p>
+ */
+public class CoverageSummaryIndex {
+
+	private static final Logger logger = Logger.getLogger(CoverageSummaryIndex.class);
+
+	public static final int BIN_SIZE = BamToCoverageEstimateConversion.SAMPLE_SIZE_BP;
+	public static final int LEVEL_FACTOR = 4;
+
+	private static final String FILE_EXTENSION = ".coverage";
+	private static final int MAGIC = 0x43435631; // "CCV1"
+	private static final int VERSION = 1;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Summary files that are being built, to avoid building the same file twice at the same time.
+	 */
+	private static final Set<File> building = Collections.synchronizedSet(new HashSet<File>());
+
+	private static class Level {
+		int binSize;
+		int binCount;
+		int forwardOffset;
+		int reverseOffset;
+	}
+
+	private MappedByteBuffer buffer;
+	private HashMap<Chromosome, Level[]> chromosomes = new HashMap<Chromosome, Level[]>();
+
+	private CoverageSummaryIndex(File file) throws IOException {
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			IOUtils.closeIfPossible(raf);
+		}
+
+		if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+			throw new IOException("not a coverage summary file: " + file);
+		}
+
+		// BAM size and modification time, already checked
+		buffer.getLong();
+		buffer.getLong();
+
+		int chrCount = buffer.getInt();
+		LinkedHashMap<Chromosome, Level[]> header = new LinkedHashMap<Chromosome, Level[]>();
+		LinkedList<Integer> relativeOffsets = new LinkedList<Integer>();
+
+		for (int c = 0; c < chrCount; c++) {
+			byte[] name = new byte[buffer.getInt()];
+			buffer.get(name);
+
+			Level[] levels = new Level[buffer.getInt()];
+			for (int l = 0; l < levels.length; l++) {
+				levels[l] = new Level();
+				levels[l].binSize = buffer.getInt();
+				levels[l].binCount = buffer.getInt();
+				relativeOffsets.add(buffer.getInt());
+			}
+			header.put(new Chromosome(new String(name, UTF8)), levels);
+		}
+
+		// Data begins after the header
+		int dataStart = buffer.position();
+		for (Level[] levels : header.values()) {
+			for (Level level : levels) {
+				level.forwardOffset = dataStart + relativeOffsets.removeFirst();
+				level.reverseOffset = level.forwardOffset + level.binCount * 4;
+			}
+		}
+		chromosomes.putAll(header);
+	}
+
+	/**
+	 * @return location of the summary file for the given BAM index and coverage type
+	 */
+	public static File getSummaryFile(File bamIndex, CoverageType coverageType) {
+		return new File(bamIndex.getPath() + "." + coverageType.name().toLowerCase() + FILE_EXTENSION);
+	}
+
+	/**
+	 * Opens the summary, if it exists and is up to date.
+	 *
+	 * @return the summary or null
+	 */
+	public static CoverageSummaryIndex open(File summaryFile, File bamFile) {
+
+		if (!summaryFile.exists() || building.contains(summaryFile)) {
+			return null;
+		}
+
+		try {
+			if (!isUpToDate(summaryFile, bamFile)) {
+				return null;
+			}
+			return new CoverageSummaryIndex(summaryFile);
+
+		} catch (IOException e) {
+			logger.warn("unable to read coverage summary " + summaryFile, e);
+			return null;
+		}
+	}
+
+	private static boolean isUpToDate(File summaryFile, File bamFile) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(summaryFile, "r");
+		try {
+			return raf.readInt() == MAGIC && raf.readInt() == VERSION &&
+					raf.readLong() == bamFile.length() && raf.readLong() == bamFile.lastModified();
+		} finally {
+			IOUtils.closeIfPossible(raf);
+		}
+	}
+
+	/**
+	 * Starts building the summary in a background thread, unless it's being built already
+	 * or the directory is not writable.
+	 */
+	public static void buildInBackground(final File bamFile, final File bamIndex, final CoverageType coverageType) {
+
+		final File summaryFile = getSummaryFile(bamIndex, coverageType);
+
+		if (!summaryFile.getParentFile().canWrite() || !building.add(summaryFile)) {
+			return;
+		}
+
+		Thread thread = new Thread() {
+			public void run() {
+				try {
+					long t = System.currentTimeMillis();
+					build(bamFile, bamIndex, coverageType, summaryFile);
+					logger.info("coverage summary " + summaryFile.getName() + " created in " + (System.currentTimeMillis() - t) + " ms");
+
+				} catch (Exception e) {
+					logger.warn("creating coverage summary " + summaryFile + " failed", e);
+				} finally {
+					building.remove(summaryFile);
+				}
+			}
+		};
+
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.setName(CoverageSummaryIndex.class.getSimpleName());
+		thread.start();
+	}
+
+	/**
+	 * Reads through the BAM file and writes the summary. The summary is written first to a
+	 * temporary file and renamed when complete, so that readers never see partial files.
+	 */
+	public static void build(File bamFile, File bamIndex, CoverageType coverageType, File summaryFile) throws Exception {
+
+		long bamSize = bamFile.length();
+		long bamModified = bamFile.lastModified();
+
+		LinkedHashMap<String, int[][]> counts = new LinkedHashMap<String, int[][]>();
+
+		SAMFileReader reader = SamBamUtils.getSAMReader(bamFile.toURI().toURL(), bamIndex.toURI().toURL());
+		try {
+			for (SAMSequenceRecord sequence : reader.getFileHeader().getSequenceDictionary().getSequences()) {
+				int binCount = sequence.getSequenceLength() / BIN_SIZE + 1;
+				counts.put(sequence.getSequenceName(), new int[][] { new int[binCount], new int[binCount] });
+			}
+
+			SAMRecordIterator iterator = reader.iterator();
+			try {
+				while (iterator.hasNext()) {
+					SAMRecord record = iterator.next();
+
+					if (record.getReadUnmappedFlag()) {
+						continue;
+					}
+
+					int[][] chrCounts = counts.get(record.getReferenceName());
+					int bin = (record.getAlignmentStart() - 1) / BIN_SIZE;
+
+					if (chrCounts == null || bin < 0 || bin >= chrCounts[0].length) {
+						continue;
+					}
+
+					int strand = BamUtils.getStrand(record, coverageType) == Strand.REVERSE ? 1 : 0;
+					chrCounts[strand][bin] += record.getReadLength();
+				}
+			} finally {
+				iterator.close();
+			}
+		} finally {
+			SamBamUtils.closeIfPossible(reader);
+		}
+
+		// Compute coarser levels
+		LinkedHashMap<String, List<int[][]>> levels = new LinkedHashMap<String, List<int[][]>>();
+		for (String chr : counts.keySet()) {
+			LinkedList<int[][]> chrLevels = new LinkedList<int[][]>();
+			int[][] level = counts.get(chr);
+			chrLevels.add(level);
+
+			while (level[0].length > 1) {
+				level = new int[][] { coarsen(level[0]), coarsen(level[1]) };
+				chrLevels.add(level);
+			}
+			levels.put(chr, chrLevels);
+		}
+
+		File tmpFile = new File(summaryFile.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(bamSize);
+			out.writeLong(bamModified);
+			out.writeInt(levels.size());
+
+			int offset = 0;
+			for (String chr : levels.keySet()) {
+				byte[] name = chr.getBytes(UTF8);
+				out.writeInt(name.length);
+				out.write(name);
+				out.writeInt(levels.get(chr).size());
+
+				int binSize = BIN_SIZE;
+				for (int[][] level : levels.get(chr)) {
+					out.writeInt(binSize);
+					out.writeInt(level[0].length);
+					out.writeInt(offset);
+					offset += level[0].length * 4 * 2;
+					binSize *= LEVEL_FACTOR;
+				}
+			}
+
+			for (List<int[][]> chrLevels : levels.values()) {
+				for (int[][] level : chrLevels) {
+					for (int[] strand : level) {
+						for (int value : strand) {
+							out.writeInt(value);
+						}
+					}
+				}
+			}
+		} finally {
+			IOUtils.closeIfPossible(out);
+		}
+
+		if (!tmpFile.renameTo(summaryFile)) {
+			tmpFile.delete();
+			throw new IOException("unable to rename " + tmpFile + " to " + summaryFile);
+		}
+	}
+
+	/**
+	 * @return averages of each LEVEL_FACTOR consecutive values
+	 */
+	private static int[] coarsen(int[] values) {
+		int[] coarse = new int[(values.length + LEVEL_FACTOR - 1) / LEVEL_FACTOR];
+		for (int i = 0; i < coarse.length; i++) {
+			long sum = 0;
+			int count = 0;
+			for (int j = i * LEVEL_FACTOR; j < Math.min(values.length, (i + 1) * LEVEL_FACTOR); j++) {
+				sum += values[j];
+				count++;
+			}
+			coarse[i] = (int) (sum / count);
+		}
+		return coarse;
+	}
+
+	/**
+	 * Returns coverage estimates for the region. The finest level that has at most maxBins bins in
+	 * the region is used. Each bin is returned as a feature of BIN_SIZE bases in the middle of the bin
+	 * with values COVERAGE_ESTIMATE_FORWARD and COVERAGE_ESTIMATE_REVERSE, like the samples of
+	 * {@link BamToCoverageEstimateConversion}.
+	 *
+	 * @return list of features, empty if the chromosome is not in the summary
+	 */
+	public List<Feature> query(Region region, int maxBins) {
+
+		LinkedList<Feature> features = new LinkedList<Feature>();
+		Level[] levels = chromosomes.get(region.start.chr);
+
+		if (levels == null) {
+			return features;
+		}
+
+		Level level = levels[levels.length - 1];
+		for (Level candidate : levels) {
+			if (region.getLength() / candidate.binSize <= maxBins) {
+				level = candidate;
+				break;
+			}
+		}
+
+		// Coordinates of the browser are 1-based
+		int firstBin = (int) Math.max(0, (region.start.bp - 1) / level.binSize);
+		int lastBin = (int) Math.min(level.binCount - 1, (region.end.bp - 1) / level.binSize);
+
+		for (int bin = firstBin; bin <= lastBin; bin++) {
+
+			long middle = (long) bin * level.binSize + level.binSize / 2 + 1;
+			Region binRegion = new Region(middle - BIN_SIZE / 2, middle + BIN_SIZE / 2, region.start.chr);
+
+			LinkedHashMap<DataType, Object> values = new LinkedHashMap<DataType, Object>();
+			values.put(DataType.COVERAGE_ESTIMATE_FORWARD, buffer.getInt(level.forwardOffset + bin * 4));
+			values.put(DataType.COVERAGE_ESTIMATE_REVERSE, buffer.getInt(level.reverseOffset + bin * 4));
+			features.add(new Feature(binRegion, values));
+		}
+
+		return features;
+	}
+}
@@ -64,7 +64,7 @@ public class GtfToFeatureConversion extends DataThread {
 				super.setDataSource(tabixDataSource);
 			} else {
 				gtfDataSource = new RandomAccessLineDataSource(gtfTabixUrl);
-				this.index = new BinarySearchIndex(gtfDataSource, parser);
+				this.index = new BinarySearchIndex(gtfDataSource, parser, BinarySearchIndex.getIndexFile(gtfDataSource));
 				super.setDataSource(gtfDataSource);
 				
 				chrSearch = new ChromosomeBinarySearch(gtfTabixUrl, new GtfLineParser());
@@ -332,4 +332,9 @@ public class GtfToFeatureConversion extends DataThread {
 			return chrs;
 		}
 	}
+	
+	@Override
+	protected Index getIndex() {
+		return index;
+	}
 }
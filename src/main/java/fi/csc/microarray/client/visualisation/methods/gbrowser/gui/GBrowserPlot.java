@@ -197,8 +197,19 @@ public class GBrowserPlot implements ActionListener, Printable {
 	}
 
 	public void redraw() {
+		redraw(true);
+	}
+
+	/**
+	 * @param contentChanged set false when the view is only moved or zoomed, so that the tracks can 
+	 * use their rendered tiles  
+	 */
+	public void redraw(boolean contentChanged) {
 		ReadScale.AUTO.reset();
 		for (GBrowserView view : views) {
+			if (contentChanged) {
+				view.contentChanged();
+			}
 			view.updateLayout();
 		}
 		component.repaint();
@@ -241,25 +252,40 @@ public class GBrowserPlot implements ActionListener, Printable {
 	public void actionPerformed(ActionEvent event) {
 		if (event.getSource() == saveMenuItem) {
 			try {
+				setTileRendering(false);
 				saveFileChooser = ImageExportUtils.saveComponent(component, saveFileChooser);
 				//Remove the  visual artifacts caused by the rendering of external buffer
 				this.redraw();
 			} catch (IOException e) {
 				browser.reportException(e);
+			} finally {
+				setTileRendering(true);
 			}
 		}
 		
 		if (event.getSource() == printMenuItem) {
 
 			try {
+				setTileRendering(false);
 				ImageExportUtils.printComponent(this);
 				//Remove the  visual artifacts caused by the rendering of external buffer
 				this.redraw();
 			} catch (PrinterException e) {	
 				browser.reportException(e);
+			} finally {
+				setTileRendering(true);
 			}
 		}
 	}
+	
+	/**
+	 * Tracks are painted immediately without tiles when the plot is saved or printed.
+	 */
+	private void setTileRendering(boolean tileRendering) {
+		for (GBrowserView view : views) {
+			view.setTileRendering(tileRendering);
+		}
+	}
 
 	@Override
 	public int print(Graphics g, PageFormat pf, int page)
@@ -18,6 +18,10 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 
 import javax.swing.JComponent;
 import javax.swing.JPanel;
@@ -89,6 +93,14 @@ public abstract class GBrowserView implements MouseListener, MouseMotionListener
 
 	protected static final int FPS = 30;
 
+	/**
+	 * Track tiles are rendered this fraction of the view width outside the visible region on both sides,
+	 * so that the view can be moved a little without rendering the tiles again.
+	 */
+	public static final double TILE_MARGIN = 0.25;
+	
+	private static final int TILE_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
 	protected boolean movable;
 	protected boolean zoomable;
 
@@ -106,6 +118,11 @@ public abstract class GBrowserView implements MouseListener, MouseMotionListener
 	private Timer mouseAnimationTimer;
 
 	private ViewLimiter viewLimiter;
+	
+	private ExecutorService tileExecutor;
+	private boolean cleaned = false;
+	private long contentVersion = 0;
+	private boolean tileRendering = true;
 
 	private static final long DRAG_EXPIRATION_TIME_MS = 50;
 
@@ -526,7 +543,7 @@ public abstract class GBrowserView implements MouseListener, MouseMotionListener
 			setBpRegion(new RegionDouble(startBp, getBpRegionDouble().start.chr, endBp, getBpRegionDouble().end.chr));
 			
 			if (!disableDrawing) {
-				parentPlot.redraw();
+				parentPlot.redraw(false);
 			}
 		}
 	}
@@ -577,6 +594,9 @@ public abstract class GBrowserView implements MouseListener, MouseMotionListener
 	}
 
 	public void redraw() {
+		//Render tiles again even if the animation postpones the drawing
+		contentChanged();
+		
 		//Dont accept redraw request from tracks if animation is running
 		if (mouseAnimationTimer == null || !mouseAnimationTimer.isRunning()) {
 			parentPlot.redraw();
@@ -607,6 +627,11 @@ public abstract class GBrowserView implements MouseListener, MouseMotionListener
 		if (queueManager != null) {
 			queueManager.poisonAll();
 		}
+		cleaned = true;
+		if (tileExecutor != null) {
+			tileExecutor.shutdownNow();
+			tileExecutor = null;
+		}
 		scrollGroups.clear();
 		//Queue manager holds references to track data through the data listener references preventing gc
 		queueManager = null;
@@ -726,6 +751,72 @@ public abstract class GBrowserView implements MouseListener, MouseMotionListener
 					
 		return getBpRegion().intersects(region);		
 	}
+	
+	/**
+	 * The region that is rendered to track tiles: the visible region and {@link #TILE_MARGIN} on both sides.
+	 * 
+	 * @return
+	 */
+	public Region getTileRegion() {
+		
+		long margin = (long) Math.ceil(getBpRegionDouble().getLength() * TILE_MARGIN);
+		Region region = getBpRegion();
+		
+		return new Region(region.start.bp - margin, region.start.chr, region.end.bp + margin, region.end.chr);
+	}
+	
+	/**
+	 * Background threads for rendering track tiles.
+	 * 
+	 * @return
+	 * @throws RejectedExecutionException if the view is cleaned already
+	 */
+	public ExecutorService getTileExecutor() {
+		if (cleaned) {
+			// late repaints must not start new threads
+			throw new RejectedExecutionException("view is cleaned");
+		}
+		if (tileExecutor == null) {
+			tileExecutor = Executors.newFixedThreadPool(TILE_THREADS, new ThreadFactory() {
+				
+				private int count = 0;
+				
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "TrackTileRenderer-" + count++);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return tileExecutor;
+	}
+	
+	/**
+	 * Tell tracks that their data, selections or settings may have changed and the rendered 
+	 * tiles can't be used anymore. Moving or zooming the view doesn't need this.
+	 */
+	public void contentChanged() {
+		contentVersion++;
+	}
+	
+	public long getContentVersion() {
+		return contentVersion;
+	}
+	
+	/**
+	 * Tile rendering is disabled when the view is saved as an image or printed, 
+	 * because then everything has to be painted immediately.
+	 * 
+	 * @param tileRendering
+	 */
+	public void setTileRendering(boolean tileRendering) {
+		this.tileRendering = tileRendering;
+	}
+	
+	public boolean isTileRendering() {
+		return tileRendering;
+	}
 
 
 	public Region getRequestRegion() {
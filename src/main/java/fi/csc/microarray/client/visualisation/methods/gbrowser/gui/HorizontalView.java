@@ -40,7 +40,7 @@ public class HorizontalView extends GBrowserView implements KeyListener {
 		setBpRegion(newRegion);
 
 		if (!disableDrawing) {
-			parentPlot.redraw();
+			parentPlot.redraw(false);
 		}
 	}
 
@@ -125,7 +125,7 @@ public class HorizontalView extends GBrowserView implements KeyListener {
 											setBpRegion(bpRegion);
 											
 											if (!skipFrame) {
-												parentPlot.redraw();											
+												parentPlot.redraw(false);
 											}
 										} 
 
@@ -134,7 +134,7 @@ public class HorizontalView extends GBrowserView implements KeyListener {
 											setBpRegion(bpRegion);
 
 											if (!skipFrame) {
-												parentPlot.redraw();											
+												parentPlot.redraw(false);
 											}
 										}
 									}
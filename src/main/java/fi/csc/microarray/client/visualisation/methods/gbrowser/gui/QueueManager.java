@@ -4,13 +4,12 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Queue;
-import java.util.concurrent.LinkedBlockingDeque;
 
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataRequest;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataResult;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataResultListener;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex.DataRequestQueue;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex.DataSource;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex.DataThread;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.track.Track;
@@ -24,7 +23,7 @@ import fi.csc.microarray.client.visualisation.methods.gbrowser.track.Track;
 public class QueueManager {
 	
 	private class QueueContext {
-		public Queue<DataRequest> queue;
+		public DataRequestQueue queue;
 		public Collection<DataResultListener> listeners = new ArrayList<DataResultListener>();
 		public DataThread dataThread;
 	}
@@ -41,7 +40,7 @@ public class QueueManager {
 		if (!queues.containsKey(dataThread)) {
 			QueueContext context = new QueueContext();
 			
-			context.queue = new LinkedBlockingDeque<DataRequest>();				
+			context.queue = new DataRequestQueue();
 			
 			try {
 
@@ -85,7 +84,9 @@ public class QueueManager {
 
 		context.dataThread.setDataRegion(dataRegion);
 		
-		context.queue.add(req);		
+		Region dataThreadRegion = dataRegion != null ? context.dataThread.getDataRegion() : null;
+		Region visibleRegion = view.getBpRegionDouble() != null ? view.getBpRegion() : null;
+		context.queue.add(req, dataThreadRegion, visibleRegion);
 	}
 
 	public void addDataResultListener(DataThread dataThread, DataResultListener listener) {
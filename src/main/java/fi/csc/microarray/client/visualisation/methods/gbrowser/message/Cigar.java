@@ -92,7 +92,7 @@ public class Cigar {
 	}
 
 	/* 
-	 * RegionContents are compared currently with the toString method, here we return anything
+	 * Features compare values that are not Comparable with the toString method, here we return anything
 	 * constant so that comparison doesn't care about this object.
 	 */
 	@Override
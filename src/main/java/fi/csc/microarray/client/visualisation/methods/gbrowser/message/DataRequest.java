@@ -11,6 +11,7 @@ public class DataRequest extends Region {
 	
 	private DataStatus status;
 	private Collection<DataType> requestedContents;
+	private long createdTime = System.currentTimeMillis();
 	
 	/**
 	 * Constructs a new request. 
@@ -31,7 +32,29 @@ public class DataRequest extends Region {
 	 */
 	@Override
 	public DataRequest clone() throws CloneNotSupportedException {
-		return new DataRequest(this, this.requestedContents, new DataStatus(this.getStatus()));
+		DataRequest clone = new DataRequest(this, this.requestedContents, new DataStatus(this.getStatus()));
+		clone.createdTime = this.createdTime;
+		return clone;
+	}
+	
+	/**
+	 * Combine two requests of the same contents. The combined request covers both regions, has the status 
+	 * of this request and the creation time of the older one.
+	 * 
+	 * @param other
+	 * @return
+	 */
+	public DataRequest merge(DataRequest other) {
+		DataRequest merged = new DataRequest(super.merge(other), this.requestedContents, this.status);
+		merged.createdTime = Math.min(this.createdTime, other.createdTime);
+		return merged;
+	}
+	
+	/**
+	 * @return time when the view made this request, for measuring the latency of the data threads
+	 */
+	public long getCreatedTime() {
+		return createdTime;
 	}
 	
 	public DataStatus getStatus() {
@@ -15,10 +15,12 @@ public class DataStatus implements Cloneable {
 	public DataStatus(DataStatus dataStatus) {
 		this.dataRequestCount = dataStatus.dataRequestCount;
 		this.dataThread = dataStatus.dataThread;
+		this.latency = dataStatus.latency;
 	}
 
 	private long dataRequestCount = -1;
 	private DataThread dataThread;
+	private long latency = -1;
 	
 	public DataThread getDataThread() {
 		return dataThread;
@@ -32,4 +34,13 @@ public class DataStatus implements Cloneable {
 	public void setDataRequestCount(long dataRequestCount) {
 		this.dataRequestCount = dataRequestCount;
 	}
+	/**
+	 * @return milliseconds from the creation of the latest processed request to the end of its processing or -1 if not known
+	 */
+	public long getLatency() {
+		return latency;
+	}
+	public void setLatency(long latency) {
+		this.latency = latency;
+	}
 }
@@ -1,7 +1,11 @@
 package fi.csc.microarray.client.visualisation.methods.gbrowser.message;
 
+import java.math.BigDecimal;
 import java.text.DecimalFormat;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.regex.Pattern;
 
 
 /**
@@ -11,6 +15,8 @@ import java.util.LinkedHashMap;
  */
 public class Feature implements Comparable<Feature> {
 	
+	private static final Pattern NUMBER = Pattern.compile("[-+]?(\\d+\\.?\\d*|\\.\\d+)([eE][-+]?\\d+)?");
+	
 	public Region region;
 	public LinkedHashMap<DataType, Object> values;
 
@@ -29,6 +35,13 @@ public class Feature implements Comparable<Feature> {
 		this.values = new LinkedHashMap<>(other.values);
 	}
 
+	/**
+	 * Features are ordered by region and then by values. Values are compared pair by pair in 
+	 * insertion order. Numbers and numeric strings are compared by their numeric value, so that a 
+	 * parsed "960" equals 960L, and they come before the other values. Other values are compared 
+	 * by their string representation, so that the order is transitive. This avoids formatting the 
+	 * whole value map, which is expensive when large amounts of features are put into sorted sets.
+	 */
 	public int compareTo(Feature other) {
 
 		int regionComparison = this.region.compareTo(other.region);
@@ -37,7 +50,101 @@ public class Feature implements Comparable<Feature> {
 			return regionComparison;			
 			
 		} else {
-			return values.toString().compareTo(other.values.toString());
+			return compareValues(values, other.values);
+		}
+	}
+
+	private static int compareValues(LinkedHashMap<DataType, Object> values, LinkedHashMap<DataType, Object> otherValues) {
+		
+		Iterator<Entry<DataType, Object>> iterator = values != null ? values.entrySet().iterator() : null;
+		Iterator<Entry<DataType, Object>> otherIterator = otherValues != null ? otherValues.entrySet().iterator() : null;
+		
+		while (iterator != null && iterator.hasNext() && otherIterator != null && otherIterator.hasNext()) {
+			Entry<DataType, Object> entry = iterator.next();
+			Entry<DataType, Object> otherEntry = otherIterator.next();
+			
+			int keyComparison = entry.getKey().compareTo(otherEntry.getKey());
+			if (keyComparison != 0) {
+				return keyComparison;
+			}
+			
+			int valueComparison = compareValue(entry.getValue(), otherEntry.getValue());
+			if (valueComparison != 0) {
+				return valueComparison;
+			}
+		}
+		
+		// Shorter one comes first
+		boolean hasMore = iterator != null && iterator.hasNext();
+		boolean otherHasMore = otherIterator != null && otherIterator.hasNext();
+		return Boolean.compare(hasMore, otherHasMore);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static int compareValue(Object value, Object otherValue) {
+		
+		if (value == otherValue) {
+			return 0;
+			
+		} else if (value == null) {
+			return -1;
+			
+		} else if (otherValue == null) {
+			return 1;
+			
+		} else if (value.getClass() == otherValue.getClass() && (value instanceof Long || value instanceof Integer)) {
+			// the most common case, same order as the numeric comparison below
+			return ((Comparable) value).compareTo(otherValue);
+		}
+		
+		BigDecimal number = toNumber(value);
+		BigDecimal otherNumber = toNumber(otherValue);
+		
+		if (number != null && otherNumber != null) {
+			return number.compareTo(otherNumber);
+			
+		} else if (number != null) {
+			return -1;
+			
+		} else if (otherNumber != null) {
+			return 1;
+		}
+		
+		// like before, e.g. a parsed "+" equals Strand.FORWARD
+		return value.toString().compareTo(otherValue.toString());
+	}
+	
+	/**
+	 * @return numeric value of a number or a numeric string, null for other values and for 
+	 * infinite and NaN values
+	 */
+	private static BigDecimal toNumber(Object value) {
+		
+		if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			return BigDecimal.valueOf(((Number) value).longValue());
+			
+		} else if (value instanceof Float || value instanceof Double) {
+			double doubleValue = ((Number) value).doubleValue();
+			if (Double.isNaN(doubleValue) || Double.isInfinite(doubleValue)) {
+				return null;
+			}
+			// parse the string form, so that 0.1f equals "0.1"
+			return new BigDecimal(value.toString());
+			
+		} else if (value instanceof Number || value instanceof String) {
+			String string = value.toString();
+			if (string.isEmpty() || !NUMBER.matcher(string).matches()) {
+				return null;
+			}
+			try {
+				return new BigDecimal(string);
+			} catch (NumberFormatException e) {
+				// exponent out of range
+				return null;
+			}
+			
+		} else {
+			return null;
 		}
 	}
 	
@@ -1,6 +1,16 @@
 package fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -8,13 +18,17 @@ import java.util.NoSuchElementException;
 import java.util.Map.Entry;
 import java.util.TreeMap;
 
+import org.apache.log4j.Logger;
+
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.BpCoord;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Chromosome;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.IndexKey;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.util.GBrowserException;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.util.UnsortedDataException;
+import fi.csc.microarray.config.DirectoryLayout;
 
 /**
  * BinarySearchIndex locates requested region from the sorted file. The requested region is 
@@ -24,13 +38,26 @@ import fi.csc.microarray.client.visualisation.methods.gbrowser.util.UnsortedData
  * 
  * Comment and header lines are tolerated only in the beginning of the file.
  * 
+ * The RAM index can be saved to an index file, see {@link #getIndexFile(RandomAccessLineDataSource)}. 
+ * When the file is opened again, the saved index is used and the file isn't searched again. 
+ * 
  * @author klemela
  */
 public class BinarySearchIndex extends Index {
 
+	private static final Logger logger = Logger.getLogger(BinarySearchIndex.class);
+
+	private static final String INDEX_DIR_NAME = "genome-browser-index";
+	private static final int INDEX_FILE_VERSION = 1;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
 	private RandomAccessLineDataSource file;
 	private LineParser parser; 
 	
+	private File indexFile;
+	// true when the index has entries that aren't in the index file
+	private boolean indexChanged = false;
+	
 	/**
 	 * Index maps BpCoordinates (i.e. the value of start column of line) to file position of the
 	 * preceding new line character (in bytes).  
@@ -44,11 +71,196 @@ public class BinarySearchIndex extends Index {
 	private static final int INDEX_INTERVAL = 128*1024;
 
 	public BinarySearchIndex(DataSource file, LineParser parser) throws IOException, GBrowserException, UnsortedDataException {
+		this(file, parser, null);
+	}
+	
+	/**
+	 * @param indexFile load the index from this file if it exists and save it with {@link #save()}, may be null
+	 */
+	public BinarySearchIndex(DataSource file, LineParser parser, File indexFile) throws IOException, GBrowserException, UnsortedDataException {
 		this.file = (RandomAccessLineDataSource) file;
 		this.parser = parser;
+		this.indexFile = indexFile;
+		
+		// the sorting was checked already when the index file was created
+		if (!loadIndex()) {
+			checkSorting();		
+			readEnds();
+		}
+	}
+	
+	/**
+	 * @return index file in the client settings dir for this data or null if 
+	 * there is no place for it 
+	 */
+	public static File getIndexFile(RandomAccessLineDataSource file) {
+		try {
+			File dir = new File(DirectoryLayout.getInstance().getClientSettingsDir(), INDEX_DIR_NAME);
+			if (!dir.exists() && !dir.mkdirs()) {
+				return null;
+			}
+			// the url is checked from the file, so it doesn't matter if the hash isn't unique
+			String prefix = Integer.toHexString(getIndexUrl(file).hashCode()) + "-";
+			String name = prefix + file.length();
+			if (file.file != null) {
+				name += "-" + file.file.lastModified();
+			}
+			File indexFile = new File(dir, name + ".index");
+			deleteStaleIndexFiles(dir, prefix, indexFile);
+			return indexFile;
+			
+		} catch (IllegalStateException | IOException e) {
+			// DirectoryLayout isn't initialised, e.g. in tests
+			return null;
+		}
+	}
+	
+	/**
+	 * Delete the index files of the previous versions of the data, because the length or the
+	 * modification time of the data is part of the name.
+	 */
+	private static void deleteStaleIndexFiles(File dir, String prefix, File indexFile) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			// keep the temp file of the current index file, it may be being saved
+			if (file.getName().startsWith(prefix) && !file.getName().startsWith(indexFile.getName())) {
+				if (!file.delete()) {
+					logger.warn("could not delete stale index file " + file);
+				}
+			}
+		}
+	}
+	
+	private static String getIndexUrl(RandomAccessLineDataSource file) throws IOException {
+		return file.getDataUrl().getUrl().toString();
+	}
+	
+	/**
+	 * Save the index to avoid searching the file again, when it's opened next time.
+	 */
+	@Override
+	public void clean() {
+		save();
+	}
+	
+	/**
+	 * Save the index to the index file, if it has new entries.
+	 */
+	public void save() {
+		if (indexFile == null || !indexChanged) {
+			return;
+		}
+		
+		// chromosomes are stored only once
+		HashMap<Chromosome, Integer> chrIds = new HashMap<Chromosome, Integer>();
+		List<Chromosome> chrs = new ArrayList<Chromosome>();
+		for (BpCoord coord : index.keySet()) {
+			if (!chrIds.containsKey(coord.chr)) {
+				chrIds.put(coord.chr, chrs.size());
+				chrs.add(coord.chr);
+			}
+		}
 		
-		checkSorting();		
-		readEnds();
+		File tmpFile = new File(indexFile.getPath() + ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+				out.writeInt(INDEX_FILE_VERSION);
+				out.writeLong(file.length());
+				writeString(out, getIndexUrl(file));
+				
+				out.writeInt(chrs.size());
+				for (Chromosome chr : chrs) {
+					writeString(out, chr.getOriginalName());
+				}
+				
+				// columns of the index entries
+				out.writeInt(index.size());
+				for (BpCoord coord : index.keySet()) {
+					out.writeInt(chrIds.get(coord.chr));
+				}
+				for (BpCoord coord : index.keySet()) {
+					out.writeLong(coord.bp);
+				}
+				for (Long filePosition : index.values()) {
+					out.writeLong(filePosition);
+				}
+			}
+			Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			indexChanged = false;
+			
+		} catch (IOException e) {
+			logger.warn("could not save index file " + indexFile, e);
+			tmpFile.delete();
+		}
+	}
+	
+	/**
+	 * Load the index from the index file.
+	 * 
+	 * @return false if there is no usable index file
+	 */
+	private boolean loadIndex() {
+		if (indexFile == null || !indexFile.exists()) {
+			return false;
+		}
+		
+		try {
+			// read to the heap, a mapped file couldn't be replaced in save() on Windows
+			ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(indexFile.toPath()));
+			
+			if (buffer.getInt() != INDEX_FILE_VERSION || 
+					buffer.getLong() != file.length() || 
+					!getIndexUrl(file).equals(readString(buffer))) {
+				
+				logger.info("index file " + indexFile + " is for other data");
+				return false;
+			}
+			
+			Chromosome[] chrs = new Chromosome[buffer.getInt()];
+			for (int i = 0; i < chrs.length; i++) {
+				chrs[i] = new Chromosome(readString(buffer));
+			}
+			
+			int count = buffer.getInt();
+			int[] chrIds = new int[count];
+			long[] bps = new long[count];
+			long[] filePositions = new long[count];
+			buffer.asIntBuffer().get(chrIds);
+			buffer.position(buffer.position() + count * 4);
+			buffer.asLongBuffer().get(bps);
+			buffer.position(buffer.position() + count * 8);
+			buffer.asLongBuffer().get(filePositions);
+			
+			TreeMap<BpCoord, Long> loadedIndex = new TreeMap<BpCoord, Long>();
+			for (int i = 0; i < count; i++) {
+				loadedIndex.put(new BpCoord(bps[i], chrs[chrIds[i]]), filePositions[i]);
+			}
+			
+			if (loadedIndex.isEmpty()) {
+				return false;
+			}
+			this.index = loadedIndex;
+			return true;
+			
+		} catch (IOException | RuntimeException e) {
+			logger.warn("could not load index file " + indexFile, e);
+			return false;
+		}
+	}
+	
+	private static void writeString(DataOutputStream out, String string) throws IOException {
+		byte[] bytes = string.getBytes(UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+	
+	private static String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, UTF_8);
 	}
 
 	/**
@@ -140,6 +352,7 @@ public class BinarySearchIndex extends Index {
 			
 			if (region != null) {
 				index.put(region.start, firstLinePosition);
+				indexChanged = true;
 			} else {
 				firstLinePosition += firstLine.length() + 1; //plus one for new line character
 			}
@@ -151,6 +364,7 @@ public class BinarySearchIndex extends Index {
 		getParser().setLine(lastLine);
 		region = getParser().getRegion();
 		index.put(region.start, getFile().length() - lastLine.length() - 1);
+		indexChanged = true;
 	}
 	
 	/**
@@ -331,6 +545,7 @@ public class BinarySearchIndex extends Index {
 
 		//index file positions point to preceding new line character
 		index.put(region.start, centerFilePosition + partialLineLength + line.length());
+		indexChanged = true;
 	}
 
 	public RandomAccessLineDataSource getFile() {
@@ -0,0 +1,54 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+/**
+ * Least recently used blocks of remote files, shared by all {@link ByteDataSource}s. The
+ * size of the cache is limited by the number of bytes in the blocks.
+ */
+public class ByteBlockCache {
+
+	private LinkedHashMap<String, byte[]> blocks = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+	private long size = 0;
+	private long maxSize;
+
+	public ByteBlockCache(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public static String getKey(String url, long blockIndex) {
+		return url + "#" + blockIndex;
+	}
+
+	/**
+	 * @return the block or null if it isn't in the cache
+	 */
+	public synchronized byte[] get(String key) {
+		return blocks.get(key);
+	}
+
+	public synchronized void put(String key, byte[] block) {
+		byte[] old = blocks.put(key, block);
+		if (old != null) {
+			size -= old.length;
+		}
+		size += block.length;
+
+		// remove the least recently used blocks
+		Iterator<Entry<String, byte[]>> iterator = blocks.entrySet().iterator();
+		while (size > maxSize && iterator.hasNext()) {
+			Entry<String, byte[]> eldest = iterator.next();
+			if (eldest.getKey().equals(key)) {
+				continue;
+			}
+			size -= eldest.getValue().length;
+			iterator.remove();
+		}
+	}
+
+	public synchronized long size() {
+		return size;
+	}
+}
@@ -8,6 +8,16 @@ import java.net.HttpURLConnection;
 import java.net.URISyntaxException;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 
 import org.eclipse.jetty.util.IO;
 
@@ -19,29 +29,54 @@ import fi.csc.microarray.util.KeyAndTrustManager;
  * Handler for data sources that are accessed directly, meaning that they do not
  * have indexes (like tab-separated tables). Reads data to byte array and the user
  * must parse meaningful content out from the bytes.
- * 
+ *
+ * Remote files are read in blocks, which are kept in a cache shared by all instances.
+ * When the file is read sequentially, the following blocks are requested in advance
+ * with parallel range requests, and the number of these blocks grows as long as the
+ * reading continues sequentially.
+ *
  * @author Petri Klemelä, Aleksi Kallio
  *
  */
 public class ByteDataSource extends DataSource {
 
+	public static final int BLOCK_SIZE = 64*1024;
+	private static final int READ_AHEAD_MAX = 16; // blocks
+	private static final long CACHE_SIZE = 64*1024*1024;
+	private static final int REQUEST_THREADS = 4;
+
+	private static final ByteBlockCache cache = new ByteBlockCache(CACHE_SIZE);
+	private static final ConcurrentHashMap<String, Future<byte[]>> pendingBlocks = new ConcurrentHashMap<String, Future<byte[]>>();
+	private static final ExecutorService requestExecutor = Executors.newFixedThreadPool(REQUEST_THREADS, new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "chipster-genome-browser-range-request");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
 	private FileChannel fileChannel;
 	RandomAccessFile raFile;
 
 	private Long length = null;
 
+	// read ahead state, only a hint so there is no need to synchronize
+	private long lastBlock = -1;
+	private int readAhead = 0;
+
 	public ByteDataSource(DataUrl dataUrl) throws URISyntaxException, IOException {
 		super(dataUrl);
-		
+
 		if (file != null) { //Initialized by super constructor if file is local
 			raFile = new RandomAccessFile(file.getPath(), "r");
 			fileChannel = raFile.getChannel();
 		}
 	}
-	
+
 	/**
 	 * Method for getting a range from the file.
-	 * 
+	 *
 	 * @param filePosition
 	 * @param length
 	 * @return array of bytes
@@ -52,7 +87,7 @@ public class ByteDataSource extends DataSource {
 		if (fileChannel != null) {
 			InputStream in = Channels.newInputStream(fileChannel.position(filePosition));
 			try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-				
+
 				IO.copy(in, out, length);
 
 				return out.toByteArray();
@@ -60,45 +95,158 @@ public class ByteDataSource extends DataSource {
 
 		} else {
 
-			long endFilePosition = filePosition + length - 1;
+			if (filePosition < 0) {
+				throw new IOException("negative file position " + filePosition);
+			}
+
+			long endFilePosition = Math.min(filePosition + length, length());
 
-			//Make sure that we won't make requests outside the file end   	        	        	
-			if (endFilePosition > length()) {
-				endFilePosition = length();
+			if (filePosition >= endFilePosition) {
+				//Requested Range Not Satisfiable
+				//This happens often when data files have bigger coordinates than annotations, just ignore
+				return null;
 			}
 
-			HttpURLConnection connection = null;
-			try {
+			long firstBlock = filePosition / BLOCK_SIZE;
+			long lastBlock = (endFilePosition - 1) / BLOCK_SIZE;
+
+			// request all the blocks at once, including the blocks read in advance
+			List<Future<byte[]>> blocks = new ArrayList<Future<byte[]>>();
+			long readAheadEnd = Math.min(lastBlock + getReadAhead(firstBlock, lastBlock), (length() - 1) / BLOCK_SIZE);
+			for (long block = firstBlock; block <= readAheadEnd; block++) {
+				blocks.add(getBlock(block));
+			}
 
-				connection = (HttpURLConnection)url.openConnection();
-				KeyAndTrustManager.configureForChipsterCertificate(connection);
-				connection.setRequestProperty("Range", "bytes=" + filePosition + "-" + endFilePosition);
-				
-				try (InputStream in = connection.getInputStream();				
-				ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-					
-					IOUtils.copy(in, out);
-					return out.toByteArray();
+			// copy the requested range from the blocks
+			byte[] bytes = new byte[(int) (endFilePosition - filePosition)];
+			for (long block = firstBlock; block <= lastBlock; block++) {
+				byte[] blockBytes = waitFor(blocks.get((int) (block - firstBlock)));
+				long blockStart = block * BLOCK_SIZE;
+				long copyStart = Math.max(filePosition, blockStart);
+				long copyEnd = Math.min(endFilePosition, blockStart + blockBytes.length);
+				if (copyEnd > copyStart) {
+					System.arraycopy(blockBytes, (int) (copyStart - blockStart), bytes, (int) (copyStart - filePosition), (int) (copyEnd - copyStart));
 				}
-				
-			} catch (IOException e) {
-				if(e.getMessage().contains("HTTP") && e.getMessage().contains(" 416 ")) {
-					//Requested Range Not Satisfiable
-					//This happens often when data files have bigger coordinates than annotations, just ignore
-				} else {
-					throw e;
+			}
+			return bytes;
+		}
+	}
+
+	/**
+	 * Grow the read ahead while the file is read sequentially.
+	 *
+	 * @return number of blocks to read after the requested blocks
+	 */
+	private int getReadAhead(long firstBlock, long lastBlock) {
+		if (firstBlock == this.lastBlock || firstBlock == this.lastBlock + 1) {
+			if (lastBlock > this.lastBlock) {
+				readAhead = Math.min(Math.max(1, readAhead * 2), READ_AHEAD_MAX);
+			}
+		} else {
+			readAhead = 0;
+		}
+		this.lastBlock = lastBlock;
+		return readAhead;
+	}
+
+	private Future<byte[]> getBlock(final long block) {
+		final String key = ByteBlockCache.getKey(url.toString(), block);
+
+		final byte[] cached = cache.get(key);
+		if (cached != null) {
+			FutureTask<byte[]> done = new FutureTask<byte[]>(new Callable<byte[]>() {
+				@Override
+				public byte[] call() {
+					return cached;
 				}
-			} finally {
-				IOUtils.disconnectIfPossible(connection);
+			});
+			done.run();
+			return done;
+		}
+
+		// somebody may be reading this block already
+		FutureTask<byte[]> request = new FutureTask<byte[]>(new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws IOException {
+				try {
+					byte[] bytes = readRange(block * BLOCK_SIZE, Math.min((block + 1) * BLOCK_SIZE, length()) - 1);
+					cache.put(key, bytes);
+					return bytes;
+				} finally {
+					pendingBlocks.remove(key);
+				}
+			}
+		});
+		Future<byte[]> pending = pendingBlocks.putIfAbsent(key, request);
+		if (pending != null) {
+			return pending;
+		}
+		requestExecutor.execute(request);
+		return request;
+	}
+
+	private byte[] waitFor(Future<byte[]> block) throws IOException {
+		try {
+			return block.get();
+		} catch (InterruptedException e) {
+			throw new IOException("interrupted while reading " + url, e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
 			}
+			throw new IOException("reading " + url + " failed", e.getCause());
+		}
+	}
+
+	private byte[] readRange(long filePosition, long endFilePosition) throws IOException {
+
+		// the server may send less than requested
+		byte[] bytes = readRangeOnce(filePosition, endFilePosition);
+		while (bytes.length > 0 && bytes.length < endFilePosition - filePosition + 1) {
+			byte[] rest = readRangeOnce(filePosition + bytes.length, endFilePosition);
+			if (rest.length == 0) {
+				break;
+			}
+			byte[] combined = new byte[bytes.length + rest.length];
+			System.arraycopy(bytes, 0, combined, 0, bytes.length);
+			System.arraycopy(rest, 0, combined, bytes.length, rest.length);
+			bytes = combined;
+		}
+		return bytes;
+	}
+
+	private byte[] readRangeOnce(long filePosition, long endFilePosition) throws IOException {
+
+		HttpURLConnection connection = null;
+		try {
+
+			connection = (HttpURLConnection)url.openConnection();
+			KeyAndTrustManager.configureForChipsterCertificate(connection);
+			connection.setRequestProperty("Range", "bytes=" + filePosition + "-" + endFilePosition);
+
+			try (InputStream in = connection.getInputStream();
+			ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+
+				IOUtils.copy(in, out);
+				return out.toByteArray();
+			}
+
+		} catch (IOException e) {
+			if(e.getMessage().contains("HTTP") && e.getMessage().contains(" 416 ")) {
+				//Requested Range Not Satisfiable
+				return new byte[0];
+			} else {
+				throw e;
+			}
+		} finally {
+			IOUtils.disconnectIfPossible(connection);
 		}
-		return null;   
 	}
 
 	/**
 	 * Get all bytes from the file. Obviously this shouldn't be used for huge files, because
-	 * all the data is read to the RAM. 
-	 * 
+	 * all the data is read to the RAM.
+	 *
 	 * @return
 	 */
 	public byte[] readAll() throws IOException {
@@ -124,8 +272,8 @@ public class ByteDataSource extends DataSource {
 					length = Long.parseLong(connection.getHeaderField("content-length"));
 				} finally {
 					IOUtils.disconnectIfPossible(connection);
-				}       
-			} 
+				}
+			}
 		}
 		return length;
 	}
@@ -50,7 +50,7 @@ public class CnaConversion extends DataThread {
 			this.sampleNames = parser.getSampleNames();
 			
 			//create index
-			this.index = new BinarySearchIndex(file, parser);
+			this.index = new BinarySearchIndex(file, parser, BinarySearchIndex.getIndexFile(file));
 		
 		} catch (final UnsortedDataException e) {
 			SwingUtilities.invokeLater(new Runnable() {
@@ -168,4 +168,9 @@ public class CnaConversion extends DataThread {
 	public LinkedList<String> getSampleNames() {
 		return sampleNames;
 	}
+
+	@Override
+	protected Index getIndex() {
+		return index;
+	}
 }
@@ -0,0 +1,155 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.ListIterator;
+
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataRequest;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataType;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
+
+/**
+ * Request queue of a single {@link DataThread}. All requests come from the same view, so the queue can
+ * schedule them before the thread takes them:
+ *
+ * <ul>
+ * <li>a region request is combined with the queued requests of the same data types, if the regions overlap</li>
+ * <li>queued requests outside the latest data region of the view are dropped</li>
+ * <li>requests that intersect the visible region are taken before the requests that only prefetch data</li>
+ * </ul>
+ *
+ * Other requests (search, cancel, poison etc.) are kept as they are and taken in the same order with
+ * the visible region requests.
+ */
+public class DataRequestQueue {
+
+	private LinkedList<DataRequest> requests = new LinkedList<DataRequest>();
+	private Region dataRegion;
+	private Region visibleRegion;
+
+	/**
+	 * @param request
+	 * @param dataRegion region of all data needed by the view or null if it's not known
+	 * @param visibleRegion region currently visible in the view or null if it's not known
+	 */
+	public synchronized void add(DataRequest request, Region dataRegion, Region visibleRegion) {
+
+		if (dataRegion != null) {
+			this.dataRegion = dataRegion;
+		}
+		this.visibleRegion = visibleRegion;
+
+		if (isRegionRequest(request)) {
+
+			// place the combined request where the oldest of its parts was
+			int index = -1;
+
+			ListIterator<DataRequest> iter = requests.listIterator();
+			while (iter.hasNext()) {
+				DataRequest queued = iter.next();
+
+				if (!isRegionRequest(queued)) {
+					continue;
+				}
+
+				if (this.dataRegion != null && !this.dataRegion.intersects(queued)) {
+					// superseded, the view has moved elsewhere
+					iter.remove();
+
+				} else if (isCombinable(queued, request)) {
+					if (index == -1) {
+						index = iter.previousIndex();
+					}
+					request = queued.merge(request);
+					iter.remove();
+				}
+			}
+
+			if (index != -1) {
+				requests.add(Math.min(index, requests.size()), request);
+			} else {
+				requests.add(request);
+			}
+		} else {
+			requests.add(request);
+		}
+
+		notifyAll();
+	}
+
+	/**
+	 * Wait for a request and remove it from the queue.
+	 *
+	 * @return the oldest request intersecting the visible region or the oldest request, if none of them does
+	 * @throws InterruptedException
+	 */
+	public synchronized DataRequest take() throws InterruptedException {
+
+		while (requests.isEmpty()) {
+			wait();
+		}
+
+		Iterator<DataRequest> iter = requests.iterator();
+		while (iter.hasNext()) {
+			DataRequest request = iter.next();
+
+			if (!isRegionRequest(request) || visibleRegion == null || visibleRegion.intersects(request)) {
+				iter.remove();
+				return request;
+			}
+		}
+
+		return requests.removeFirst();
+	}
+
+	public synchronized int size() {
+		return requests.size();
+	}
+
+	/**
+	 * Check if the processing of the request can be stopped, because the view doesn't need its data anymore
+	 * or a queued request will produce all the data that is still needed.
+	 *
+	 * @param request
+	 * @return
+	 */
+	public synchronized boolean isSuperseded(DataRequest request) {
+
+		if (!isRegionRequest(request) || dataRegion == null) {
+			return false;
+		}
+
+		if (!dataRegion.intersects(request)) {
+			return true;
+		}
+
+		Region needed = dataRegion.intersect(request);
+
+		for (DataRequest queued : requests) {
+			if (isRegionRequest(queued) &&
+					queued.getRequestedContents().equals(request.getRequestedContents()) &&
+					queued.start.compareTo(needed.start) <= 0 && queued.end.compareTo(needed.end) >= 0) {
+
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Only plain region requests can be combined, dropped or postponed.
+	 */
+	private boolean isRegionRequest(DataRequest request) {
+		return request.getClass() == DataRequest.class &&
+				request.start != null && request.end != null &&
+				request.getRequestedContents() != null &&
+				!request.getRequestedContents().contains(DataType.CANCEL);
+	}
+
+	private boolean isCombinable(DataRequest queued, DataRequest request) {
+		return queued.start.chr.equals(request.start.chr) &&
+				queued.getRequestedContents().equals(request.getRequestedContents()) &&
+				queued.intersects(request);
+	}
+}
@@ -3,8 +3,6 @@ package fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex;
 import java.lang.reflect.InvocationTargetException;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.LinkedBlockingDeque;
 
 import javax.swing.SwingUtilities;
 
@@ -29,7 +27,7 @@ import fi.csc.microarray.client.visualisation.methods.gbrowser.util.GBrowserExce
  */
 public abstract class DataThread {
 
-	private LinkedBlockingDeque<DataRequest> dataRequestQueue;
+	private DataRequestQueue dataRequestQueue;
 	protected QueueManager queueManager;
 	protected Thread thread;
 
@@ -37,6 +35,9 @@ public abstract class DataThread {
 	private volatile boolean poison = false;
 
 	private Region dataRegion;
+	
+	//milliseconds from the creation of the latest processed request to the end of its processing
+	private volatile long latency = -1;
 
 	private GBrowser browser;
 	private DataSource dataSource;
@@ -63,7 +64,7 @@ public abstract class DataThread {
 						//report before waiting in queue.take()
 						reportQueueSize(false);
 						
-						if ((dataRequest = dataRequestQueue.takeFirst()) != null) {
+						if ((dataRequest = dataRequestQueue.take()) != null) {
 							
 							//report queue length after wait
 							reportQueueSize(true);						
@@ -82,6 +83,7 @@ public abstract class DataThread {
 								
 								try {
 									processDataRequest(dataRequest);
+									latency = System.currentTimeMillis() - dataRequest.getCreatedTime();
 								} catch (GBrowserException e) {
 									reportException(e);
 									poison = true;
@@ -95,6 +97,9 @@ public abstract class DataThread {
 					}
 				}
 				clean();
+				if (getIndex() != null) {
+					getIndex().clean();
+				}
 			}
 
 		};
@@ -110,6 +115,16 @@ public abstract class DataThread {
 	public void clean() {		
 	}
 
+	/**
+	 * Override this method, if the thread uses an {@link Index}. The index is cleaned 
+	 * after {@link #clean()}.
+	 * 
+	 * @return index of the data or null
+	 */
+	protected Index getIndex() {
+		return null;
+	}
+
 	protected abstract void processDataRequest(DataRequest dataRequest) throws GBrowserException, InterruptedException;
 	/**
 	 * Pass the result to be visualised in GUI.
@@ -143,13 +158,25 @@ public abstract class DataThread {
 		}
 	}	
 	
-	public void setQueue(Queue<DataRequest> queue) {
-		this.dataRequestQueue = (LinkedBlockingDeque<DataRequest>) queue;
+	public void setQueue(DataRequestQueue queue) {
+		this.dataRequestQueue = queue;
 	}
 
 	public boolean hasNewRequest() {
 		return dataRequestQueue.size() > 0;
 	}
+	
+	/**
+	 * Long running conversions should check this between reads and stop processing the request, when
+	 * it returns true. Then the thread is poisoned, the view has moved away from the requested region 
+	 * or a newer request in the queue covers the rest of the region. 
+	 * 
+	 * @param request
+	 * @return
+	 */
+	public boolean isRequestObsolete(DataRequest request) {
+		return poison || dataRequestQueue.isSuperseded(request);
+	}
 
 	/**
 	 * This background thread is processing data requests in the order they appear from the queue. 
@@ -182,7 +209,8 @@ public abstract class DataThread {
 				
 		DataStatus status = new DataStatus();
 		status.setDataThread(this);
-		status.setDataRequestCount(dataRequestQueue.size() + (increaseByOne ? 1 : 0));		
+		status.setDataRequestCount(dataRequestQueue.size() + (increaseByOne ? 1 : 0));
+		status.setLatency(latency);
 		List<Feature> emptyList = new LinkedList<Feature>();		
 		createDataResult(new DataResult(status, emptyList));		
 	}
@@ -225,6 +253,6 @@ public abstract class DataThread {
 	public void poison() {
 		this.poison = true;
 		// wake up thread
-		dataRequestQueue.add(new DataRequest(new Region(), null, null));
+		dataRequestQueue.add(new DataRequest(new Region(), null, null), null, null);
 	}
 }
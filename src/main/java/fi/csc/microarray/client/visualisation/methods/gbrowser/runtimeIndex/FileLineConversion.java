@@ -34,8 +34,8 @@ import fi.csc.microarray.client.visualisation.methods.gbrowser.util.UnsortedData
  */
 public class FileLineConversion extends DataThread {
 
-	//Use InMemoryIndex for files under 1MB
-	private static final long IN_MEMORY_INDEX_LIMIT = 1*1000*1000;
+	//Use InMemoryIndex for files under 20MB
+	private static final long IN_MEMORY_INDEX_LIMIT = 20*1000*1000;
 
 	private Index index;
 
@@ -53,7 +53,7 @@ public class FileLineConversion extends DataThread {
 			this.index = new InMemoryIndex(lineDataSource, parser);
 			super.setDataSource(lineDataSource);
 		} else {
-			this.index = new BinarySearchIndex(dataSource, parser);
+			this.index = new BinarySearchIndex(dataSource, parser, BinarySearchIndex.getIndexFile(dataSource));
 			super.setDataSource(dataSource);
 		}
 	}
@@ -114,6 +114,7 @@ public class FileLineConversion extends DataThread {
 		return parser;
 	}
 
+	@Override
 	public Index getIndex() {
 		return index;
 	}
@@ -1,30 +1,53 @@
 package fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex;
 
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.TreeMap;
 
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.BpCoord;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Chromosome;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.IndexKey;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.util.GBrowserException;
 
 /**
  * In-memory index, which keeps the whole file in RAM. This is practical for small files
- * below 10 MB, where file reading takes less than 1 second. Files don't need to be sorted. 
- * Memory usage is about 300% in comparison to original file size.
+ * below 20 MB, where file reading takes only few seconds. Files don't need to be sorted.
+ *
+ * The lines are kept as bytes in one array and the start positions of the lines in parallel
+ * arrays sorted according to start positions. Region requests are binary searched from these arrays
+ * and only the lines of the requested region are converted to Strings. Memory usage is about the
+ * original file size and 24 bytes for each line.
  * 
  * @author klemela
  */
 public class InMemoryIndex extends Index {
 
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
 	private LineDataSource file;
 	private LineParser parser;
 	
-	//TreeMap for storing all lines of the file sorted according to start positions 
-	private TreeMap<IndexKey, String> lineMap;
+	//lines of the file in the original order
+	private byte[] bytes;
+
+	//chromosomes in sort order
+	private Chromosome[] chrs;
+
+	//Parallel arrays of all lines of the file sorted according to start positions
+	private int[] chrIndexes;
+	private long[] starts;
+	private int[] lineNumbers;
+	private int[] offsets;
+	private int[] lengths;
+
+	private int lineCount;
 
 	public InMemoryIndex(DataSource file, LineParser parser) throws IOException {
 		this.file = (LineDataSource) file;
@@ -40,21 +63,131 @@ public class InMemoryIndex extends Index {
 	 */
 	private void readFile() throws IOException {
 		
-		lineMap = new TreeMap<IndexKey, String>();
+		bytes = new byte[64 * 1024];
+		int byteCount = 0;
+
+		int capacity = 1024;
+		Chromosome[] lineChrs = new Chromosome[capacity];
+		starts = new long[capacity];
+		offsets = new int[capacity];
+		lengths = new int[capacity];
+
+		//use the same Chromosome object for all lines of the chromosome
+		TreeMap<Chromosome, Chromosome> chrMap = new TreeMap<Chromosome, Chromosome>();
+		boolean sorted = true;
+
 		String line;
-		
-		long lineNumber = 0;
+		lineCount = 0;
 		while ((line = file.readLine()) != null) {
 			
 			if (parser.setLine(line)) {
-				IndexKey key = new IndexKey(parser.getRegion().start, lineNumber, true);
-				lineMap.put(key, line);
+
+				BpCoord start = parser.getRegion().start;
+				Chromosome chr = chrMap.get(start.chr);
+				if (chr == null) {
+					chr = start.chr;
+					chrMap.put(chr, chr);
+				}
+
+				byte[] lineBytes = line.getBytes(UTF_8);
+				if (byteCount + lineBytes.length > bytes.length) {
+					long newLength = Math.max(bytes.length * 2l, byteCount + lineBytes.length);
+					if (newLength > Integer.MAX_VALUE - 8) {
+						throw new IOException("file is too large for " + getClass().getSimpleName());
+					}
+					bytes = Arrays.copyOf(bytes, (int) newLength);
+				}
+				System.arraycopy(lineBytes, 0, bytes, byteCount, lineBytes.length);
+
+				if (lineCount == starts.length) {
+					capacity = starts.length * 2;
+					lineChrs = Arrays.copyOf(lineChrs, capacity);
+					starts = Arrays.copyOf(starts, capacity);
+					offsets = Arrays.copyOf(offsets, capacity);
+					lengths = Arrays.copyOf(lengths, capacity);
+				}
+				lineChrs[lineCount] = chr;
+				starts[lineCount] = start.bp;
+				offsets[lineCount] = byteCount;
+				lengths[lineCount] = lineBytes.length;
+
+				if (sorted && lineCount > 0) {
+					int chrComparison = lineChrs[lineCount - 1].compareTo(chr);
+					sorted = chrComparison < 0 || (chrComparison == 0 && starts[lineCount - 1] <= start.bp);
+				}
+
+				byteCount += lineBytes.length;
 				
 				//Count only content lines, because this is a convention in Chipster selection system
-				lineNumber++;
+				lineCount++;
 			}
+		}
 			
+		bytes = Arrays.copyOf(bytes, byteCount);
+
+		chrs = chrMap.keySet().toArray(new Chromosome[chrMap.size()]);
+		TreeMap<Chromosome, Integer> chrIndexMap = new TreeMap<Chromosome, Integer>();
+		for (int i = 0; i < chrs.length; i++) {
+			chrIndexMap.put(chrs[i], i);
+		}
+
+		int[] lineChrIndexes = new int[lineCount];
+		for (int i = 0; i < lineCount; i++) {
+			lineChrIndexes[i] = chrIndexMap.get(lineChrs[i]);
+		}
+
+		sort(lineChrIndexes, sorted);
+	}
+
+	/**
+	 * Sort the lines according to start positions. Lines with equal start position are
+	 * kept in the original order.
+	 */
+	private void sort(final int[] lineChrIndexes, boolean sorted) {
+
+		lineNumbers = new int[lineCount];
+		for (int i = 0; i < lineCount; i++) {
+			lineNumbers[i] = i;
+		}
+
+		if (sorted) {
+			chrIndexes = lineChrIndexes;
+			starts = Arrays.copyOf(starts, lineCount);
+			offsets = Arrays.copyOf(offsets, lineCount);
+			lengths = Arrays.copyOf(lengths, lineCount);
+			return;
 		}
+
+		final long[] lineStarts = starts;
+		Integer[] order = new Integer[lineCount];
+		for (int i = 0; i < lineCount; i++) {
+			order[i] = i;
+		}
+		//stable sort, so equal lines stay in the original order
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer line1, Integer line2) {
+				if (lineChrIndexes[line1] != lineChrIndexes[line2]) {
+					return lineChrIndexes[line1] < lineChrIndexes[line2] ? -1 : 1;
+				}
+				return Long.compare(lineStarts[line1], lineStarts[line2]);
+			}
+		});
+
+		chrIndexes = new int[lineCount];
+		starts = new long[lineCount];
+		int[] sortedOffsets = new int[lineCount];
+		int[] sortedLengths = new int[lineCount];
+		for (int i = 0; i < lineCount; i++) {
+			int line = order[i];
+			chrIndexes[i] = lineChrIndexes[line];
+			starts[i] = lineStarts[line];
+			lineNumbers[i] = line;
+			sortedOffsets[i] = offsets[line];
+			sortedLengths[i] = lengths[line];
+		}
+		offsets = sortedOffsets;
+		lengths = sortedLengths;
 	}
 	
 	/**
@@ -65,11 +198,10 @@ public class InMemoryIndex extends Index {
 	 */
 	public List<String> getFileLines() {
 		
-		LinkedList<String> lines = new LinkedList<String>();				
+		ArrayList<String> lines = new ArrayList<String>(lineCount);
 		
-		for (Entry<IndexKey, String> entry : lineMap.entrySet()) {
-
-			lines.add(entry.getValue());
+		for (int i = 0; i < lineCount; i++) {
+			lines.add(getLine(i));
 		}
 		
 		return lines;
@@ -79,30 +211,81 @@ public class InMemoryIndex extends Index {
 		
 		TreeMap<IndexKey, String> lines = new TreeMap<IndexKey, String>();
 		
-		IndexKey startKey = new IndexKey(request.start, 0l);
-		//zero second parameter makes this enKey smaller than lines with equal start position 
-		//and thus excludes the lines with equal start position
-		IndexKey endKey = new IndexKey(request.end, 0);
+		BpCoord start = request.start;
+		BpCoord end = request.end;
 
 		//This shouldn't happen, but lets live on with it
-		if (startKey.compareTo(endKey) > 0) {
+		if (start.compareTo(end) > 0) {
 			System.err.println("Error in class \"" + this.getClass().getSimpleName() + " method getFileLines(): startkey > endKey");
-			IndexKey tmp = endKey;
-			endKey = startKey;
-			startKey = tmp;
+			BpCoord tmp = end;
+			end = start;
+			start = tmp;
 		}
 		
-		for (Entry<IndexKey, String> entry : lineMap.subMap(startKey, endKey).entrySet()) {
+		//lines with equal start position as the request end are excluded
+		int endIndex = binarySearch(end);
+		for (int i = binarySearch(start); i < endIndex; i++) {
 
-			lines.put(entry.getKey(), entry.getValue());
+			BpCoord lineStart = new BpCoord(starts[i], chrs[chrIndexes[i]]);
+			lines.put(new IndexKey(lineStart, lineNumbers[i], true), getLine(i));
 		}
 		
 		return lines;
 	}
 	
+	/**
+	 * @return index of the first line that starts at the given position or after it
+	 */
+	private int binarySearch(BpCoord coord) {
+
+		int low = 0;
+		int high = lineCount;
+
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+
+			int comparison = chrs[chrIndexes[mid]].compareTo(coord.chr);
+			if (comparison == 0) {
+				comparison = Long.compare(starts[mid], coord.bp);
+			}
+
+			if (comparison < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private String getLine(int index) {
+		return new String(bytes, offsets[index], lengths[index], UTF_8);
+	}
+
 	@Override
 	public Iterator<String> getFileLineIterator() throws IOException, GBrowserException {
 		
-		return getFileLines().iterator();	
+		return new Iterator<String>() {
+
+			private int index = 0;
+
+			@Override
+			public boolean hasNext() {
+				return index < lineCount;
+			}
+
+			@Override
+			public String next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return getLine(index++);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
 	}
 }
@@ -22,4 +22,11 @@ public abstract class Index {
 	public abstract TreeMap<IndexKey, String> getFileLines(Region requestRegion) throws IOException, GBrowserException;
 
 	public abstract Iterator<String> getFileLineIterator() throws IOException, GBrowserException;
+
+	/**
+	 * Called when the data thread of this index is cleaned. Override this method to save or
+	 * release resources.
+	 */
+	public void clean() {
+	}
 }
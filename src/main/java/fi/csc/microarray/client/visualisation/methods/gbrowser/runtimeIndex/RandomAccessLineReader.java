@@ -13,12 +13,11 @@ import fi.csc.microarray.client.visualisation.methods.gbrowser.util.GBrowserExce
  * Custom implementation of random access line reading, because method HttpInputStream.skip()  
  * doesn't support random access and is therefore useless with big files. File implementation
  * FileInputStream.skip() is workable, but this is used also with files because of consistency and 
- * speed. This implementation is fast for getting a few lines anywhere in the file, 
- * but sequential performance is poor over http, because requests are made sequentially at the moment.
+ * speed. This implementation is fast for getting a few lines anywhere in the file. Over http 
+ * the sequential performance depends on the block cache and read ahead of {@link ByteDataSource}.
  * 
- * Jetty server sends only about 4 kilobytes per range request.
- * Sequential throughput varies greatly with ping, from 1 MB/s in local network (1 ms ping)
- * to 10 kB/s (~50 ms ping).
+ * The buffer is kept as bytes and only the returned lines are converted to Strings, so that 
+ * moving inside the buffer doesn't copy it and the file positions are counted in bytes. 
  * 
  * Buffering is needed in http, but with local files it might not be necessary. Probably RandomAccessFile 
  * could be queried directly, because file reading is buffered anyway in operating system level. 
@@ -33,10 +32,12 @@ public class RandomAccessLineReader {
 	//Must be greater than length of longest row
 	public static final int HTTP_BUFFER_SIZE = 1024*4;
 	
-	//File position of the buffer's first byte
+	//File position of the buffer's first unread byte
 	private long position = -1;
 	
-	private String buffer;
+	//Bytes from the file, the unread part starts from bufferStart
+	private byte[] buffer;
+	private int bufferStart;
 
 	//Reads random access bytes from file or http
 	private ByteDataSource byteDataSource;
@@ -69,10 +70,10 @@ public class RandomAccessLineReader {
 			return false;
 		}
 				
-		if (buffer != null && position >= this.position && position < this.position + buffer.length()) {
+		if (buffer != null && position >= this.position - bufferStart && position < this.position + bufferLength()) {
 			
 			//The buffer is still useful
-			buffer = buffer.substring((int) (position - this.position));
+			bufferStart += (int) (position - this.position);
 		} else {
 			
 			//The old buffer is useless
@@ -103,13 +104,16 @@ public class RandomAccessLineReader {
 			fillBuffer();
 		}
 
-		int indexOfNewLine = buffer.indexOf("\n");
+		int indexOfNewLine = indexOfNewLine(bufferStart);
 
-		while (indexOfNewLine < 0 && position + buffer.length() < length()) {
+		while (indexOfNewLine < 0 && position + bufferLength() < length()) {
 			
-			//Buffer run out
-			fillBuffer();
-			indexOfNewLine = buffer.indexOf("\n");
+			//Buffer run out, the unread bytes are moved to the beginning of the buffer
+			int searched = bufferLength();
+			if (!fillBuffer()) {
+				break;
+			}
+			indexOfNewLine = indexOfNewLine(searched);
 			
 		}
 
@@ -118,36 +122,53 @@ public class RandomAccessLineReader {
 		}
 		
 		//Get the requested line from buffer
-		String line = buffer.substring(0, indexOfNewLine);
+		String line = new String(buffer, bufferStart, indexOfNewLine - bufferStart);
 		
-		//Remove requested line from buffer and mark its new position
-		buffer = buffer.substring(indexOfNewLine + 1);
-		position += indexOfNewLine + 1;
+		//Skip requested line in the buffer and mark its new position
+		position += indexOfNewLine + 1 - bufferStart;
+		bufferStart = indexOfNewLine + 1;
 
 		return line;
 	}
 	
-	//private int fillBufferCount = 0;
+	private int indexOfNewLine(int from) {
+		for (int i = from; i < buffer.length; i++) {
+			if (buffer[i] == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	private int bufferLength() {
+		return buffer != null ? buffer.length - bufferStart : 0;
+	}
 	
 	/**
-	 * Fill internal buffer starting from the this.position.
+	 * Fill internal buffer starting from the this.position. The read part of the 
+	 * buffer is dropped.
 	 * 
+	 * @return false if there was nothing to read 
 	 * @throws IOException
 	 */
-	private void fillBuffer() throws IOException {
+	private boolean fillBuffer() throws IOException {
 		
-		//System.out.println("FillbufferCount: " + fillBufferCount++);
-					
-		if (buffer == null) {
-			buffer = "";
-		}
-		
-		long refillPosition = position + buffer.length();
+		long refillPosition = position + bufferLength();
 		 
 		byte[] bytes = byteDataSource.read(refillPosition, HTTP_BUFFER_SIZE);
-		buffer = buffer + new String(bytes);		
+		if (bytes == null) {
+			bytes = new byte[0];
+		}
+		
+		byte[] newBuffer = new byte[bufferLength() + bytes.length];
+		if (buffer != null) {
+			System.arraycopy(buffer, bufferStart, newBuffer, 0, bufferLength());
+		}
+		System.arraycopy(bytes, 0, newBuffer, newBuffer.length - bytes.length, bytes.length);
+		buffer = newBuffer;
+		bufferStart = 0;
 		
-		//System.out.println("RandomAccessLineReader.fillBuffer() Position: " + position/1024/1024 + " MB \t Length: " + buffer.lastIndexOf("\n") + " bytes");
+		return bytes.length > 0;
 	}
 
 
@@ -20,6 +20,7 @@ import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Feature;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Gene;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.GeneSet;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.PositionAndStringKey;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
 
 /**
  * Track for genes. Higher zoom level version of {@link TranscriptTrack}.
@@ -36,6 +37,7 @@ public class GeneTrack extends Track {
 	public GeneTrack(Color color) {
 		super();
 		this.color = color;
+		setTileRendering(true);
 	}
 
 	@Override
@@ -65,9 +67,12 @@ public class GeneTrack extends Track {
 				sortedGenes.put(key, gene);
 			}
 
+			// the tile has margins outside the visible region
+			Region tileRegion = getView().getTileRegion();
+
 			for (Gene gene : sortedGenes.values()) {
 				
-				if (!getView().getBpRegion().intersects(gene.getRegion())) {
+				if (!tileRegion.intersects(gene.getRegion())) {
 					continue;
 				}
 				
@@ -20,6 +20,7 @@ import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataResul
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataType;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Feature;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.ReadPart;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Sequence;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Strand;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex.DataThread;
@@ -35,8 +36,11 @@ public class ReadPileTrack extends Track {
 		private int layer;
 		private boolean warning;
 
+		/**
+		 * Wraps the region and values of the feature without copying them. 
+		 */
 		public Read(Feature feature) {
-			super(feature);
+			super(feature.region, feature.values);
 		}
 
 		public boolean isWarning() {
@@ -73,6 +77,7 @@ public class ReadPileTrack extends Track {
 		super();
 		this.refData = refData;
 		this.layoutMode = this.defaultLayoutMode = LayoutMode.FILL;
+		setTileRendering(true);
 	}
 
 	@Override
@@ -80,8 +85,10 @@ public class ReadPileTrack extends Track {
 		
 		Collection<Drawable> drawables = getEmptyDrawCollection();
 
+		Region tileRegion = getView().getTileRegion();
+
 		// If SNP highlight mode is on, we need reference sequence data
-		char[] refSeq = highlightSNP ? getReferenceArray(referenceSequenceFeatures, view, strand) : null;		
+		char[] refSeq = highlightSNP ? getReferenceArray(referenceSequenceFeatures, tileRegion, view, strand) : null;		
 		
 
 		Iterator<Read> splittedReadIter = dividedReads.iterator();
@@ -90,8 +97,8 @@ public class ReadPileTrack extends Track {
 		while (splittedReadIter.hasNext()) {
 			splittedRead = splittedReadIter.next();
 
-			// Skip elements that are not visible
-			if (!getView().viewIntersects(splittedRead.region)) {
+			// Skip elements that are not visible, but keep the ones in the margin of the track tile
+			if (!tileRegion.intersects(splittedRead.region)) {
 				continue;
 			}
 
@@ -180,7 +187,7 @@ public class ReadPileTrack extends Track {
 							// Choose a color depending on viewing mode
 							Color bg = Color.white;
 							Color border = Color.white;
-							long posInRef = readPart.start.bp.intValue() + refIndex - getView().getBpRegion().start.bp.intValue();
+							long posInRef = readPart.start.bp.intValue() + refIndex - tileRegion.start.bp.intValue();
 							if (highlightSNP && posInRef >= 0 && posInRef < refSeq.length && Character.toLowerCase(refSeq[(int)posInRef]) == Character.toLowerCase(letter)) {
 								bg = getDefaultReadColor(readPart.getRead());
 								border = bg;
@@ -381,11 +388,18 @@ public class ReadPileTrack extends Track {
 	 * Convert reference sequence reads to a char array.
 	 */
 	public static char[] getReferenceArray(Collection<Feature> refFeatures, GBrowserView view, Strand strand) {
+		return getReferenceArray(refFeatures, view.getBpRegion(), view, strand);
+	}
+
+	/**
+	 * Convert reference sequence reads of the given region to a char array.
+	 */
+	public static char[] getReferenceArray(Collection<Feature> refFeatures, Region region, GBrowserView view, Strand strand) {
 		char[] refSeq = new char[0];
 		Iterator<Feature> iter = refFeatures.iterator();
-		refSeq = new char[view.getBpRegion().getLength().intValue() + 1];
-		int startBp = view.getBpRegion().start.bp.intValue();
-		int endBp = view.getBpRegion().end.bp.intValue();
+		refSeq = new char[region.getLength().intValue() + 1];
+		int startBp = region.start.bp.intValue();
+		int endBp = region.end.bp.intValue();
 		Feature feature;
 		while (iter.hasNext()) {
 			feature = iter.next();
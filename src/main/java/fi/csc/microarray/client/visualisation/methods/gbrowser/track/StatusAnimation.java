@@ -4,13 +4,16 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.event.MouseEvent;
 import java.awt.geom.Ellipse2D;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Map;
 
 import javax.swing.JComponent;
+import javax.swing.ToolTipManager;
 
+import fi.csc.microarray.client.visualisation.methods.gbrowser.fileIndex.CoverageCache;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.gui.GBrowserConstants;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.gui.QueueManager;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataResult;
@@ -19,6 +22,8 @@ import fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex.Data
 
 /**
  * A Swing component which shows a spinning wheel when the background threads are working.
+ * Tooltip shows the length of the request queues, latency of the latest requests and the usage
+ * of the shared {@link CoverageCache}.
  * 
  * @author klemela
  */
@@ -26,6 +31,7 @@ public class StatusAnimation extends JComponent implements DataResultListener {
 	
 	private static final long VISIBLE_AFTER = 100; //ms
 	private Map<DataThread, Long> queueLengths = new HashMap<DataThread, Long>();
+	private Map<DataThread, Long> latencies = new HashMap<DataThread, Long>();
 	private double angle;
 	private long previousTime;
 	private long hideTime = 0;
@@ -39,6 +45,17 @@ public class StatusAnimation extends JComponent implements DataResultListener {
 	public StatusAnimation(QueueManager queueManager, TrackGroup trackGroup) {
 		this.queueManager = queueManager;
 		this.trackGroup = trackGroup;
+		
+		ToolTipManager.sharedInstance().registerComponent(this);
+	}
+	
+	@Override
+	public String getToolTipText(MouseEvent event) {
+		
+		String latency = getMaxLatency() >= 0 ? getMaxLatency() + " ms" : "-";
+		
+		return "<html>Data requests in queue: " + getMaxQueueLength() + ", latency of the latest request: " + latency + 
+				"<br>" + CoverageCache.getInstance().getStatistics() + "</html>";
 	}
 
 	@Override
@@ -93,6 +110,16 @@ public class StatusAnimation extends JComponent implements DataResultListener {
 		
 		return max;
 	}
+	
+	private long getMaxLatency() {
+		long max = -1; 
+		
+		for (Long value : latencies.values()) {
+			max = Math.max(max, value);
+		}
+		
+		return max;
+	}
 
 	public void processDataResult(DataResult dataResult) {
 
@@ -107,6 +134,10 @@ public class StatusAnimation extends JComponent implements DataResultListener {
 			Long value = dataResult.getStatus().getDataRequestCount(); 
 			queueLengths.put(dataThread, value);
 		}
+		
+		if (dataResult.getStatus().getLatency() >= 0) {
+			latencies.put(dataThread, dataResult.getStatus().getLatency());
+		}
 	}
 
 	public void addDataThread(DataThread dataThread) {
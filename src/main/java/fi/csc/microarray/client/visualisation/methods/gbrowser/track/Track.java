@@ -10,6 +10,7 @@ import java.awt.RenderingHints;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.geom.Point2D;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -55,54 +56,31 @@ public abstract class Track implements DataResultListener, MouseListener, Layout
 			Graphics2D g2 = (Graphics2D) g;
 			g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
 					RenderingHints.VALUE_ANTIALIAS_ON);
+			
+			if (tileRenderer != null && getView().isTileRendering()) {
+				
+				tileRenderer.paint(g2);
+				printTime(getTrackName() + "\tdraw tile");
+				return;
+			}
 
 			g2.setPaint(this.getBackground());
 			g2.fillRect(0, 0, getWidth(), getHeight());
 
 			// prepare coordinates
 			int x = 0;
+			int y = getDrawableY();
 
-			List<Selectable> selectables = getSelectables();	
+			List<Drawable> drawables = getPositionedDrawables();
 			
-			updateSelections(getSelectionManager());
-			
- 			for (Selectable selectable : selectables) {
-				
-				List<Drawable> drawables = selectable.getDrawables();
-				drawDrawables(g2, x, drawables);
-			}
- 			
-			printTime(getTrackName() + "\tdraw " + selectables.size() + " drawables");
-			
-		}
-
-		private void drawDrawables(Graphics2D g2, int x, Collection<Drawable> drawables) {				
-			
-			if (LayoutMode.FULL == getLayoutMode()) {
-				setFullHeight(drawables);
-			}
-				
-			//Add track height before the track drawables are drawn, because the track coordinates start
-			//from the bottom and grow upwards
-			int y = convertGraphicsCoordinateToTrack(0);
-
 			for (Drawable drawable : drawables) {
 
-				if(drawable == null) {
-					continue;
-				}									
-
-				// recalculate position for reversed strands
-				int maybeReversedY = (int) y;
-				if (isReversed()) {
-					maybeReversedY -= getHeight();
-				} else {
-					drawable.upsideDown();
-				}			
-
 				// draw the drawable to the buffer
-				drawable.draw(g2, x, maybeReversedY);
+				drawable.draw(g2, x, y);
 			}
+ 			
+			printTime(getTrackName() + "\tdraw " + drawables.size() + " drawables");
+			
 		}
 		
 		@Override
@@ -136,6 +114,8 @@ public abstract class Track implements DataResultListener, MouseListener, Layout
 	private String name = "Track";
 	private int fullHeight;
 	private int FULL_HEIGHT_MARGIN = 10;
+	
+	private TrackTileRenderer tileRenderer;
 
 	public Track() {
 		component.setBackground(Color.white);
@@ -194,6 +174,74 @@ public abstract class Track implements DataResultListener, MouseListener, Layout
 		}
 	}
 
+	/**
+	 * Collect the drawables of all selectables and convert their y coordinates for the Java Graphics, where
+	 * the coordinates grow downwards. Draw them with the offset given by {@link #getDrawableY()}.
+	 * 
+	 * @return
+	 */
+	List<Drawable> getPositionedDrawables() {
+		
+		List<Drawable> positioned = new ArrayList<Drawable>();
+
+		List<Selectable> selectables = getSelectables();	
+		
+		updateSelections(getSelectionManager());
+		
+		for (Selectable selectable : selectables) {
+			
+			List<Drawable> drawables = selectable.getDrawables();
+			
+			if (LayoutMode.FULL == getLayoutMode()) {
+				setFullHeight(drawables);
+			}
+
+			for (Drawable drawable : drawables) {
+
+				if(drawable == null) {
+					continue;
+				}									
+
+				// reversed strands grow downwards from the top of the track
+				if (!isReversed()) {
+					drawable.upsideDown();
+				}
+				positioned.add(drawable);
+			}
+		}
+		
+		return positioned;
+	}
+	
+	/**
+	 * Track coordinates start from the bottom of the track (or from the top for reversed strands). 
+	 * 
+	 * @return y offset for drawing the drawables returned by {@link #getPositionedDrawables()}
+	 */
+	int getDrawableY() {
+		
+		int y = convertGraphicsCoordinateToTrack(0);
+		
+		if (isReversed()) {
+			y -= getLayoutComponent().getHeight();
+		}
+		return y;
+	}
+	
+	/**
+	 * Draw this track in a background thread to image tiles. This is useful for tracks with lots of drawables, 
+	 * but not for tracks that draw titles or scales to a fixed screen position.
+	 * 
+	 * @param enabled
+	 */
+	protected void setTileRendering(boolean enabled) {
+		if (enabled) {
+			tileRenderer = new TrackTileRenderer(this);
+		} else {
+			tileRenderer = null;
+		}
+	}
+
 	/**
 	 * The method where the actual work of a track typically happens. Each track needs to manage drawables, possibly
 	 * caching them.
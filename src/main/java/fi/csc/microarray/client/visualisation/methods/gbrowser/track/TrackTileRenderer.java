@@ -0,0 +1,180 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.track;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+
+import fi.csc.microarray.client.visualisation.methods.gbrowser.gui.Drawable;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.gui.GBrowserView;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Chromosome;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.RegionDouble;
+
+/**
+ * Draws the drawables of a {@link Track} to an image tile in a background thread of the {@link GBrowserView}.
+ * The tile covers the visible region and {@link GBrowserView#TILE_MARGIN} on both sides. The EDT only
+ * copies the latest tile to the screen. When the view is moved, the tile is moved with it and rendered again only
+ * when the visible region goes outside the tile. When the view is zoomed, the tile is scaled until the tile
+ * of the new zoom level is ready. Changes in the content of the view are noticed from
+ * {@link GBrowserView#getContentVersion()}.
+ *
+ * Drawables are collected and positioned in the EDT, the background thread only draws them.
+ */
+public class TrackTileRenderer {
+
+	private static class Tile {
+
+		private BufferedImage image;
+
+		private Chromosome chr;
+		//bp positions of the left and right edge of the image
+		private double startBp;
+		private double endBp;
+		//pixels per bp like in GBrowserView.bpWidth()
+		private float bpWidth;
+		private int visibleWidth;
+		private int height;
+		private long contentVersion;
+	}
+
+	private Track track;
+	private Tile tile;
+	private boolean rendering = false;
+
+	public TrackTileRenderer(Track track) {
+		this.track = track;
+	}
+
+	/**
+	 * Copy the latest tile to the graphics and start rendering a new tile, if the latest one isn't
+	 * up to date anymore.
+	 *
+	 * @param g2
+	 */
+	public void paint(Graphics2D g2) {
+
+		GBrowserView view = track.getView();
+		JComponent component = track.getLayoutComponent();
+		RegionDouble region = view.getBpRegionDouble();
+
+		g2.setPaint(component.getBackground());
+		g2.fillRect(0, 0, component.getWidth(), component.getHeight());
+
+		if (tile != null && tile.chr.equals(region.start.chr)) {
+
+			double bpWidth = view.bpWidth();
+			int x = (int) Math.round((tile.startBp - region.start.bp) * bpWidth);
+
+			if (isSameZoom(tile, view, component.getWidth())) {
+				g2.drawImage(tile.image, x, 0, null);
+			} else {
+				int width = (int) Math.round((tile.endBp - tile.startBp) * bpWidth);
+				g2.drawImage(tile.image, x, 0, width, tile.height, null);
+			}
+		}
+
+		if (!isUpToDate(tile, view, component)) {
+			render(view, component);
+		}
+	}
+
+	private boolean isSameZoom(Tile tile, GBrowserView view, int width) {
+
+		float bpWidth = view.bpWidth();
+
+		//moving the view may change the length of the region in the last decimals
+		return tile.visibleWidth == width && Math.abs(tile.bpWidth - bpWidth) <= bpWidth * 1e-6f;
+	}
+
+	private boolean isUpToDate(Tile tile, GBrowserView view, JComponent component) {
+
+		RegionDouble region = view.getBpRegionDouble();
+
+		return tile != null &&
+				tile.contentVersion == view.getContentVersion() &&
+				tile.height == component.getHeight() &&
+				tile.chr.equals(region.start.chr) &&
+				tile.startBp <= region.start.bp &&
+				tile.endBp >= region.end.bp &&
+				isSameZoom(tile, view, component.getWidth());
+	}
+
+	/**
+	 * Render a new tile in the background, unless the previous one is still being rendered. When
+	 * the previous one is ready, it is painted and a new tile is requested again if needed.
+	 */
+	private void render(GBrowserView view, final JComponent component) {
+
+		int width = component.getWidth();
+		int height = component.getHeight();
+
+		if (rendering || width <= 0 || height <= 0) {
+			return;
+		}
+
+		RegionDouble region = view.getBpRegionDouble();
+		float bpWidth = view.bpWidth();
+		final int margin = (int) Math.ceil(width * GBrowserView.TILE_MARGIN);
+
+		final Tile newTile = new Tile();
+		newTile.chr = region.start.chr;
+		newTile.startBp = region.start.bp - margin / (double) bpWidth;
+		newTile.endBp = region.start.bp + (width + margin) / (double) bpWidth;
+		newTile.bpWidth = bpWidth;
+		newTile.visibleWidth = width;
+		newTile.height = height;
+		newTile.contentVersion = view.getContentVersion();
+
+		final Color background = component.getBackground();
+		final int y = track.getDrawableY();
+		final List<Drawable> drawables = track.getPositionedDrawables();
+
+		Runnable task = new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					BufferedImage image = new BufferedImage(newTile.visibleWidth + 2 * margin, newTile.height, BufferedImage.TYPE_INT_RGB);
+					Graphics2D g2 = image.createGraphics();
+					g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+					g2.setPaint(background);
+					g2.fillRect(0, 0, image.getWidth(), image.getHeight());
+
+					for (Drawable drawable : drawables) {
+						drawable.draw(g2, margin, y);
+					}
+					g2.dispose();
+
+					newTile.image = image;
+
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				} finally {
+					SwingUtilities.invokeLater(new Runnable() {
+
+						@Override
+						public void run() {
+							rendering = false;
+							if (newTile.image != null) {
+								tile = newTile;
+								component.repaint();
+							}
+						}
+					});
+				}
+			}
+		};
+
+		try {
+			view.getTileExecutor().execute(task);
+			rendering = true;
+		} catch (RejectedExecutionException e) {
+			//view is cleaned
+		}
+	}
+}
@@ -23,6 +23,7 @@ import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Exon;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Gene;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.GeneSet;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.PositionAndStringKey;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Feature;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Strand;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Transcript;
@@ -49,6 +50,7 @@ public class TranscriptTrack extends Track {
 
 	public TranscriptTrack() {
 		super();
+		setTileRendering(true);
 	}
 
 	@Override
@@ -83,9 +85,12 @@ public class TranscriptTrack extends Track {
 
 			List<Drawable> geneDrawables = new ArrayList<Drawable>();
 
+			// the tile has margins outside the visible region
+			Region tileRegion = getView().getTileRegion();
+
 			for (Transcript transcript : sortedTranscripts.values()) {
 				
-				if (!getView().getBpRegion().intersects(transcript.getRegion())) {
+				if (!tileRegion.intersects(transcript.getRegion())) {
 					continue;
 				}
 
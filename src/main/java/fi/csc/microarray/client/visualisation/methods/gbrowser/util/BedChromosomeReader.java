@@ -0,0 +1,85 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.LinkedList;
+
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Chromosome;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Feature;
+import fi.csc.microarray.util.IOUtils;
+
+/**
+ * Reads a sorted BED file one chromosome at a time, so that only the regions of a single
+ * chromosome are kept in memory. Chromosomes must be in the order defined by
+ * {@link Chromosome#compareTo(Chromosome)}, which is the order produced by {@link TsvSorter}.
+ * Order of the regions within a chromosome doesn't matter.
+ */
+public class BedChromosomeReader {
+
+	private File file;
+	private BufferedReader reader;
+	private RegionOperations parser = new RegionOperations();
+
+	private Feature next;
+	private Chromosome previousChromosome;
+
+	public BedChromosomeReader(File file) throws IOException {
+		this.file = file;
+		this.reader = new BufferedReader(new FileReader(file));
+		readNext();
+	}
+
+	/**
+	 * @return chromosome of the next chunk or null, if the file has been read completely
+	 */
+	public Chromosome peekChromosome() {
+		return next != null ? next.region.start.chr : null;
+	}
+
+	/**
+	 * Reads all regions of the next chromosome.
+	 *
+	 * @return regions of one chromosome or empty list, if the file has been read completely
+	 * @throws UnsortedDataException if chromosomes are not in sorted order
+	 */
+	public LinkedList<Feature> readChromosome() throws IOException, UnsortedDataException {
+
+		LinkedList<Feature> chunk = new LinkedList<Feature>();
+
+		if (next == null) {
+			return chunk;
+		}
+
+		Chromosome chr = next.region.start.chr;
+		if (previousChromosome != null && previousChromosome.compareTo(chr) >= 0) {
+			throw new UnsortedDataException("chromosome " + chr + " is not in sorted order", file.getName());
+		}
+
+		while (next != null && next.region.start.chr.equals(chr)) {
+			chunk.add(next);
+			readNext();
+		}
+
+		previousChromosome = chr;
+		return chunk;
+	}
+
+	public void close() {
+		IOUtils.closeIfPossible(reader);
+	}
+
+	private void readNext() throws IOException {
+		next = null;
+		String line;
+		while ((line = reader.readLine()) != null) {
+			next = parser.parseString(line);
+
+			// skip headers
+			if (next != null) {
+				break;
+			}
+		}
+	}
+}
@@ -0,0 +1,210 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.util;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Static interval index for fast overlap queries. Intervals are closed, i.e. both start and
+ * end are included, which matches {@link fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region#intersects}.
+ *
+ * <p>Intervals are sorted by start position and stored in primitive arrays, which are
+ * interpreted as an implicit, augmented binary search tree: every node knows the largest
+ * end position in its subtree. Building is O(n log n) and a query is O(log n + k), where
+ * k is the number of reported intervals.</p>
+ *
+ * <p>Each interval is identified by an integer id given by the caller (typically
+ * index in the original list). Query results are returned ordered by id, so that callers
+ * can preserve the order of the original input.</p>
+ */
+public class IntervalIndex {
+
+	/**
+	 * Below this subtree level nodes are scanned linearly, it is faster than
+	 * traversing the tree.
+	 */
+	private static final int LINEAR_SCAN_LEVEL = 3;
+
+	private final long[] starts;
+	private final long[] ends;
+	private final long[] maxEnds;
+	private final int[] ids;
+	private final int size;
+	private final int maxLevel;
+
+	private int[] resultBuffer = new int[16];
+	private int resultCount;
+	private int[] stack = new int[3 * 64];
+
+	/**
+	 * @param starts start positions, inclusive
+	 * @param ends end positions, inclusive
+	 * @param ids caller specified identifiers for the intervals
+	 */
+	public IntervalIndex(final long[] starts, long[] ends, int[] ids) {
+
+		if (starts.length != ends.length || starts.length != ids.length) {
+			throw new IllegalArgumentException("array lengths differ");
+		}
+
+		this.size = starts.length;
+
+		// sort by start position
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer o1, Integer o2) {
+				return Long.compare(starts[o1], starts[o2]);
+			}
+		});
+
+		this.starts = new long[size];
+		this.ends = new long[size];
+		this.ids = new int[size];
+		for (int i = 0; i < size; i++) {
+			this.starts[i] = starts[order[i]];
+			this.ends[i] = ends[order[i]];
+			this.ids[i] = ids[order[i]];
+		}
+
+		this.maxEnds = new long[size];
+		this.maxLevel = buildIndex();
+	}
+
+	/**
+	 * Computes the maximum end positions of the implicit tree. Leaves are at even indexes,
+	 * nodes of level k are at indexes where the lowest k bits are set.
+	 *
+	 * @return the level of the root node
+	 */
+	private int buildIndex() {
+
+		if (size == 0) {
+			return -1;
+		}
+
+		int lastIndex = 0;
+		long last = 0;
+
+		// leaves
+		for (int i = 0; i < size; i += 2) {
+			lastIndex = i;
+			maxEnds[i] = last = ends[i];
+		}
+
+		// internal nodes, one level at a time
+		int k;
+		for (k = 1; 1L << k <= size; k++) {
+			int x = 1 << (k - 1);
+			int firstIndex = (x << 1) - 1;
+			int step = x << 2;
+
+			for (int i = firstIndex; i < size; i += step) {
+				long leftMax = maxEnds[i - x];
+				// right child may be missing when the tree is not full
+				long rightMax = i + x < size ? maxEnds[i + x] : last;
+				maxEnds[i] = Math.max(ends[i], Math.max(leftMax, rightMax));
+			}
+
+			// parent of the last node of this level
+			lastIndex = ((lastIndex >> k) & 1) != 0 ? lastIndex - x : lastIndex + x;
+			if (lastIndex < size && maxEnds[lastIndex] > last) {
+				last = maxEnds[lastIndex];
+			}
+		}
+		return k - 1;
+	}
+
+	/**
+	 * Finds all intervals that overlap the given closed interval.
+	 *
+	 * <p>The returned array is reused by the next query, so callers must consume it
+	 * before querying again. For the same reason this method is not thread safe.</p>
+	 *
+	 * @param start query start, inclusive
+	 * @param end query end, inclusive
+	 * @return number of overlapping intervals, ids are available from {@link #getResults()}
+	 */
+	public int query(long start, long end) {
+
+		resultCount = 0;
+
+		if (size == 0) {
+			return 0;
+		}
+
+		// each stack entry is (node index, node level, right side visited)
+		int top = 0;
+		top = push(top, (1 << maxLevel) - 1, maxLevel, 0);
+
+		while (top > 0) {
+			top -= 3;
+			int x = stack[top];
+			int k = stack[top + 1];
+			int visited = stack[top + 2];
+
+			if (k <= LINEAR_SCAN_LEVEL) {
+				// small subtree, scan linearly
+				int first = x >> k << k;
+				int last = first + (1 << (k + 1)) - 1;
+				if (last > size) {
+					last = size;
+				}
+				for (int i = first; i < last && starts[i] <= end; i++) {
+					if (ends[i] >= start) {
+						addResult(ids[i]);
+					}
+				}
+
+			} else if (visited == 0) {
+				// revisit this node after the left child
+				int leftChild = x - (1 << (k - 1));
+				top = push(top, x, k, 1);
+				if (leftChild >= size || maxEnds[leftChild] >= start) {
+					top = push(top, leftChild, k - 1, 0);
+				}
+
+			} else if (x < size && starts[x] <= end) {
+				// left child is done, check this node and go right
+				if (ends[x] >= start) {
+					addResult(ids[x]);
+				}
+				top = push(top, x + (1 << (k - 1)), k - 1, 0);
+			}
+		}
+
+		Arrays.sort(resultBuffer, 0, resultCount);
+
+		return resultCount;
+	}
+
+	/**
+	 * @return ids found by the previous query, in ascending order. Only the first n
+	 * values are valid, where n is the value returned by {@link #query(long, long)}.
+	 */
+	public int[] getResults() {
+		return resultBuffer;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private int push(int top, int x, int k, int visited) {
+		if (top + 3 > stack.length) {
+			stack = Arrays.copyOf(stack, stack.length * 2);
+		}
+		stack[top] = x;
+		stack[top + 1] = k;
+		stack[top + 2] = visited;
+		return top + 3;
+	}
+
+	private void addResult(int id) {
+		if (resultCount == resultBuffer.length) {
+			resultBuffer = Arrays.copyOf(resultBuffer, resultBuffer.length * 2);
+		}
+		resultBuffer[resultCount++] = id;
+	}
+}
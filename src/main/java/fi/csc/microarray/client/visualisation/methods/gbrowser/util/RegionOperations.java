@@ -6,7 +6,9 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
@@ -14,6 +16,7 @@ import java.util.List;
 import java.util.Map.Entry;
 
 import fi.csc.microarray.client.visualisation.methods.gbrowser.gui.DataUrl;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Chromosome;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataType;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Feature;
@@ -76,6 +79,10 @@ public class RegionOperations {
 	 * parameter settings. The algorithm is based on Cartesian product, with configurable pairing rule and additional handling for 
 	 * orphan (non-paired) regions.
 	 * 
+	 * When pairs are defined by {@link IntersectingPairRule}, only overlapping regions can be pairs and they are found 
+	 * with a per chromosome {@link IntervalIndex} instead of testing every combination. Output is identical to the 
+	 * Cartesian product: pairs are processed in the order of left regions and, for each left region, in the order of 
+	 * right regions.
 	 * 
 	 * @param leftRegions first set (primary set in some cases)
 	 * @param rightRegions second set
@@ -89,35 +96,33 @@ public class RegionOperations {
 	 */
 	public LinkedList<Feature> operate(List<Feature> leftRegions, List<Feature> rightRegions, PairRule pairRule, OrphanPolicy leftOrphanPolicy, OrphanPolicy rightOrphanPolicy, PairPolicy pairPolicy, boolean mergeContinous) {
 		
+		// Use random access lists, inputs are often linked lists
+		ArrayList<Feature> lefts = new ArrayList<Feature>(leftRegions);
+		ArrayList<Feature> rights = new ArrayList<Feature>(rightRegions);
+		
 		// Initialise collectors
 		LinkedList<Feature> result = new LinkedList<Feature>();
-		HashSet<Feature> leftPaired = new HashSet<Feature>();
-		HashSet<Feature> rightPaired = new HashSet<Feature>();
+		boolean[] leftPaired = new boolean[lefts.size()];
+		boolean[] rightPaired = new boolean[rights.size()];
 		
-		// Find pairs from a Cartesian product
-		for (Feature leftRegion : leftRegions) {
-			for (Feature rightRegion : rightRegions) {
-				if (pairRule.isPair(leftRegion.region, rightRegion.region)) {
-					leftPaired.add(leftRegion);
-					rightPaired.add(rightRegion);
-					
-					// Output what pair policy dictates
-					pairPolicy.process(leftRegion, rightRegion, result);
-				}
-			}
+		// Find pairs
+		if (pairRule instanceof IntersectingPairRule && isIndexable(lefts) && isIndexable(rights)) {
+			findIntersectingPairs(lefts, rights, pairRule, pairPolicy, leftPaired, rightPaired, result);
+		} else {
+			findCartesianPairs(lefts, rights, pairRule, pairPolicy, leftPaired, rightPaired, result);
 		}
 		
 		// Process left orphans
-		for (Feature leftRegion : leftRegions) {
-			if (!leftPaired.contains(leftRegion)) {
-				leftOrphanPolicy.process(leftRegion, result);
+		for (int i = 0; i < lefts.size(); i++) {
+			if (!leftPaired[i]) {
+				leftOrphanPolicy.process(lefts.get(i), result);
 			}
 		}
 		
 		// Process right orphans
-		for (Feature rightRegion : rightRegions) {
-			if (!rightPaired.contains(rightRegion)) {
-				rightOrphanPolicy.process(rightRegion, result);
+		for (int i = 0; i < rights.size(); i++) {
+			if (!rightPaired[i]) {
+				rightOrphanPolicy.process(rights.get(i), result);
 			}
 		}
 		
@@ -129,6 +134,111 @@ public class RegionOperations {
 		}
 	}
 
+	/**
+	 * Find pairs from a Cartesian product. Works with any pair rule.
+	 */
+	private void findCartesianPairs(List<Feature> lefts, List<Feature> rights, PairRule pairRule, PairPolicy pairPolicy, boolean[] leftPaired, boolean[] rightPaired, LinkedList<Feature> result) {
+		
+		for (int i = 0; i < lefts.size(); i++) {
+			Feature leftRegion = lefts.get(i);
+			
+			for (int j = 0; j < rights.size(); j++) {
+				Feature rightRegion = rights.get(j);
+				
+				if (pairRule.isPair(leftRegion.region, rightRegion.region)) {
+					leftPaired[i] = true;
+					rightPaired[j] = true;
+					
+					// Output what pair policy dictates
+					pairPolicy.process(leftRegion, rightRegion, result);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Find pairs by querying overlapping right regions for each left region. Pair rule must 
+	 * accept only intersecting regions.
+	 */
+	private void findIntersectingPairs(List<Feature> lefts, List<Feature> rights, PairRule pairRule, PairPolicy pairPolicy, boolean[] leftPaired, boolean[] rightPaired, LinkedList<Feature> result) {
+		
+		HashMap<Chromosome, IntervalIndex> indexes = createIndexes(rights);
+		
+		for (int i = 0; i < lefts.size(); i++) {
+			Feature leftRegion = lefts.get(i);
+			IntervalIndex index = indexes.get(leftRegion.region.start.chr);
+			
+			if (index == null) {
+				continue;
+			}
+			
+			// Hits are ordered by their position in the right list
+			int hitCount = index.query(leftRegion.region.start.bp, leftRegion.region.end.bp);
+			int[] hits = index.getResults();
+			
+			for (int h = 0; h < hitCount; h++) {
+				Feature rightRegion = rights.get(hits[h]);
+				
+				if (pairRule.isPair(leftRegion.region, rightRegion.region)) {
+					leftPaired[i] = true;
+					rightPaired[hits[h]] = true;
+					
+					// Output what pair policy dictates
+					pairPolicy.process(leftRegion, rightRegion, result);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Builds an interval index of regions for each chromosome. Regions are identified by their 
+	 * position in the list.
+	 */
+	private HashMap<Chromosome, IntervalIndex> createIndexes(List<Feature> regions) {
+		
+		// Group list positions by chromosome
+		LinkedHashMap<Chromosome, ArrayList<Integer>> positions = new LinkedHashMap<Chromosome, ArrayList<Integer>>();
+		for (int i = 0; i < regions.size(); i++) {
+			Chromosome chr = regions.get(i).region.start.chr;
+			if (!positions.containsKey(chr)) {
+				positions.put(chr, new ArrayList<Integer>());
+			}
+			positions.get(chr).add(i);
+		}
+		
+		HashMap<Chromosome, IntervalIndex> indexes = new HashMap<Chromosome, IntervalIndex>();
+		for (Entry<Chromosome, ArrayList<Integer>> entry : positions.entrySet()) {
+			ArrayList<Integer> chrPositions = entry.getValue();
+			long[] starts = new long[chrPositions.size()];
+			long[] ends = new long[chrPositions.size()];
+			int[] ids = new int[chrPositions.size()];
+			
+			for (int i = 0; i < chrPositions.size(); i++) {
+				Region region = regions.get(chrPositions.get(i)).region;
+				starts[i] = region.start.bp;
+				ends[i] = region.end.bp;
+				ids[i] = chrPositions.get(i);
+			}
+			indexes.put(entry.getKey(), new IntervalIndex(starts, ends, ids));
+		}
+		
+		return indexes;
+	}
+
+	/**
+	 * Regions can be indexed per chromosome only if they don't span multiple chromosomes and
+	 * are not reversed. Otherwise {@link Region#intersects(Region)} has more complex semantics.
+	 */
+	private boolean isIndexable(List<Feature> regions) {
+		for (Feature feature : regions) {
+			Region region = feature.region;
+			if (!region.start.chr.equals(region.end.chr) || region.start.bp > region.end.bp) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 
 
 	/**
@@ -331,14 +441,17 @@ public class RegionOperations {
 		// Sort to bring continuous pieces together
 		sort(regions);
 		
+		// Use random access list, get(i) of a linked list is linear
+		ArrayList<Feature> sortedRegions = new ArrayList<Feature>(regions);
+		
 		// Write out continuous regions
 		LinkedList<Feature> mergedRegions = new LinkedList<Feature>();
-		for (int i = 0; i < regions.size(); ) {
+		for (int i = 0; i < sortedRegions.size(); ) {
 			
 			// Iterate as long as continuous
 			int j = i;
-			for (; j < regions.size() - 1; ) {
-				if (regions.get(i).region.intersects(regions.get(j + 1).region)) {
+			for (; j < sortedRegions.size() - 1; ) {
+				if (sortedRegions.get(i).region.intersects(sortedRegions.get(j + 1).region)) {
 					// Should be merged, we can continue to look for continuous stuff
 					j++;
 					
@@ -349,7 +462,7 @@ public class RegionOperations {
 			}
 			
 			// Write out
-			mergedRegions.add(new Feature(new Region(regions.get(i).region.start, regions.get(j).region.end), getEmptyExtraFieldMap()));
+			mergedRegions.add(new Feature(new Region(sortedRegions.get(i).region.start, sortedRegions.get(j).region.end), getEmptyExtraFieldMap()));
 			
 			// Jump to region after the previously written one
 			i = j+1;
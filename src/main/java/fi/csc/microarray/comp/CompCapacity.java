@@ -0,0 +1,106 @@
+package fi.csc.microarray.comp;
+
+import java.util.HashMap;
+
+/**
+ * Bookkeeping of the processor cores and memory of a comp. Each scheduled and running job
+ * reserves the resources of its tool until the job is removed. Jobs that need more than the
+ * whole comp are limited to the total capacity, so that they can be run alone.
+ */
+public class CompCapacity {
+
+	private static class Reservation {
+		int cpu;
+		int memory;
+
+		Reservation(int cpu, int memory) {
+			this.cpu = cpu;
+			this.memory = memory;
+		}
+	}
+
+	private int totalCpu;
+	private int totalMemory;
+	private int reservedCpu = 0;
+	private int reservedMemory = 0;
+	private HashMap<String, Reservation> reservations = new HashMap<String, Reservation>();
+
+	/**
+	 * @param totalCpu number of cores
+	 * @param totalMemory memory in megabytes
+	 */
+	public CompCapacity(int totalCpu, int totalMemory) {
+		this.totalCpu = totalCpu;
+		this.totalMemory = totalMemory;
+	}
+
+	/**
+	 * Reserve resources for a job, if there is enough free capacity.
+	 *
+	 * @param memory megabytes
+	 * @return true if the resources were reserved or the job had a reservation already
+	 */
+	public synchronized boolean reserve(String jobId, int cpu, int memory) {
+
+		if (reservations.containsKey(jobId)) {
+			return true;
+		}
+
+		cpu = Math.min(cpu, totalCpu);
+		memory = Math.min(memory, totalMemory);
+
+		if (!fits(cpu, memory)) {
+			return false;
+		}
+
+		reservations.put(jobId, new Reservation(cpu, memory));
+		reservedCpu += cpu;
+		reservedMemory += memory;
+		return true;
+	}
+
+	/**
+	 * Release the resources of a job. Does nothing if the job doesn't have a reservation, so
+	 * it's safe to call this for every removed job.
+	 */
+	public synchronized void release(String jobId) {
+		Reservation reservation = reservations.remove(jobId);
+		if (reservation != null) {
+			reservedCpu -= reservation.cpu;
+			reservedMemory -= reservation.memory;
+		}
+	}
+
+	/**
+	 * @param memory megabytes
+	 * @return true if a job with these requirements can be reserved now
+	 */
+	public synchronized boolean fits(int cpu, int memory) {
+		return reservedCpu + Math.min(cpu, totalCpu) <= totalCpu &&
+				reservedMemory + Math.min(memory, totalMemory) <= totalMemory;
+	}
+
+	public synchronized int getFreeCpu() {
+		return totalCpu - reservedCpu;
+	}
+
+	public synchronized int getFreeMemory() {
+		return totalMemory - reservedMemory;
+	}
+
+	public synchronized int getReservedCpu() {
+		return reservedCpu;
+	}
+
+	public synchronized int getReservedMemory() {
+		return reservedMemory;
+	}
+
+	public int getTotalCpu() {
+		return totalCpu;
+	}
+
+	public int getTotalMemory() {
+		return totalMemory;
+	}
+}
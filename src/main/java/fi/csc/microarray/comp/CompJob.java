@@ -77,6 +77,11 @@ public abstract class CompJob implements Runnable {
 	private boolean toBeCanceled = false;
 	protected GenericResultMessage outputMessage;
 	
+	/**
+	 * Details that are written to the job log, but not sent to the client.
+	 */
+	private StringBuffer jobLogDetails = new StringBuffer();
+	
 	public CompJob() {
 		this.state = JobState.NEW;
 		this.stateDetail = "new job created.";
@@ -345,6 +350,20 @@ public abstract class CompJob implements Runnable {
 		return this.stateDetail;
 	}
 	
+	/**
+	 * Adds a line to the job log. Can be called from several threads.
+	 */
+	protected void addJobLogDetail(String detail) {
+		jobLogDetails.append(detail).append("\n");
+	}
+	
+	/**
+	 * @return lines added with {@link #addJobLogDetail(String)}, empty if none
+	 */
+	public String getJobLogDetails() {
+		return jobLogDetails.toString();
+	}
+	
 	public ToolDescription getToolDescription() {
 		return toolDescription;
 	}
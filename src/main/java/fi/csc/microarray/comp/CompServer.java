@@ -3,6 +3,7 @@ package fi.csc.microarray.comp;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
@@ -80,6 +81,9 @@ public class CompServer extends MonitoredNodeBase implements MessagingListener,
 	private int compAvailableInterval;
 	private boolean sweepWorkDir;
 	private int maxJobs;
+	private int defaultJobCpu;
+	private int defaultJobMemory;
+	private CompCapacity capacity;
 	
 	/**
 	 * Id of the comp server instance.
@@ -140,6 +144,10 @@ public class CompServer extends MonitoredNodeBase implements MessagingListener,
 		this.compAvailableInterval = configuration.getInt("comp", "comp-available-interval");
 		this.sweepWorkDir= configuration.getBoolean("comp", "sweep-work-dir");
 		this.maxJobs = configuration.getInt("comp", "max-jobs");
+		this.defaultJobCpu = configuration.getInt("comp", "default-job-cpu");
+		this.defaultJobMemory = configuration.getInt("comp", "default-job-memory");
+		int cpuCapacity = configuration.getInt("comp", "cpu-capacity");
+		int memoryCapacity = configuration.getInt("comp", "memory-capacity");
 		this.localFilebrokerPath = nullIfEmpty(configuration.getString("comp", "local-filebroker-user-data-path"));
 		this.overridingFilebrokerIp = nullIfEmpty(configuration.getString("comp", "overriding-filebroker-ip"));				
 		
@@ -148,6 +156,24 @@ public class CompServer extends MonitoredNodeBase implements MessagingListener,
 		loggerStatus = Logger.getLogger("status");
 
 		
+		// initialize capacity, by default the limit for cores is max-jobs so that tools without 
+		// declared resources run like before 
+		if (cpuCapacity <= 0) {
+			cpuCapacity = maxJobs * defaultJobCpu;
+		}
+		if (memoryCapacity <= 0) {
+			java.lang.management.OperatingSystemMXBean mxbean = ManagementFactory.getOperatingSystemMXBean();
+			if (mxbean instanceof com.sun.management.OperatingSystemMXBean) {
+				memoryCapacity = (int) (((com.sun.management.OperatingSystemMXBean) mxbean).getTotalPhysicalMemorySize() / 1024 / 1024);
+			} else {
+				// physical memory isn't available on all JVMs
+				memoryCapacity = maxJobs * defaultJobMemory;
+				logger.warn("physical memory size not available, memory capacity set to max-jobs * default-job-memory, configure memory-capacity to change it");
+			}
+		}
+		this.capacity = new CompCapacity(cpuCapacity, memoryCapacity);
+		logger.info("capacity: " + cpuCapacity + " cores, " + memoryCapacity + " MB of memory, " + maxJobs + " jobs");
+		
 		// initialize working directory
 		logger.info("starting compute service...");
 		this.workDir = DirectoryLayout.getInstance().getJobsDataDirBase(id);
@@ -159,6 +185,9 @@ public class CompServer extends MonitoredNodeBase implements MessagingListener,
 		FileInputStream runtimesStream = new FileInputStream(new File(DirectoryLayout.getInstance().getConfDir(), "runtimes.xml"));
 		this.runtimeRepository = new RuntimeRepository(this.workDir, runtimesStream);
 		this.toolbox = new Toolbox(DirectoryLayout.getInstance().getModulesDir());
+		if (configuration.getBoolean("comp", "reload-tools")) {
+			this.toolbox.startWatching();
+		}
 		this.toolboxClient = new OldToolboxClient(this.toolbox);
 					
 		// initialize timeout checker
@@ -278,6 +307,7 @@ public class CompServer extends MonitoredNodeBase implements MessagingListener,
 
 						if (scheduledJobs.containsKey(jobId)) {
 							scheduledJobs.remove(jobId);
+							capacity.release(jobId);
 							activeJobRemoved();
 						}
 					}
@@ -343,6 +373,8 @@ public class CompServer extends MonitoredNodeBase implements MessagingListener,
 		synchronized(jobsLock) {
 			if (scheduledJobs.containsKey(jobId)) {
 				job = scheduledJobs.remove(jobId);
+				// never started, so removeRunningJob() won't release it
+				capacity.release(jobId);
 			} else {
 				job = runningJobs.remove(jobId);
 			}
@@ -380,6 +412,7 @@ public class CompServer extends MonitoredNodeBase implements MessagingListener,
 		logger.debug("comp server removing job " + job.getId() + "(" + job.getState() + ")");
 		synchronized(jobsLock) {
 			this.runningJobs.remove(job.getId());
+			capacity.release(job.getId());
 		}
 		activeJobRemoved();
 	
@@ -429,6 +462,12 @@ public class CompServer extends MonitoredNodeBase implements MessagingListener,
 			startTime = job.getReceiveTime();
 		}
 		
+		// append details that weren't sent to the client
+		String outputText = job.getResultMessage().getOutputText();
+		if (!job.getJobLogDetails().isEmpty()) {
+			outputText = (outputText != null ? outputText + "\n\n" : "") + job.getJobLogDetails();
+		}
+		
 		JobLogMessage jobLogMessage = new JobLogMessage(
 				job.getInputMessage().getToolId().replaceAll("\"", ""),
 				job.getState(),
@@ -437,7 +476,7 @@ public class CompServer extends MonitoredNodeBase implements MessagingListener,
 				startTime,
 				job.getExecutionEndTime(),
 				job.getResultMessage().getErrorMessage(),
-				job.getResultMessage().getOutputText(),
+				outputText,
 				job.getInputMessage().getUsername(),
 				hostname);
 		
@@ -480,7 +519,7 @@ public class CompServer extends MonitoredNodeBase implements MessagingListener,
 	 * @param genericJobMessage
 	 * @param reply
 	 */
-	private void sendReplyMessage(final ChipsterMessage original, final ChipsterMessage reply) {
+	private void sendReplyMessage(ChipsterMessage original, ChipsterMessage reply) {
 		// for debugging
 		if (reply instanceof ResultMessage) {
 			((ResultMessage)reply).addNamedParameter(ParameterMessage.PARAMETER_AS_ID, id);	
@@ -488,17 +527,9 @@ public class CompServer extends MonitoredNodeBase implements MessagingListener,
 		
 		reply.setReplyTo(original.getReplyTo());
 
-		new Thread(new Runnable() {
-			public void run() {
-				try {
-					endpoint.replyToMessage(original, reply);
-				} catch (JMSException e) {
-					// Failing is ok, if some other comp has replied quicker and
-					// the TempTopic has already been deleted
-					//logger.error("Could not send message.", e);
-				}
-			}
-		}).start();
+		// Failing is ok, if some other comp has replied quicker and
+		// the TempTopic has already been deleted
+		endpoint.replyToMessageAsync(original, reply);
 	}
 
 
@@ -559,15 +590,18 @@ public class CompServer extends MonitoredNodeBase implements MessagingListener,
 		
 		// now we know that we can run this job
 		// check if we could run it now or later
+		int cpu = toolboxTool.getCpu() > 0 ? toolboxTool.getCpu() : defaultJobCpu;
+		int memory = toolboxTool.getMemory() > 0 ? toolboxTool.getMemory() : defaultJobMemory;
 		synchronized(jobsLock) {
 			job.setReceiveTime(new Date());
 			
 			// could run it now
-			if (runningJobs.size() + scheduledJobs.size() < maxJobs) {
-				scheduleJob(job);
+			int otherJobsCpu = capacity.getReservedCpu();
+			if (runningJobs.size() + scheduledJobs.size() < maxJobs && capacity.reserve(job.getId(), cpu, memory)) {
+				scheduleJob(job, otherJobsCpu);
 			}
 			
-			// no slot to run it now, ignore it
+			// not enough free cores or memory to run it now, ignore it
 			else {
 				ResultMessage resultMessage = new ResultMessage(jobMessage.getJobId(), JobState.COMP_BUSY, "", "", "", ((JobMessage)jobMessage).getReplyTo());
 				sendReplyMessage((ChipsterMessage)jobMessage, resultMessage);
@@ -577,7 +611,10 @@ public class CompServer extends MonitoredNodeBase implements MessagingListener,
 		updateStatus();
 	}
 
-	private void scheduleJob(final CompJob job) {
+	/**
+	 * @param otherJobsCpu cores reserved by the other jobs, used for delaying the offer
+	 */
+	private void scheduleJob(final CompJob job, int otherJobsCpu) {
 		synchronized(jobsLock) {
 			job.setScheduleTime(new Date());
 			scheduledJobs.put(job.getId(), job);
@@ -585,8 +622,8 @@ public class CompServer extends MonitoredNodeBase implements MessagingListener,
 
 		try {
 			// delaying sending of the offer message can be used for
-			// prioritising comp instances 
-			int delay = offerDelay * (runningJobs.size() + scheduledJobs.size()-1);
+			// prioritising comp instances, the least loaded comp offers first 
+			int delay = offerDelay * otherJobsCpu;
 			if (delay > 0 ) {
 				Timer timer = new Timer("offer-delay-timer", true);
 				timer.schedule(new TimerTask() {
@@ -598,6 +635,7 @@ public class CompServer extends MonitoredNodeBase implements MessagingListener,
 						} catch (JMSException e) {
 							synchronized(jobsLock) {
 								scheduledJobs.remove(job.getId());
+								capacity.release(job.getId());
 							}
 							logger.error("Could not send OFFER for job " + job.getId());
 						}
@@ -611,6 +649,7 @@ public class CompServer extends MonitoredNodeBase implements MessagingListener,
 		} catch (Exception e) {
 			synchronized(jobsLock) {
 				scheduledJobs.remove(job.getId());
+				capacity.release(job.getId());
 			}
 			logger.error("Could not send OFFER for job " + job.getId());
 		}
@@ -654,13 +693,31 @@ public class CompServer extends MonitoredNodeBase implements MessagingListener,
 	private void updateStatus() {
 		synchronized(jobsLock) {
 			loggerStatus.info("scheduled jobs: " + scheduledJobs.size() + 
-					", running jobs: " + runningJobs.size());
+					", running jobs: " + runningJobs.size() + 
+					", free cores: " + capacity.getFreeCpu() + 
+					", free memory: " + capacity.getFreeMemory() + " MB");
+		}
+		for (ToolRuntime runtime : runtimeRepository.getRuntimes()) {
+			if (runtime.getJobFactory() instanceof InterpreterJobFactory) {
+				ProcessPool processPool = ((InterpreterJobFactory) runtime.getJobFactory()).getProcessPool();
+				if (processPool != null) {
+					loggerStatus.info("runtime " + runtime.getName() + " " + processPool.getStatus());
+				}
+			}
 		}
 	}
 
+	/**
+	 * Tell the jobmanager how much free capacity this comp has, so that it can send waiting
+	 * jobs that fit.
+	 */
 	private void sendCompAvailable() {
 		try {
-			jobmanagerTopic.sendMessage(new CommandMessage(CommandMessage.COMMAND_COMP_AVAILABLE));
+			CommandMessage availableMessage = new CommandMessage(CommandMessage.COMMAND_COMP_AVAILABLE);
+			availableMessage.addNamedParameter(ParameterMessage.PARAMETER_AS_ID, this.id);
+			availableMessage.addNamedParameter(ParameterMessage.PARAMETER_FREE_CPU, Integer.toString(capacity.getFreeCpu()));
+			availableMessage.addNamedParameter(ParameterMessage.PARAMETER_FREE_MEMORY, Integer.toString(capacity.getFreeMemory()));
+			jobmanagerTopic.sendMessage(availableMessage);
 		} catch (JMSException e) {
 			logger.error("could not send comp available message", e);
 		}
@@ -700,6 +757,7 @@ public class CompServer extends MonitoredNodeBase implements MessagingListener,
 				// remove old scheduled jobs
 				for (CompJob job: jobsToBeRemoved) {
 					scheduledJobs.remove(job.getId());
+					capacity.release(job.getId());
 					logger.debug("Removing old scheduled job: " + job.getId());
 					activeJobRemoved();
 				}
@@ -725,7 +783,7 @@ public class CompServer extends MonitoredNodeBase implements MessagingListener,
 		@Override
 		public void run() {
 			synchronized (jobsLock) {
-				if (runningJobs.size() + scheduledJobs.size() < maxJobs) {
+				if (runningJobs.size() + scheduledJobs.size() < maxJobs && capacity.fits(defaultJobCpu, defaultJobMemory)) {
 					sendCompAvailable();
 				}
 			}
@@ -747,6 +805,8 @@ public class CompServer extends MonitoredNodeBase implements MessagingListener,
 		} catch (JMSException e) {
 			logger.error("closing messaging endpoint failed", e);
 		}
+		
+		toolbox.close();
 
 		logger.info("shutting down");
 	}
@@ -74,8 +74,18 @@ public abstract class InterpreterJobFactory implements JobFactory {
 			logger.info("process pool config missing, using hard coded defaults (" + e.getMessage() + ")");
 		}
 		
+		// runtime specific settings from runtimes.xml
+		if (parameters.get("processPoolSizeMin") != null) {
+			poolSizeMin = Integer.parseInt(parameters.get("processPoolSizeMin"));
+		}
+		String initScript = null;
+		String preloadLibraries = parameters.get("preloadLibraries");
+		if (preloadLibraries != null && !preloadLibraries.trim().isEmpty()) {
+			initScript = getPreloadScript(preloadLibraries.trim().split("\\s*,\\s*"));
+		}
+		
 		try {
-			processPool = new ProcessPool(new File(parameters.get("workDir")), interpreterCommand, poolSizeMin, poolSizeMax, 
+			processPool = new ProcessPool(new File(parameters.get("workDir")), interpreterCommand, initScript, poolSizeMin, poolSizeMax, 
 				poolTimeout, processUseCountMax, processLifetimeMax);
 		} catch (Exception e) {
 			this.isDisabled = true;
@@ -85,6 +95,15 @@ public abstract class InterpreterJobFactory implements JobFactory {
 	@Override
 	public abstract CompJob createCompJob(GenericJobMessage message, ToolboxTool tool, ResultCallback resultHandler) throws CompException;
 
+	/**
+	 * @param libraries names of the libraries to load in new processes 
+	 * @return script that loads the libraries or null if preloading isn't supported
+	 */
+	protected String getPreloadScript(String[] libraries) {
+		logger.warn("preloading libraries is not supported in " + getClass().getSimpleName());
+		return null;
+	}
+	
 	protected abstract String getStringDelimeter();
 	protected abstract String getVariableNameSeparator();
 
@@ -144,5 +163,9 @@ public abstract class InterpreterJobFactory implements JobFactory {
 	public boolean isDisabled() {
 		return this.isDisabled;
 	}
+	
+	public ProcessPool getProcessPool() {
+		return processPool;
+	}
 
 }
@@ -3,13 +3,23 @@ package fi.csc.microarray.comp;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.UUID;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.log4j.Logger;
 
 import fi.csc.microarray.comp.ToolDescription.OutputDescription;
+import fi.csc.microarray.config.DirectoryLayout;
 import fi.csc.microarray.exception.MicroarrayException;
 import fi.csc.microarray.filebroker.FileBrokerClient.FileBrokerArea;
 import fi.csc.microarray.filebroker.NotEnoughDiskSpaceException;
@@ -23,19 +33,39 @@ import fi.csc.microarray.util.ToolUtils;
 /**
  * Provides functionality for transferring input files from file broker
  * to job work directory and output files from job work directory to file 
- * broker.
+ * broker. Files are transferred in parallel, at most comp/file-transfer-threads 
+ * at a time, and the time taken by each transfer is written to the job log.
  *
  */
 public abstract class OnDiskCompJobBase extends CompJob {
 
 	private static final Logger logger = Logger.getLogger(OnDiskCompJobBase.class);
 
+	/**
+	 * How often cancellation is checked while waiting for transfers, milliseconds.
+	 */
+	private static final long CANCEL_CHECK_INTERVAL = 1000;
+
 	protected File jobWorkDir;
+	
+	private int transferThreads;
 
 	@Override
 	public void construct(GenericJobMessage inputMessage, ToolDescription toolDescription, ResultCallback resultHandler) {
 		super.construct(inputMessage, toolDescription, resultHandler);
 		this.jobWorkDir = new File(resultHandler.getWorkDir(), getId());
+		this.transferThreads = DirectoryLayout.getInstance().getConfiguration().getInt("comp", "file-transfer-threads");
+	}
+	
+	/**
+	 * Output file and its destination in file broker.
+	 */
+	private static class OutputTransfer {
+		OutputDescription fileDescription;
+		File outputFile;
+		String dataId;
+		String nameInClient;
+		Future<String> result;
 	}
 
 
@@ -59,32 +89,63 @@ public abstract class OnDiskCompJobBase extends CompJob {
 		}
 
 		// extract input files to work dir
+		ExecutorService executor = null;
 		try {
+			executor = createTransferExecutor(inputMessage.getKeys().size());
 			
 			LinkedHashMap<String, String> nameMap = new LinkedHashMap<>();
+			List<Future<String>> transfers = new ArrayList<>();
 			
+			// get urls of all inputs with one request
+			List<String> dataIds = new ArrayList<>();
 			for (String fileName : inputMessage.getKeys()) {
-				cancelCheck();
+				dataIds.add(inputMessage.getId(fileName));
+			}
+			final Map<String, URL> urls = resultHandler.getFileBrokerClient().getURLs(dataIds);
+			
+			for (final String fileName : inputMessage.getKeys()) {
 
 				// get url and output file
-				String dataId = inputMessage.getId(fileName);
-				File localFile = new File(jobWorkDir, fileName);
+				final String dataId = inputMessage.getId(fileName);
+				final File localFile = new File(jobWorkDir, fileName);
 				
-				// make local file available, by downloading, copying or symlinking
-				resultHandler.getFileBrokerClient().getFile(inputMessage.getSessionId(), dataId, new File(jobWorkDir, fileName));
-				logger.debug("made available local file: " + localFile.getName() + " " + localFile.length());
+				transfers.add(executor.submit(new Callable<String>() {
+					@Override
+					public String call() throws Exception {
+						cancelCheck();
+						long startTime = System.currentTimeMillis();
+						
+						// make local file available, by downloading, copying or symlinking
+						resultHandler.getFileBrokerClient().getFile(dataId, urls.get(dataId), localFile);
+						logger.debug("made available local file: " + localFile.getName() + " " + localFile.length());
+						
+						return getTransferDetail("input", localFile, startTime);
+					}
+				}));
 				
 				nameMap.put(fileName, inputMessage.getName(fileName));
 			}
 			
+			for (Future<String> transfer : transfers) {
+				addJobLogDetail(waitForTransfer(transfer));
+			}
+			
 			ToolUtils.writeInputDescription(new File(jobWorkDir, "chipster-inputs.tsv"), nameMap);
 			
+		} catch (JobCancelledException e) {
+			throw e;
+			
 		} catch (Exception e) {
 			outputMessage.setErrorMessage("Transferring input data to computing service failed.");
 			outputMessage.setOutputText(Exceptions.getStackTrace(e));
 			updateState(JobState.ERROR, "");
 			return;
-		}			
+			
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+		}
 	}
 
 	/**
@@ -97,10 +158,22 @@ public abstract class OnDiskCompJobBase extends CompJob {
 		updateStateDetailToClient("transferring output data");
 		cancelCheck();
 
-		// pass output files to result message
+		// parse a file containing 
+		String outputsFilename = "chipster-outputs.tsv";
+		LinkedHashMap<String, String> nameMap = new LinkedHashMap<>();
+		try {
+			nameMap = ToolUtils.parseOutputDescription(new File(jobWorkDir, outputsFilename));
+		} catch (IOException | MicroarrayException e) {
+			logger.warn("couldn't parse " + outputsFilename);
+			outputMessage.setErrorMessage("couldn't parse " + outputsFilename);
+			outputMessage.setOutputText(Exceptions.getStackTrace(e));
+			updateState(JobState.ERROR, "");
+		}
+
+		// collect output files
+		List<OutputTransfer> transfers = new ArrayList<>();
 		List<OutputDescription> outputFiles = toolDescription.getOutputFiles();
 		for (OutputDescription fileDescription : outputFiles) {
-			cancelCheck();
 			
 			// single file description can also describe several files
 			File[] describedFiles;
@@ -126,33 +199,73 @@ public abstract class OnDiskCompJobBase extends CompJob {
 			    describedFiles = new File[] {new File(jobWorkDir, outputName)};
 			}
 			
-			// parse a file containing 
-			String outputsFilename = "chipster-outputs.tsv";
-			LinkedHashMap<String, String> nameMap = new LinkedHashMap<>();
-			try {
-				nameMap = ToolUtils.parseOutputDescription(new File(jobWorkDir, outputsFilename));
-			} catch (IOException | MicroarrayException e) {
-				logger.warn("couldn't parse " + outputsFilename);
-				outputMessage.setErrorMessage("couldn't parse " + outputsFilename);
-				outputMessage.setOutputText(Exceptions.getStackTrace(e));
-                updateState(JobState.ERROR, "");
+			for (File outputFile : describedFiles) {
+				OutputTransfer transfer = new OutputTransfer();
+				transfer.fileDescription = fileDescription;
+				transfer.outputFile = outputFile;
+				transfer.dataId = CryptoKey.generateRandom();
+				transfer.nameInClient = nameMap.get(outputFile.getName());
+				transfers.add(transfer);
+			}
+		}
+		
+		// request space and urls for all files with one request, missing files are reported later
+		List<String> dataIds = new ArrayList<>();
+		List<Long> contentLengths = new ArrayList<>();
+		for (OutputTransfer transfer : transfers) {
+			dataIds.add(transfer.dataId);
+			contentLengths.add(transfer.outputFile.length());
+		}
+		
+		final Map<String, URL> urls;
+		try {
+			urls = resultHandler.getFileBrokerClient().getNewURLs(dataIds, contentLengths, FileBrokerArea.CACHE);
+			
+		} catch (NotEnoughDiskSpaceException nedse) {
+			logger.warn("not enough disk space for result files in filebroker");
+			outputMessage.setErrorMessage("There was not enough disk space for the result file in the Chipster server. Please try again later.");
+			updateState(JobState.FAILED_USER_ERROR, "not enough disk space for results");
+			return;
+			
+		} catch (Exception e) {
+			logger.error("could not get urls from file broker", e);
+			outputMessage.setErrorMessage("Could not send output file.");
+			outputMessage.setOutputText(Exceptions.getStackTrace(e));
+			updateState(JobState.ERROR, "");
+			return;
+		}
+		
+		// copy files to file broker
+		ExecutorService executor = createTransferExecutor(transfers.size());
+		try {
+			for (final OutputTransfer transfer : transfers) {
+				transfer.result = executor.submit(new Callable<String>() {
+					@Override
+					public String call() throws Exception {
+						cancelCheck();
+						long startTime = System.currentTimeMillis();
+						
+						if (!transfer.outputFile.exists()) {
+							throw new FileNotFoundException(transfer.outputFile.getPath());
+						}
+						resultHandler.getFileBrokerClient().addFile(transfer.dataId, urls.get(transfer.dataId), transfer.outputFile, null);
+						logger.debug("transferred output file: " + transfer.fileDescription.getFileName());
+						
+						return getTransferDetail("output", transfer.outputFile, startTime);
+					}
+				});
 			}
 			
 			// add all described files to the result message
-			for (File outputFile : describedFiles) {
-	            // copy file to file broker
-	            String dataId = CryptoKey.generateRandom();
-	            try {	            	
-	            	String nameInClient = nameMap.get(outputFile.getName());
-	            	String nameInSessionDb = nameInClient != null? nameInClient : outputFile.getName();
-	                resultHandler.getFileBrokerClient().addFile(UUID.fromString(inputMessage.getJobId()), inputMessage.getSessionId(), dataId, FileBrokerArea.CACHE, outputFile, null, nameInSessionDb);
+			for (OutputTransfer transfer : transfers) {
+	            try {
+	            	addJobLogDetail(waitForTransfer(transfer.result));
 	                // put dataId to result message
-	                outputMessage.addDataset(outputFile.getName(), dataId, nameInClient);
-	                logger.debug("transferred output file: " + fileDescription.getFileName());
+	                outputMessage.addDataset(transfer.outputFile.getName(), transfer.dataId, transfer.nameInClient);
 
 	            } catch (FileNotFoundException e) {
 	                // required output file not found
-	                if (!fileDescription.isOptional()) {
+	                if (!transfer.fileDescription.isOptional()) {
 	                    logger.error("required output file not found", e);
 	                    outputMessage.setErrorMessage("Required output file is missing.");
 	                    outputMessage.setOutputText(Exceptions.getStackTrace(e));
@@ -164,6 +277,9 @@ public abstract class OnDiskCompJobBase extends CompJob {
 	            	logger.warn("not enough disk space for result file in filebroker");
 	            	outputMessage.setErrorMessage("There was not enough disk space for the result file in the Chipster server. Please try again later.");
 	            	updateState(JobState.FAILED_USER_ERROR, "not enough disk space for results");
+	            
+	            } catch (JobCancelledException e) {
+	            	throw e;
 	            }
 	            
 	            catch (Exception e) {
@@ -175,9 +291,41 @@ public abstract class OnDiskCompJobBase extends CompJob {
 	                return;
 	            }
 			}
+		} finally {
+			executor.shutdownNow();
 		}
 		super.postExecute();
 	}
+	
+	private ExecutorService createTransferExecutor(int fileCount) {
+		return Executors.newFixedThreadPool(Math.max(1, Math.min(transferThreads, fileCount)));
+	}
+	
+	/**
+	 * Waits until the transfer is finished and checks regularly if the job is cancelled.
+	 * 
+	 * @return result of the transfer
+	 * @throws Exception the exception thrown by the transfer
+	 */
+	private String waitForTransfer(Future<String> transfer) throws Exception {
+		while (true) {
+			cancelCheck();
+			try {
+				return transfer.get(CANCEL_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				// check cancellation and continue waiting
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof Exception) {
+					throw (Exception) e.getCause();
+				}
+				throw e;
+			}
+		}
+	}
+	
+	private String getTransferDetail(String direction, File file, long startTime) {
+		return direction + " " + file.getName() + ": " + file.length() + " bytes in " + (System.currentTimeMillis() - startTime) + " ms";
+	}
 
 	/**
 	 * Clear job working directory.
@@ -1,65 +1,89 @@
 package fi.csc.microarray.comp;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.util.Date;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 /**
  * A process pool for pooling for example R processes.
- * 
- *  
- * The maximum number of processes controlled by this pool may temporarily be exceeded, 
+ *
+ * The pool tries to keep poolSizeMin processes available. New processes are started and
+ * warmed up on a background thread, so that getting a process doesn't have to wait for them.
+ * Warming up runs the init script (for example loads the commonly used R libraries), and the
+ * process becomes available when the init script has finished.
+ *
+ * The maximum number of processes controlled by this pool may temporarily be exceeded,
  * due to the synchronization mechanisms used.
- * 
+ *
  *
  */
 public class ProcessPool {
 
 	static final Logger logger = Logger.getLogger(ProcessPool.class);
-	
+
 	private BlockingQueue<NamiProcess> availableProcesses;
 	private ConcurrentMap<Integer, NamiProcess> inUseProcesses;
-	
+
 	private final int poolSizeMin;
 	private final int poolSizeMax;
 	private final int poolTimeout;
 	private final int processUseCountMax;
 	private final int processLifetimeMax;
 	private final String rCommand;
-	
+	private final String initScript;
+
 	private File workDir;
-	
-	private static final String RECYCLE_SUCCESFUL_STRING = "recycling-succesful";
-	
-	
+
+	// processes being started, warmed up or recycled
+	private int startingCount = 0;
+	private ExecutorService executor;
+	private Timer timeoutTimer = new Timer(true);
+
+	private AtomicLong hitCount = new AtomicLong();
+	private AtomicLong missCount = new AtomicLong();
+	private long warmUpCount = 0;
+	private long warmUpTimeTotal = 0;
+	private long warmUpTimeMax = 0;
+
+	// printed in parts, so that the echo of the command doesn't contain it
+	private static final String READY_STRING = "chipster-process-ready";
+	private static final String PRINT_READY = "cat(\"chipster-process\", \"-ready\\n\", sep=\"\")";
+
+	private static final int RECYCLE_TIMEOUT = 10; // seconds
+
+
 	/**
-	 * 
+	 *
 	 * Wrapper class for storing metadata about a Process.
-	 * 
+	 *
 	 */
 	private class NamiProcess {
-		
+
 		private Process process;
 		private int useCount;
 		private Date creationTime;
-		
+
 		public NamiProcess(Process p) {
 			this.process = p;
 			useCount = 0;
 			creationTime = new Date(System.currentTimeMillis());
 		}
-		
+
 		public Process getProcess() {
 			return this.process;
 		}
@@ -67,22 +91,30 @@ public class ProcessPool {
 		public int getUseCount() {
 			return this.useCount;
 		}
-		
+
 		public Date getCreationTime() {
 			return this.creationTime;
 		}
-		
+
 		public void increaseUseCount() {
 			this.useCount++;
 		}
-		
+
 	}
-	
-	
-	
+
+
+
 	public ProcessPool(File workDir, String command, int poolSizeMin, int poolSizeMax, int poolTimeout, int processUseCountMax, int processLifetimeMax) throws IOException {
+		this(workDir, command, null, poolSizeMin, poolSizeMax, poolTimeout, processUseCountMax, processLifetimeMax);
+	}
+
+	/**
+	 * @param initScript R commands to run in each new process before it's made available, or null
+	 */
+	public ProcessPool(File workDir, String command, String initScript, int poolSizeMin, int poolSizeMax, int poolTimeout, int processUseCountMax, int processLifetimeMax) throws IOException {
 		this.workDir = workDir;
 		this.rCommand = command;
+		this.initScript = initScript;
 		this.poolSizeMin = poolSizeMin;
 		this.poolSizeMax = poolSizeMax;
 		this.poolTimeout = poolTimeout;
@@ -90,52 +122,68 @@ public class ProcessPool {
 		this.processLifetimeMax = processLifetimeMax;
 
 		// initialize pool structures
-		this.availableProcesses = new LinkedBlockingQueue<NamiProcess>(); 
+		this.availableProcesses = new LinkedBlockingQueue<NamiProcess>();
 		this.inUseProcesses = new ConcurrentHashMap<Integer, NamiProcess>();
-	
-		// populate pool with new processes  
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "chipster-process-pool");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		// start the first processes here, so that a broken command fails already now
 		for (int i = 0; i < poolSizeMin; i++) {
-			availableProcesses.add(createProcess());
+			warmUpLater(createProcess());
 		}
-		
-		logger.debug("R process pool initialized, processes available: " + availableProcesses.size());
-		
+
+		logger.debug("R process pool initialized, processes starting: " + poolSizeMin);
+
 	}
 
 
 	public Process getProcess() throws IOException, InterruptedException {
 		NamiProcess nProcess;
-		
+
 		// try to get a process
 		nProcess = availableProcesses.poll();
-		
+
+		if (nProcess != null) {
+			hitCount.incrementAndGet();
+		}
+
 		// no processes were available, try to create a new one
-		if (nProcess == null) {
-			
-			// still room for more processes, create one
-			if (availableProcesses.size() + inUseProcesses.size() < poolSizeMax) {
+		else {
+			missCount.incrementAndGet();
+
+			// still room for more processes, create one without waiting for the warm up
+			if (getProcessCount() < poolSizeMax) {
 				nProcess = createProcess();
 			}
 
 			// already max number of processes created, wait for one to be available
 			else {
 				nProcess = availableProcesses.poll(poolTimeout, TimeUnit.SECONDS);
-				
+
 				// finally got the process or timeout?
 				if (nProcess == null) {
 					throw new IOException("Timeout when getting an R process.");
 				}
 			}
 		}
-		
+
 		// the process is now in use
 		nProcess.increaseUseCount();
 		inUseProcesses.put(nProcess.getProcess().hashCode(), nProcess);
+
+		replenish();
+
 		return nProcess.getProcess();
 	}
-	
+
 	/**
-	 * 
+	 *
 	 * @param process
 	 * @param recycle true if the process should be recycled, false is used for
 	 * processes which are known to be dead or having problems
@@ -143,27 +191,27 @@ public class ProcessPool {
 	 */
 	public void releaseProcess(Process process, boolean recycle) throws IOException {
 
-		
+
 		// make sure the process originated in this pool
-		NamiProcess nProcess = inUseProcesses.get(process.hashCode());
+		final NamiProcess nProcess = inUseProcesses.get(process.hashCode());
 		if (nProcess == null) {
 			throw new IOException("Trying to release an unknown process.");
 		}
-		
-		
+
+
 		// check the process
 		boolean processOk = true;
 		boolean processAlive = false;
-		
-		// no recycling 
+
+		// no recycling
 		if (!recycle) {
 			logger.debug("Process " + nProcess.getProcess().hashCode() + " not recycled as requested.");
-		} 
+		}
 		// check process use count
 		else if (nProcess.getUseCount() >= processUseCountMax) {
 			processOk = false;
 			logger.debug("Process " + nProcess.getProcess().hashCode() + " has been used for " + nProcess.getUseCount() + " times and is therefore not recycled.");
-		} 
+		}
 		// check process lifetime
 		else if ((System.currentTimeMillis() - nProcess.getCreationTime().getTime()) >= processLifetimeMax * 1000) {
 			processOk = false;
@@ -182,63 +230,194 @@ public class ProcessPool {
 			}
 		}
 
-		
-		// recycle the process or replace it with a new one 
-		if (recycle && processOk && processAlive) {
-			logger.debug("Recycling process " + nProcess.getProcess().hashCode() + ".");
+		// remove the process from inUse
+		inUseProcesses.remove(process.hashCode());
+
+		// recycle the process on the pool thread, so that the job doesn't have to wait for it
+		if (recycle && processOk && processAlive && availableProcesses.size() < poolSizeMin) {
+			synchronized (this) {
+				startingCount++;
+			}
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						recycle(nProcess);
+					} finally {
+						synchronized (ProcessPool.this) {
+							startingCount--;
+						}
+						replenish();
+					}
+				}
+			});
+		} else {
+			process.destroy();
+			replenish();
+		}
 
-			// make sure that STDOUT and STDERR are clean
+		logger.debug("Available processes: " + availableProcesses.size() + ", in use: " + inUseProcesses.size());
+	}
 
-			
-			CountDownLatch recycleLatch = new CountDownLatch(1);
-			ProcessMonitor recycleMonitor = new ProcessMonitor(process, recycleLatch);
-			new Thread(recycleMonitor).start();
-			
-			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()));
-			// TODO add garbage collecting here?
-			writer.write("rm(list=objects())");
-			writer.newLine();
-			writer.write("setwd(\"" + workDir.getAbsolutePath() + "\")");
-			writer.newLine();
-			writer.write("print(\"" + RECYCLE_SUCCESFUL_STRING + "\")");
-			writer.newLine();
-			writer.flush();
-			
-			try {
-				recycleLatch.await(10, TimeUnit.SECONDS);
-			} catch (InterruptedException e) {
-				processOk = false;
+	/**
+	 * @return process counts, hits and misses of {@link #getProcess()} and warm up times
+	 */
+	public String getStatus() {
+		long hits = hitCount.get();
+		long misses = missCount.get();
+		int starting;
+		long warmUpAverage;
+		long warmUpMax;
+		synchronized (this) {
+			starting = startingCount;
+			warmUpAverage = warmUpCount > 0 ? warmUpTimeTotal / warmUpCount : 0;
+			warmUpMax = warmUpTimeMax;
+		}
+		return "processes available: " + availableProcesses.size() +
+				", in use: " + inUseProcesses.size() +
+				", starting: " + starting +
+				", hits: " + hits +
+				", misses: " + misses +
+				", warm up average: " + warmUpAverage + " ms" +
+				", max: " + warmUpMax + " ms";
+	}
+
+	private synchronized int getProcessCount() {
+		return availableProcesses.size() + inUseProcesses.size() + startingCount;
+	}
+
+	/**
+	 * Start new processes in the background until there are poolSizeMin processes
+	 * available or starting.
+	 */
+	private void replenish() {
+		synchronized (this) {
+			while (availableProcesses.size() + startingCount < poolSizeMin && getProcessCount() < poolSizeMax) {
+				startingCount++;
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							warmUp(createProcess());
+						} catch (IOException e) {
+							logger.warn("starting a new process failed", e);
+						} finally {
+							synchronized (ProcessPool.this) {
+								startingCount--;
+							}
+						}
+					}
+				});
 			}
+		}
+	}
 
-			if (!processOk || recycleLatch.getCount() > 0 || !recycleMonitor.processOk() || process.getErrorStream().available() > 0) {
-				process.destroy();
-				nProcess = createProcess();
+	private void warmUpLater(final NamiProcess nProcess) {
+		synchronized (this) {
+			startingCount++;
+		}
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					warmUp(nProcess);
+				} finally {
+					synchronized (ProcessPool.this) {
+						startingCount--;
+					}
+				}
 			}
-			
-		
-		} else {
-			process.destroy();
-			nProcess = createProcess();
+		});
+	}
+
+	/**
+	 * Run the init script and make the process available.
+	 */
+	private void warmUp(NamiProcess nProcess) {
+		if (initScript != null) {
+			long t = System.currentTimeMillis();
+			if (!runScript(nProcess.getProcess(), initScript, poolTimeout)) {
+				logger.warn("warming up process " + nProcess.getProcess().hashCode() + " failed");
+				nProcess.getProcess().destroy();
+				return;
+			}
+			long time = System.currentTimeMillis() - t;
+			synchronized (this) {
+				warmUpCount++;
+				warmUpTimeTotal += time;
+				warmUpTimeMax = Math.max(warmUpTimeMax, time);
+			}
+			logger.debug("Process " + nProcess.getProcess().hashCode() + " warmed up in " + time + " ms.");
 		}
+		availableProcesses.add(nProcess);
+	}
+
+	/**
+	 * Clean the process and make it available again. The libraries loaded in the init script stay loaded.
+	 */
+	private void recycle(NamiProcess nProcess) {
+		logger.debug("Recycling process " + nProcess.getProcess().hashCode() + ".");
 
-		
-		// make the (possibly new) process available again, if there is room for it,
-		if (availableProcesses.size() < poolSizeMin && availableProcesses.size() + inUseProcesses.size() <= poolSizeMax) {
+		// TODO add garbage collecting here?
+		String script =
+				"rm(list=objects())\n" +
+				"setwd(\"" + workDir.getAbsolutePath() + "\")\n";
+
+		if (runScript(nProcess.getProcess(), script, RECYCLE_TIMEOUT)) {
 			availableProcesses.add(nProcess);
-		} 
-		// otherwise destroy it
-		else {
+		} else {
 			nProcess.getProcess().destroy();
 		}
-		
-		// remove the possibly recycled process from inUse
-		inUseProcesses.remove(process.hashCode());
-		
-		logger.debug("Available processes: " + availableProcesses.size() + ", in use: " + inUseProcesses.size());
+	}
+
+	/**
+	 * Write the script to the process and read its output until the script has finished.
+	 *
+	 * @return true if the script finished before the timeout
+	 */
+	private boolean runScript(final Process process, String script, int timeout) {
+
+		// the output can't be read with a timeout, so kill the process if it takes too long
+		TimerTask timeoutTask = new TimerTask() {
+			@Override
+			public void run() {
+				logger.warn("Process " + process.hashCode() + " timed out.");
+				process.destroy();
+			}
+		};
+		timeoutTimer.schedule(timeoutTask, timeout * 1000l);
 
-	
+		try {
+			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()));
+			writer.write(script);
+			writer.newLine();
+			writer.write(PRINT_READY);
+			writer.newLine();
+			writer.flush();
+
+			// read byte by byte, because any output buffered here would be lost from the job
+			InputStream in = process.getInputStream();
+			StringBuilder line = new StringBuilder();
+			for (int b = in.read(); b != -1; b = in.read()) {
+				if (b == '\n') {
+					if (line.toString().contains(READY_STRING)) {
+						return true;
+					}
+					line.setLength(0);
+				} else {
+					line.append((char) b);
+				}
+			}
+			// end of stream
+			return false;
+
+		} catch (IOException e) {
+			logger.debug("Running script in process " + process.hashCode() + " failed.", e);
+			return false;
+		} finally {
+			timeoutTask.cancel();
+		}
 	}
-	
 
 	private NamiProcess createProcess() throws IOException {
 
@@ -250,63 +429,4 @@ public class ProcessPool {
 		Process p = builder.start();
 		return new NamiProcess(p);
 	}
-	
-	
-	private class ProcessMonitor implements Runnable {
-
-		private CountDownLatch latch;
-		private Process process;
-		private boolean processOk = false;
-		
-		public ProcessMonitor(Process process, CountDownLatch latch) {
-			this.process = process;
-			this.latch = latch;
-		}
-		
-		public boolean processOk() {
-			return processOk;
-		}
-		
-		
-		public void run() {
-			BufferedReader reader = new BufferedReader(new InputStreamReader(this.process.getInputStream()));
-			
-			boolean readMore = true;
-			try {
-				for (String line = reader.readLine(); readMore ; line = reader.readLine()) {
-					
-					// read end of stream --> error
-					if (line == null ) {
-						processOk = false;
-						readMore = false;
-					} 
-					
-					// read recycle successful
-					else if (line.contains(RECYCLE_SUCCESFUL_STRING)) {
-						processOk = true;
-						readMore = false;
-					}
-					
-					// read normal output
-					else {
-						
-					}
-				}
-			} catch (IOException e) {
-				processOk = false;
-			}
-
-			this.latch.countDown();
-		}
-	
-	}
-
-	
-	
-	
-	
-	
-	
-	
-	
 }
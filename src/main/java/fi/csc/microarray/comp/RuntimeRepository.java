@@ -3,6 +3,7 @@ package fi.csc.microarray.comp;
 import java.io.File;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.Collection;
 import java.util.HashMap;
 
 import org.apache.log4j.Logger;
@@ -35,6 +36,10 @@ public class RuntimeRepository {
 		return runtimes.get(name);
 	}
 	
+	public Collection<ToolRuntime> getRuntimes() {
+		return runtimes.values();
+	}
+	
 	
 	/**
 	 * Load available runtimes.
@@ -35,6 +35,18 @@ public class RJobFactory extends InterpreterJobFactory {
 		return analysisJob;
 	}
 
+	/**
+	 * Missing libraries are only warned about, because an error would stop R.
+	 */
+	@Override
+	protected String getPreloadScript(String[] libraries) {
+		String script = "";
+		for (String library : libraries) {
+			script += "suppressPackageStartupMessages(require(" + RCompJob.STRING_DELIMETER + library + RCompJob.STRING_DELIMETER + "))\n";
+		}
+		return script;
+	}
+
 	@Override
 	protected String getStringDelimeter() {
 		return RCompJob.STRING_DELIMETER;
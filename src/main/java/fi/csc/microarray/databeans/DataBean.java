@@ -1,5 +1,6 @@
 package fi.csc.microarray.databeans;
 
+import java.io.IOException;
 import java.net.URL;
 import java.util.Date;
 import java.util.HashMap;
@@ -8,6 +9,9 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import javax.swing.SwingUtilities;
+
+import fi.csc.microarray.client.Session;
 import fi.csc.microarray.client.operation.OperationRecord;
 import fi.csc.microarray.databeans.DataManager.ContentLocation;
 import fi.csc.microarray.databeans.DataManager.StorageMethod;
@@ -146,8 +150,20 @@ public class DataBean extends DataItemBase {
 	private LinkedList<LinkedBean> outgoingLinks = new LinkedList<LinkedBean>();
 	private LinkedList<LinkedBean> incomingLinks = new LinkedList<LinkedBean>();
 
-	private LinkedList<TypeTag> tags = new LinkedList<TypeTag>();
-	private boolean tagsSet = false;
+	private volatile LinkedList<TypeTag> tags = new LinkedList<TypeTag>();
+	private volatile boolean tagsSet = false;
+	
+	/**
+	 * Type tags are added on the first call of getTypeTags() or hasTypeTag(), because it
+	 * may require reading the content. Used for beans of lazily opened sessions.
+	 */
+	private boolean typeTagsLazily = false;
+	private boolean addingTypeTags = false;
+	// tags of the lazy tagging, published to the other threads when complete, guarded by typeTagLock
+	private LinkedList<TypeTag> newTags;
+	// accessed only in the EDT
+	private boolean typeTaggingStarted = false;
+	private final Object typeTagLock = new Object();
 	
 	private String id;
 	
@@ -472,8 +488,9 @@ public class DataBean extends DataItemBase {
 	 * @see TypeTag
 	 */
 	public void addTypeTag(TypeTag tag) {
-		if (!tags.contains(tag)) {
-			tags.add(tag);
+		List<TypeTag> currentTags = getCurrentTags();
+		if (!currentTags.contains(tag)) {
+			currentTags.add(tag);
 		}
 	}
 	
@@ -486,7 +503,7 @@ public class DataBean extends DataItemBase {
 	 * @see TypeTag
 	 */
 	public void removeTypeTag(TypeTag tag) {
-		tags.remove(tag);
+		getCurrentTags().remove(tag);
 	}
 	
 	/**
@@ -500,7 +517,8 @@ public class DataBean extends DataItemBase {
 	 * @see #getContentType()
 	 */
 	public List<TypeTag> getTypeTags() {
-		return tags;
+		addTypeTagsIfNeeded();
+		return getCurrentTags();
 	}
 	
 	/**
@@ -513,8 +531,10 @@ public class DataBean extends DataItemBase {
 	 * @see TypeTag
 	 */
 	public boolean hasTypeTag(TypeTag... alternativeTags) {
+		addTypeTagsIfNeeded();
+		List<TypeTag> currentTags = getCurrentTags();
 		for (TypeTag alternativeTag : alternativeTags) {
-			if (tags.contains(alternativeTag)) {
+			if (currentTags.contains(alternativeTag)) {
 				return true;
 			}
 		}
@@ -689,6 +709,68 @@ public class DataBean extends DataItemBase {
 		this.tagsSet = tagsSet;
 	}
 
+	/**
+	 * @see DataManager#connectChildren(java.util.List, DataFolder, boolean)
+	 */
+	public void setTypeTagsLazily(boolean typeTagsLazily) {
+		this.typeTagsLazily = typeTagsLazily;
+	}
+	
+	private void addTypeTagsIfNeeded() {
+		if (!typeTagsLazily || tagsSet) {
+			return;
+		}
+		if (SwingUtilities.isEventDispatchThread()) {
+			// don't read the content in the EDT, the views are updated when the tags are ready
+			if (!typeTaggingStarted) {
+				typeTaggingStarted = true;
+				dataManager.addTypeTagsInBackground(this);
+			}
+			return;
+		}
+		try {
+			addTypeTagsLazily();
+		} catch (IOException e) {
+			Session.getSession().getApplication().reportExceptionThreadSafely(e);
+		}
+	}
+
+	/**
+	 * Add the type tags of a lazily tagged bean, unless they are set already. 
+	 * 
+	 * @see #setTypeTagsLazily(boolean)
+	 */
+	void addTypeTagsLazily() throws IOException {
+		synchronized (typeTagLock) {
+			// modules call hasTypeTag() while adding the tags
+			if (tagsSet || addingTypeTags) {
+				return;
+			}
+			addingTypeTags = true;
+			newTags = new LinkedList<TypeTag>(tags);
+			try {
+				dataManager.addTypeTagsOfModules(this);
+				
+				// publish the complete tags at once, tagsSet is written last
+				tags = newTags;
+				tagsSet = true;
+			} finally {
+				newTags = null;
+				addingTypeTags = false;
+			}
+		}
+	}
+
+	/**
+	 * Tags of the lazy tagging are visible only to the thread adding them, until they are complete.
+	 */
+	private List<TypeTag> getCurrentTags() {
+		if (Thread.holdsLock(typeTagLock) && newTags != null) {
+			return newTags;
+		}
+		return tags;
+	}
+
 	public void setPosition(Integer x, Integer y) {
 		this.x = x;
 		this.y = y;
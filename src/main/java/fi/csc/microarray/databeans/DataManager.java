@@ -12,6 +12,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -22,6 +23,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 import javax.jms.JMSException;
+import javax.swing.SwingUtilities;
 
 import org.apache.log4j.Logger;
 import org.eclipse.jetty.util.IO;
@@ -42,6 +44,7 @@ import fi.csc.microarray.exception.MicroarrayException;
 import fi.csc.microarray.filebroker.ChecksumException;
 import fi.csc.microarray.filebroker.ChecksumInputStream;
 import fi.csc.microarray.filebroker.ContentLengthException;
+import fi.csc.microarray.filebroker.FileBrokerClient;
 import fi.csc.microarray.filebroker.FileBrokerClient.FileBrokerArea;
 import fi.csc.microarray.filebroker.FileBrokerException;
 import fi.csc.microarray.filebroker.NotEnoughDiskSpaceException;
@@ -68,6 +71,14 @@ public class DataManager {
 		URL url;
 		private ContentHandler handler;
 		
+		/**
+		 * False until the content length of the location has been compared to the size
+		 * of the bean.
+		 * 
+		 * @see DataManager#addUnverifiedContentLocationForDataBean(DataBean, StorageMethod, URL)
+		 */
+		volatile boolean lengthVerified = true;
+		
 		public ContentLocation(StorageMethod method, ContentHandler handler, URL url) {
 			this.method = method;
 			this.handler = handler;
@@ -907,6 +918,7 @@ public class DataManager {
 		} finally {
 //			this.lock.writeLock().unlock();
 		}
+		bean.resetContentBoundCache();
 		ContentChangedEvent cce = new ContentChangedEvent(bean);
 		this.dispatchEventIfVisible(cce);
 	}
@@ -1080,6 +1092,14 @@ public class DataManager {
 	}
 	
 	public void connectChildren(final List<? extends DataItem> children, final DataFolder parent) {
+		connectChildren(children, parent, true);
+	}
+	
+	/**
+	 * @param addTypeTags if false, type tags of the DataBeans are added only when they are 
+	 * needed for the first time
+	 */
+	public void connectChildren(final List<? extends DataItem> children, final DataFolder parent, final boolean addTypeTags) {
 		
 		final ArrayList<AddTypeTagsCallable> callables = new ArrayList<>();
 		final ArrayList<DataItemCreatedEvent> events = new ArrayList<>();
@@ -1104,7 +1124,11 @@ public class DataManager {
 
 					// prepare type tagging callables
 					if (child instanceof DataBean) {
-						callables.add(new AddTypeTagsCallable((DataBean) child));
+						if (addTypeTags) {
+							callables.add(new AddTypeTagsCallable((DataBean) child));
+						} else {
+							((DataBean) child).setTypeTagsLazily(true);
+						}
 					}
 				}
 
@@ -1150,6 +1174,33 @@ public class DataManager {
 		}
 	}
 	
+	/**
+	 * Add the type tags of a lazily tagged bean in a background thread and send a 
+	 * ContentChangedEvent in the EDT, when they are ready.
+	 * 
+	 * @see DataBean#setTypeTagsLazily(boolean)
+	 */
+	public void addTypeTagsInBackground(final DataBean bean) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					bean.addTypeTagsLazily();
+					
+					SwingUtilities.invokeLater(new Runnable() {
+						@Override
+						public void run() {
+							dispatchEventIfVisible(new ContentChangedEvent(bean));
+						}
+					});
+					
+				} catch (IOException | RuntimeException e) {
+					Session.getSession().getApplication().reportExceptionThreadSafely(e);
+				}
+			}
+		});
+	}
+	
 	public void connectChild(DataItem child, DataFolder parent) {
 		ArrayList<DataItem> list = new ArrayList<>();
 		list.add(child);
@@ -1171,16 +1222,23 @@ public class DataManager {
 	public void addTypeTagsOfEachModule(DataBean data) throws IOException {
 
 		if (!data.isTagsSet()) {
-			for (Module module : modules) {
-				try {
-					module.addTypeTags(data);
+			addTypeTagsOfModules(data);
+		}
+		data.setTagsSet(true);
+	}
+	
+	/**
+	 * Like addTypeTagsOfEachModule(), but doesn't check or set the tagsSet flag of the bean.
+	 */
+	void addTypeTagsOfModules(DataBean data) throws IOException {
+		for (Module module : modules) {
+			try {
+				module.addTypeTags(data);
 
-				} catch (MicroarrayException e) {
-					throw new RuntimeException(e);
-				}
+			} catch (MicroarrayException e) {
+				throw new RuntimeException(e);
 			}
 		}
-		data.setTagsSet(true);
 	}
 	
 	/**
@@ -1229,6 +1287,20 @@ public class DataManager {
 		bean.addContentLocation(location);		
 	}
 	
+	/**
+	 * Like addContentLocationForDataBean(), but the content length of the location is 
+	 * compared to the size of the bean only when the location is used for the first time. 
+	 * For remote locations the check is a request to the server, so this is used when 
+	 * sessions are opened lazily. Locations with a wrong content length are removed then.
+	 * 
+	 * @see #getClosestContentLocation(DataBean)
+	 */
+	public void addUnverifiedContentLocationForDataBean(DataBean bean, StorageMethod method, URL url) {
+		ContentLocation location = new ContentLocation(method, getHandlerFor(method), url);
+		location.lengthVerified = false;
+		bean.addContentLocation(location);
+	}
+	
 
 	public void removeContentLocationsFromDataBean(DataBean bean, StorageMethod method) {
 		bean.removeContentLocations(method);
@@ -1289,7 +1361,101 @@ public class DataManager {
 		}
 	}
 
+	/**
+	 * Batch version of {@link #uploadToStorageIfNeeded(DataBean)} and 
+	 * {@link #uploadToCacheIfNeeded(DataBean, CopyProgressListener)}. Availability of the beans 
+	 * and the urls for the uploads are asked from the filebroker with single requests, instead
+	 * of asking them separately for each bean.
+	 * 
+	 * @return beans for which the per bean version would have returned true, in the original order
+	 * @throws Exception
+	 */
+	public List<DataBean> uploadIfNeeded(List<DataBean> beans, FileBrokerArea area) throws Exception {
+		
+		if (beans.isEmpty()) {
+			return new LinkedList<>();
+		}
+		
+		FileBrokerClient fileBrokerClient = Session.getSession().getServiceAccessor().getFileBrokerClient();
+		
+		List<String> dataIds = new ArrayList<>();
+		List<Long> sizes = new ArrayList<>();
+		List<String> checksums = new ArrayList<>();
+		for (DataBean bean : beans) {
+			dataIds.add(bean.getId());
+			sizes.add(bean.getSize());
+			checksums.add(bean.getChecksum());
+		}
+		
+		List<DataBean> needsUpload = new ArrayList<>();
+		HashSet<DataBean> successful = new HashSet<>();
+		
+		switch (area) {
+		case STORAGE:
+			HashSet<String> inStorage = new HashSet<>(fileBrokerClient.getAvailable(dataIds, sizes, checksums, FileBrokerArea.STORAGE));
+			for (DataBean bean : beans) {
+				if (inStorage.contains(bean.getId()) || fileBrokerClient.moveFromCacheToStorage(bean.getId())) {
+					successful.add(bean);
+				} else {
+					needsUpload.add(bean);
+				}
+			}
+			break;
+		case CACHE:
+			HashSet<String> available = new HashSet<>(fileBrokerClient.getAvailable(dataIds, sizes, checksums, FileBrokerArea.CACHE));
+			available.addAll(fileBrokerClient.getAvailable(dataIds, sizes, checksums, FileBrokerArea.STORAGE));
+			for (DataBean bean : beans) {
+				if (!available.contains(bean.getId())) {
+					needsUpload.add(bean);
+				}
+			}
+			break;
+		default:
+			throw new IllegalArgumentException("unknown filebroker area");
+		}
+		
+		// upload only beans that still have content
+		List<DataBean> uploadable = new ArrayList<>();
+		List<String> uploadIds = new ArrayList<>();
+		List<Long> uploadSizes = new ArrayList<>();
+		for (DataBean bean : needsUpload) {
+			if (bean.getContentLocations().size() > 0) {
+				uploadable.add(bean);
+				uploadIds.add(bean.getId());
+				uploadSizes.add(getContentLength(bean));
+			}
+		}
+		
+		Map<String, URL> urls = fileBrokerClient.getNewURLs(uploadIds, uploadSizes, area);
+		
+		for (DataBean bean : uploadable) {
+			try {
+				bean.getLock().readLock().lock();
+				if (upload(bean, area, urls.get(bean.getId()), null)) {
+					successful.add(bean);
+				}
+			} finally {
+				bean.getLock().readLock().unlock();
+			}
+		}
+		
+		List<DataBean> result = new LinkedList<>();
+		for (DataBean bean : beans) {
+			if (successful.contains(bean)) {
+				result.add(bean);
+			}
+		}
+		return result;
+	}
+
 	private boolean upload(DataBean dataBean, FileBrokerArea area, CopyProgressListener progressListener) throws Exception {
+		return upload(dataBean, area, null, progressListener);
+	}
+	
+	/**
+	 * @param url url from the filebroker or null to ask a new one
+	 */
+	private boolean upload(DataBean dataBean, FileBrokerArea area, URL url, CopyProgressListener progressListener) throws Exception {
 		// check if content is still available
 		if (dataBean.getContentLocations().size() == 0) {
 			return false;
@@ -1297,12 +1463,14 @@ public class DataManager {
 		
 		// try to upload
 		try {
-			String checksum = Session.getSession().getServiceAccessor().getFileBrokerClient().addFile(
-					dataBean.getId(), 
-					area, 
-					getContentStream(dataBean, DataNotAvailableHandling.EXCEPTION_ON_NA), 
-					getContentLength(dataBean), 
-					progressListener);
+			FileBrokerClient fileBrokerClient = Session.getSession().getServiceAccessor().getFileBrokerClient();
+			InputStream content = getContentStream(dataBean, DataNotAvailableHandling.EXCEPTION_ON_NA);
+			String checksum;
+			if (url != null) {
+				checksum = fileBrokerClient.addFile(dataBean.getId(), url, content, getContentLength(dataBean), progressListener);
+			} else {
+				checksum = fileBrokerClient.addFile(dataBean.getId(), area, content, getContentLength(dataBean), progressListener);
+			}
 			
 			setOrVerifyChecksum(dataBean, checksum);
 
@@ -1368,7 +1536,7 @@ public class DataManager {
 		List<ContentLocation> closestContentLocations = getClosestContentLocationList(bean);
 			
 		for (ContentLocation contentLocation : closestContentLocations) {
-			if (contentLocation != null && contentLocation.method.isRandomAccess() && isAccessible(contentLocation)) {
+			if (contentLocation != null && contentLocation.method.isRandomAccess() && isAccessible(contentLocation) && verifyContentLength(bean, contentLocation)) {
 				return contentLocation;
 			}
 		}
@@ -1387,7 +1555,7 @@ public class DataManager {
 		List<ContentLocation> closestContentLocations = getClosestContentLocationList(bean);
 			
 		for (ContentLocation contentLocation : closestContentLocations) {
-			if (contentLocation != null && isAccessible(contentLocation)) {
+			if (contentLocation != null && isAccessible(contentLocation) && verifyContentLength(bean, contentLocation)) {
 				return contentLocation;
 			}
 		}
@@ -1413,6 +1581,32 @@ public class DataManager {
 		return location.getHandler().isAccessible(location);
 	}
 
+	/**
+	 * Check the content length of a location that was added without checking it. A location
+	 * with a wrong content length is removed from the bean.
+	 * 
+	 * @return false if the location can't be used
+	 */
+	private boolean verifyContentLength(DataBean bean, ContentLocation location) {
+		if (location.lengthVerified) {
+			return true;
+		}
+		try {
+			setOrVerifyContentLength(bean, getContentLength(location));
+			location.lengthVerified = true;
+			return true;
+			
+		} catch (ContentLengthException e) {
+			logger.warn("wrong content length in " + location.getUrl() + ", removing it from dataset " + bean.getName());
+			bean.removeContentLocation(location);
+			return false;
+			
+		} catch (IOException e) {
+			logger.warn("content length not available: " + location.getUrl(), e);
+			return false;
+		}
+	}
+
 	/**
 	 * Get a approximate row count of files under MAX_BYTES_TO_COUNT in size.
 	 * If there are more than MAX_ROWS_TO_COUNT, this number is returned. 
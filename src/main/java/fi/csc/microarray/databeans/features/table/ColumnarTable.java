@@ -0,0 +1,307 @@
+package fi.csc.microarray.databeans.features.table;
+
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+import fi.csc.microarray.client.Session;
+import fi.csc.microarray.databeans.DataBean;
+import fi.csc.microarray.databeans.features.Table;
+import fi.csc.microarray.databeans.features.table.TableColumnProvider.MatrixParseSettings;
+
+/**
+ * Table that is served from memory. The contents of the bean are parsed once with
+ * {@link DynamicallyParsedTable} and stored column by column: every column has its values
+ * parsed to floats and the original strings are kept only when they can't be reproduced
+ * from the float. Parsed contents are stored in the content bound cache of the bean, so
+ * that all tables and column iterators of the same bean can use them.
+ *
+ * @see DataBean#putToContentBoundCache(String, Object)
+ */
+public class ColumnarTable implements Table {
+
+	/**
+	 * Larger tables are parsed while iterating with {@link DynamicallyParsedTable}.
+	 */
+	public static final long MAX_BYTES_TO_CACHE = 256 * 1024 * 1024;
+
+	private static final String CACHE_NAME = "columnar-table";
+
+	/**
+	 * Parsed contents of a table.
+	 */
+	static class Columns {
+
+		private int rowCount = 0;
+		private int capacity = 16;
+
+		/**
+		 * Values of each column parsed to floats, NaN if the cell is not a number.
+		 */
+		private float[][] floats;
+
+		/**
+		 * Original strings of cells that can't be reproduced from the float value. Array of a
+		 * column is null when all of its cells can be reproduced.
+		 */
+		private String[][] strings;
+
+		private HashMap<String, String> internedStrings = new HashMap<String, String>();
+
+		Columns(DynamicallyParsedTable parser, int columnCount) {
+
+			this.floats = new float[columnCount][capacity];
+			this.strings = new String[columnCount][];
+
+			while (parser.nextRow()) {
+
+				if (rowCount == capacity) {
+					grow(capacity * 2);
+				}
+
+				String[] row = parser.getRow();
+				for (int column = 0; column < columnCount; column++) {
+					add(column, row[column]);
+				}
+				rowCount++;
+			}
+
+			grow(rowCount);
+
+			// not needed after parsing
+			internedStrings = null;
+		}
+
+		private void add(int column, String cell) {
+
+			float value = parseFloat(cell);
+			floats[column][rowCount] = value;
+
+			if (!cell.equals(format(value))) {
+				if (strings[column] == null) {
+					strings[column] = new String[capacity];
+				}
+				strings[column][rowCount] = intern(cell);
+			}
+		}
+
+		private void grow(int size) {
+			capacity = size;
+			for (int column = 0; column < floats.length; column++) {
+				floats[column] = Arrays.copyOf(floats[column], size);
+				if (strings[column] != null) {
+					strings[column] = Arrays.copyOf(strings[column], size);
+				}
+			}
+		}
+
+		private String intern(String string) {
+			String interned = internedStrings.get(string);
+			if (interned == null) {
+				internedStrings.put(string, string);
+				interned = string;
+			}
+			return interned;
+		}
+
+		float getFloat(int column, int row) {
+			return floats[column][row];
+		}
+
+		String getString(int column, int row) {
+			if (strings[column] != null && strings[column][row] != null) {
+				return strings[column][row];
+			}
+			return format(floats[column][row]);
+		}
+
+		/**
+		 * @return true if the cell was parsed successfully as a float, including "NaN"
+		 */
+		boolean isNumber(int column, int row) {
+			if (!Float.isNaN(floats[column][row])) {
+				return true;
+			}
+			try {
+				Float.parseFloat(getString(column, row));
+				return true;
+			} catch (NumberFormatException e) {
+				return false;
+			}
+		}
+
+		int getRowCount() {
+			return rowCount;
+		}
+	}
+
+	/**
+	 * Same as {@link Float#parseFloat(String)}, but returns NaN for unparseable strings. Exceptions are
+	 * slow, so obvious non-numbers are rejected without parsing.
+	 */
+	static float parseFloat(String string) {
+
+		String trimmed = string.trim();
+		if (trimmed.isEmpty()) {
+			return Float.NaN;
+		}
+
+		char first = trimmed.charAt(0);
+		if (!(Character.isDigit(first) || first == '-' || first == '+' || first == '.' || first == 'N' || first == 'I')) {
+			return Float.NaN;
+		}
+
+		try {
+			return Float.parseFloat(trimmed);
+		} catch (NumberFormatException e) {
+			return Float.NaN;
+		}
+	}
+
+	/**
+	 * Formats integers without decimals and other values with {@link Float#toString(float)}.
+	 */
+	static String format(float value) {
+		if (value == Math.rint(value) && !Float.isInfinite(value) && Math.abs(value) < 1e7f) {
+			return Integer.toString((int) value);
+		}
+		return Float.toString(value);
+	}
+
+	/**
+	 * Returns parsed contents of the bean from the content bound cache or parses them, if the bean
+	 * is small enough. The same bean is parsed only once at a time, other beans can be parsed in 
+	 * parallel.
+	 *
+	 * @return parsed contents or null, if the bean is too large
+	 */
+	static Columns getColumns(DataBean bean, MatrixParseSettings settings) {
+
+		String cacheName = getCacheName(settings);
+
+		synchronized (bean) {
+
+			@SuppressWarnings("unchecked")
+			SoftReference<Columns> reference = (SoftReference<Columns>) bean.getFromContentBoundCache(cacheName);
+			Columns columns = reference != null ? reference.get() : null;
+
+			if (columns == null) {
+
+				Long size = Session.getSession().getDataManager().getContentLength(bean);
+				if (size == null || size > MAX_BYTES_TO_CACHE) {
+					return null;
+				}
+
+				DynamicallyParsedTable parser = new DynamicallyParsedTable(bean, settings, new LinkedList<Integer>());
+				try {
+					columns = new Columns(parser, settings.columns.size());
+				} finally {
+					parser.close();
+				}
+
+				// let the garbage collector decide how long to keep it
+				bean.putToContentBoundCache(cacheName, new SoftReference<Columns>(columns));
+			}
+
+			return columns;
+		}
+	}
+
+	/**
+	 * Contents parsed with different settings are cached separately.
+	 */
+	private static String getCacheName(MatrixParseSettings settings) {
+		return CACHE_NAME + "-" + settings.headerBytes + "-" + settings.hasColumnNames + "-" + settings.footerStarter + "-" + settings.columns.keySet();
+	}
+
+	private Columns columns;
+	private String[] columnNames;
+	private LinkedList<Integer> columnNumbers;
+	private HashMap<String, Integer> columnIndexes = new HashMap<String, Integer>();
+	private int row = -1;
+
+	public ColumnarTable(Columns columns, MatrixParseSettings settings, LinkedList<Integer> columnNumbers) {
+		this.columns = columns;
+		this.columnNumbers = columnNumbers;
+		this.columnNames = settings.columns.keySet().toArray(new String[0]);
+
+		// only selected columns can be accessed
+		if (columnNumbers.size() == 0) {
+			for (int i = 0; i < columnNames.length; i++) {
+				columnIndexes.put(columnNames[i], i);
+			}
+		} else {
+			for (Integer number : columnNumbers) {
+				columnIndexes.put(columnNames[number], number);
+			}
+		}
+	}
+
+	public boolean nextRow() {
+		if (row < columns.getRowCount()) {
+			row++;
+		}
+		return row < columns.getRowCount();
+	}
+
+	private int getColumnIndex(String columnName) {
+		Integer index = columnIndexes.get(columnName);
+		if (index == null) {
+			throw new IllegalArgumentException("column name " + columnName + " was not found");
+		}
+		if (row < 0 || row >= columns.getRowCount()) {
+			throw new IllegalStateException("not on a valid row");
+		}
+		return index;
+	}
+
+	public float getFloatValue(String columnName) {
+		return columns.getFloat(getColumnIndex(columnName), row);
+	}
+
+	public String getStringValue(String columnName) {
+		if (!columnIndexes.containsKey(columnName)) {
+			return null;
+		}
+		return columns.getString(getColumnIndex(columnName), row);
+	}
+
+	public int getIntValue(String columnName) {
+		return (int)getFloatValue(columnName);
+	}
+
+	public Object getValue(String columnName) {
+		int index = getColumnIndex(columnName);
+		if (columns.isNumber(index, row)) {
+			return columns.getFloat(index, row);
+		} else {
+			return columns.getString(index, row);
+		}
+	}
+
+	public String[] getColumnNames() {
+		String[] colunmNameSlice = new String[columnNumbers.size()];
+		for (int i = 0; i < columnNumbers.size(); i++) {
+			colunmNameSlice[i] = columnNames[columnNumbers.get(i)];
+		}
+		return colunmNameSlice;
+	}
+
+	public boolean hasColumn(String columnName) {
+		for (String name : columnNames) {
+			if (name.equals(columnName)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public int getColumnCount() {
+		return columnNames.length;
+	}
+
+	public void close() {
+		// nothing to close, contents are in memory
+	}
+}
@@ -2,7 +2,6 @@ package fi.csc.microarray.databeans.features.table;
 
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 
@@ -17,7 +16,9 @@ import fi.csc.microarray.util.LookaheadLineReader;
 
 
 /**
- * Implements all actual tabular data parsing.  
+ * Implements all actual tabular data parsing. Rows are parsed from the bean contents while 
+ * iterating, so this is suited for large tables. Tables that are small enough are parsed once 
+ * with this class and then served from memory by {@link ColumnarTable}.
  * 
  * @author Aleksi Kallio
  *
@@ -28,14 +29,26 @@ public class DynamicallyParsedTable implements Table {
 	private boolean headerParsed;
 	private MatrixParseSettings settings;
 	private LinkedList<Integer> columnNumbers;
-	private HashMap<String, String> values;
+	private String[] row;
 	private String[] columnNames;
+	private HashMap<String, Integer> columnIndexes = new HashMap<String, Integer>();
 	private BufferedReader reader;
 
 	public DynamicallyParsedTable(DataBean bean, MatrixParseSettings settings, LinkedList<Integer> columnNumbers) {
 		this.settings = settings;
 		this.columnNumbers = columnNumbers;
 		this.columnNames = settings.columns.keySet().toArray(new String[0]);
+		
+		// only selected columns can be accessed
+		if (columnNumbers.size() == 0) {
+			for (int i = 0; i < columnNames.length; i++) {
+				columnIndexes.put(columnNames[i], i);
+			}
+		} else {
+			for (Integer number : columnNumbers) {
+				columnIndexes.put(columnNames[number], number);
+			}
+		}
 
 		try {
 			this.reader = new BufferedReader(new InputStreamReader(Session.getSession().getApplication().getDataManager().getContentStream(bean, DataNotAvailableHandling.EXCEPTION_ON_NA)));
@@ -55,7 +68,7 @@ public class DynamicallyParsedTable implements Table {
 					(settings.footerStarter != null && source.peekLine().contains(settings.footerStarter)) ||
 					(headerParsed && "".equals(source.peekLine().trim()))) {
 				
-				values = null; // trying to read values will result now in error
+				row = null; // trying to read values will result now in error
 				return false; // signal that we are at end
 			}
 
@@ -78,21 +91,7 @@ public class DynamicallyParsedTable implements Table {
 				return false; // header parsing has eaten all content
 			}
 			
-			ArrayList<String> row = parseRow(source.readLine());
-			values = new HashMap<String, String>();
-			
-			if (columnNumbers.size() == 0) {
-				// return all
-				int i = 0; 
-				for (String string : row) {
-					values.put(columnNames[i++], string);
-				}
-				
-			} else {
-				for (Integer number : columnNumbers) {
-					values.put(columnNames[number], row.get(number));
-				}
-			}
+			row = parseRow(source.readLine());
 
 			return true; // not at end yet
 			
@@ -102,28 +101,42 @@ public class DynamicallyParsedTable implements Table {
 	}
 
 	private String preprocessExternalData(String string) {
-		return string.replace("EMPTY", "NaN");
+		// replace() is slow even when there is nothing to replace
+		if (string.contains("EMPTY")) {
+			return string.replace("EMPTY", "NaN");
+		}
+		return string;
 	}
 	
-	private ArrayList<String> parseRow(String row) throws MicroarrayException {
+	private String[] parseRow(String row) throws MicroarrayException {
 
-		ArrayList<String> result = new ArrayList<String>(settings.columns.size());
+		String[] result = new String[columnNames.length];
 		row = preprocessExternalData(row);
 
 		String[] cells = TableColumnProvider.tokeniseRow(row);
-		for (int i = 0; i < settings.columns.values().size(); i++) {
-			String cell;
+		for (int i = 0; i < result.length; i++) {
 			if (i < cells.length) {
-				cell = cells[i];
+				result[i] = cells[i];
 			} else {
 				// we are stuffing too short rows with empty cells (should this worry us?)
-				cell = "";
+				result[i] = "";
 			}
-			result.add(cell);
 		}
 		
 		return result;
 	}
+	
+	/**
+	 * @return all cells of the current row, including the columns that were not selected
+	 */
+	String[] getRow() {
+		return row;
+	}
+	
+	private String getCell(String columnName) {
+		Integer index = columnIndexes.get(columnName);
+		return index != null ? row[index] : null;
+	}
 
 	public String[] getColumnNames() {
 		String[] colunmNameSlice = new String[columnNumbers.size()];
@@ -135,7 +148,7 @@ public class DynamicallyParsedTable implements Table {
 
 	public float getFloatValue(String columnName) {
 		try {
-			return new Float(values.get(columnName));
+			return new Float(getCell(columnName));
 		} catch (NumberFormatException nfe) {
 			return new Float(Float.NaN);
 		} catch (NullPointerException ne) {
@@ -148,12 +161,12 @@ public class DynamicallyParsedTable implements Table {
 	}
 
 	public String getStringValue(String columnName) {
-		return values.get(columnName);
+		return getCell(columnName);
 	}
 
 	public Object getValue(String columnName) {
 		try {
-			return new Float(values.get(columnName));
+			return new Float(getCell(columnName));
 		} catch (NumberFormatException e) {
 			return getStringValue(columnName);
 		}
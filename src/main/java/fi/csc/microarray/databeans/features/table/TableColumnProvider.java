@@ -30,8 +30,10 @@ import fi.csc.microarray.util.LookaheadLineReader;
 
 /**
  * Exposes tabular data parsing functionality to Feature API. Implementation is in DynamicallyParsedTable.
+ * Tables that are small enough are parsed only once and then served from memory by ColumnarTable.
  * 
  * @see DynamicallyParsedTable
+ * @see ColumnarTable
  * @author Aleksi Kallio
  *
  */
@@ -236,6 +238,19 @@ public class TableColumnProvider extends FeatureProviderBase {
 		getHeader(source, settings);
 	}
 	
+	/**
+	 * Creates a table from memory if the contents of the bean can be cached, otherwise a table that 
+	 * parses the contents while iterating.
+	 */
+	static Table createTable(DataBean bean, MatrixParseSettings settings, LinkedList<Integer> columnNumbers) {
+		ColumnarTable.Columns columns = ColumnarTable.getColumns(bean, settings);
+		if (columns != null) {
+			return new ColumnarTable(columns, settings, columnNumbers);
+		} else {
+			return new DynamicallyParsedTable(bean, settings, columnNumbers);
+		}
+	}
+	
 	public static String[] tokeniseRow(String row) {
 		if (row == null) {
 			return new String[] {};
@@ -287,19 +302,19 @@ public class TableColumnProvider extends FeatureProviderBase {
 		}
 
 		public Iterator<T> iterator() {
-			DynamicallyParsedTable table = new DynamicallyParsedTable(dataBean, settings, columnIndex);
+			Table table = createTable(dataBean, settings, columnIndex);
 			return new TableColumnIterator<T>(table, columnName, convertToFloats);
 		}
 	}
 	
 	public static class TableColumnIterator<T> implements Iterator<T> {
 
-		private DynamicallyParsedTable table;
+		private Table table;
 		private boolean convertToFloats;
 		private boolean isValidRow;
 		private String columnName;
 		
-		public TableColumnIterator(DynamicallyParsedTable table, String columnName, boolean convertToFloats) {
+		public TableColumnIterator(Table table, String columnName, boolean convertToFloats) {
 			try {
 				this.table = table;
 				this.columnName = columnName;
@@ -411,7 +426,7 @@ public class TableColumnProvider extends FeatureProviderBase {
 				return null; // we have to return null, cannot return empty table (because it is not true). it is also specified by Feature interface.
 				
 			} else {
-				return new DynamicallyParsedTable(getDataBean(), settings, indexCollector);
+				return createTable(getDataBean(), settings, indexCollector);
 			}
 		}
 	}
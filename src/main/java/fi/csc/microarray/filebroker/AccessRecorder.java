@@ -0,0 +1,105 @@
+package fi.csc.microarray.filebroker;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Records file accesses in the background. Downloads only add the file to a set, and a background
+ * thread updates the modification times of the files (used by the cache clean up) and the access
+ * times of the storage files in the metadata database in batches. A file accessed several times
+ * between the updates is updated only once.
+ */
+public class AccessRecorder {
+
+	private static final Logger logger = Logger.getLogger(AccessRecorder.class);
+
+	private static final long FLUSH_INTERVAL = 5; // seconds
+
+	private DerbyMetadataServer metadataServer;
+	private Set<File> accessedFiles = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+	private Set<String> accessedStorageFiles = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private ScheduledExecutorService executor;
+
+	/**
+	 * @param metadataServer may be null, if storage files are not used
+	 */
+	public AccessRecorder(DerbyMetadataServer metadataServer) {
+		this.metadataServer = metadataServer;
+
+		this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "file-access-recorder");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		}, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * @param file accessed file
+	 * @param storageUuid uuid of the file in the metadata database or null, if this isn't a storage file
+	 */
+	public void fileAccessed(File file, String storageUuid) {
+		accessedFiles.add(file);
+		if (storageUuid != null) {
+			accessedStorageFiles.add(storageUuid);
+		}
+	}
+
+	/**
+	 * Write recorded accesses now.
+	 */
+	public synchronized void flush() {
+
+		long now = System.currentTimeMillis();
+		Iterator<File> fileIterator = accessedFiles.iterator();
+		while (fileIterator.hasNext()) {
+			File file = fileIterator.next();
+			fileIterator.remove();
+			file.setLastModified(now);
+		}
+
+		List<String> uuids = new ArrayList<String>();
+		Iterator<String> uuidIterator = accessedStorageFiles.iterator();
+		while (uuidIterator.hasNext()) {
+			uuids.add(uuidIterator.next());
+			uuidIterator.remove();
+		}
+
+		if (!uuids.isEmpty() && metadataServer != null) {
+			try {
+				metadataServer.markFilesAccessed(uuids);
+			} catch (SQLException e) {
+				logger.error("could not update access times of " + uuids.size() + " files", e);
+			}
+		}
+	}
+
+	/**
+	 * Stop the background thread and write the remaining accesses.
+	 */
+	public void close() {
+		executor.shutdown();
+		flush();
+	}
+}
@@ -0,0 +1,335 @@
+package fi.csc.microarray.filebroker;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * <p>Index of the files in the cache directory in the order of the last access, so that the
+ * clean up can find the least recently used files without listing and sorting the whole
+ * directory. The index is kept up to date by the {@link RestServlet} on uploads and downloads and
+ * by the {@link FileServer} when files are moved to the storage.</p>
+ *
+ * <p>The index is written to a file on shutdown and read back on start. The file is deleted after
+ * reading it, so that a stale index isn't used after a crash. When the file isn't available, the
+ * index is built from the modification times of the files.</p>
+ *
+ * <p>Files may also appear without going through the file broker, for example when a comp with a
+ * local file broker moves its results directly to the cache directory. Those are added when they are
+ * accessed or when the eviction runs out of indexed files and lists the directory again.</p>
+ */
+public class CacheIndex {
+
+	private static final Logger logger = Logger.getLogger(CacheIndex.class);
+
+	private static final String DELIMITER = "\t";
+
+	private static class Entry {
+		String name;
+		long size;
+		long accessTime;
+
+		Entry(String name, long size, long accessTime) {
+			this.name = name;
+			this.size = size;
+			this.accessTime = accessTime;
+		}
+	}
+
+	private File root;
+	private File indexFile;
+
+	// access ordered, least recently used first
+	private LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private long totalSize = 0;
+
+	/**
+	 * @param root cache directory
+	 * @param indexFile file for storing the index between restarts, may be null
+	 */
+	public CacheIndex(File root, File indexFile) {
+		this.root = root;
+		this.indexFile = indexFile;
+	}
+
+	/**
+	 * Read the index file or list the cache directory, if the file isn't available. Files
+	 * added or accessed during the loading are kept as the most recently used ones.
+	 */
+	public void load() throws IOException {
+
+		long t = System.currentTimeMillis();
+		LinkedHashMap<String, Entry> loaded;
+		if (indexFile != null && indexFile.exists()) {
+			loaded = read(indexFile);
+			if (!indexFile.delete()) {
+				logger.warn("could not delete cache index " + indexFile);
+			}
+		} else {
+			loaded = list(root);
+		}
+
+		synchronized (this) {
+			for (String name : entries.keySet()) {
+				loaded.remove(name);
+			}
+			loaded.putAll(entries);
+			entries = loaded;
+
+			totalSize = 0;
+			for (Entry entry : entries.values()) {
+				totalSize += entry.size;
+			}
+		}
+		logger.info("cache index loaded in " + (System.currentTimeMillis() - t) + " ms, " + entries.size() + " files, " + totalSize + " bytes");
+	}
+
+	/**
+	 * Write the index to the index file.
+	 */
+	public void save() throws IOException {
+
+		if (indexFile == null) {
+			return;
+		}
+
+		File tmpFile = new File(indexFile.getPath() + ".tmp");
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(tmpFile))) {
+			synchronized (this) {
+				for (Entry entry : entries.values()) {
+					writer.write(entry.name + DELIMITER + entry.size + DELIMITER + entry.accessTime);
+					writer.newLine();
+				}
+			}
+		}
+		if (!tmpFile.renameTo(indexFile)) {
+			throw new IOException("could not rename " + tmpFile + " to " + indexFile);
+		}
+	}
+
+	public synchronized void fileAdded(String name, long size) {
+		Entry previous = entries.put(name, new Entry(name, size, System.currentTimeMillis()));
+		if (previous != null) {
+			totalSize -= previous.size;
+		}
+		totalSize += size;
+	}
+
+	public synchronized void fileAccessed(String name) {
+		Entry entry = entries.get(name);
+		if (entry != null) {
+			entry.accessTime = System.currentTimeMillis();
+		} else {
+			File file = new File(root, name);
+			if (file.isFile()) {
+				fileAdded(name, file.length());
+			}
+		}
+	}
+
+	public synchronized void fileRemoved(String name) {
+		Entry entry = entries.remove(name);
+		if (entry != null) {
+			totalSize -= entry.size;
+		}
+	}
+
+	public synchronized int getFileCount() {
+		return entries.size();
+	}
+
+	public synchronized long getTotalSize() {
+		return totalSize;
+	}
+
+	/**
+	 * Delete least recently used files and their md5 files until the given amount of bytes
+	 * is freed or there are no files older than the minimum age left. If the indexed files aren't
+	 * enough, the directory is listed once to find the files that were added without the index.
+	 *
+	 * @param bytes amount of bytes to free
+	 * @param minimumAge milliseconds since the last access
+	 * @return freed bytes, 0 if nothing could be deleted
+	 */
+	public long evict(long bytes, long minimumAge) {
+
+		long freed = 0;
+		long now = System.currentTimeMillis();
+		boolean rescanned = false;
+
+		while (freed < bytes) {
+
+			Entry eldest = null;
+			synchronized (this) {
+				Iterator<Entry> iterator = entries.values().iterator();
+				if (iterator.hasNext()) {
+					Entry entry = iterator.next();
+					if (now - entry.accessTime > minimumAge) {
+						eldest = entry;
+						iterator.remove();
+						totalSize -= eldest.size;
+					}
+				}
+			}
+
+			if (eldest == null) {
+				if (rescanned) {
+					break;
+				}
+				rescan();
+				rescanned = true;
+				continue;
+			}
+
+			// delete outside the lock, downloads of the other files can continue meanwhile
+			File file = new File(root, eldest.name);
+			if (file.delete()) {
+				Md5FileUtils.removeMd5(file);
+				freed += eldest.size;
+			} else if (file.exists()) {
+				logger.warn("could not delete cache file " + file);
+			}
+		}
+
+		return freed;
+	}
+
+	/**
+	 * List the directory and add the files that aren't in the index. They are placed among the
+	 * indexed files according to their modification times.
+	 */
+	private void rescan() {
+
+		LinkedHashMap<String, Entry> listed;
+		try {
+			listed = list(root);
+		} catch (IOException e) {
+			logger.warn("could not list cache directory " + root, e);
+			return;
+		}
+
+		synchronized (this) {
+			int added = 0;
+			LinkedHashMap<String, Entry> merged = new LinkedHashMap<String, Entry>(Math.max(16, (entries.size() + listed.size()) * 2), 0.75f, true);
+			Iterator<Entry> indexed = entries.values().iterator();
+			Iterator<Entry> unknown = listed.values().iterator();
+			Entry nextIndexed = indexed.hasNext() ? indexed.next() : null;
+			Entry nextUnknown = nextUnknown(unknown);
+
+			while (nextIndexed != null || nextUnknown != null) {
+				if (nextUnknown == null || (nextIndexed != null && nextIndexed.accessTime <= nextUnknown.accessTime)) {
+					merged.put(nextIndexed.name, nextIndexed);
+					nextIndexed = indexed.hasNext() ? indexed.next() : null;
+				} else {
+					merged.put(nextUnknown.name, nextUnknown);
+					totalSize += nextUnknown.size;
+					added++;
+					nextUnknown = nextUnknown(unknown);
+				}
+			}
+			entries = merged;
+
+			if (added > 0) {
+				logger.info("added " + added + " files to the cache index after listing the cache directory");
+			}
+		}
+	}
+
+	private Entry nextUnknown(Iterator<Entry> listed) {
+		while (listed.hasNext()) {
+			Entry entry = listed.next();
+			if (!entries.containsKey(entry.name)) {
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	private LinkedHashMap<String, Entry> read(File file) throws IOException {
+
+		LinkedHashMap<String, Entry> loaded = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+		try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] columns = line.split(DELIMITER);
+				if (columns.length != 3) {
+					throw new IOException("cache index " + file + " is corrupted: " + line);
+				}
+				Entry entry = new Entry(columns[0], Long.parseLong(columns[1]), Long.parseLong(columns[2]));
+				loaded.put(entry.name, entry);
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("cache index " + file + " is corrupted", e);
+		}
+		return loaded;
+	}
+
+	/**
+	 * Build the index from the modification times. Subdirectories are included, so that the
+	 * leftovers of interrupted uploads are cleaned too. Directories are read as streams, because
+	 * there may be millions of files.
+	 */
+	private LinkedHashMap<String, Entry> list(File dir) throws IOException {
+
+		final ArrayList<Entry> list = new ArrayList<Entry>();
+		final Path rootPath = dir.toPath();
+
+		java.nio.file.Files.walkFileTree(rootPath, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) {
+				String name = rootPath.relativize(path).toString();
+				// md5 files are removed with the data file
+				if (attributes.isRegularFile() && !name.endsWith(".md5")) {
+					list.add(new Entry(name, attributes.size(), attributes.lastModifiedTime().toMillis()));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path path, IOException e) {
+				// deleted meanwhile
+				return FileVisitResult.CONTINUE;
+			}
+		});
+
+		Collections.sort(list, new Comparator<Entry>() {
+			@Override
+			public int compare(Entry e1, Entry e2) {
+				return Long.compare(e1.accessTime, e2.accessTime);
+			}
+		});
+
+		LinkedHashMap<String, Entry> loaded = new LinkedHashMap<String, Entry>(Math.max(16, list.size() * 2), 0.75f, true);
+		for (Entry entry : list) {
+			loaded.put(entry.name, entry);
+		}
+		return loaded;
+	}
+
+	/**
+	 * For tests.
+	 */
+	synchronized Map<String, Long> getSizes() {
+		LinkedHashMap<String, Long> sizes = new LinkedHashMap<String, Long>();
+		for (Entry entry : entries.values()) {
+			sizes.put(entry.name, entry.size);
+		}
+		return sizes;
+	}
+}
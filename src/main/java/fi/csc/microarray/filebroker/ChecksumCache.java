@@ -0,0 +1,69 @@
+package fi.csc.microarray.filebroker;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+/**
+ * In-memory cache for the checksums in .md5 files, so that the md5 file doesn't have to be read
+ * from the disk for every download. Files are identified by their absolute path, so a file moved
+ * from cache to storage is a new entry. Least recently used entries are removed when the cache is
+ * full.
+ *
+ * @see Md5FileUtils
+ */
+public class ChecksumCache {
+
+	private static final int MAX_ENTRIES = 100_000;
+
+	private static class LruMap extends LinkedHashMap<String, String> {
+
+		private static final long serialVersionUID = 1L;
+
+		public LruMap() {
+			super(16, 0.75f, true);
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Entry<String, String> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	}
+
+	private LruMap checksums = new LruMap();
+
+	/**
+	 * @return checksum of the dataFile or null if it doesn't have a md5 file
+	 * @throws ChecksumParseException if the md5 file is corrupted
+	 * @throws IOException
+	 */
+	public String get(File dataFile) throws ChecksumParseException, IOException {
+
+		String key = dataFile.getAbsolutePath();
+		synchronized (this) {
+			String checksum = checksums.get(key);
+			if (checksum != null) {
+				return checksum;
+			}
+		}
+
+		// read outside of the lock, files without checksums are not cached
+		String checksum = Md5FileUtils.readMd5(dataFile);
+		if (checksum != null) {
+			put(dataFile, checksum);
+		}
+		return checksum;
+	}
+
+	/**
+	 * Update the cached checksum after writing a new md5 file.
+	 */
+	public synchronized void put(File dataFile, String checksum) {
+		checksums.put(dataFile.getAbsolutePath(), checksum);
+	}
+
+	public synchronized int size() {
+		return checksums.size();
+	}
+}
@@ -15,6 +15,7 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashSet;
@@ -102,6 +103,9 @@ public class DerbyMetadataServer {
 	
 	private static String SQL_INSERT_BELONGS_TO  = "INSERT INTO chipster.belongs_to (session_uuid, file_uuid) VALUES (?, ?)";
 	private static String SQL_DELETE_BELONGS_TO  = "DELETE FROM chipster.belongs_to WHERE session_uuid = ?";
+	private static String SQL_DELETE_BELONGS_TO_BY_FILE  = "DELETE FROM chipster.belongs_to WHERE session_uuid = ? AND file_uuid = ?";
+	private static String SQL_UPDATE_BELONGS_TO_SESSION  = "UPDATE chipster.belongs_to SET session_uuid = ? WHERE session_uuid = ?";
+	private static String SQL_COUNT_BELONGS_TO_BY_FILE  = "SELECT COUNT(*) FROM chipster.belongs_to WHERE file_uuid = ?";
 	
 	private static String SQL_INSERT_SPECIAL_USER  = "INSERT INTO chipster.special_users (username, show_as_folder) VALUES (?, ?)";
 	// a sum of all distinct files referenced by the user's sessions
@@ -130,6 +134,8 @@ public class DerbyMetadataServer {
 
 	private static String SQL_BACKUP = "CALL SYSCS_UTIL.SYSCS_BACKUP_DATABASE(?)";
 	
+	// shared by all threads, the public methods are synchronized so that the statements of the
+	// other threads don't end up in the transaction of replaceSession()
 	private Connection connection = null;
 
 	/**
@@ -197,6 +203,14 @@ public class DerbyMetadataServer {
 		}	
 	}
 	
+	/**
+	 * For tests. Uses the given connection without backups.
+	 */
+	DerbyMetadataServer(Connection connection) throws SQLException {
+		this.connection = connection;
+		initialise();
+	}
+	
 	private void initialise() throws SQLException {
 
 		// create all missing tables
@@ -244,7 +258,7 @@ public class DerbyMetadataServer {
 	 * @return
 	 * @throws SQLException
 	 */
-	public List<DbSession> listSessions(String username) throws SQLException {
+	public synchronized List<DbSession> listSessions(String username) throws SQLException {
 		PreparedStatement ps = connection.prepareStatement(SQL_SELECT_SESSIONS_BY_USERNAME);
 		ps.setString(1, username);
 		ResultSet rs = ps.executeQuery();
@@ -277,7 +291,7 @@ public class DerbyMetadataServer {
 		return sessions;
 	}
 	
-	public DbFile fetchFile(String uuid) throws SQLException {
+	public synchronized DbFile fetchFile(String uuid) throws SQLException {
 		PreparedStatement ps = connection.prepareStatement(SQL_SELECT_FILE_BY_UUID);
 		ps.setString(1, uuid);
 		ResultSet rs = ps.executeQuery();
@@ -297,13 +311,30 @@ public class DerbyMetadataServer {
 	 * @param uuid
 	 * @throws SQLException
 	 */
-	public void markFileAccessed(String uuid) throws SQLException {
+	public synchronized void markFileAccessed(String uuid) throws SQLException {
 		PreparedStatement ps = connection.prepareStatement(SQL_UPDATE_FILE_ACCESSED);
 		ps.setTimestamp(1, new Timestamp(new Date().getTime()));
 		ps.setString(2, uuid);
 		ps.execute();
 	}
 	
+	/**
+	 * 'Touches' several files with a single batch update.
+	 * 
+	 * @param uuids
+	 * @throws SQLException
+	 */
+	public synchronized void markFilesAccessed(Collection<String> uuids) throws SQLException {
+		PreparedStatement ps = connection.prepareStatement(SQL_UPDATE_FILE_ACCESSED);
+		Timestamp now = new Timestamp(new Date().getTime());
+		for (String uuid : uuids) {
+			ps.setTimestamp(1, now);
+			ps.setString(2, uuid);
+			ps.addBatch();
+		}
+		ps.executeBatch();
+	}
+	
 	/**
 	 * Adds metadata of a data file to the database.
 	 * Doesn't throw an exception if the add fails because of the
@@ -314,7 +345,7 @@ public class DerbyMetadataServer {
 	 * 
 	 * @throws SQLException
 	 */
-	public void addFile(String uuid, long size) throws SQLException {
+	public synchronized void addFile(String uuid, long size) throws SQLException {
 	
 		try {
 			addFileImpl(uuid, size);				
@@ -356,7 +387,7 @@ public class DerbyMetadataServer {
 	 * @param username special username to add
 	 * @throws SQLException
 	 */
-	public void addSpecialUser(String username, String showAsFolder) throws SQLException {
+	public synchronized void addSpecialUser(String username, String showAsFolder) throws SQLException {
 		PreparedStatement ps = connection.prepareStatement(SQL_INSERT_SPECIAL_USER);
 		ps.setString(1, username);
 		ps.setString(2, showAsFolder);
@@ -371,7 +402,7 @@ public class DerbyMetadataServer {
 	 * 
 	 * @throws SQLException
 	 */
-	public void linkFileToSession(String fileUuid, String sessionUuid) throws SQLException {
+	public synchronized void linkFileToSession(String fileUuid, String sessionUuid) throws SQLException {
 		PreparedStatement ps = connection.prepareStatement(SQL_INSERT_BELONGS_TO);
 		ps.setString(1, sessionUuid);
 		ps.setString(2, fileUuid);
@@ -388,7 +419,7 @@ public class DerbyMetadataServer {
 	 * 
 	 * @throws SQLException
 	 */
-	public void addSession(String username, String name, String uuid) throws SQLException {
+	public synchronized void addSession(String username, String name, String uuid) throws SQLException {
 		PreparedStatement ps = connection.prepareStatement(SQL_INSERT_SESSION);
 		ps.setString(1, name);
 		ps.setString(2, username);
@@ -396,14 +427,14 @@ public class DerbyMetadataServer {
 		ps.execute();
 	}
 	
-	public void renameSession(String newName, String uuid) throws SQLException {
+	public synchronized void renameSession(String newName, String uuid) throws SQLException {
 		PreparedStatement ps = connection.prepareStatement(SQL_UPDATE_SESSION_NAME);
 		ps.setString(1, newName);
 		ps.setString(2, uuid);
 		ps.execute();
 	}
 	
-	public String fetchSession(String username, String name)  throws SQLException {
+	public synchronized String fetchSession(String username, String name)  throws SQLException {
 		PreparedStatement ps = connection.prepareStatement(SQL_SELECT_SESSIONS_BY_NAME_AND_USERNAME);
 		ps.setString(1, name);
 		ps.setString(2, username);
@@ -422,7 +453,7 @@ public class DerbyMetadataServer {
 	 * @return true if operation is allowed
 	 * @throws SQLException 
 	 */
-	public boolean isUsernameAllowedToRemoveSession(String username, String sessionUuid) throws SQLException {
+	public synchronized boolean isUsernameAllowedToRemoveSession(String username, String sessionUuid) throws SQLException {
 		PreparedStatement ps = connection.prepareStatement(SQL_SELECT_SESSIONS_BY_USERNAME_AND_UUID);
 		ps.setString(1, username);		
 		ps.setString(2, sessionUuid);
@@ -440,7 +471,7 @@ public class DerbyMetadataServer {
 	 * @param uuid
 	 * @throws SQLException
 	 */
-	public List<String> removeSession(String uuid) throws SQLException {
+	public synchronized List<String> removeSession(String uuid) throws SQLException {
 
 		// collect removed files so that they can be removed also physically
 		LinkedList<String> removed = new LinkedList<String>();
@@ -484,6 +515,85 @@ public class DerbyMetadataServer {
 		return removed;
 	}
 	
+	/**
+	 * Replaces a session with its new revision. The links of the previous revision are moved to
+	 * the new one, and only the added and removed files are linked or unlinked. The previous
+	 * session entry and its session file entry are removed, like the data files that 
+	 * aren't linked to any session anymore.
+	 * 
+	 * @param username owner of the session
+	 * @param name human readable name of the session
+	 * @param previousUuid identifier of the previous revision
+	 * @param uuid identifier of the new revision
+	 * @param addedFiles files to link to the new revision
+	 * @param removedFiles files that were in the previous revision, but aren't in the new one
+	 * @return files that were removed from the database and can be removed physically
+	 * @throws SQLException
+	 */
+	public synchronized List<String> replaceSession(String username, String name, String previousUuid, String uuid, List<String> addedFiles, List<String> removedFiles) throws SQLException {
+
+		connection.setAutoCommit(false);
+		try {
+			// move the previous revision aside first, like when storing a session again
+			renameSession("_" + name, previousUuid);
+			addSession(username, name, uuid);
+
+			PreparedStatement movePs = connection.prepareStatement(SQL_UPDATE_BELONGS_TO_SESSION);
+			movePs.setString(1, uuid);
+			movePs.setString(2, previousUuid);
+			movePs.execute();
+
+			PreparedStatement linkPs = connection.prepareStatement(SQL_INSERT_BELONGS_TO);
+			for (String fileUuid : addedFiles) {
+				linkPs.setString(1, uuid);
+				linkPs.setString(2, fileUuid);
+				linkPs.addBatch();
+			}
+			linkPs.executeBatch();
+
+			PreparedStatement unlinkPs = connection.prepareStatement(SQL_DELETE_BELONGS_TO_BY_FILE);
+			for (String fileUuid : removedFiles) {
+				unlinkPs.setString(1, uuid);
+				unlinkPs.setString(2, fileUuid);
+				unlinkPs.addBatch();
+			}
+			unlinkPs.executeBatch();
+
+			// remove the previous session entry and its session file
+			LinkedList<String> removed = new LinkedList<String>();
+			PreparedStatement sessionPs = connection.prepareStatement(SQL_DELETE_SESSION);
+			sessionPs.setString(1, previousUuid);
+			sessionPs.execute();
+
+			PreparedStatement deleteFilePs = connection.prepareStatement(SQL_DELETE_FILE);
+			deleteFilePs.setString(1, previousUuid);
+			deleteFilePs.execute();
+			removed.add(previousUuid);
+
+			// remove the data files that were orphaned
+			PreparedStatement countPs = connection.prepareStatement(SQL_COUNT_BELONGS_TO_BY_FILE);
+			for (String fileUuid : removedFiles) {
+				countPs.setString(1, fileUuid);
+				ResultSet rs = countPs.executeQuery();
+				rs.next();
+				if (rs.getInt(1) == 0) {
+					deleteFilePs.setString(1, fileUuid);
+					deleteFilePs.execute();
+					removed.add(fileUuid);
+				}
+			}
+
+			connection.commit();
+			return removed;
+
+		} catch (SQLException e) {
+			connection.rollback();
+			throw e;
+		} finally {
+			connection.setAutoCommit(true);
+		}
+	}
+	
 	/**
 	 * Backup the database using the online backup procedure.
 	 * 
@@ -492,7 +602,7 @@ public class DerbyMetadataServer {
 	 * @param backupDir directory which will contain the db backup
 	 * @throws SQLException
 	 */
-	public void backup(String backupDir) throws SQLException {
+	public synchronized void backup(String backupDir) throws SQLException {
 		PreparedStatement ps = connection.prepareStatement(SQL_BACKUP);
 		ps.setString(1, backupDir.replace(File.separator, "/"));
 		ps.execute();
@@ -579,7 +689,7 @@ public class DerbyMetadataServer {
 		}
 	}
 
-	public Long getStorageusageOfUser(String username) throws SQLException {
+	public synchronized Long getStorageusageOfUser(String username) throws SQLException {
 		PreparedStatement ps = connection.prepareStatement(SQL_LIST_STORAGE_USAGE_OF_USER);
 		ps.setString(1, username);
 		ResultSet rs = ps.executeQuery();
@@ -598,7 +708,7 @@ public class DerbyMetadataServer {
 	}
 
 	@SuppressWarnings("unchecked")
-	public List<String>[] getStorageusageOfUsers() throws SQLException {
+	public synchronized List<String>[] getStorageusageOfUsers() throws SQLException {
 		PreparedStatement ps = connection.prepareStatement(SQL_LIST_STORAGE_USAGE_OF_USERS);
 
 		ResultSet rs = ps.executeQuery();
@@ -616,7 +726,7 @@ public class DerbyMetadataServer {
 	}
 
 	@SuppressWarnings("unchecked")
-	public List<String>[] getStorageUsageOfSessions(String username) throws SQLException {
+	public synchronized List<String>[] getStorageUsageOfSessions(String username) throws SQLException {
 		
 		PreparedStatement ps = connection.prepareStatement(SQL_LIST_STORAGE_USAGE_OF_SESSIONS);
 		ps.setString(1, username);
@@ -647,7 +757,7 @@ public class DerbyMetadataServer {
 		return new List[] { usernames, sessions, sizes, dates, ids };
 	}
 	
-	public String getStorageUsageTotal() throws SQLException {
+	public synchronized String getStorageUsageTotal() throws SQLException {
 		
 		PreparedStatement ps = connection.prepareStatement(SQL_GET_TOTAL_DISK_USAGE);
 		ResultSet rs = ps.executeQuery();
@@ -663,7 +773,7 @@ public class DerbyMetadataServer {
 		return size;
 	}
 
-	public List<DbFile> listAllFiles() throws SQLException {
+	public synchronized List<DbFile> listAllFiles() throws SQLException {
 		PreparedStatement ps = connection.prepareStatement(SQL_LIST_ALL_FILES);
 		ResultSet rs = ps.executeQuery();
 		
@@ -678,7 +788,7 @@ public class DerbyMetadataServer {
 	}
 	
 	@SuppressWarnings("unchecked")
-	public List<String>[] getStatistics() throws SQLException {
+	public synchronized List<String>[] getStatistics() throws SQLException {
 		
 		String[] queries = { 
 				SQL_FILES_COUNT, 
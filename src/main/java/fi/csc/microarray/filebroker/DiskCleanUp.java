@@ -1,6 +1,7 @@
 package fi.csc.microarray.filebroker;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -10,8 +11,6 @@ import java.util.concurrent.TimeUnit;
 import org.apache.commons.io.FileUtils;
 import org.apache.log4j.Logger;
 
-import fi.csc.microarray.util.Files;
-
 public class DiskCleanUp {
 	
 	private static Logger logger = Logger.getLogger(DiskCleanUp.class);
@@ -21,6 +20,7 @@ public class DiskCleanUp {
 	private int cleanUpTargetPercentage;
 	private int cleanUpMinimumFileAge;
 	private long minimumSpaceForAcceptUpload;
+	private CacheIndex index;
 
 	private final ExecutorService executor = Executors.newSingleThreadExecutor();
 	private Future<?> lastCleanUp;
@@ -28,6 +28,14 @@ public class DiskCleanUp {
 
 
 	public DiskCleanUp(File root, int cleanUpTriggerLimitPercentage, int cleanUpTargetPercentage, int cleanUpMinimumFileAge, long minimumSpaceForAcceptUpload) {
+		this(root, cleanUpTriggerLimitPercentage, cleanUpTargetPercentage, cleanUpMinimumFileAge, minimumSpaceForAcceptUpload, null);
+	}
+
+	/**
+	 * @param indexFile file for keeping the {@link CacheIndex} over restarts, null to build the
+	 * index from the directory listing on every start
+	 */
+	public DiskCleanUp(File root, int cleanUpTriggerLimitPercentage, int cleanUpTargetPercentage, int cleanUpMinimumFileAge, long minimumSpaceForAcceptUpload, File indexFile) {
 		this.root = root;
 		this.cleanUpTriggerLimitPercentage = cleanUpTriggerLimitPercentage;
 		this.cleanUpTargetPercentage = cleanUpTargetPercentage;
@@ -40,6 +48,42 @@ public class DiskCleanUp {
 		logger.info("cache clean up will start when usable space is less than: " + FileUtils.byteCountToDisplaySize(getCleanUpSoftLimit()));
 		logger.info("cache clean target usable space is:  " + FileUtils.byteCountToDisplaySize(getCleanUpTargetUsableSpace()));		
 		logger.info("will not clean up files newer than: " + (cleanUpMinimumFileAge/3600) + "h");
+		
+		// load the index in the clean up thread, clean ups will wait for it
+		this.index = new CacheIndex(root, indexFile);
+		synchronized (lastCleanUpLock) {
+			lastCleanUp = executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						index.load();
+					} catch (IOException e) {
+						logger.error("could not load cache index", e);
+					}
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Index of the cache files, which must be updated when files are added, accessed or 
+	 * removed.
+	 */
+	public CacheIndex getIndex() {
+		return index;
+	}
+	
+	/**
+	 * Stop the clean up thread and save the index.
+	 */
+	public void close() {
+		executor.shutdown();
+		try {
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+			index.save();
+		} catch (IOException | InterruptedException e) {
+			logger.error("could not save cache index", e);
+		}
 	}
 	
 	public long getCleanUpSoftLimit() {
@@ -98,9 +142,31 @@ public class DiskCleanUp {
 			long cleanUpTargetLimit = getCleanUpTargetUsableSpace();
 			logger.info("cache cleanup, target usable space: " + FileUtils.byteCountToDisplaySize(requestedSize + cleanUpTargetLimit) + 
 					" (" + FileUtils.byteCountToDisplaySize(requestedSize) + " + " + FileUtils.byteCountToDisplaySize(cleanUpTargetLimit));
-			Files.makeSpaceInDirectory(root, requestedSize + cleanUpTargetLimit, cleanUpMinimumFileAge, TimeUnit.SECONDS);
-			logger.info("cache cleanup took " + (System.currentTimeMillis() - cleanUpBeginTime) + " ms, usable space now " + FileUtils.byteCountToDisplaySize(root.getUsableSpace())); 
+			long freed = makeSpace(requestedSize + cleanUpTargetLimit);
+			logger.info("cache cleanup took " + (System.currentTimeMillis() - cleanUpBeginTime) + " ms, freed " + FileUtils.byteCountToDisplaySize(freed) + 
+					", usable space now " + FileUtils.byteCountToDisplaySize(root.getUsableSpace())); 
+		}
+	}
+	
+	/**
+	 * Delete the least recently used files until there is enough usable space or there are no
+	 * old enough files left.
+	 * 
+	 * @return freed bytes
+	 */
+	private long makeSpace(long usableSpaceTarget) {
+		
+		long minimumAge = TimeUnit.SECONDS.toMillis(cleanUpMinimumFileAge);
+		long total = 0;
+		long missing;
+		while ((missing = usableSpaceTarget - root.getUsableSpace()) > 0) {
+			long freed = index.evict(missing, minimumAge);
+			if (freed == 0) {
+				break;
+			}
+			total += freed;
 		}
+		return total;
 	}
 
 	/**
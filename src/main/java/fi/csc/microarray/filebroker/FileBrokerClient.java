@@ -7,6 +7,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import javax.jms.JMSException;
@@ -62,6 +63,45 @@ public interface FileBrokerClient {
 	 */
 	public abstract void addFile(UUID jobId, UUID sessionId, String dataId, FileBrokerArea area, File file, CopyProgressListener progressListener, String datsetName) throws FileBrokerException, IOException;
 
+	/**
+	 * Get new URLs for several files with a single request. Disk space (cache) or quota (storage) is
+	 * checked for all files together. Files can be then uploaded with 
+	 * {@link #addFile(String, URL, File, CopyProgressListener)} or 
+	 * {@link #addFile(String, URL, InputStream, long, CopyProgressListener)}.
+	 * 
+	 * @param dataIds
+	 * @param contentLengths content length of each file in the same order as dataIds
+	 * @param area
+	 * @return new URL of each file by dataId
+	 * @throws NotEnoughDiskSpaceException if there is no space for all files in cache
+	 * @throws QuotaExceededException if the files don't fit in user's storage quota
+	 * @throws FileBrokerException if getting urls fails or timeouts
+	 * @throws MalformedURLException
+	 */
+	public Map<String, URL> getNewURLs(List<String> dataIds, List<Long> contentLengths, FileBrokerArea area) throws FileBrokerException, MalformedURLException;
+
+	/**
+	 * Add file to file broker using an URL from {@link #getNewURLs(List, List, FileBrokerArea)}. 
+	 * Might use local transfer instead of uploading.
+	 * 
+	 * @param progressListener may be null
+	 * @throws FileBrokerException
+	 * @throws IOException
+	 */
+	public void addFile(String dataId, URL url, File file, CopyProgressListener progressListener) throws FileBrokerException, IOException;
+
+	/**
+	 * Add InputStream as file to file broker using an URL from 
+	 * {@link #getNewURLs(List, List, FileBrokerArea)}.
+	 * 
+	 * @param contentLength -1 if unknown
+	 * @param progressListener may be null
+	 * @return md5 String of the uploaded data, if enabled in configuration
+	 * @throws FileBrokerException
+	 * @throws IOException
+	 */
+	public String addFile(String dataId, URL url, InputStream file, long contentLength, CopyProgressListener progressListener) throws FileBrokerException, IOException;
+
 	/**
 	 *  Get the InputStream for a file from the FileBroker.
 	 *  
@@ -94,6 +134,28 @@ public interface FileBrokerClient {
 	 */
 	public abstract void getFile(UUID sessionId, String dataId, File destFile) throws IOException, FileBrokerException, ChecksumException;	
 
+	/**
+	 * Get URLs of several files with a single request. The URLs can be used with 
+	 * {@link #getFile(String, URL, File)}.
+	 * 
+	 * @return URL of each file by dataId, null if the file was not found
+	 * @throws FileBrokerException if getting urls fails or timeouts
+	 * @throws MalformedURLException
+	 */
+	public Map<String, URL> getURLs(List<String> dataIds) throws FileBrokerException, MalformedURLException;
+
+	/**
+	 * Get File pointed by url to destFile. Might use local file transfer instead
+	 * of downloading.
+	 * 
+	 * @param url from {@link #getURLs(List)}, null if the file was not found
+	 * @param destFile destination file that must not exist
+	 * @throws IOException
+	 * @throws FileBrokerException
+	 * @throws ChecksumException
+	 */
+	public void getFile(String dataId, URL url, File destFile) throws IOException, FileBrokerException, ChecksumException;
+
 	/**
 	 * Retrieves the list of public files or folders from the file broker. Method blocks until result is
 	 * retrieved or timeout. Talks to the file broker using JMS.
@@ -112,6 +174,19 @@ public interface FileBrokerClient {
 	 * @throws JMSException
 	 */
 	public abstract void saveRemoteSession(String name, String sessionId, LinkedList<String> dataIds) throws FileBrokerException;
+
+	/**
+	 * Replace a previously saved remote session with a new revision. Only the differences to the
+	 * previous revision are sent, files that didn't change stay linked to the session.
+	 * 
+	 * @param name
+	 * @param previousSessionId dataId of the session metadata file of the previous revision
+	 * @param sessionId dataId of the new session metadata file
+	 * @param addedDataIds dataIds of files that weren't in the previous revision
+	 * @param removedDataIds dataIds of files that aren't in the new revision anymore
+	 * @throws FileBrokerException if the previous revision isn't the current one, the whole session must be saved then 
+	 */
+	public void updateRemoteSession(String name, String previousSessionId, String sessionId, List<String> addedDataIds, List<String> removedDataIds) throws FileBrokerException;
 	
 	/**
 	 * Returns storage sessions (remote sessions) available at server. Returned array contains human readable names and corresponding URL's.
@@ -137,6 +212,16 @@ public interface FileBrokerClient {
 	 */
 	public boolean isAvailable(String dataId, Long contentLength, String checksum, FileBrokerArea area) throws FileBrokerException;
 
+	/**
+	 * Check the availability of several files with a single request.
+	 * 
+	 * @param contentLengths in the same order as dataIds, items may be null if not available
+	 * @param checksums in the same order as dataIds, items may be null if not available
+	 * @return dataIds of the available files
+	 * @throws FileBrokerException
+	 */
+	public List<String> getAvailable(List<String> dataIds, List<Long> contentLengths, List<String> checksums, FileBrokerArea area) throws FileBrokerException;
+
 
 	public boolean moveFromCacheToStorage(String dataId) throws FileBrokerException;
 
@@ -157,6 +242,14 @@ public interface FileBrokerClient {
 
 	public Long getContentLength(String dataId) throws IOException, FileBrokerException;
 
+	/**
+	 * Get content lengths of several files with a single request.
+	 * 
+	 * @return content length of each file by dataId, null if the file was not found
+	 * @throws FileBrokerException
+	 */
+	public Map<String, Long> getContentLengths(List<String> dataIds) throws FileBrokerException;
+
 
 	StorageEntryMessageListener getStorageUsage() throws InterruptedException, FileBrokerException;
 }
\ No newline at end of file
@@ -0,0 +1,135 @@
+package fi.csc.microarray.filebroker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.HttpOutput;
+import org.eclipse.jetty.server.InclusiveByteRange;
+import org.eclipse.jetty.util.MultiPartOutputStream;
+
+/**
+ * <p>Sends cache and storage files to the client without copying the file contents to the heap.
+ * Large files are memory mapped and the mapped buffers are given directly to Jetty, which writes
+ * them to the socket. If the response isn't a Jetty response, FileChannel.transferTo() is used
+ * instead.</p>
+ *
+ * <p>Supports HTTP range requests with single or multiple ranges, so that the genome browser can
+ * read only the needed parts of the BAM files.</p>
+ */
+public class FileSender {
+
+	private static final String CONTENT_TYPE = "application/octet-stream";
+
+	/**
+	 * Smaller ranges are read to the heap, because mapping is relatively expensive.
+	 */
+	private static final long MIN_MAPPED_SIZE = 64 * 1024;
+
+	/**
+	 * Large files are mapped in several parts to limit the use of the address space.
+	 */
+	private static final long MAX_MAPPED_SIZE = 16 * 1024 * 1024;
+
+	/**
+	 * Send the whole file or the requested ranges.
+	 *
+	 * @return number of bytes sent, excluding the multipart headers
+	 */
+	public long send(HttpServletRequest request, HttpServletResponse response, File file) throws IOException {
+
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+
+			FileChannel channel = randomAccessFile.getChannel();
+			long length = channel.size();
+
+			response.setHeader("Accept-Ranges", "bytes");
+
+			if (request.getHeader("Range") == null) {
+				// whole file
+				response.setContentType(CONTENT_TYPE);
+				response.setHeader("Content-Length", Long.toString(length));
+				sendRange(channel, 0, length, response.getOutputStream());
+				return length;
+			}
+
+			List<InclusiveByteRange> ranges = InclusiveByteRange.satisfiableRanges(request.getHeaders("Range"), length);
+
+			if (ranges == null || ranges.isEmpty()) {
+				response.setHeader("Content-Range", InclusiveByteRange.to416HeaderRangeString(length));
+				response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				return 0;
+			}
+
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+
+			if (ranges.size() == 1) {
+				InclusiveByteRange range = ranges.get(0);
+				long size = range.getSize(length);
+				response.setContentType(CONTENT_TYPE);
+				response.setHeader("Content-Range", range.toHeaderRangeString(length));
+				response.setHeader("Content-Length", Long.toString(size));
+				sendRange(channel, range.getFirst(length), size, response.getOutputStream());
+				return size;
+			}
+
+			// multiple ranges
+			OutputStream out = response.getOutputStream();
+			MultiPartOutputStream multipart = new MultiPartOutputStream(out);
+			response.setContentType("multipart/byteranges; boundary=" + multipart.getBoundary());
+
+			long sent = 0;
+			for (InclusiveByteRange range : ranges) {
+				multipart.startPart(CONTENT_TYPE, new String[] { "Content-Range: " + range.toHeaderRangeString(length) });
+				long size = range.getSize(length);
+				// part headers are written directly to the response, so the content can be written there too
+				sendRange(channel, range.getFirst(length), size, out);
+				sent += size;
+			}
+			multipart.close();
+			return sent;
+		}
+	}
+
+	private void sendRange(FileChannel channel, long position, long size, OutputStream out) throws IOException {
+
+		if (size < MIN_MAPPED_SIZE) {
+			ByteBuffer buffer = ByteBuffer.allocate((int) size);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, position + buffer.position()) < 0) {
+					throw new IOException("unexpected end of file");
+				}
+			}
+			out.write(buffer.array());
+
+		} else if (out instanceof HttpOutput) {
+			HttpOutput httpOutput = (HttpOutput) out;
+			long end = position + size;
+			for (long mapPosition = position; mapPosition < end; mapPosition += MAX_MAPPED_SIZE) {
+				long mapSize = Math.min(MAX_MAPPED_SIZE, end - mapPosition);
+				httpOutput.write(channel.map(MapMode.READ_ONLY, mapPosition, mapSize));
+			}
+
+		} else {
+			WritableByteChannel outChannel = Channels.newChannel(out);
+			long end = position + size;
+			while (position < end) {
+				long transferred = channel.transferTo(position, end - position, outChannel);
+				if (transferred <= 0) {
+					throw new IOException("unexpected end of file");
+				}
+				position += transferred;
+			}
+		}
+	}
+}
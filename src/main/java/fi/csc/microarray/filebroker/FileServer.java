@@ -52,9 +52,11 @@ public class FileServer extends NodeBase implements MessagingListener, DirectMes
 	private static Logger logger;
 	
 	public static final String ERROR_QUOTA_EXCEEDED = "quota-exceeded";
+	public static final String ERROR_NOT_ENOUGH_SPACE = "not-enough-space";
 	
 	public static final String CACHE_PATH = "cache";
 	public static final String STORAGE_PATH = "storage";
+	public static final String CACHE_INDEX_FILENAME = "cache-index.tsv";
 
 	private MessagingEndpoint jmsEndpoint;	
 	private ManagerClient managerClient;
@@ -138,7 +140,8 @@ public class FileServer extends NodeBase implements MessagingListener, DirectMes
     		int cleanUpMinimumFileAge = configuration.getInt("filebroker", "clean-up-minimum-file-age");
     		long minimumSpaceForAcceptUpload = 1024l*1024l*configuration.getInt("filebroker", "minimum-space-for-accept-upload");    		    		    
     		
-    		cacheCleanUp = new DiskCleanUp(cacheRoot, cleanUpTriggerLimitPercentage, cleanUpTargetPercentage, cleanUpMinimumFileAge, minimumSpaceForAcceptUpload);
+    		File cacheIndexFile = new File(fileRepository, CACHE_INDEX_FILENAME);
+    		cacheCleanUp = new DiskCleanUp(cacheRoot, cleanUpTriggerLimitPercentage, cleanUpTargetPercentage, cleanUpMinimumFileAge, minimumSpaceForAcceptUpload, cacheIndexFile);
     		
     		// boot up file server    		
     		URL hostURL = new URL(this.host);
@@ -227,6 +230,12 @@ public class FileServer extends NodeBase implements MessagingListener, DirectMes
 				handleGetURL(endpoint, msg);
 			} else if (msg instanceof CommandMessage && CommandMessage.COMMAND_IS_AVAILABLE.equals(((CommandMessage)msg).getCommand())) {				
 				handleIsAvailable(endpoint, msg);
+			} else if (msg instanceof CommandMessage && CommandMessage.COMMAND_NEW_URLS_REQUEST.equals(((CommandMessage)msg).getCommand())) {
+				handleNewURLsRequest(endpoint, (CommandMessage)msg);
+			} else if (msg instanceof CommandMessage && CommandMessage.COMMAND_GET_URLS.equals(((CommandMessage)msg).getCommand())) {
+				handleGetURLs(endpoint, (CommandMessage)msg);
+			} else if (msg instanceof CommandMessage && CommandMessage.COMMAND_ARE_AVAILABLE.equals(((CommandMessage)msg).getCommand())) {
+				handleAreAvailable(endpoint, (CommandMessage)msg);
 			} else if (msg instanceof CommandMessage && CommandMessage.COMMAND_PUBLIC_URL_REQUEST.equals(((CommandMessage)msg).getCommand())) {
 				handlePublicUrlRequest(endpoint, msg);
 				
@@ -413,6 +422,173 @@ public class FileServer extends NodeBase implements MessagingListener, DirectMes
 		endpoint.replyToMessage(msg, reply);
 	}
 
+	/**
+	 * Batch version of the new url request. Space or quota is checked for all files at once 
+	 * and then a new url is created for each file. Checking the space may take several minutes,
+	 * so the request is handled in a separate thread.
+	 */
+	private void handleNewURLsRequest(final MessagingEndpoint endpoint, final CommandMessage requestMessage) throws JMSException {
+		
+		// parse request
+		final String[] fileIds = Strings.splitUnlessEmpty(requestMessage.getNamedParameter(ParameterMessage.PARAMETER_FILE_ID_LIST), "\t");
+		final String[] sizes = Strings.splitUnlessEmpty(requestMessage.getNamedParameter(ParameterMessage.PARAMETER_SIZE_LIST), "\t");
+		final boolean useCompression = requestMessage.getParameters().contains(ParameterMessage.PARAMETER_USE_COMPRESSION);
+		final FileBrokerArea area = FileBrokerArea.valueOf(requestMessage.getNamedParameter(ParameterMessage.PARAMETER_AREA));
+		final String username = requestMessage.getUsername();
+		
+		logger.debug("new urls request for " + fileIds.length + " files");
+		
+		if (fileIds.length != sizes.length || !checkFilenameSyntax(fileIds)) {
+			endpoint.replyToMessage(requestMessage, new CommandMessage(CommandMessage.COMMAND_FILE_OPERATION_DENIED));
+			return;
+		}
+		
+		longRunningTaskExecutor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				
+				CommandMessage reply;
+				try {
+					long totalSize = 0;
+					for (String size : sizes) {
+						totalSize += Math.max(0, Long.parseLong(size));
+					}
+					
+					if (area == FileBrokerArea.STORAGE && !checkQuota(username, totalSize)) {
+						reply = new CommandMessage(CommandMessage.COMMAND_FILE_OPERATION_FAILED);
+						reply.addNamedParameter(ParameterMessage.PARAMETER_ERROR, ERROR_QUOTA_EXCEEDED);
+						
+					} else if (area == FileBrokerArea.CACHE && totalSize > 0 && !cacheCleanUp.spaceRequest(totalSize, true, null)) {
+						reply = new CommandMessage(CommandMessage.COMMAND_FILE_OPERATION_FAILED);
+						reply.addNamedParameter(ParameterMessage.PARAMETER_ERROR, ERROR_NOT_ENOUGH_SPACE);
+						
+					} else {
+						LinkedList<URL> urls = new LinkedList<URL>();
+						for (int i = 0; i < fileIds.length; i++) {
+							URL url = urlRepository.createAuthorisedUrl(fileIds[i], useCompression, area, Long.parseLong(sizes[i]));
+							urls.add(url);
+							managerClient.urlRequest(username, url);
+						}
+						reply = new CommandMessage(CommandMessage.COMMAND_FILE_OPERATION_SUCCESSFUL);
+						reply.addNamedParameter(ParameterMessage.PARAMETER_FILE_ID_LIST, Strings.delimit(Arrays.asList(fileIds), "\t"));
+						reply.addNamedParameter(ParameterMessage.PARAMETER_URL_LIST, Strings.delimit(urls, "\t"));
+					}
+				} catch (Exception e) {
+					logger.error("could not create new urls", e);
+					reply = new CommandMessage(CommandMessage.COMMAND_FILE_OPERATION_FAILED);
+				}
+
+				// send reply
+				try {
+					endpoint.replyToMessage(requestMessage, reply);
+				} catch (DestinationDoesNotExistException e) {
+					logger.error("could not reply to new urls request, because client gave up during the clean-up");
+				} catch (JMSException e) {
+					logger.error("could not send reply message", e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Batch version of the get url request. Reply has an url and a size for each file, or empty 
+	 * strings if the file was not found. 
+	 */
+	private void handleGetURLs(MessagingEndpoint endpoint, CommandMessage requestMessage) throws MalformedURLException, JMSException {
+		
+		// parse request
+		String[] fileIds = Strings.splitUnlessEmpty(requestMessage.getNamedParameter(ParameterMessage.PARAMETER_FILE_ID_LIST), "\t");
+		CommandMessage reply;
+		
+		// check fileIds
+		if (!checkFilenameSyntax(fileIds)) {
+			reply = new CommandMessage(CommandMessage.COMMAND_FILE_OPERATION_DENIED);
+			
+		} else {
+			LinkedList<String> urls = new LinkedList<String>();
+			LinkedList<String> sizes = new LinkedList<String>();
+			
+			for (String fileId : fileIds) {
+				// find url
+				URL url = null;
+				Long size = null;
+				if (filebrokerAreas.fileExists(fileId, FileBrokerArea.CACHE)) {
+					url = urlRepository.constructCacheURL(fileId, "");
+					size = filebrokerAreas.getSize(fileId, FileBrokerArea.CACHE);
+				} else if (filebrokerAreas.fileExists(fileId, FileBrokerArea.STORAGE)) {
+					url = urlRepository.constructStorageURL(fileId, "");
+					size = filebrokerAreas.getSize(fileId, FileBrokerArea.STORAGE);
+				}
+				urls.add(url != null ? url.toString() : "");
+				sizes.add(size != null ? size.toString() : "");
+			}
+			
+			reply = new CommandMessage(CommandMessage.COMMAND_FILE_OPERATION_SUCCESSFUL);
+			reply.addNamedParameter(ParameterMessage.PARAMETER_FILE_ID_LIST, Strings.delimit(Arrays.asList(fileIds), "\t"));
+			reply.addNamedParameter(ParameterMessage.PARAMETER_URL_LIST, Strings.delimit(urls, "\t"));
+			reply.addNamedParameter(ParameterMessage.PARAMETER_SIZE_LIST, Strings.delimit(sizes, "\t"));
+		}
+		
+		// send reply
+		endpoint.replyToMessage(requestMessage, reply);
+	}
+	
+	/**
+	 * Batch version of the availability check. Reply lists the files that are available. Sizes 
+	 * and checksums may be empty strings, if those are not known. 
+	 */
+	private void handleAreAvailable(MessagingEndpoint endpoint, CommandMessage requestMessage) throws JMSException, SQLException, IOException {
+		
+		// parse request
+		String[] fileIds = Strings.splitUnlessEmpty(requestMessage.getNamedParameter(ParameterMessage.PARAMETER_FILE_ID_LIST), "\t");
+		String[] sizes = requestMessage.getNamedParameter(ParameterMessage.PARAMETER_SIZE_LIST).split("\t", -1);
+		String[] checksums = requestMessage.getNamedParameter(ParameterMessage.PARAMETER_CHECKSUM_LIST).split("\t", -1);
+		FileBrokerArea area = FileBrokerArea.valueOf(requestMessage.getNamedParameter(ParameterMessage.PARAMETER_AREA));
+		
+		CommandMessage reply;
+		
+		// check fileIds
+		if (!checkFilenameSyntax(fileIds)) {
+			reply = new CommandMessage(CommandMessage.COMMAND_FILE_OPERATION_DENIED);
+		} else {
+			LinkedList<String> availableIds = new LinkedList<String>();
+			reply = new CommandMessage(CommandMessage.COMMAND_FILE_OPERATION_SUCCESSFUL);
+			
+			for (int i = 0; i < fileIds.length; i++) {
+				
+				Long size = i < sizes.length && !sizes[i].isEmpty() ? Long.parseLong(sizes[i]) : null;
+				String checksum = i < checksums.length && !checksums[i].isEmpty() ? checksums[i] : null;
+				
+				try {
+					if (isAvailable(fileIds[i], size, checksum, area)) {
+						availableIds.add(fileIds[i]);
+					}
+				} catch ( ContentLengthException | ChecksumException e) {
+					logger.info("corrupted data or data id collision (" + fileIds[i] + ", " + size + ", " + checksum + ")", e);
+					reply = new CommandMessage(CommandMessage.COMMAND_FILE_OPERATION_FAILED);
+					break;
+				} catch (ChecksumParseException e) {
+					throw new IOException(e);
+				}
+			}
+			
+			reply.addNamedParameter(ParameterMessage.PARAMETER_FILE_ID_LIST, Strings.delimit(availableIds, "\t"));
+		}
+
+		// send reply
+		endpoint.replyToMessage(requestMessage, reply);
+	}
+	
+	private boolean checkFilenameSyntax(String[] fileIds) {
+		for (String fileId : fileIds) {
+			if (!AuthorisedUrlRepository.checkFilenameSyntax(fileId)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	private boolean isAvailable(String fileId, Long size, String checksum, FileBrokerArea area) throws SQLException, ChecksumParseException, IOException, ContentLengthException, ChecksumException {
 				
 		if (!filebrokerAreas.fileExists(fileId, area)) {
@@ -500,22 +676,53 @@ public class FileServer extends NodeBase implements MessagingListener, DirectMes
 		String name = requestMessage.getNamedParameter(ParameterMessage.PARAMETER_SESSION_NAME);		
 		String sessionId = AuthorisedUrlRepository.stripCompressionSuffix(requestMessage.getNamedParameter(ParameterMessage.PARAMETER_SESSION_UUID));
 		List<String> fileIds = Arrays.asList(requestMessage.getNamedParameterAsArray(ParameterMessage.PARAMETER_FILE_ID_LIST));
+		String previousSessionId = requestMessage.getNamedParameter(ParameterMessage.PARAMETER_PREVIOUS_SESSION_UUID);
 		
 		ChipsterMessage reply; 
 		try {
-									
-			storeSession(username, name, sessionId, fileIds);			
+			
+			if (previousSessionId != null) {
+				// only the changes to the previous revision
+				List<String> removedFileIds = Arrays.asList(Strings.splitUnlessEmpty(requestMessage.getNamedParameter(ParameterMessage.PARAMETER_REMOVED_FILE_ID_LIST), "\t"));
+				updateSession(username, name, previousSessionId, sessionId, fileIds, removedFileIds);
+			} else {
+				storeSession(username, name, sessionId, fileIds);
+			}
 			
 			// everything went fine
 			reply = new CommandMessage(CommandMessage.COMMAND_FILE_OPERATION_SUCCESSFUL);
 			
 		} catch (Exception e) {
+			logger.warn("could not store session " + sessionId, e);
 			reply = new CommandMessage(CommandMessage.COMMAND_FILE_OPERATION_FAILED);
 		}
 		
 		endpoint.replyToMessage(requestMessage, reply);
 	}
 
+	/**
+	 * Replace the previous revision of the session. Links of the unchanged files are moved to the 
+	 * new revision in the database, so the cost depends only on the number of changed files.
+	 * 
+	 * @throws IllegalStateException if the previous revision isn't the current session with this name
+	 */
+	private void updateSession(String username, String name, String previousSessionId, String sessionId, List<String> addedFileIds, List<String> removedFileIds) throws SQLException {
+		
+		if (!previousSessionId.equals(metadataServer.fetchSession(username, name))) {
+			throw new IllegalStateException("session " + name + " has been changed or removed");
+		}
+		
+		// link only files that are stored in this file broker, like in storeSession()
+		List<String> storedFileIds = new LinkedList<String>();
+		for (String fileId : addedFileIds) {
+			if (filebrokerAreas.fileExists(fileId, FileBrokerArea.STORAGE)) {
+				storedFileIds.add(fileId);
+			}
+		}
+		
+		deleteStorageFiles(metadataServer.replaceSession(username, name, previousSessionId, sessionId, storedFileIds, removedFileIds));
+	}
+
 	private void storeSession(String username, String name, String sessionId, List<String> fileIds) throws SQLException {
 				
 		// check if we are overwriting previous session
@@ -579,6 +786,10 @@ public class FileServer extends NodeBase implements MessagingListener, DirectMes
 		List<String> removedFiles = metadataServer.removeSession(sessionId);
 
 		// remove from filesystem
+		deleteStorageFiles(removedFiles);
+	}
+
+	private void deleteStorageFiles(List<String> removedFiles) {
 		for (String removedFile : removedFiles) {
 			File dataFile = new File(storageRoot, removedFile);
 			dataFile.delete();
@@ -612,6 +823,9 @@ public class FileServer extends NodeBase implements MessagingListener, DirectMes
 
 							// move the file
 							boolean moveSuccess = filebrokerAreas.moveFromCacheToStorage(fileId);
+							if (moveSuccess) {
+								cacheCleanUp.getIndex().fileRemoved(fileId);
+							}
 							
 							// add to db
 							long size = filebrokerAreas.getSize(fileId, FileBrokerArea.STORAGE);
@@ -663,6 +877,11 @@ public class FileServer extends NodeBase implements MessagingListener, DirectMes
 		} catch (JMSException e) {
 			logger.error("closing messaging endpoint failed", e);
 		}
+		
+		// save the cache index for the next start
+		if (cacheCleanUp != null) {
+			cacheCleanUp.close();
+		}
 
 		logger.info("shutting down");
 	}
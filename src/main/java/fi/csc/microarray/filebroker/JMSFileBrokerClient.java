@@ -16,8 +16,11 @@ import java.security.KeyManagementException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.zip.InflaterInputStream;
@@ -116,6 +119,17 @@ public class JMSFileBrokerClient implements FileBrokerClient {
 			throw new FileBrokerException("filebroker is not responding");
 		}
 
+		addFile(dataId, url, file, progressListener);
+	}
+	
+	/**
+	 * Add file to file broker cache using an url from {@link #getNewURLs(List, List, FileBrokerArea)}.
+	 * 
+	 * @see fi.csc.microarray.filebroker.FileBrokerClient#addFile(String, URL, File, CopyProgressListener)
+	 */
+	@Override
+	public void addFile(String dataId, URL url, File file, CopyProgressListener progressListener) throws FileBrokerException, IOException {
+
 		// try to move/copy it locally, or otherwise upload the file
 		if (localFilebrokerCache != null && !useCompression) {
 			String filename = dataId;
@@ -166,6 +180,16 @@ public class JMSFileBrokerClient implements FileBrokerClient {
 			}
 			
 		}
+		
+		return addFile(dataId, url, file, contentLength, progressListener);
+	}
+	
+	/**
+	 * @return md5 String of the uploaded data, if enabled in configuration
+	 * @see fi.csc.microarray.filebroker.FileBrokerClient#addFile(String, URL, InputStream, long, CopyProgressListener)
+	 */
+	@Override
+	public String addFile(String dataId, URL url, InputStream file, long contentLength, CopyProgressListener progressListener) throws FileBrokerException, IOException {
 
 		// Upload the stream into a file at filebroker
 		logger.debug("uploading new file: " + url);
@@ -193,6 +217,11 @@ public class JMSFileBrokerClient implements FileBrokerClient {
 			throw new FileNotFoundException("file not found or filebroker didn't respond: " + dataId);
 		}
 		
+		return getInputStream(url);
+	}
+	
+	private ChecksumInputStream getInputStream(URL url) throws IOException {
+		
 		InputStream payload = null;
 
 		URLConnection connection = null;
@@ -234,8 +263,25 @@ public class JMSFileBrokerClient implements FileBrokerClient {
 	@Override
 	public void getFile(UUID sessionId, String dataId, File destFile) throws IOException, FileBrokerException, ChecksumException {
 		
+		// url is needed only when the file has to be downloaded
+		URL url = null;
+		if (!isFilebrokerLocal()) {
+			url = getURL(dataId);
+		}
+		getFile(dataId, url, destFile);
+	}
+	
+	/**
+	 * Get a local copy of a file using an url from {@link #getURLs(List)}. The url is not used, if 
+	 * the file is found from the local filebroker paths.
+	 * 
+	 * @see fi.csc.microarray.filebroker.FileBrokerClient#getFile(String, URL, File)
+	 */
+	@Override
+	public void getFile(String dataId, URL url, File destFile) throws IOException, FileBrokerException, ChecksumException {
+		
 		// Try to find the file locally and symlink/copy it
-		if (localFilebrokerCache != null && localFilebrokerStorage != null) {
+		if (isFilebrokerLocal()) {
 			
 			// If file in filebroker cache is compressed, it will have specific suffix and we will not match it
 			File fileInFilebrokerCache = new File(localFilebrokerCache, dataId);
@@ -256,12 +302,16 @@ public class JMSFileBrokerClient implements FileBrokerClient {
 			}
 			
 		} else {
+			if (url == null) {
+				throw new FileNotFoundException("file not found: " + dataId);
+			}
+			
 			// Not available locally, need to download
 			ChecksumInputStream inputStream = null;
 			OutputStream fileStream = null;
 			try {
 				// Download to file
-				inputStream = getInputStream(dataId);				
+				inputStream = getInputStream(url);				
 				fileStream = new FileOutputStream(destFile);
 				
 				IOUtils.copy(new BufferedInputStream(inputStream), new BufferedOutputStream(fileStream));
@@ -311,6 +361,34 @@ public class JMSFileBrokerClient implements FileBrokerClient {
 	}
 
 	
+	@Override
+	public List<String> getAvailable(List<String> dataIds, List<Long> contentLengths, List<String> checksums, FileBrokerArea area) throws FileBrokerException {
+		
+		if (dataIds.isEmpty()) {
+			return new LinkedList<String>();
+		}
+		
+		// unknown values are sent as empty strings
+		LinkedList<String> contentLengthStrings = new LinkedList<String>();
+		for (Long contentLength : contentLengths) {
+			contentLengthStrings.add(contentLength != null ? contentLength.toString() : "");
+		}
+		LinkedList<String> checksumStrings = new LinkedList<String>();
+		for (String checksum : checksums) {
+			checksumStrings.add(checksum != null ? checksum : "");
+		}
+		
+		CommandMessage requestMessage = new CommandMessage(CommandMessage.COMMAND_ARE_AVAILABLE);
+		requestMessage.addNamedParameter(ParameterMessage.PARAMETER_FILE_ID_LIST, Strings.delimit(dataIds, "\t"));
+		requestMessage.addNamedParameter(ParameterMessage.PARAMETER_SIZE_LIST, Strings.delimit(contentLengthStrings, "\t"));
+		requestMessage.addNamedParameter(ParameterMessage.PARAMETER_CHECKSUM_LIST, Strings.delimit(checksumStrings, "\t"));
+		requestMessage.addNamedParameter(ParameterMessage.PARAMETER_AREA, area.toString());
+		
+		ParameterMessage reply = sendBatchRequest(requestMessage, QUICK_POLL_OPERATION_TIMEOUT);
+		
+		return Arrays.asList(Strings.splitUnlessEmpty(reply.getNamedParameter(ParameterMessage.PARAMETER_FILE_ID_LIST), "\t"));
+	}
+	
 	@Override
 	public boolean moveFromCacheToStorage(String dataId) throws FileBrokerException {
 		logger.debug("moving from cache to storage: " + dataId);
@@ -417,6 +495,31 @@ public class JMSFileBrokerClient implements FileBrokerClient {
 		}
 	}
 
+	@Override
+	public void updateRemoteSession(String sessionName, String previousSessionId, String sessionId, List<String> addedDataIds, List<String> removedDataIds) throws FileBrokerException {
+		ReplyMessageListener replyListener = new ReplyMessageListener();  
+		try {
+			CommandMessage storeRequestMessage = new CommandMessage(CommandMessage.COMMAND_STORE_SESSION);
+			storeRequestMessage.addNamedParameter(ParameterMessage.PARAMETER_SESSION_NAME, sessionName);
+			storeRequestMessage.addNamedParameter(ParameterMessage.PARAMETER_SESSION_UUID, sessionId);
+			storeRequestMessage.addNamedParameter(ParameterMessage.PARAMETER_PREVIOUS_SESSION_UUID, previousSessionId);
+			storeRequestMessage.addNamedParameter(ParameterMessage.PARAMETER_FILE_ID_LIST, Strings.delimit(addedDataIds, "\t"));
+			storeRequestMessage.addNamedParameter(ParameterMessage.PARAMETER_REMOVED_FILE_ID_LIST, Strings.delimit(removedDataIds, "\t"));
+			
+			filebrokerTopic.sendReplyableMessage(storeRequestMessage, replyListener);
+			ParameterMessage reply = replyListener.waitForReply(QUICK_POLL_OPERATION_TIMEOUT, TimeUnit.SECONDS);
+			
+			if (reply == null || !(reply instanceof CommandMessage) || !CommandMessage.COMMAND_FILE_OPERATION_SUCCESSFUL.equals((((CommandMessage)reply).getCommand()))) {
+				throw new JMSException("failed to update session metadata remotely");
+			}
+			
+		} catch (JMSException e) {
+			throw new FileBrokerException(e);
+		} finally {
+			replyListener.cleanUp();
+		}
+	}
+
 	@Override
 	public List<DbSession> listRemoteSessions() throws FileBrokerException {
 		ReplyMessageListener replyListener = new ReplyMessageListener();  
@@ -548,6 +651,140 @@ public class JMSFileBrokerClient implements FileBrokerClient {
 		return url;
 	}
 
+	@Override
+	public Map<String, URL> getNewURLs(List<String> dataIds, List<Long> contentLengths, FileBrokerArea area) throws FileBrokerException, MalformedURLException {
+		
+		HashMap<String, URL> urls = new HashMap<String, URL>();
+		if (dataIds.isEmpty()) {
+			return urls;
+		}
+		
+		CommandMessage urlRequestMessage = new CommandMessage(CommandMessage.COMMAND_NEW_URLS_REQUEST);
+		urlRequestMessage.addNamedParameter(ParameterMessage.PARAMETER_FILE_ID_LIST, Strings.delimit(dataIds, "\t"));
+		urlRequestMessage.addNamedParameter(ParameterMessage.PARAMETER_SIZE_LIST, Strings.delimit(contentLengths, "\t"));
+		urlRequestMessage.addNamedParameter(ParameterMessage.PARAMETER_AREA, area.toString());
+		if (useCompression) {
+			urlRequestMessage.addParameter(ParameterMessage.PARAMETER_USE_COMPRESSION);
+		}
+		
+		// space request may have to wait for the clean up
+		ParameterMessage reply = sendBatchRequest(urlRequestMessage, SPACE_REQUEST_TIMEOUT);
+		
+		String[] replyIds = Strings.splitUnlessEmpty(reply.getNamedParameter(ParameterMessage.PARAMETER_FILE_ID_LIST), "\t");
+		String[] replyUrls = Strings.splitUnlessEmpty(reply.getNamedParameter(ParameterMessage.PARAMETER_URL_LIST), "\t");
+		for (int i = 0; i < replyIds.length && i < replyUrls.length; i++) {
+			urls.put(replyIds[i], applyOverridingFilebrokerIp(new URL(replyUrls[i])));
+		}
+		
+		if (urls.size() != dataIds.size()) {
+			throw new FileBrokerException("filebroker didn't send urls for all files");
+		}
+
+		logger.debug("got " + urls.size() + " new urls");
+		
+		return urls;
+	}
+	
+	@Override
+	public Map<String, URL> getURLs(List<String> dataIds) throws FileBrokerException, MalformedURLException {
+		
+		HashMap<String, URL> urls = new HashMap<String, URL>();		
+		ParameterMessage reply = getURLsAndSizes(dataIds);
+		if (reply == null) {
+			return urls;
+		}
+		
+		String[] replyIds = reply.getNamedParameter(ParameterMessage.PARAMETER_FILE_ID_LIST).split("\t", -1);
+		String[] replyUrls = reply.getNamedParameter(ParameterMessage.PARAMETER_URL_LIST).split("\t", -1);
+		for (int i = 0; i < replyIds.length && i < replyUrls.length; i++) {
+			if (!replyUrls[i].isEmpty()) {
+				urls.put(replyIds[i], applyOverridingFilebrokerIp(new URL(replyUrls[i])));
+			}
+		}
+		return urls;
+	}
+	
+	@Override
+	public Map<String, Long> getContentLengths(List<String> dataIds) throws FileBrokerException {
+		
+		HashMap<String, Long> contentLengths = new HashMap<String, Long>();
+		ParameterMessage reply = getURLsAndSizes(dataIds);
+		if (reply == null) {
+			return contentLengths;
+		}
+		
+		String[] replyIds = reply.getNamedParameter(ParameterMessage.PARAMETER_FILE_ID_LIST).split("\t", -1);
+		String[] replySizes = reply.getNamedParameter(ParameterMessage.PARAMETER_SIZE_LIST).split("\t", -1);
+		for (int i = 0; i < replyIds.length && i < replySizes.length; i++) {
+			if (!replySizes[i].isEmpty()) {
+				contentLengths.put(replyIds[i], Long.parseLong(replySizes[i]));
+			}
+		}
+		return contentLengths;
+	}
+	
+	/**
+	 * @return reply with lists of file ids, urls and sizes or null if dataIds is empty
+	 */
+	private ParameterMessage getURLsAndSizes(List<String> dataIds) throws FileBrokerException {
+		
+		if (dataIds.isEmpty()) {
+			return null;
+		}
+		
+		logger.debug("getting urls for " + dataIds.size() + " dataIds");
+		
+		CommandMessage getURLsMessage = new CommandMessage(CommandMessage.COMMAND_GET_URLS);
+		getURLsMessage.addNamedParameter(ParameterMessage.PARAMETER_FILE_ID_LIST, Strings.delimit(dataIds, "\t"));
+		
+		return sendBatchRequest(getURLsMessage, QUICK_POLL_OPERATION_TIMEOUT);
+	}
+	
+	/**
+	 * Send a request concerning several files and wait for the reply.
+	 * 
+	 * @param timeout seconds
+	 * @return reply of a successful request
+	 * @throws NotEnoughDiskSpaceException
+	 * @throws QuotaExceededException
+	 * @throws FileBrokerException if the request was denied, failed or timed out
+	 */
+	private ParameterMessage sendBatchRequest(CommandMessage requestMessage, int timeout) throws FileBrokerException {
+		
+		ReplyMessageListener replyListener = new ReplyMessageListener();  
+		ParameterMessage reply;
+		try {
+			filebrokerTopic.sendReplyableMessage(requestMessage, replyListener);
+			reply = replyListener.waitForReply(timeout, TimeUnit.SECONDS);
+		} catch (JMSException e) {
+			throw new FileBrokerException(e);
+		} finally {
+			replyListener.cleanUp();
+		}
+		
+		if (reply == null) {
+			throw new FileBrokerException("timeout while waiting for the filebroker");
+		}
+		
+		String command = reply instanceof CommandMessage ? ((CommandMessage)reply).getCommand() : null;
+		if (CommandMessage.COMMAND_FILE_OPERATION_SUCCESSFUL.equals(command)) {
+			return reply;
+			
+		} else if (FileServer.ERROR_NOT_ENOUGH_SPACE.equals(reply.getNamedParameter(ParameterMessage.PARAMETER_ERROR))) {
+			throw new NotEnoughDiskSpaceException();
+			
+		} else if (FileServer.ERROR_QUOTA_EXCEEDED.equals(reply.getNamedParameter(ParameterMessage.PARAMETER_ERROR))) {
+			throw new QuotaExceededException();
+			
+		} else {
+			throw new FileBrokerException(requestMessage.getCommand() + " failed: " + command);
+		}
+	}
+
+	private boolean isFilebrokerLocal() {
+		return localFilebrokerCache != null && localFilebrokerStorage != null;
+	}
+	
 	private URL getURL(String dataId) throws FileBrokerException, MalformedURLException {
 		
 		logger.debug("getting url for dataId " + dataId);
@@ -31,6 +31,10 @@ import fi.csc.microarray.util.IOUtils;
 /**
 * <p>Servlet for RESTful file access in Chipster. Extends DefaultServlet and adds support for HTTP PUT and 
 * DELETE methods. Also adds Chipster authentication and security checks.</p>
+* 
+* <p>Cache and storage files are sent with {@link FileSender}, which supports range requests. Checksums 
+* are cached in memory and file accesses are recorded in the background by {@link AccessRecorder}. Cache 
+* uploads and downloads update the {@link CacheIndex} of the cache clean up.</p>
 *   
 * @author Aleksi Kallio
 *
@@ -52,6 +56,10 @@ public class RestServlet extends DefaultServlet {
 
 	private boolean useChecksums;
 	
+	private FileSender fileSender = new FileSender();
+	private ChecksumCache checksumCache = new ChecksumCache();
+	private AccessRecorder accessRecorder;
+	
 
 	// set from configs
 	// specify whether get and put requests are logged
@@ -64,6 +72,7 @@ public class RestServlet extends DefaultServlet {
 		this.urlRepository = urlRepository;
 		this.metadataServer = metadataServer;
 		this.cacheCleanUp = cacheCleanUp;
+		this.accessRecorder = new AccessRecorder(metadataServer);
 		
 		Configuration configuration = DirectoryLayout.getInstance().getConfiguration();
 		cachePath = FileServer.CACHE_PATH;
@@ -157,13 +166,27 @@ public class RestServlet extends DefaultServlet {
 			
 		} else {			
 			
-			// touch the file
 			File file = locateFile(request);
-			file.setLastModified(System.currentTimeMillis());
+			boolean isFileRequest = isCacheRequest(request) || isStorageRequest(request);
+			
+			if (isFileRequest && !file.isFile()) {
+				response.sendError(HttpServletResponse.SC_NOT_FOUND);
+				return;
+			}
+			
+			// touch the file and the metadata database later in the background
+			String storageUuid = null;
+			if (isStorageRequest(request)) {
+				storageUuid = AuthorisedUrlRepository.stripCompressionSuffix(IOUtils.getFilenameWithoutPath(request));
+			}
+			accessRecorder.fileAccessed(file, storageUuid);
+			if (cacheCleanUp != null && isCacheRequest(request)) {
+				cacheCleanUp.getIndex().fileAccessed(file.getName());
+			}
 			
 			String checksum;
 			try {
-				checksum = Md5FileUtils.readMd5(file);
+				checksum = checksumCache.get(file);
 				
 				if (checksum != null) {
 					response.setHeader(ChecksumInputStream.HTTP_CHECKSUM_KEY, checksum);
@@ -172,31 +195,25 @@ public class RestServlet extends DefaultServlet {
 				logger.info("reading checksum file failed", e);
 				// continue without checksum
 			}
-			
-			
-			// touch metadata database and get checksum
-			if (isStorageRequest(request)) {
-				String uuid = AuthorisedUrlRepository.stripCompressionSuffix(IOUtils.getFilenameWithoutPath(request));
-				try {
-					metadataServer.markFileAccessed(uuid);
-					
-				} catch (SQLException e) {
-					throw new ServletException(e);
-				}
-			}
 						
-			// delegate to super class
+			// send cache and storage files directly, delegate public files to super class
 			DateTime before = new DateTime();
-			super.doGet(request, response);
+			long bytes;
+			if (isFileRequest) {
+				bytes = fileSender.send(request, response, file);
+			} else {
+				super.doGet(request, response);
+				bytes = file.length();
+			}
 			DateTime after = new DateTime();
 
 			// log performance
 			Duration duration = new Duration(before, after);
-			double rate = getTransferRate(file.length(), duration);
+			double rate = getTransferRate(bytes, duration);
 			if (logRest) {
 				logger.info("GET " + file.getName()  + " " + 
 						"from " + request.getRemoteHost() + " | " +
-						FileUtils.byteCountToDisplaySize(file.length()) + " | " + 
+						FileUtils.byteCountToDisplaySize(bytes) + " | " + 
 						DurationFormatUtils.formatDurationHMS(duration.getMillis()) + " | " +
 						new DecimalFormat("###.##").format(rate*8) + " Mbit/s" + " | " +
 						new DecimalFormat("###.##").format(rate) + " MB/s");
@@ -287,9 +304,11 @@ public class RestServlet extends DefaultServlet {
 		
 		if (useChecksums) {
 			Md5FileUtils.writeMd5(checksum, targetFile);
+			checksumCache.put(targetFile, checksum);
 		}
 
 		// make file visible		
+		boolean added = false;
 		if (targetFile.exists()) {
 			// someone else was faster to upload the same file, keep it 
 			logger.debug("uploaded file exists already, keeping the old one");
@@ -297,6 +316,7 @@ public class RestServlet extends DefaultServlet {
 		} else {
 			logger.debug("rename uploaded file to make it visible");
 			boolean success = tmpFile.renameTo(targetFile);		
+			added = success;
 			if (!success) {
 				if (targetFile.exists()) {
 					// if the rename failed and the file exists, someone else added the file after the exists() call above.
@@ -323,6 +343,9 @@ public class RestServlet extends DefaultServlet {
 		// make sure there's enough usable space left after the transfer
 		// (in case of concurrent uploads)
 		if (cacheCleanUp != null) {
+			if (added && isCacheRequest(request)) {
+				cacheCleanUp.getIndex().fileAdded(targetFile.getName(), size);
+			}
 			cacheCleanUp.spaceRequest(0, false, "Schedule clean up after PUT");
 		}
 
@@ -357,6 +380,12 @@ public class RestServlet extends DefaultServlet {
 		return tmpFile;
 	}
 	
+	@Override
+	public void destroy() {
+		accessRecorder.close();
+		super.destroy();
+	}
+	
 	@Override
 	protected void doDelete(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 		response.setStatus(HttpURLConnection.HTTP_BAD_METHOD);
@@ -8,8 +8,10 @@ import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import fi.csc.microarray.config.DirectoryLayout;
@@ -20,7 +22,8 @@ import fi.csc.microarray.util.KeyAndTrustManager;
 /**
  * Simple file broker client for the standalone mode.
  * 
- * Only supports getPublicFiles() for now.
+ * Only supports getPublicFiles() for now. There is no file broker in the standalone mode, so
+ * the batch requests find no files and uploads fail with a FileBrokerException.
  * 
  * @author hupponen
  *
@@ -28,6 +31,7 @@ import fi.csc.microarray.util.KeyAndTrustManager;
 public class SimpleFileBrokerClient implements FileBrokerClient {
 
 	private static final String PUBLIC_FILES = "public-files.txt";
+	private static final String NO_FILE_BROKER = "there is no file broker in the standalone mode";
 
 	@Override
 	public String addFile(String dataId, FileBrokerArea area, InputStream content, long contentLength, CopyProgressListener progressListener) throws FileBrokerException, IOException {
@@ -95,6 +99,11 @@ public class SimpleFileBrokerClient implements FileBrokerClient {
 		throw new UnsupportedOperationException();
 	}
 
+	@Override
+	public void updateRemoteSession(String name, String previousSessionId, String sessionId, List<String> addedDataIds, List<String> removedDataIds) throws FileBrokerException {
+		throw new FileBrokerException(NO_FILE_BROKER);
+	}
+
 	@Override
 	public boolean isAvailable(String dataId, Long size, String checksum, FileBrokerArea area) {
 		throw new UnsupportedOperationException();
@@ -127,4 +136,50 @@ public class SimpleFileBrokerClient implements FileBrokerClient {
 			InterruptedException {
 		throw new UnsupportedOperationException();
 	}
+
+	@Override
+	public Map<String, URL> getNewURLs(List<String> dataIds, List<Long> contentLengths, FileBrokerArea area) throws FileBrokerException {
+		throw new FileBrokerException(NO_FILE_BROKER);
+	}
+
+	@Override
+	public void addFile(String dataId, URL url, File file, CopyProgressListener progressListener) throws FileBrokerException {
+		throw new FileBrokerException(NO_FILE_BROKER);
+	}
+
+	@Override
+	public String addFile(String dataId, URL url, InputStream file, long contentLength, CopyProgressListener progressListener) throws FileBrokerException {
+		throw new FileBrokerException(NO_FILE_BROKER);
+	}
+
+	@Override
+	public Map<String, URL> getURLs(List<String> dataIds) {
+		// none found
+		Map<String, URL> urls = new HashMap<String, URL>();
+		for (String dataId : dataIds) {
+			urls.put(dataId, null);
+		}
+		return urls;
+	}
+
+	@Override
+	public void getFile(String dataId, URL url, File destFile) throws FileBrokerException {
+		throw new FileBrokerException("file " + dataId + " not found, " + NO_FILE_BROKER);
+	}
+
+	@Override
+	public List<String> getAvailable(List<String> dataIds, List<Long> contentLengths, List<String> checksums, FileBrokerArea area) {
+		// none available
+		return new LinkedList<String>();
+	}
+
+	@Override
+	public Map<String, Long> getContentLengths(List<String> dataIds) {
+		// none found
+		Map<String, Long> lengths = new HashMap<String, Long>();
+		for (String dataId : dataIds) {
+			lengths.put(dataId, null);
+		}
+		return lengths;
+	}
 }
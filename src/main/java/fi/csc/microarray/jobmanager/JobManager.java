@@ -3,6 +3,7 @@ package fi.csc.microarray.jobmanager;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -41,6 +42,9 @@ import fi.csc.microarray.util.SystemMonitorUtil;
 
 public class JobManager extends MonitoredNodeBase implements MessagingListener, ShutdownCallback {
 
+	// don't offer the same job again before comps have had time to answer
+	private static final long OFFER_INTERVAL = 10 * 1000;
+
 	private int jobMaxWaitTime;
 	
 	private static Logger logger;
@@ -54,6 +58,9 @@ public class JobManager extends MonitoredNodeBase implements MessagingListener,
 	
 	private JobManagerDB jobsDb;
 	
+	private SchedulingQueue queue;
+	private HashSet<String> priorityUsers = new HashSet<String>();
+	
 	
 	private class ClientMessageListener implements MessagingListener {
 
@@ -94,9 +101,12 @@ public class JobManager extends MonitoredNodeBase implements MessagingListener,
 				// set replyTo to jobmanager
 				msg.setReplyTo(jobManagerTopic.getJMSTopic());
 
-				// if no other jobs in 'waiting queue' (state WAITING), send to comps 
-				if (jobsDb.getWaitingJobs().size() <= 1) { // that one is this job
+				queue.add(msg.getJobId(), msg.getUsername(), getPriority(msg.getUsername()), System.currentTimeMillis());
+
+				// if no other jobs in 'waiting queue', send to comps 
+				if (queue.size() <= 1) { // that one is this job
 					// forward to comp, if this fails, job is left waiting, which is ok
+					queue.offered(msg.getJobId());
 					compTopic.sendMessage(msg);
 				}
 			} 
@@ -158,6 +168,7 @@ public class JobManager extends MonitoredNodeBase implements MessagingListener,
 			} else if (CommandMessage.COMMAND_CANCEL.equals(msg.getCommand())) {
 				String jobId = msg.getNamedParameter(ParameterMessage.PARAMETER_JOB_ID);
 				if (jobsDb.updateJobCancelled(jobsDb.getJob(jobId))) {
+					queue.remove(jobId);
 					compTopic.sendMessage(msg);
 				}
 				
@@ -249,11 +260,29 @@ public class JobManager extends MonitoredNodeBase implements MessagingListener,
 					compTopic.sendMessage(acceptMessage);
 
 					// update job state
-					jobsDb.updateJobScheduled(job, compId, compHost);
+					if (jobsDb.updateJobScheduled(job, compId, compHost)) {
+						queue.scheduled(jobId);
+					}
 				}
 				
 			} else if (CommandMessage.COMMAND_COMP_AVAILABLE.equals(msg.getCommand())) {
-				scheduleWaitingJobs();
+				if (logger.isDebugEnabled()) {
+					logger.debug("comp " + msg.getNamedParameter(ParameterMessage.PARAMETER_AS_ID) + " available, free cores: " + 
+							msg.getNamedParameter(ParameterMessage.PARAMETER_FREE_CPU) + ", free memory: " + 
+							msg.getNamedParameter(ParameterMessage.PARAMETER_FREE_MEMORY) + " MB");
+				}
+				
+				// each job needs at least one core, offer all if the comp doesn't tell its capacity
+				int count = queue.size();
+				String freeCpu = msg.getNamedParameter(ParameterMessage.PARAMETER_FREE_CPU);
+				if (freeCpu != null) {
+					try {
+						count = Math.max(1, Integer.parseInt(freeCpu));
+					} catch (NumberFormatException e) {
+						logger.warn("invalid free cpu in comp available message: " + freeCpu);
+					}
+				}
+				scheduleWaitingJobs(count);
 			}
 				
 			else {
@@ -302,6 +331,7 @@ public class JobManager extends MonitoredNodeBase implements MessagingListener,
 				if (!jobsDb.updateJobFinished(job, jobStateFromComp, msg)) {
 					return;
 				}
+				queue.remove(jobId);
 				
 			} else if (jobStateFromComp == JobState.RUNNING) {
 				// don't continue if update fails
@@ -316,6 +346,7 @@ public class JobManager extends MonitoredNodeBase implements MessagingListener,
 			} else if (jobStateFromComp == JobState.COMP_BUSY) {
 				// TODO refactor away
 			    // jobsDb.updateJobWaiting(jobId);
+				queue.refused(jobId);
 				return;
 				
 			} else {
@@ -339,10 +370,26 @@ public class JobManager extends MonitoredNodeBase implements MessagingListener,
 		logger.info("starting jobmanager service...");
 
 		jobMaxWaitTime = configuration.getInt("jobmanager", "job-max-wait-time");
+		for (String username : configuration.getString("jobmanager", "priority-users").split(",")) {
+			if (!username.trim().isEmpty()) {
+				priorityUsers.add(username.trim());
+			}
+		}
 		
 		// initialize jobs db
 		this.jobsDb = new JobManagerDB(configuration);
 		
+		// initialize scheduling queue from the db
+		this.queue = new SchedulingQueue(OFFER_INTERVAL);
+		for (Job job : jobsDb.getWaitingJobs()) {
+			String username = job.getJobMessage().getUsername();
+			queue.add(job.getJobId(), username, getPriority(username), job.getCreated().getTime());
+		}
+		for (Job job : jobsDb.getScheduledAndRunningJobs()) {
+			queue.addActive(job.getJobId(), job.getJobMessage().getUsername());
+		}
+		logger.info("scheduling queue has " + queue.size() + " waiting jobs");
+		
 		// initialize communications
 		this.endpoint = new JMSMessagingEndpoint(this);
 
@@ -367,22 +414,34 @@ public class JobManager extends MonitoredNodeBase implements MessagingListener,
 	
 	
 
-	private void scheduleWaitingJobs() {
-		List<Job> waitingJobs = jobsDb.getWaitingJobs();
-		if (waitingJobs.size() > 0) {
-			logger.info("rescheduling " + waitingJobs.size() + " waiting jobs");
-		}
+	private int getPriority(String username) {
+		return priorityUsers.contains(username) ? 1 : 0;
+	}
+
+	/**
+	 * Offer waiting jobs to comps in the order of the scheduling queue.
+	 * 
+	 * @param count maximum number of jobs to offer
+	 */
+	private void scheduleWaitingJobs(int count) {
 		
-		List<String> jobsToBeExpired = new LinkedList<String>(); // avoid removing during iteration 
+		// already removed from the queue
+		List<String> jobsToBeExpired = queue.removeExpired(jobMaxWaitTime * 1000l);
+
+		List<String> jobsToBeOffered = queue.next(count);
+		if (jobsToBeOffered.size() > 0) {
+			logger.info("rescheduling " + jobsToBeOffered.size() + " of " + queue.size() + " waiting jobs");
+		}
 
 		// reschedule
-		for (Job job: waitingJobs) {
+		for (String jobId : jobsToBeOffered) {
 			try {
-				if (!rescheduleJob(job.getJobId())) {
-					jobsToBeExpired.add(job.getJobId());
+				if (!rescheduleJob(jobId)) {
+					queue.remove(jobId);
+					jobsToBeExpired.add(jobId);
 				};
 			} catch (Exception e) {
-				logger.warn("could not reschedule job " + job.getJobId(), e);
+				logger.warn("could not reschedule job " + jobId, e);
 			}
 		}
 
@@ -428,6 +487,13 @@ public class JobManager extends MonitoredNodeBase implements MessagingListener,
 			logger.warn("max wait time reached for job " + jobId);
 			return false;
 		}
+		
+		if (job.getState() != JobState.WAITING) {
+			// already scheduled or finished, but the queue missed it
+			logger.warn("trying to reschedule job " + jobId + " in state " + job.getState());
+			queue.removeWaiting(jobId);
+			return true;
+		}
 	
 		try {
 			
@@ -464,6 +530,7 @@ public class JobManager extends MonitoredNodeBase implements MessagingListener,
 					logger.info(String.format("cancel request from admin web for job %s", jobId));
 					Job job = jobsDb.getJob(jobId);
 					if (jobsDb.updateJobCancelled(job)) {
+						queue.remove(jobId);
 						compTopic.sendMessage(commandMessage);
 						logger.info(String.format("sending cancel for job %s to comps", jobId));
 						// inform client
@@ -486,6 +553,9 @@ public class JobManager extends MonitoredNodeBase implements MessagingListener,
 							"all: " + jobsDb.getJobCount() + "\n" +
 							"\n";
 					
+					report += "QUEUE\n\n";
+					report += queue.getReport() + "\n";
+					
 					report += "MEMORY\n\n";
 					report += sysStats + "\n";
 
@@ -0,0 +1,316 @@
+package fi.csc.microarray.jobmanager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>In-memory queue of the waiting jobs. The jobmanager database is still the persistent state
+ * of the jobs and the queue is loaded from it on start.</p>
+ *
+ * <p>Jobs are offered to comps in the order of priority, fair share and age. From the jobs with
+ * the highest priority, the next job is taken from the user who has the fewest jobs scheduled or
+ * running, and the oldest job of that user is offered first. An offered job isn't offered again
+ * until the offer interval has passed. When comps reply that they are busy, the job is offered
+ * again sooner, but the delay is doubled after each refused offer.</p>
+ */
+public class SchedulingQueue {
+
+	// upper limits of the wait time histogram buckets, seconds
+	private static final long[] WAIT_TIME_LIMITS = new long[] { 10, 60, 600, 3600 };
+	private static final String[] WAIT_TIME_NAMES = new String[] { "< 10 s", "< 1 min", "< 10 min", "< 1 h", ">= 1 h" };
+
+	// delay after the first refused offer, milliseconds
+	private static final long REFUSED_RETRY_DELAY = 1000;
+
+	private static class QueuedJob {
+		String jobId;
+		String username;
+		int priority;
+		long created;
+		long offered = 0;
+		int refusals = 0;
+		boolean refusedSinceOffer = false;
+	}
+
+	private long offerInterval;
+
+	// in the order of creation
+	private LinkedHashMap<String, QueuedJob> waitingJobs = new LinkedHashMap<String, QueuedJob>();
+
+	// scheduled and running jobs, job id to username
+	private HashMap<String, String> activeJobs = new HashMap<String, String>();
+	private HashMap<String, Integer> activeJobCounts = new HashMap<String, Integer>();
+
+	private long[] scheduledWaitTimes = new long[WAIT_TIME_LIMITS.length + 1];
+
+	/**
+	 * @param offerInterval minimum time between the offers of the same job, milliseconds
+	 */
+	public SchedulingQueue(long offerInterval) {
+		this.offerInterval = offerInterval;
+	}
+
+	/**
+	 * Add a waiting job. Jobs must be added in the order of creation.
+	 *
+	 * @param created creation time of the job, milliseconds
+	 */
+	public synchronized void add(String jobId, String username, int priority, long created) {
+		QueuedJob job = new QueuedJob();
+		job.jobId = jobId;
+		job.username = username;
+		job.priority = priority;
+		job.created = created;
+		waitingJobs.put(jobId, job);
+	}
+
+	/**
+	 * Add a job that is already scheduled or running, for counting the fair share.
+	 */
+	public synchronized void addActive(String jobId, String username) {
+		if (!activeJobs.containsKey(jobId)) {
+			activeJobs.put(jobId, username);
+			changeActiveCount(username, 1);
+		}
+	}
+
+	/**
+	 * Move a waiting job to the scheduled jobs.
+	 */
+	public synchronized void scheduled(String jobId) {
+		QueuedJob job = waitingJobs.remove(jobId);
+		if (job != null) {
+			long waitTime = (System.currentTimeMillis() - job.created) / 1000;
+			scheduledWaitTimes[getBucket(waitTime)]++;
+			addActive(jobId, job.username);
+		}
+	}
+
+	/**
+	 * Remove a job from the waiting jobs only, when it turns out to be scheduled or finished already.
+	 */
+	public synchronized void removeWaiting(String jobId) {
+		waitingJobs.remove(jobId);
+	}
+
+	/**
+	 * Remove a job that has finished, was cancelled or expired.
+	 */
+	public synchronized void remove(String jobId) {
+		waitingJobs.remove(jobId);
+		String username = activeJobs.remove(jobId);
+		if (username != null) {
+			changeActiveCount(username, -1);
+		}
+	}
+
+	/**
+	 * Mark a job offered, when it was sent to comps without asking the queue.
+	 */
+	public synchronized void offered(String jobId) {
+		QueuedJob job = waitingJobs.get(jobId);
+		if (job != null) {
+			job.offered = System.currentTimeMillis();
+			job.refusedSinceOffer = false;
+		}
+	}
+
+	/**
+	 * A comp couldn't run the offered job, so it can be offered again before the offer interval.
+	 * The delay grows with the refused offers, so that a job that doesn't fit to any comp isn't
+	 * offered every time a comp becomes available.
+	 */
+	public synchronized void refused(String jobId) {
+		QueuedJob job = waitingJobs.get(jobId);
+		if (job != null && !job.refusedSinceOffer) {
+			// all busy comps reply to the same offer
+			job.refusedSinceOffer = true;
+			long delay = Math.min(offerInterval, REFUSED_RETRY_DELAY << Math.min(job.refusals, 30));
+			job.refusals++;
+			job.offered = System.currentTimeMillis() - offerInterval + delay;
+		}
+	}
+
+	/**
+	 * Remove and return the jobs that have waited too long.
+	 *
+	 * @param maxWaitTime milliseconds
+	 */
+	public synchronized List<String> removeExpired(long maxWaitTime) {
+		List<String> expired = new LinkedList<String>();
+		long now = System.currentTimeMillis();
+		Iterator<QueuedJob> iterator = waitingJobs.values().iterator();
+		while (iterator.hasNext()) {
+			QueuedJob job = iterator.next();
+			if (now - job.created > maxWaitTime) {
+				expired.add(job.jobId);
+				iterator.remove();
+			}
+		}
+		return expired;
+	}
+
+	/**
+	 * Choose the jobs to offer next and mark them offered.
+	 *
+	 * @param count maximum number of jobs
+	 */
+	public synchronized List<String> next(int count) {
+
+		long now = System.currentTimeMillis();
+
+		// jobs of each user in the order of priority and age
+		LinkedHashMap<String, LinkedList<QueuedJob>> userQueues = new LinkedHashMap<String, LinkedList<QueuedJob>>();
+		for (QueuedJob job : waitingJobs.values()) {
+			if (job.offered > 0 && now - job.offered < offerInterval) {
+				continue;
+			}
+			LinkedList<QueuedJob> userQueue = userQueues.get(job.username);
+			if (userQueue == null) {
+				userQueue = new LinkedList<QueuedJob>();
+				userQueues.put(job.username, userQueue);
+			}
+			userQueue.add(job);
+		}
+		for (LinkedList<QueuedJob> userQueue : userQueues.values()) {
+			// stable, keeps the age order within the same priority
+			Collections.sort(userQueue, new Comparator<QueuedJob>() {
+				@Override
+				public int compare(QueuedJob job1, QueuedJob job2) {
+					return Integer.compare(job2.priority, job1.priority);
+				}
+			});
+		}
+
+		// jobs chosen in this round count for the fair share too
+		HashMap<String, Integer> shares = new HashMap<String, Integer>(activeJobCounts);
+
+		List<String> chosen = new ArrayList<String>();
+		while (chosen.size() < count && !userQueues.isEmpty()) {
+
+			String bestUser = null;
+			QueuedJob best = null;
+			for (Map.Entry<String, LinkedList<QueuedJob>> entry : userQueues.entrySet()) {
+				QueuedJob candidate = entry.getValue().getFirst();
+				if (best == null || isBefore(candidate, getCount(shares, candidate.username), best, getCount(shares, best.username))) {
+					best = candidate;
+					bestUser = entry.getKey();
+				}
+			}
+
+			LinkedList<QueuedJob> userQueue = userQueues.get(bestUser);
+			userQueue.removeFirst();
+			if (userQueue.isEmpty()) {
+				userQueues.remove(bestUser);
+			}
+			shares.put(bestUser, getCount(shares, bestUser) + 1);
+
+			best.offered = now;
+			best.refusedSinceOffer = false;
+			chosen.add(best.jobId);
+		}
+
+		return chosen;
+	}
+
+	public synchronized int size() {
+		return waitingJobs.size();
+	}
+
+	/**
+	 * Queue depth and wait time histograms for the admin status report.
+	 */
+	public synchronized String getReport() {
+
+		long now = System.currentTimeMillis();
+
+		long[] currentWaitTimes = new long[WAIT_TIME_LIMITS.length + 1];
+		HashMap<String, Integer> waitingByUser = new HashMap<String, Integer>();
+		for (QueuedJob job : waitingJobs.values()) {
+			currentWaitTimes[getBucket((now - job.created) / 1000)]++;
+			waitingByUser.put(job.username, getCount(waitingByUser, job.username) + 1);
+		}
+
+		String report = "";
+		report += "waiting: " + waitingJobs.size() + "\n";
+		report += "waiting users: " + waitingByUser.size() + "\n";
+		report += "scheduled or running: " + activeJobs.size() + "\n";
+		report += "\n";
+
+		report += "wait time of the waiting jobs\n";
+		report += getHistogram(currentWaitTimes);
+		report += "\n";
+
+		report += "wait time of the scheduled jobs\n";
+		report += getHistogram(scheduledWaitTimes);
+		report += "\n";
+
+		// users with most waiting jobs
+		List<Map.Entry<String, Integer>> users = new ArrayList<Map.Entry<String, Integer>>(waitingByUser.entrySet());
+		Collections.sort(users, new Comparator<Map.Entry<String, Integer>>() {
+			@Override
+			public int compare(Map.Entry<String, Integer> e1, Map.Entry<String, Integer> e2) {
+				return Integer.compare(e2.getValue(), e1.getValue());
+			}
+		});
+		if (!users.isEmpty()) {
+			report += "waiting jobs by user\n";
+			for (Map.Entry<String, Integer> user : users.subList(0, Math.min(10, users.size()))) {
+				report += user.getKey() + ": " + user.getValue() + " waiting, " + getCount(activeJobCounts, user.getKey()) + " scheduled or running\n";
+			}
+		}
+
+		return report;
+	}
+
+	/**
+	 * @return true if job1 should be offered before job2
+	 */
+	private boolean isBefore(QueuedJob job1, int share1, QueuedJob job2, int share2) {
+		if (job1.priority != job2.priority) {
+			return job1.priority > job2.priority;
+		}
+		if (share1 != share2) {
+			return share1 < share2;
+		}
+		return job1.created < job2.created;
+	}
+
+	private void changeActiveCount(String username, int change) {
+		int count = getCount(activeJobCounts, username) + change;
+		if (count > 0) {
+			activeJobCounts.put(username, count);
+		} else {
+			activeJobCounts.remove(username);
+		}
+	}
+
+	private int getCount(Map<String, Integer> counts, String username) {
+		Integer count = counts.get(username);
+		return count != null ? count : 0;
+	}
+
+	private int getBucket(long waitTime) {
+		for (int i = 0; i < WAIT_TIME_LIMITS.length; i++) {
+			if (waitTime < WAIT_TIME_LIMITS[i]) {
+				return i;
+			}
+		}
+		return WAIT_TIME_LIMITS.length;
+	}
+
+	private String getHistogram(long[] counts) {
+		String histogram = "";
+		for (int i = 0; i < counts.length; i++) {
+			histogram += WAIT_TIME_NAMES[i] + ": " + counts[i] + "\n";
+		}
+		return histogram;
+	}
+}
@@ -153,7 +153,28 @@ public class JobManagerDB {
 							+ "order by created")
 							.setParameter("state1", JobState.WAITING)
 							.setParameter("state2", JobState.RUNNING)
-							.list();			
+							.list();
+
+			this.hibernate.commit();
+			return jobs;
+		} catch (Throwable e) {
+			this.hibernate.rollback();
+			throw e;
+		}
+	}
+
+	public List<Job> getScheduledAndRunningJobs() {
+		this.hibernate.beginTransaction();
+		try {
+			@SuppressWarnings("unchecked")
+			List<Job> jobs = this.hibernate.session().createQuery(
+					"from Job "
+							+ "where state=:state1 "
+							+ "or state=:state2 "
+							+ "order by created")
+							.setParameter("state1", JobState.SCHEDULED)
+							.setParameter("state2", JobState.RUNNING)
+							.list();
 
 			this.hibernate.commit();
 			return jobs;
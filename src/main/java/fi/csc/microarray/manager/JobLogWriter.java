@@ -0,0 +1,241 @@
+package fi.csc.microarray.manager;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.log4j.Logger;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import fi.csc.microarray.messaging.JobState;
+import fi.csc.microarray.messaging.message.JobLogMessage;
+import fi.csc.microarray.util.Strings;
+
+/**
+ * <p>Writes job log messages to the jobs table on a background thread. Messages are collected
+ * to a bounded queue and written with JDBC batch inserts, so that the messaging thread doesn't
+ * have to wait for the database. When the queue is full, {@link #write(JobLogMessage)} blocks
+ * until there is space again.</p>
+ *
+ * <p>Output texts longer than the compression threshold are stored compressed, see
+ * {@link Strings#compress(String)}. Inserted jobs are added to the {@link JobStatsTable}.</p>
+ */
+public class JobLogWriter implements Runnable {
+
+	private static final Logger logger = Logger.getLogger(JobLogWriter.class);
+
+	private static final String INSERT_JOB =
+			"INSERT INTO jobs (id, operation, status, starttime, endtime, wallclockTime, errorMessage, outputText, username, compHost) " +
+			"VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+	private static final int[] TYPES = new int[] {
+			Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.TIMESTAMP, Types.TIMESTAMP,
+			Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR };
+
+	// indexes of the row values
+	static final int OPERATION = 1;
+	static final int STATUS = 2;
+	static final int START_TIME = 3;
+	static final int WALLCLOCK_TIME = 5;
+	static final int USERNAME = 8;
+
+	static final String STATUS_FAILED = JobState.FAILED.toString();
+
+	// tells the writer thread to stop
+	private static final JobLogMessage STOP = new JobLogMessage();
+
+	private JdbcTemplate jdbcTemplate;
+	private TransactionTemplate transactionTemplate;
+	private JobStatsTable statsTable;
+	private BlockingQueue<JobLogMessage> queue;
+	private int batchSize;
+	private int compressionThreshold;
+	private Thread thread;
+	private volatile boolean closed = false;
+
+	/**
+	 * @param queueSize maximum number of messages waiting to be written
+	 * @param batchSize maximum number of rows in one insert
+	 * @param compressionThreshold compress output texts longer than this, 0 to disable compression
+	 * @param statsTable statistics to update, may be null
+	 */
+	public JobLogWriter(JdbcTemplate jdbcTemplate, JobStatsTable statsTable, int queueSize, int batchSize, int compressionThreshold) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(jdbcTemplate.getDataSource()));
+		this.statsTable = statsTable;
+		this.queue = new ArrayBlockingQueue<JobLogMessage>(queueSize);
+		this.batchSize = batchSize;
+		this.compressionThreshold = compressionThreshold;
+
+		this.thread = new Thread(this, "chipster-manager-job-log");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	public void write(JobLogMessage message) throws InterruptedException {
+		if (closed) {
+			logger.warn("job log writer is closed, writing job " + message.getJobId() + " directly");
+			List<Object[]> rows = new ArrayList<Object[]>();
+			rows.add(prepare(message));
+			insert(rows);
+			return;
+		}
+		queue.put(message);
+	}
+
+	/**
+	 * Write the queued messages and stop the writer thread.
+	 */
+	public void close() throws InterruptedException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		queue.put(STOP);
+		thread.join();
+	}
+
+	public int getQueueLength() {
+		return queue.size();
+	}
+
+	@Override
+	public void run() {
+		List<JobLogMessage> messages = new ArrayList<JobLogMessage>(batchSize);
+		boolean stop = false;
+		while (!stop) {
+			try {
+				messages.add(queue.take());
+				queue.drainTo(messages, batchSize - 1);
+
+				List<Object[]> rows = new ArrayList<Object[]>(messages.size());
+				for (JobLogMessage message : messages) {
+					if (message == STOP) {
+						stop = true;
+					} else {
+						rows.add(prepare(message));
+					}
+				}
+				if (!rows.isEmpty()) {
+					insert(rows);
+				}
+			} catch (InterruptedException e) {
+				logger.warn("job log writer interrupted, " + queue.size() + " messages not written");
+				return;
+			} catch (Exception e) {
+				logger.error("could not insert log entries", e);
+			} finally {
+				messages.clear();
+			}
+		}
+	}
+
+	private Object[] prepare(JobLogMessage message) {
+		Integer wallclockTime = null;
+		if (message.getEndTime() != null && message.getStartTime() != null) {
+			wallclockTime = (int) ((message.getEndTime().getTime() - message.getStartTime().getTime()) / 1000);
+		}
+
+		String outputText = message.getOutputText();
+		if (compressionThreshold > 0 && outputText != null && outputText.length() > compressionThreshold) {
+			try {
+				outputText = Strings.compress(outputText);
+			} catch (IOException e) {
+				logger.warn("could not compress output text of job " + message.getJobId(), e);
+			}
+		}
+
+		return new Object[] {
+				message.getJobId(),
+				message.getOperation(),
+				message.getState().toString(),
+				toTimestamp(message.getStartTime()),
+				toTimestamp(message.getEndTime()),
+				wallclockTime,
+				message.getErrorMessage(),
+				outputText,
+				message.getUsername(),
+				message.getCompHost()
+		};
+	}
+
+	private void insert(final List<Object[]> rows) {
+		try {
+			// in one transaction, so that a failed batch doesn't leave some of the rows inserted
+			transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+				@Override
+				protected void doInTransactionWithoutResult(TransactionStatus status) {
+					jdbcTemplate.batchUpdate(INSERT_JOB, new BatchPreparedStatementSetter() {
+						@Override
+						public void setValues(PreparedStatement statement, int i) throws SQLException {
+							setRow(statement, rows.get(i));
+						}
+
+						@Override
+						public int getBatchSize() {
+							return rows.size();
+						}
+					});
+				}
+			});
+			updateStats(rows);
+		} catch (DataAccessException e) {
+			// one bad row (e.g. a duplicate id) fails the whole batch, so retry one by one
+			logger.warn("batch insert of " + rows.size() + " log entries failed, inserting one by one");
+			List<Object[]> inserted = new ArrayList<Object[]>(rows.size());
+			for (Object[] row : rows) {
+				if (insert(row)) {
+					inserted.add(row);
+				}
+			}
+			updateStats(inserted);
+		}
+	}
+
+	private boolean insert(Object[] row) {
+		try {
+			jdbcTemplate.update(INSERT_JOB, row, TYPES);
+			return true;
+		} catch (DataAccessException e) {
+			logger.error("could not insert log entry for job " + row[0], e);
+			return false;
+		}
+	}
+
+	private void updateStats(List<Object[]> rows) {
+		if (statsTable != null) {
+			try {
+				statsTable.add(rows);
+			} catch (DataAccessException e) {
+				logger.error("could not update job stats", e);
+			}
+		}
+	}
+
+	private static void setRow(PreparedStatement statement, Object[] row) throws SQLException {
+		for (int i = 0; i < row.length; i++) {
+			if (row[i] == null) {
+				statement.setNull(i + 1, TYPES[i]);
+			} else {
+				statement.setObject(i + 1, row[i], TYPES[i]);
+			}
+		}
+	}
+
+	private static Timestamp toTimestamp(Date date) {
+		return date != null ? new Timestamp(date.getTime()) : null;
+	}
+}
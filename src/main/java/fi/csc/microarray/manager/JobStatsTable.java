@@ -0,0 +1,158 @@
+package fi.csc.microarray.manager;
+
+import java.sql.Date;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * <p>Daily job counts and wallclock sums of each tool and user, so that the admin web statistics
+ * don't have to go through all the rows of the jobs table. The table is created and filled from
+ * the jobs table when it doesn't exist yet, and after that the {@link JobLogWriter} keeps it up
+ * to date. Drop the table and restart the manager to rebuild it, for example after importing
+ * old jobs with {@link LogImport}.</p>
+ *
+ * <p>Modules are resolved from the tool ids in the admin web, where the module files are
+ * available.</p>
+ */
+public class JobStatsTable {
+
+	private static final Logger logger = Logger.getLogger(JobStatsTable.class);
+
+	private static final String TABLE_EXISTS =
+			"SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = 'JOB_STATS'";
+
+	private static final String CREATE_TABLE =
+			"CREATE TABLE IF NOT EXISTS job_stats (" +
+			"day DATE NOT NULL, " +
+			"operation VARCHAR(200) NOT NULL, " +
+			"username VARCHAR(200) NOT NULL, " +
+			"jobCount INT DEFAULT 0 NOT NULL, " +
+			"failCount INT DEFAULT 0 NOT NULL, " +
+			"wallclockTime BIGINT DEFAULT 0 NOT NULL, " +
+			"PRIMARY KEY (day, operation, username)" +
+			");";
+
+	private static final String CREATE_INDEXES =
+			"create index if not exists INDEX_JOB_STATS_USERNAME on JOB_STATS(USERNAME);";
+
+	private static final String FILL_FROM_JOBS =
+			"INSERT INTO job_stats (day, operation, username, jobCount, failCount, wallclockTime) " +
+			"SELECT CAST(starttime AS DATE), IFNULL(operation, ''), IFNULL(username, ''), COUNT(*), " +
+			"SUM(CASE WHEN status = '" + JobLogWriter.STATUS_FAILED + "' THEN 1 ELSE 0 END), IFNULL(SUM(wallclockTime), 0) " +
+			"FROM jobs WHERE starttime IS NOT NULL " +
+			"GROUP BY CAST(starttime AS DATE), IFNULL(operation, ''), IFNULL(username, '');";
+
+	private static final String UPDATE =
+			"UPDATE job_stats SET jobCount = jobCount + ?, failCount = failCount + ?, wallclockTime = wallclockTime + ? " +
+			"WHERE day = ? AND operation = ? AND username = ?";
+
+	private static final String INSERT =
+			"INSERT INTO job_stats (jobCount, failCount, wallclockTime, day, operation, username) VALUES (?, ?, ?, ?, ?, ?)";
+
+	private static final int[] TYPES = new int[] {
+			Types.INTEGER, Types.INTEGER, Types.BIGINT, Types.DATE, Types.VARCHAR, Types.VARCHAR };
+
+	/**
+	 * Same test accounts and age as in the removal from the jobs table.
+	 */
+	public static final String REMOVE_OLD_TEST_JOBS =
+			"DELETE FROM job_stats " +
+			"WHERE day < DATEADD('MONTH', -1, CURRENT_DATE()) " +
+			"AND username IN (SELECT username FROM accounts WHERE ignoreinstatistics=TRUE);";
+
+	private static class Stats {
+		Object[] values;
+
+		Stats(Date day, String operation, String username) {
+			values = new Object[] { 0, 0, 0l, day, operation, username };
+		}
+
+		void add(boolean failed, Integer wallclockTime) {
+			values[0] = (Integer) values[0] + 1;
+			if (failed) {
+				values[1] = (Integer) values[1] + 1;
+			}
+			if (wallclockTime != null) {
+				values[2] = (Long) values[2] + wallclockTime;
+			}
+		}
+	}
+
+	private JdbcTemplate jdbcTemplate;
+
+	public JobStatsTable(JdbcTemplate jdbcTemplate) {
+		this.jdbcTemplate = jdbcTemplate;
+	}
+
+	/**
+	 * Create the table and fill it from the jobs table, if it doesn't exist yet.
+	 */
+	public void create() {
+		boolean exists = jdbcTemplate.queryForInt(TABLE_EXISTS) > 0;
+		jdbcTemplate.execute(CREATE_TABLE);
+		jdbcTemplate.execute(CREATE_INDEXES);
+		if (!exists) {
+			long t = System.currentTimeMillis();
+			jdbcTemplate.execute(FILL_FROM_JOBS);
+			logger.info("job stats table created from the jobs table in " + (System.currentTimeMillis() - t) + " ms");
+		}
+	}
+
+	/**
+	 * Add inserted jobs to the statistics.
+	 *
+	 * @param jobs rows of the jobs table in the order of {@link JobLogWriter}
+	 */
+	public void add(List<Object[]> jobs) {
+
+		// combine the jobs of the same day, tool and user
+		LinkedHashMap<List<Object>, Stats> statsMap = new LinkedHashMap<List<Object>, Stats>();
+		for (Object[] job : jobs) {
+			java.util.Date startTime = (java.util.Date) job[JobLogWriter.START_TIME];
+			if (startTime == null) {
+				continue;
+			}
+			Date day = toDay(startTime);
+			String operation = toKey(job[JobLogWriter.OPERATION]);
+			String username = toKey(job[JobLogWriter.USERNAME]);
+
+			List<Object> key = new ArrayList<Object>(3);
+			key.add(day);
+			key.add(operation);
+			key.add(username);
+			Stats stats = statsMap.get(key);
+			if (stats == null) {
+				stats = new Stats(day, operation, username);
+				statsMap.put(key, stats);
+			}
+			stats.add(JobLogWriter.STATUS_FAILED.equals(job[JobLogWriter.STATUS]), (Integer) job[JobLogWriter.WALLCLOCK_TIME]);
+		}
+
+		// only the jobs log writer thread updates the table, so there is no race between the update and insert
+		for (Stats stats : statsMap.values()) {
+			if (jdbcTemplate.update(UPDATE, stats.values, TYPES) == 0) {
+				jdbcTemplate.update(INSERT, stats.values, TYPES);
+			}
+		}
+	}
+
+	private static String toKey(Object value) {
+		return value != null ? (String) value : "";
+	}
+
+	private static Date toDay(java.util.Date time) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(time);
+		calendar.set(Calendar.HOUR_OF_DAY, 0);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		return new Date(calendar.getTimeInMillis());
+	}
+}
@@ -56,8 +56,6 @@ import fi.csc.microarray.util.UrlTransferUtil;
 /**
  * Monitoring database and tool for Chipster server system.
  * 
- * Using JdbcTemplate this way for inserts is really slow.
- * 
  * @author Taavi Hupponen
  */
 public class Manager extends MonitoredNodeBase implements MessagingListener, ShutdownCallback {
@@ -80,6 +78,7 @@ public class Manager extends MonitoredNodeBase implements MessagingListener, Shu
 			
 			int affectedRows = jdbcTemplate.update(REMOVE_OLD_TEST_JOBS);
 			logger.info("cleaned up " + affectedRows + " old test jobs from database");
+			jdbcTemplate.update(JobStatsTable.REMOVE_OLD_TEST_JOBS);
 			
 			int deletedFiles = backupRotation.rotate();
 			logger.info("cleaned up " + deletedFiles + " old database backup files");
@@ -93,7 +92,7 @@ public class Manager extends MonitoredNodeBase implements MessagingListener, Shu
 	private final Logger logger;
 
     private JdbcTemplate jdbcTemplate;
-    private SimpleJdbcInsert insertJobTemplate;
+    private JobLogWriter jobLogWriter;
     private SimpleJdbcInsert insertAccountTemplate;
     private String feedbackEmail;
 
@@ -176,13 +175,22 @@ public class Manager extends MonitoredNodeBase implements MessagingListener, Shu
 		dataSource.setPassword(dbPassword);
 		
         this.jdbcTemplate = new JdbcTemplate(dataSource);
-	    this.insertJobTemplate = new SimpleJdbcInsert(dataSource).withTableName("jobs");
 	    this.insertAccountTemplate = new SimpleJdbcInsert(dataSource).withTableName("accounts");
 
 	    // create tables if they do not exist
 	    jdbcTemplate.execute(CREATE_JOBS_TABLE);
 	    jdbcTemplate.execute(CREATE_JOBS_INDEXES);
 	    jdbcTemplate.execute(CREATE_ACCOUNTS_TABLE);
+	    
+	    // daily statistics for admin web
+	    JobStatsTable jobStatsTable = new JobStatsTable(jdbcTemplate);
+	    jobStatsTable.create();
+	    
+	    // write job logs in batches on a background thread
+	    this.jobLogWriter = new JobLogWriter(jdbcTemplate, jobStatsTable, 
+	    		configuration.getInt("manager", "job-log-queue-size"), 
+	    		configuration.getInt("manager", "job-log-batch-size"), 
+	    		configuration.getInt("manager", "job-log-compression-threshold"));
 		
 	    // schedule backups
 	    int backupInterval = configuration.getInt("manager", "backup-interval");
@@ -336,21 +344,7 @@ public class Manager extends MonitoredNodeBase implements MessagingListener, Shu
 		    // log information about some job ran by a user
 	        JobLogMessage jobLogMessage = (JobLogMessage)chipsterMessage;
 	        try {
-	            Map<String, Object> parameters = new HashMap<String, Object>();
-	            parameters.put("id", jobLogMessage.getJobId());
-	            parameters.put("operation", jobLogMessage.getOperation());
-	            parameters.put("status", jobLogMessage.getState().toString()); 
-	            parameters.put("starttime", jobLogMessage.getStartTime()); 
-	            parameters.put("endtime", jobLogMessage.getEndTime());
-	            if (jobLogMessage.getEndTime() != null && jobLogMessage.getStartTime() != null) {
-	            	parameters.put("wallclockTime", (jobLogMessage.getEndTime().getTime() - jobLogMessage.getStartTime().getTime()) / 1000);
-	            }
-	            parameters.put("errorMessage", jobLogMessage.getErrorMessage());
-	            parameters.put("outputText", jobLogMessage.getOutputText()); 
-	            parameters.put("username", jobLogMessage.getUsername());
-	            parameters.put("compHost", jobLogMessage.getCompHost());
-	            
-	            this.insertJobTemplate.execute(parameters);
+	            this.jobLogWriter.write(jobLogMessage);
 	        } catch (Exception e) {
 	            logger.error("Could not insert log entry", e);
 	        }
@@ -403,6 +397,13 @@ public class Manager extends MonitoredNodeBase implements MessagingListener, Shu
 		} catch (JMSException e) {
 			logger.error("closing messaging endpoint failed", e);
 		}
+		
+		// write the remaining job logs
+		try {
+			this.jobLogWriter.close();
+		} catch (InterruptedException e) {
+			logger.error("writing job logs failed", e);
+		}
 
 		logger.info("shutting down");
 	}
@@ -0,0 +1,136 @@
+package fi.csc.microarray.messaging;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+
+import org.apache.log4j.Logger;
+
+import fi.csc.microarray.messaging.message.ChipsterMessage;
+
+/**
+ * Sends messages in the background with a fixed number of threads. When the queue is full, the
+ * message is sent by the calling thread, which slows down the producer of the messages. Keeps
+ * count of sent and failed messages and send latencies, including the time spent in the queue.
+ */
+public class AsyncMessageSender {
+
+	private static final Logger logger = Logger.getLogger(AsyncMessageSender.class);
+
+	private SessionPool sessionPool;
+	private ThreadPoolExecutor executor;
+
+	private AtomicLong sentCount = new AtomicLong();
+	private AtomicLong failedCount = new AtomicLong();
+	private AtomicLong callerRunsCount = new AtomicLong();
+	private AtomicLong totalLatency = new AtomicLong();
+	private AtomicLong maxLatency = new AtomicLong();
+
+	public AsyncMessageSender(SessionPool sessionPool, int threads, int queueSize) {
+		this.sessionPool = sessionPool;
+
+		ThreadFactory threadFactory = new ThreadFactory() {
+			private AtomicInteger threadNumber = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "message-sender-" + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+
+		this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy() {
+			@Override
+			public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+				callerRunsCount.incrementAndGet();
+				super.rejectedExecution(runnable, executor);
+			}
+		});
+	}
+
+	/**
+	 * Queues the message for sending. Failures are counted and logged, but not reported to the caller.
+	 */
+	public void send(final Destination destination, final ChipsterMessage message) {
+		final long queueTime = System.currentTimeMillis();
+
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					sessionPool.send(destination, message);
+					sentCount.incrementAndGet();
+
+				} catch (JMSException | RuntimeException e) {
+					failedCount.incrementAndGet();
+					logger.debug("could not send message " + message, e);
+
+				} finally {
+					long latency = System.currentTimeMillis() - queueTime;
+					totalLatency.addAndGet(latency);
+
+					long max;
+					while (latency > (max = maxLatency.get()) && !maxLatency.compareAndSet(max, latency)) {
+						// retry
+					}
+				}
+			}
+		});
+	}
+
+	public long getSentCount() {
+		return sentCount.get();
+	}
+
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+
+	/**
+	 * @return how many times the queue was full and the message was sent by the calling thread
+	 */
+	public long getCallerRunsCount() {
+		return callerRunsCount.get();
+	}
+
+	public int getQueueLength() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * @return average time from queuing to the end of sending, milliseconds
+	 */
+	public long getAverageLatency() {
+		long count = sentCount.get() + failedCount.get();
+		return count > 0 ? totalLatency.get() / count : 0;
+	}
+
+	public long getMaxLatency() {
+		return maxLatency.get();
+	}
+
+	public String getStatistics() {
+		return "sent: " + getSentCount() + ", failed: " + getFailedCount() + ", queue: " + getQueueLength() +
+				", queue full: " + getCallerRunsCount() + ", latency avg: " + getAverageLatency() + " ms, max: " + getMaxLatency() + " ms";
+	}
+
+	/**
+	 * Sends the queued messages and stops the threads.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+		try {
+			executor.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			logger.warn("interrupted while sending queued messages");
+		}
+	}
+}
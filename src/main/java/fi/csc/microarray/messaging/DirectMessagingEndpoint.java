@@ -77,6 +77,20 @@ public class DirectMessagingEndpoint implements MessagingEndpoint {
 		replyToMessage(original, reply);
 	}
 
+	@Override
+	public void replyToMessageAsync(ChipsterMessage original, ChipsterMessage reply) {
+		try {
+			replyToMessage(original, reply);
+		} catch (JMSException e) {
+			// ignore like JMSMessagingEndpoint does
+		}
+	}
+
+	@Override
+	public void sendMessage(Destination destination, ChipsterMessage message) throws JMSException {
+		throw new UnsupportedOperationException("not supported by DirectMessagingEndpoint");
+	}
+
 	@Override
 	public void close() throws JMSException {
 		// ignore
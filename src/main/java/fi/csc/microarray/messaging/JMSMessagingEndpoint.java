@@ -13,7 +13,6 @@ import java.security.cert.CertificateException;
 import javax.jms.Connection;
 import javax.jms.Destination;
 import javax.jms.JMSException;
-import javax.jms.MapMessage;
 import javax.jms.Session;
 import javax.net.ssl.SSLHandshakeException;
 
@@ -66,11 +65,24 @@ public class JMSMessagingEndpoint implements MessagingEndpoint, MessagingListene
 
 	private final String DEFAULT_REPLY_CHANNEL = Topics.MultiplexName.REPLY_TO.toString();
 	
+	/**
+	 * Maximum number of sessions used for sending messages.
+	 */
+	private static final int MAX_SEND_SESSIONS = 16;
+	
+	/**
+	 * Number of threads and queue size for asynchronous sending.
+	 */
+	private static final int ASYNC_SEND_THREADS = 4;
+	private static final int ASYNC_SEND_QUEUE_SIZE = 1000;
+	
 	private ActiveMQConnection connection;
 	private MessagingTopic adminTopic = null;
 	private Node master;
 	private AuthenticationRequestListener authenticationListener;
 	private String sessionID = null;
+	private SessionPool sessionPool;
+	private AsyncMessageSender asyncSender;
 
 	/**
 	 *  Created endpoint that is used as a gateway to communication fabric.
@@ -158,6 +170,9 @@ public class JMSMessagingEndpoint implements MessagingEndpoint, MessagingListene
 			connection.start();
 			logger.debug("connected to " + completeBrokerUrl);
 			
+			sessionPool = new SessionPool(connection, MAX_SEND_SESSIONS);
+			asyncSender = new AsyncMessageSender(sessionPool, ASYNC_SEND_THREADS, ASYNC_SEND_QUEUE_SIZE);
+			
 			// create admin topic
 			adminTopic = createTopic(Topics.Name.ADMIN_TOPIC, AccessMode.READ_WRITE); // endpoint reacts to requests from admin-topic
 			adminTopic.setListener(this);
@@ -260,27 +275,31 @@ public class JMSMessagingEndpoint implements MessagingEndpoint, MessagingListene
     }
 
 
-	/**
-	 * Not multithread safe.
-	 */
+    @Override
+	public void replyToMessageAsync(ChipsterMessage original, ChipsterMessage reply) {
+    	reply.setMultiplexChannel(DEFAULT_REPLY_CHANNEL);
+    	asyncSender.send(original.getReplyTo(), reply);
+    }
+
+    @Override
     public void sendMessageToClientReplyChannel(Destination replyToDest, ChipsterMessage message) throws JMSException {
 		message.setMultiplexChannel(DEFAULT_REPLY_CHANNEL);
 		sendMessage(replyToDest, message);
     }
 
+    /**
+     * Sends a message using a pooled session. Multithread safe.
+     */
+    @Override
+    public void sendMessage(Destination destination, ChipsterMessage message) throws JMSException {
+    	sessionPool.send(destination, message);
+    }
     
     /**
-	 * Not multithread safe.
-	 */
-    private void sendMessage(Destination replyToDest, ChipsterMessage message) throws JMSException {
-		Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
-    	try {
-			MapMessage mapMessage = session.createMapMessage();
-	    	message.marshal(mapMessage);
-	    	session.createProducer(replyToDest).send(mapMessage);
-    	} finally {
-    		session.close();
-    	}
+     * @return statistics of asynchronously sent messages
+     */
+    public AsyncMessageSender getAsyncSender() {
+    	return asyncSender;
     }
     
 	/**
@@ -305,6 +324,7 @@ public class JMSMessagingEndpoint implements MessagingEndpoint, MessagingListene
 					reply.addParameter(master.getName());
 					reply.addParameter(Long.toString(mMaster.countRequestsInProcessing()));
 					reply.addParameter(Long.toString(mMaster.getLastProcessingTime()));
+					reply.addParameter(asyncSender.getStatistics());
 					adminTopic.sendMessage(reply);
 					logger.debug("sent request-load-info-reply from " + master.getHost() + "/" + master.getName());
 				}
@@ -320,6 +340,8 @@ public class JMSMessagingEndpoint implements MessagingEndpoint, MessagingListene
 	 */
     @Override
 	public void close() throws JMSException {
+    	asyncSender.shutdown();
+    	sessionPool.close();
     	connection.stop();
     	connection.close();	
     }
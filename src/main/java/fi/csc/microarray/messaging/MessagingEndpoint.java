@@ -33,6 +33,19 @@ public interface MessagingEndpoint {
 	public abstract void replyToMessage(ChipsterMessage original,
 			ChipsterMessage reply, String replyChannel) throws JMSException;
 
+	/**
+	 * Sends the reply in the background. Failures are not reported, because replies to 
+	 * temporary topics fail routinely when the receiver has stopped listening.
+	 */
+	public abstract void replyToMessageAsync(ChipsterMessage original,
+			ChipsterMessage reply);
+
+	/**
+	 * Sends the message to the destination. Multithread safe.
+	 */
+	public abstract void sendMessage(Destination destination, 
+			ChipsterMessage message) throws JMSException;
+
 
 	/**
 	 * Closes endpoint and frees resources.
@@ -5,9 +5,7 @@
 package fi.csc.microarray.messaging;
 
 import javax.jms.JMSException;
-import javax.jms.MapMessage;
 import javax.jms.MessageConsumer;
-import javax.jms.MessageProducer;
 import javax.jms.Session;
 import javax.jms.TemporaryTopic;
 import javax.jms.Topic;
@@ -104,27 +102,14 @@ public class MessagingTopic {
 	
 	/**
 	 * The basic message sending method. Sends a message without reply possibility.
-	 * Not multithread safe.
+	 * Multithread safe, because the message is sent by the endpoint.
 	 */
 	public void sendMessage(ChipsterMessage message) throws JMSException {
 
 		// log
 		logger.debug("sending " + message);
 		
-		// marshal message to MapMessage
-		MapMessage mapMessage = session.createMapMessage();
-		message.marshal(mapMessage);
-		
-		MessageProducer producer = null;
-		try {
-			producer = session.createProducer(topic);
-			producer.send(mapMessage);
-		} finally {
-			try {
-				producer.close();
-			} catch (Exception e) {
-			}
-		}
+		endpoint.sendMessage(topic, message);
 	}
 
 	/**
@@ -0,0 +1,117 @@
+package fi.csc.microarray.messaging;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import javax.jms.Connection;
+import javax.jms.Destination;
+import javax.jms.InvalidDestinationException;
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.apache.log4j.Logger;
+
+import fi.csc.microarray.messaging.message.ChipsterMessage;
+
+/**
+ * Thread safe pool of JMS sessions for sending messages. JMS sessions must not be used by several
+ * threads at the same time, but creating a new session for every message is slow and loads the
+ * broker. Each pooled session has an anonymous producer, which can send to any destination.
+ *
+ * <p>At most maxSize sessions are created. When all of them are in use, senders wait until one is
+ * released.</p>
+ */
+public class SessionPool {
+
+	private static final Logger logger = Logger.getLogger(SessionPool.class);
+
+	private static class PooledSession {
+		Session session;
+		MessageProducer producer;
+	}
+
+	private Connection connection;
+	private Semaphore permits;
+	private LinkedBlockingQueue<PooledSession> idleSessions = new LinkedBlockingQueue<>();
+
+	public SessionPool(Connection connection, int maxSize) {
+		this.connection = connection;
+		this.permits = new Semaphore(maxSize, true);
+	}
+
+	/**
+	 * Marshals and sends the message.
+	 *
+	 * @throws JMSException if creating a session or sending fails
+	 */
+	public void send(Destination destination, ChipsterMessage message) throws JMSException {
+		PooledSession pooled = borrow();
+		boolean broken = true;
+		try {
+			MapMessage mapMessage = pooled.session.createMapMessage();
+			message.marshal(mapMessage);
+			pooled.producer.send(destination, mapMessage);
+			broken = false;
+
+		} catch (InvalidDestinationException e) {
+			// e.g. temporary topic has been deleted, session is still fine
+			broken = false;
+			throw e;
+
+		} finally {
+			release(pooled, broken);
+		}
+	}
+
+	private PooledSession borrow() throws JMSException {
+		permits.acquireUninterruptibly();
+
+		PooledSession pooled = idleSessions.poll();
+		if (pooled == null) {
+			try {
+				pooled = new PooledSession();
+				pooled.session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+				pooled.producer = pooled.session.createProducer(null);
+			} catch (JMSException | RuntimeException e) {
+				close(pooled);
+				permits.release();
+				throw e;
+			}
+		}
+		return pooled;
+	}
+
+	/**
+	 * @param broken close the session instead of returning it to the pool
+	 */
+	private void release(PooledSession pooled, boolean broken) {
+		if (broken) {
+			close(pooled);
+		} else {
+			idleSessions.offer(pooled);
+		}
+		permits.release();
+	}
+
+	private void close(PooledSession pooled) {
+		try {
+			if (pooled.session != null) {
+				pooled.session.close();
+			}
+		} catch (JMSException e) {
+			logger.debug("closing a session failed", e);
+		}
+	}
+
+	/**
+	 * Closes idle sessions. Sessions in use are closed when the connection is closed.
+	 */
+	public void close() {
+		PooledSession pooled;
+		while ((pooled = idleSessions.poll()) != null) {
+			close(pooled);
+		}
+	}
+}
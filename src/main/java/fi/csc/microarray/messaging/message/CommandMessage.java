@@ -26,6 +26,8 @@ public class CommandMessage extends ParameterMessage {
 
 	public final static String COMMAND_NEW_URL_REQUEST ="new-url-request";
 	public final static String COMMAND_GET_URL ="get-url";
+	public final static String COMMAND_NEW_URLS_REQUEST ="new-urls-request";
+	public final static String COMMAND_GET_URLS ="get-urls";
 
 	@Deprecated
 	public final static String COMMAND_PUBLIC_URL_REQUEST ="public-url-request";
@@ -34,6 +36,7 @@ public class CommandMessage extends ParameterMessage {
 
 	public static final String COMMAND_MOVE_FROM_CACHE_TO_STORAGE = "move-from-cache-to-storage";
 	public static final String COMMAND_IS_AVAILABLE = "is-available";
+	public static final String COMMAND_ARE_AVAILABLE = "are-available";
 	public static final String COMMAND_STORE_SESSION = "store-session";
 	public static final String COMMAND_REMOVE_SESSION = "remove-session";
 	public static final String COMMAND_LIST_SESSIONS = "list-sessions";
@@ -28,6 +28,7 @@ public class ModuleDescriptionMessage extends ChipsterMessage {
     
     public Document moduleXml;
     private String moduleName;
+    private String moduleXmlString;
     private List<Category> categories = new LinkedList<Category>();
     
     /**
@@ -50,6 +51,16 @@ public class ModuleDescriptionMessage extends ChipsterMessage {
     	}
     }
     
+    /**
+     * Message with an already serialised module XML, so that the same
+     * description can be sent many times without building the XML again. 
+     * Only for sending, the XML is not parsed.
+     */
+    public ModuleDescriptionMessage(String moduleName, String moduleXmlString) {
+        setModuleName(moduleName);
+        this.moduleXmlString = moduleXmlString;
+    }
+    
     private void setModuleName(String moduleName) {
         this.moduleName = moduleName;
     }
@@ -58,6 +69,16 @@ public class ModuleDescriptionMessage extends ChipsterMessage {
         return this.moduleName;
     }
     
+    /**
+     * @return the module XML as a string
+     */
+    public String getModuleXmlString() {
+        if (moduleXmlString != null) {
+            return moduleXmlString;
+        }
+        return XmlUtil.xmlToString(moduleXml);
+    }
+    
     public void addConfString(String configuration) {
         // TODO ADD to XML
     }
@@ -121,7 +142,7 @@ public class ModuleDescriptionMessage extends ChipsterMessage {
     public void marshal(MapMessage to) throws JMSException {
         super.marshal(to);
         to.setStringProperty(KEY_MODULE_NAME, this.getModuleName());
-        to.setString(KEY_MODULE, XmlUtil.xmlToString(moduleXml));
+        to.setString(KEY_MODULE, getModuleXmlString());
     }
     
     /**
@@ -52,14 +52,21 @@ public abstract class ParameterMessage extends ChipsterMessage {
 	public static final String PARAMETER_SESSION_NAME_LIST = "session-name-list";
 	public static final String PARAMETER_SESSION_UUID_LIST = "session-uuid-list";
 	public static final String PARAMETER_FILE_ID_LIST = "file-id-list";	
+	public static final String PARAMETER_REMOVED_FILE_ID_LIST = "removed-file-id-list";
+	public static final String PARAMETER_PREVIOUS_SESSION_UUID = "previous-session-uuid";
 	public static final String PARAMETER_USERNAME_LIST = "username-list";
 	public static final String PARAMETER_SIZE_LIST = "size-list";
 	public static final String PARAMETER_DATE_LIST = "date-list";
+	public static final String PARAMETER_URL_LIST = "url-list";
+	public static final String PARAMETER_CHECKSUM_LIST = "checksum-list";
+	public static final String PARAMETER_ERROR = "error";
 	public static final String PARAMETER_STATUS_REPORT = "status-report";
 	public static final String PARAMETER_HOST = "host";
 	public static final String PARAMETER_JSON = "json";
 	public static final String PARAMETER_QUOTA = "quota";
 	public static final String PARAMETER_QUOTA_WARNING = "quota-warning";
+	public static final String PARAMETER_FREE_CPU = "free-cpu";
+	public static final String PARAMETER_FREE_MEMORY = "free-memory";
 	
 	private List<String> parameters = new LinkedList<String>();
 	private HashMap<String, String> namedParameters = new HashMap<String, String>();
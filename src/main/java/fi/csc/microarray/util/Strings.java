@@ -1,15 +1,27 @@
 package fi.csc.microarray.util;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.StringTokenizer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.bind.DatatypeConverter;
 
 import org.apache.commons.lang3.StringUtils;
 
 public class Strings {
+	
+	private static final String COMPRESSED_PREFIX = "gzip-base64:";
 		
 	/**
 	 * Combines strings into one string by placing a delimeter between them.
@@ -301,4 +313,32 @@ public class Strings {
 			return str.split(regex);
 		}
 	}
+
+	/**
+	 * Compresses a string with gzip and encodes it with base64, so that it can be stored
+	 * in a text column. The result is marked with a prefix to recognize it in
+	 * {@link #decompress(String)}.
+	 */
+	public static String compress(String str) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(bytes), StandardCharsets.UTF_8)) {
+			writer.write(str);
+		}
+		return COMPRESSED_PREFIX + DatatypeConverter.printBase64Binary(bytes.toByteArray());
+	}
+
+	/**
+	 * Reverses {@link #compress(String)}. Strings that aren't compressed are returned as
+	 * such, so this can be used for all values of a column where only some values are
+	 * compressed.
+	 */
+	public static String decompress(String str) throws IOException {
+		if (str == null || !str.startsWith(COMPRESSED_PREFIX)) {
+			return str;
+		}
+		byte[] bytes = DatatypeConverter.parseBase64Binary(str.substring(COMPRESSED_PREFIX.length()));
+		try (InputStreamReader reader = new InputStreamReader(new GZIPInputStream(new ByteArrayInputStream(bytes)), StandardCharsets.UTF_8)) {
+			return org.apache.commons.io.IOUtils.toString(reader);
+		}
+	}
 }
@@ -5,13 +5,23 @@ import java.io.FileOutputStream;
 import java.util.LinkedList;
 import java.util.List;
 
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Chromosome;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Feature;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.util.BedChromosomeReader;
 import fi.csc.microarray.client.visualisation.methods.gbrowser.util.RegionOperations;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.util.UnsortedDataException;
 import fi.csc.microarray.comp.java.JavaCompJobBase;
 import fi.csc.microarray.messaging.JobState;
 import fi.csc.microarray.util.Exceptions;
 import fi.csc.microarray.util.IOUtils;
 
+/**
+ * Base class for tools that operate on BED region files. Subclasses implement the operation 
+ * on lists of regions. Regions are never paired across chromosomes, so when inputs are sorted 
+ * (e.g. with SortBed) they are processed one chromosome at a time and the result is written 
+ * incrementally. Only regions of the current chromosome are kept in memory. Unsorted inputs are 
+ * loaded completely into memory.
+ */
 public abstract class RegionTool extends JavaCompJobBase {
 
 	protected abstract LinkedList<Feature> operate(LinkedList<List<Feature>> inputs, List<String> parameters) throws Exception;
@@ -21,29 +31,15 @@ public abstract class RegionTool extends JavaCompJobBase {
 		try {
 			updateStateToClient(JobState.RUNNING, "preprocessing");
 
-			// Parse inputs
-			RegionOperations tool = new RegionOperations();
-			LinkedList<List<Feature>> inputs = new LinkedList<List<Feature>>();
-			for (int i = 0; i < toolDescription.getInputFiles().size(); i++) {
-				File inputFile = new File(jobWorkDir, toolDescription.getInputFiles().get(i).getFileName());
-				inputs.add(tool.loadFile(inputFile));
-			}
-
-			// Delegate actual processing to subclasses
 			List<String> parameters = inputMessage.getParameters(JAVA_PARAMETER_SECURITY_POLICY, toolDescription);
-			LinkedList<Feature> output = operate(inputs, parameters);
+			File outputFile = new File(jobWorkDir, toolDescription.getOutputFiles().get(0).getFileName().getID());
 			
-			// Sort result
-			new RegionOperations().sort(output);
-			
-			// Write output
-			FileOutputStream outputStream = null;
 			try {
-				outputStream = new FileOutputStream(new File(jobWorkDir, toolDescription.getOutputFiles().get(0).getFileName().getID())); 
-				tool.print(output, outputStream);
-
-			} finally {
-				IOUtils.closeIfPossible(outputStream);
+				executeStreaming(parameters, outputFile);
+				
+			} catch (UnsortedDataException e) {
+				// Partial output is overwritten
+				executeInMemory(parameters, outputFile);
 			}
 			
 		} catch (Exception e) {
@@ -53,7 +49,95 @@ public abstract class RegionTool extends JavaCompJobBase {
 		}
 		updateStateToClient(JobState.RUNNING, "preprocessing finished");
 	}
-	
 
+	/**
+	 * Processes sorted inputs chromosome by chromosome.
+	 * 
+	 * @throws UnsortedDataException if some of the inputs is not sorted
+	 */
+	private void executeStreaming(List<String> parameters, File outputFile) throws Exception {
+		
+		RegionOperations tool = new RegionOperations();
+		LinkedList<BedChromosomeReader> readers = new LinkedList<BedChromosomeReader>();
+		FileOutputStream outputStream = null;
+		
+		try {
+			for (File inputFile : getInputFiles()) {
+				readers.add(new BedChromosomeReader(inputFile));
+			}
+			outputStream = new FileOutputStream(outputFile);
+			
+			Chromosome chr;
+			while ((chr = getNextChromosome(readers)) != null) {
+				
+				// Read the chromosome from inputs that have it, others get an empty list
+				LinkedList<List<Feature>> inputs = new LinkedList<List<Feature>>();
+				for (BedChromosomeReader reader : readers) {
+					if (chr.equals(reader.peekChromosome())) {
+						inputs.add(reader.readChromosome());
+					} else {
+						inputs.add(new LinkedList<Feature>());
+					}
+				}
+				
+				LinkedList<Feature> output = operate(inputs, parameters);
+				tool.sort(output);
+				tool.print(output, outputStream);
+			}
+			
+		} finally {
+			for (BedChromosomeReader reader : readers) {
+				reader.close();
+			}
+			IOUtils.closeIfPossible(outputStream);
+		}
+	}
+
+	private void executeInMemory(List<String> parameters, File outputFile) throws Exception {
+		
+		// Parse inputs
+		RegionOperations tool = new RegionOperations();
+		LinkedList<List<Feature>> inputs = new LinkedList<List<Feature>>();
+		for (File inputFile : getInputFiles()) {
+			inputs.add(tool.loadFile(inputFile));
+		}
+
+		// Delegate actual processing to subclasses
+		LinkedList<Feature> output = operate(inputs, parameters);
+
+		// Sort result
+		tool.sort(output);
 
+		// Write output
+		FileOutputStream outputStream = null;
+		try {
+			outputStream = new FileOutputStream(outputFile); 
+			tool.print(output, outputStream);
+
+		} finally {
+			IOUtils.closeIfPossible(outputStream);
+		}
+	}
+
+	private List<File> getInputFiles() {
+		LinkedList<File> files = new LinkedList<File>();
+		for (int i = 0; i < toolDescription.getInputFiles().size(); i++) {
+			files.add(new File(jobWorkDir, toolDescription.getInputFiles().get(i).getFileName()));
+		}
+		return files;
+	}
+
+	/**
+	 * @return the smallest chromosome that some of the readers has left or null, if all are finished
+	 */
+	private Chromosome getNextChromosome(List<BedChromosomeReader> readers) {
+		Chromosome next = null;
+		for (BedChromosomeReader reader : readers) {
+			Chromosome chr = reader.peekChromosome();
+			if (chr != null && (next == null || chr.compareTo(next) < 0)) {
+				next = chr;
+			}
+		}
+		return next;
+	}
 }
@@ -7,6 +7,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
@@ -17,13 +18,8 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeMap;
 
-import org.hibernate.Criteria;
+import org.hibernate.SQLQuery;
 import org.hibernate.Session;
-import org.hibernate.criterion.Order;
-import org.hibernate.criterion.ProjectionList;
-import org.hibernate.criterion.Projections;
-import org.hibernate.criterion.Restrictions;
-import org.hibernate.transform.Transformers;
 import org.springframework.core.io.ClassPathResource;
 
 import com.vaadin.server.FileResource;
@@ -43,87 +39,60 @@ public class StatDataSource {
 	
 	private TestAccountFilter testAccountFilter = new TestAccountFilter();
 
-	@SuppressWarnings("rawtypes")
-	public List<Map<Object, Object>> getTopUsers(Session session, boolean ignoreTestAccounts) {
-
-		//Start one year ago
-		Calendar fromDate = new GregorianCalendar();
+	/**
+	 * Job counts are read from the daily job_stats table that the manager updates, instead of
+	 * going through all the rows of the jobs table.
+	 */
+	private static final String STATS_TABLE = "job_stats";
 
-		fromDate.set(Calendar.YEAR, fromDate.get(Calendar.YEAR) - 1);
-
-		Criteria criteria = session.createCriteria(JobLogEntry.class);		
-		testAccountFilter.addCriteriaForTestAccounts(session, ignoreTestAccounts, criteria);
+	public List<Map<Object, Object>> getTopUsers(Session session, boolean ignoreTestAccounts) {
 
-		criteria.add(Restrictions.ge(JobLogContainer.START_TIME, fromDate.getTime()));
-		criteria.setProjection( Projections.projectionList()
-				.add(Projections.rowCount(), ROW_COUNT)
-				.add(Projections.groupProperty(JobLogContainer.USERNAME), JobLogContainer.USERNAME)		        
-				);
-		criteria.addOrder(Order.desc(ROW_COUNT));
-		criteria.setMaxResults(1000);
-		criteria.setResultTransformer(Transformers.ALIAS_TO_ENTITY_MAP);
+		List<Object[]> rows = queryStats(session, ignoreTestAccounts, 
+				"NULLIF(username, ''), SUM(jobCount)", getOneYearAgo(), "username", "2 DESC", 1000);
 
-		@SuppressWarnings("unchecked") 		
-		List<Map> results = criteria.list();
+		List<Map<Object, Object>> results = new LinkedList<Map<Object, Object>>();
+		for (Object[] row : rows) {
+			Map<Object, Object> map = new HashMap<Object, Object>();
+			map.put(JobLogContainer.USERNAME, row[0]);
+			map.put(ROW_COUNT, toLong(row[1]));
+			results.add(map);
+		}
 
 		//Create one empty row to carry the table column names, if the result was empty
-		if (results == null || results.size() == 0) {	
-			HashMap<String, Object> map = new HashMap<String, Object>();
+		if (results.size() == 0) {	
+			HashMap<Object, Object> map = new HashMap<Object, Object>();
 			map.put(JobLogContainer.USERNAME, null);
 			map.put(ROW_COUNT, null);
-			results = new LinkedList<Map>();
 			results.add(map);
 		}
 
-		return typedMap(results);
+		return results;
 	}
 
 	public Object[] getTopUsersColumnOrder() {
 		return new Object[] { JobLogContainer.USERNAME, ROW_COUNT };
 	}
 
-	@SuppressWarnings("rawtypes")
-	private Map getJobDateRange(Session session, boolean ignoreTestAccounts) {
-		//Get min and max values of dates
-		Criteria rangeCriteria = session.createCriteria(JobLogEntry.class);
-		testAccountFilter.addCriteriaForTestAccounts(session, ignoreTestAccounts, rangeCriteria);
-		ProjectionList projections = Projections.projectionList();
-		projections.add(Projections.min(JobLogContainer.START_TIME), "min");
-		projections.add(Projections.max(JobLogContainer.START_TIME), "max");
-		rangeCriteria.setProjection(projections);
-		rangeCriteria.setResultTransformer(Transformers.ALIAS_TO_ENTITY_MAP);
-
-		@SuppressWarnings("unchecked")
-		List<Map> rangeList = rangeCriteria.list();
-
-		return rangeList.get(0);
-	}
-
 	public List<Map<Object, Object>> getMonthlyStats(Session session, boolean ignoreTestAccounts) {
 
+		List<Object[]> rows = queryStats(session, ignoreTestAccounts, 
+				"YEAR(day), MONTH(day), COUNT(DISTINCT NULLIF(username, '')), SUM(jobCount)", null, "YEAR(day), MONTH(day)", "1, 2", 0);
 
-		@SuppressWarnings("rawtypes")
-		Map rangeMap = getJobDateRange(session, ignoreTestAccounts);
-
-		Date min = (Date) rangeMap.get("min");
-		Date max = (Date) rangeMap.get("max");
-		
 		List<Map<Object, Object>> results = new LinkedList<Map<Object, Object>>();
 		
-		if (min != null || max != null) {
+		if (!rows.isEmpty()) {
 			
-			Calendar minDate = new GregorianCalendar();
-			Calendar maxDate = new GregorianCalendar();
-			minDate.setTime(min);
-			maxDate.setTime(max);
-
-
-			int minYear = minDate.get(Calendar.YEAR);
-			int maxYear = maxDate.get(Calendar.YEAR);
-			int minMonth = minDate.get(Calendar.MONTH) + 1;
-			int maxMonth = maxDate.get(Calendar.MONTH) + 1;
+			Map<List<Integer>, Object[]> rowMap = new HashMap<List<Integer>, Object[]>();
+			for (Object[] row : rows) {
+				rowMap.put(Arrays.asList(toInt(row[0]), toInt(row[1])), row);
+			}
 
+			int minYear = toInt(rows.get(0)[0]);
+			int maxYear = toInt(rows.get(rows.size() - 1)[0]);
+			int minMonth = toInt(rows.get(0)[1]);
+			int maxMonth = toInt(rows.get(rows.size() - 1)[1]);
 
+			// include the months without jobs
 			for (int year = minYear; year <= maxYear; year++) {
 
 				int month;
@@ -140,33 +109,13 @@ public class StatDataSource {
 						break;
 					}
 
-					Calendar startDate = new GregorianCalendar();
-					startDate.set(year, month - 1, 1, 0, 0, 0);
-
-					Calendar endDate = (Calendar) startDate.clone();        		
-					endDate.add(Calendar.MONTH, 1);
-
-					Criteria criteria = session.createCriteria(JobLogEntry.class);		
-					testAccountFilter.addCriteriaForTestAccounts(session, ignoreTestAccounts, criteria);
-
-					criteria.add(Restrictions.ge(JobLogContainer.START_TIME, startDate.getTime()));
-					criteria.add(Restrictions.lt(JobLogContainer.START_TIME, endDate.getTime()));
-
-					criteria.setProjection( Projections.projectionList()
-							.add(Projections.rowCount(), JOB_COUNT)
-							.add(Projections.countDistinct(JobLogContainer.USERNAME), UNIQUE_USERS)
-							);
-					criteria.setResultTransformer(Transformers.ALIAS_TO_ENTITY_MAP);        	
-
-
-					@SuppressWarnings({ "rawtypes", "unchecked" })
-					List<Map> resultList = criteria.list();
-
-					@SuppressWarnings("unchecked")
-					Map<Object, Object> resultMap = resultList.get(0);
+					Object[] row = rowMap.get(Arrays.asList(year, month));
 
+					Map<Object, Object> resultMap = new HashMap<Object, Object>();
 					resultMap.put(YEAR, year);
 					resultMap.put(MONTH, month);
+					resultMap.put(UNIQUE_USERS, row != null ? toLong(row[2]) : 0l);
+					resultMap.put(JOB_COUNT, row != null ? toLong(row[3]) : 0l);
 
 					results.add(resultMap);
 
@@ -195,51 +144,29 @@ public class StatDataSource {
 
 	public List<Map<Object, Object>> getYearlyStats(Session session, boolean ignoreTestAccounts) {
 
-		@SuppressWarnings("rawtypes")
-		Map rangeMap = getJobDateRange(session, ignoreTestAccounts);
-
-		Calendar minDate = new GregorianCalendar();
-		Calendar maxDate = new GregorianCalendar();
-		
-		Date min = (Date) rangeMap.get("min");
-		Date max = (Date) rangeMap.get("max");
+		List<Object[]> rows = queryStats(session, ignoreTestAccounts, 
+				"YEAR(day), COUNT(DISTINCT NULLIF(username, '')), SUM(jobCount)", null, "YEAR(day)", "1", 0);
 		
 		List<Map<Object, Object>> results = new LinkedList<Map<Object, Object>>();
 		
-		if (min != null || max != null) {
+		if (!rows.isEmpty()) {
 			
-			minDate.setTime(min);
-			maxDate.setTime(max);
+			Map<Integer, Object[]> rowMap = new HashMap<Integer, Object[]>();
+			for (Object[] row : rows) {
+				rowMap.put(toInt(row[0]), row);
+			}
 
-			int minYear = minDate.get(Calendar.YEAR);
-			int maxYear = maxDate.get(Calendar.YEAR);
+			int minYear = toInt(rows.get(0)[0]);
+			int maxYear = toInt(rows.get(rows.size() - 1)[0]);
 
 			for (int year = minYear; year <= maxYear; year++) {
 
-				Calendar startDate = new GregorianCalendar();
-				startDate.set(year, 0, 1, 0, 0, 0);
-
-				Calendar endDate = (Calendar) startDate.clone();        		
-				endDate.add(Calendar.YEAR, 1);
-
-				Criteria criteria = session.createCriteria(JobLogEntry.class);		
-				testAccountFilter.addCriteriaForTestAccounts(session, ignoreTestAccounts, criteria);
-
-				criteria.add(Restrictions.ge(JobLogContainer.START_TIME, startDate.getTime()));
-				criteria.add(Restrictions.lt(JobLogContainer.START_TIME, endDate.getTime()));
-
-				criteria.setProjection( Projections.projectionList()
-						.add(Projections.rowCount(), JOB_COUNT)
-						.add(Projections.countDistinct(JobLogContainer.USERNAME), UNIQUE_USERS)
-						);
-				criteria.setResultTransformer(Transformers.ALIAS_TO_ENTITY_MAP);        	
+				Object[] row = rowMap.get(year);
 
-				@SuppressWarnings({ "rawtypes", "unchecked" })
-				List<Map> resultList = criteria.list();
-
-				@SuppressWarnings("unchecked")
-				Map<Object, Object> resultMap = resultList.get(0);				
+				Map<Object, Object> resultMap = new HashMap<Object, Object>();
 				resultMap.put(YEAR, year);
+				resultMap.put(UNIQUE_USERS, row != null ? toLong(row[1]) : 0l);
+				resultMap.put(JOB_COUNT, row != null ? toLong(row[2]) : 0l);
 				results.add(resultMap);
 			}
 		} else {
@@ -259,136 +186,70 @@ public class StatDataSource {
 		return new Object[] { YEAR, UNIQUE_USERS, JOB_COUNT };
 	}
 
-	@SuppressWarnings("rawtypes")
 	public List<Map<Object, Object>> getToolFails(Session session, boolean ignoreTestAccounts) {
-		//Start one year ago
-		Calendar fromDate = new GregorianCalendar();
-		fromDate.set(Calendar.YEAR, fromDate.get(Calendar.YEAR) - 1);
 
-		Criteria criteria = session.createCriteria(JobLogEntry.class);
-		testAccountFilter.addCriteriaForTestAccounts(session, ignoreTestAccounts, criteria);
-
-		@SuppressWarnings({"unchecked" })
-		List<Map> results = criteria
-		.add(Restrictions.ge(JobLogContainer.START_TIME, fromDate.getTime()))
-		.add(Restrictions.eq(JobLogContainer.STATUS, JobLogContainer.STATUS_FAIL_VALUE))
-		.setProjection( Projections.projectionList()
-				.add(Projections.rowCount(), ROW_COUNT)
-				.add(Projections.groupProperty(JobLogContainer.OPERATION), JobLogContainer.OPERATION)		        
-				)
-				.addOrder(Order.desc(ROW_COUNT))
-				//.setMaxResults(10)
-				.setResultTransformer(Transformers.ALIAS_TO_ENTITY_MAP)
-				.list();
+		List<Object[]> rows = queryStats(session, ignoreTestAccounts, 
+				"NULLIF(operation, ''), SUM(failCount)", getOneYearAgo(), "operation HAVING SUM(failCount) > 0", "2 DESC", 0);
 
-		//Create one empty row to carry the table column names, if the result was empty
-		if (results == null || results.size() == 0) {	
-			HashMap<String, Object> map = new HashMap<String, Object>();
-			map.put(JobLogContainer.OPERATION, null);
-			map.put(ROW_COUNT, null);
-			results = new LinkedList<Map>();
-			results.add(map);
-		}
-
-		return typedMap(results);
+		return getToolCounts(rows);
 	}
 
 	public Object[] getToolFailsColumnOrder() {
 		return new Object[] { JobLogContainer.OPERATION, ROW_COUNT };
 	}
 	
-	@SuppressWarnings("rawtypes")
 	public List<Map<Object, Object>> getToolUsage(Session session, boolean ignoreTestAccounts) {
-		//Start one year ago
-		Calendar fromDate = new GregorianCalendar();
-		fromDate.set(Calendar.YEAR, fromDate.get(Calendar.YEAR) - 1);
 
-		Criteria criteria = session.createCriteria(JobLogEntry.class);
-		testAccountFilter.addCriteriaForTestAccounts(session, ignoreTestAccounts, criteria);
+		List<Object[]> rows = queryStats(session, ignoreTestAccounts, 
+				"NULLIF(operation, ''), SUM(jobCount)", getOneYearAgo(), "operation", "2 DESC", 0);
 
-		@SuppressWarnings({"unchecked" })
-		List<Map> results = criteria
-		.add(Restrictions.ge(JobLogContainer.START_TIME, fromDate.getTime()))
-		.setProjection( Projections.projectionList()
-				.add(Projections.rowCount(), ROW_COUNT)
-				.add(Projections.groupProperty(JobLogContainer.OPERATION), JobLogContainer.OPERATION)		        
-				)
-				.addOrder(Order.desc(ROW_COUNT))
-				.setResultTransformer(Transformers.ALIAS_TO_ENTITY_MAP)
-				.list();
+		return getToolCounts(rows);
+	}
+
+	public Object[] getToolUsageColumnOrder() {
+		return new Object[] { JobLogContainer.OPERATION, ROW_COUNT };
+	}
+	
+	private List<Map<Object, Object>> getToolCounts(List<Object[]> rows) {
+
+		List<Map<Object, Object>> results = new LinkedList<Map<Object, Object>>();
+		for (Object[] row : rows) {
+			Map<Object, Object> map = new HashMap<Object, Object>();
+			map.put(JobLogContainer.OPERATION, row[0]);
+			map.put(ROW_COUNT, toLong(row[1]));
+			results.add(map);
+		}
 
 		//Create one empty row to carry the table column names, if the result was empty
-		if (results == null || results.size() == 0) {	
-			HashMap<String, Object> map = new HashMap<String, Object>();
+		if (results.size() == 0) {	
+			HashMap<Object, Object> map = new HashMap<Object, Object>();
 			map.put(JobLogContainer.OPERATION, null);
 			map.put(ROW_COUNT, null);
-			results = new LinkedList<Map>();
 			results.add(map);
 		}
 
-		return typedMap(results);
+		return results;
 	}
 
-	public Object[] getToolUsageColumnOrder() {
-		return new Object[] { JobLogContainer.OPERATION, ROW_COUNT };
-	}
-	
 	public List<Map<Object, Object>> getModuleUsage(Session session, boolean ignoreTestAccounts) {
 
-		//Get date of first and last job
-		@SuppressWarnings("rawtypes")
-		Map rangeMap = getJobDateRange(session, ignoreTestAccounts);
-
-		Calendar minDate = new GregorianCalendar();
-		Calendar maxDate = new GregorianCalendar();
-		
-		Date min = (Date) rangeMap.get("min");
-		Date max = (Date) rangeMap.get("max");
+		//Get a yearly job count for each tool 		
+		List<Object[]> rows = queryStats(session, ignoreTestAccounts, 
+				"YEAR(day), NULLIF(operation, ''), SUM(jobCount)", null, "YEAR(day), operation", "1", 0);
 		
 		List<Map<Object, Object>> moduleResults = new LinkedList<Map<Object, Object>>();	
 		
-		if (min != null || max != null) {
+		if (!rows.isEmpty()) {
 			
-			minDate.setTime(min);
-			maxDate.setTime(max);
-		
-			int minYear = minDate.get(Calendar.YEAR);
-			int maxYear = maxDate.get(Calendar.YEAR);
-
 			List<Map<Object, Object>> results = new LinkedList<Map<Object, Object>>();
 			
-			//Get a yearly job count for each tool 		
-			for (int year = minYear; year <= maxYear; year++) {
-
-				Calendar startDate = new GregorianCalendar();
-				startDate.set(year, 0, 1, 0, 0, 0);
-
-				Calendar endDate = (Calendar) startDate.clone();        		
-				endDate.add(Calendar.YEAR, 1);
-
-				Criteria criteria = session.createCriteria(JobLogEntry.class);		
-				testAccountFilter.addCriteriaForTestAccounts(session, ignoreTestAccounts, criteria);
-
-				criteria.add(Restrictions.ge(JobLogContainer.START_TIME, startDate.getTime()));
-				criteria.add(Restrictions.lt(JobLogContainer.START_TIME, endDate.getTime()));
-
-				criteria.setProjection( Projections.projectionList()
-						.add(Projections.rowCount(), ROW_COUNT)
-						.add(Projections.groupProperty(JobLogContainer.OPERATION), JobLogContainer.OPERATION)		        
-						);
-
-				criteria.setResultTransformer(Transformers.ALIAS_TO_ENTITY_MAP);        	
-
-				@SuppressWarnings({ "rawtypes", "unchecked" })
-				List<Map> resultList = criteria.list();
-
-				for (@SuppressWarnings("rawtypes") Map item : resultList) {
-					@SuppressWarnings("unchecked")
-					Map<Object, Object> toolCount = item;
-					toolCount.put(YEAR, year);
-					results.add(toolCount);
-				}
-			}	
+			for (Object[] row : rows) {
+				Map<Object, Object> toolCount = new HashMap<Object, Object>();
+				toolCount.put(YEAR, toInt(row[0]));
+				toolCount.put(JobLogContainer.OPERATION, row[1]);
+				toolCount.put(ROW_COUNT, toLong(row[2]));
+				results.add(toolCount);
+			}
 
 			String microarray = null;
 			String ngs = null;
@@ -511,16 +372,55 @@ public class StatDataSource {
 	}
 	
 
-	@SuppressWarnings({ "unchecked", "rawtypes" })
-	private List<Map<Object, Object>> typedMap(List<Map> rawtype) {
-
-		List<Map<Object, Object>> typed = new LinkedList<Map<Object, Object>>();
+	/**
+	 * Query the job_stats table.
+	 * 
+	 * @param fromDate only days after this, or null for all
+	 * @param groupBy columns for GROUP BY clause
+	 * @param orderBy columns for ORDER BY clause
+	 * @param maxResults maximum number of rows, or 0 for all
+	 */
+	private List<Object[]> queryStats(Session session, boolean ignoreTestAccounts, String select, Date fromDate, String groupBy, String orderBy, int maxResults) {
+
+		List<String> testAccounts = testAccountFilter.getIgnoredAccounts(session, ignoreTestAccounts);
+
+		String sql = "SELECT " + select + " FROM " + STATS_TABLE + " WHERE 1=1";
+		if (fromDate != null) {
+			sql += " AND day >= :fromDate";
+		}
+		if (!testAccounts.isEmpty()) {
+			sql += " AND username NOT IN (:testAccounts)";
+		}
+		sql += " GROUP BY " + groupBy + " ORDER BY " + orderBy;
 
-		for (Map rawItem : rawtype) {			
-			typed.add(rawItem);
+		SQLQuery query = session.createSQLQuery(sql);
+		if (fromDate != null) {
+			query.setDate("fromDate", fromDate);
 		}
+		if (!testAccounts.isEmpty()) {
+			query.setParameterList("testAccounts", testAccounts);
+		}
+		if (maxResults > 0) {
+			query.setMaxResults(maxResults);
+		}
+
+		@SuppressWarnings("unchecked")
+		List<Object[]> rows = query.list();
+		return rows;
+	}
+
+	private Date getOneYearAgo() {
+		Calendar fromDate = new GregorianCalendar();
+		fromDate.set(Calendar.YEAR, fromDate.get(Calendar.YEAR) - 1);
+		return fromDate.getTime();
+	}
+
+	private Long toLong(Object number) {
+		return number != null ? ((Number) number).longValue() : 0l;
+	}
 
-		return typed;
+	private int toInt(Object number) {
+		return ((Number) number).intValue();
 	}
 
 	private String readFile(File file) throws IOException {
@@ -29,6 +29,16 @@ public class TestAccountFilter {
 		return testAccounts;
 	}
 
+	/**
+	 * @return test accounts, or an empty list if test accounts aren't ignored
+	 */
+	public List<String> getIgnoredAccounts(Session session, boolean ignoreTestAccounts) {
+		if (ignoreTestAccounts) {
+			return getTestAccounts(session);
+		}
+		return new LinkedList<String>();
+	}
+
 	public void addCriteriaForTestAccounts(Session session,
 			boolean ignoreTestAccounts, Criteria criteria) {
 
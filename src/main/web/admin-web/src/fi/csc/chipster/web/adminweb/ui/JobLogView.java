@@ -1,5 +1,6 @@
 package fi.csc.chipster.web.adminweb.ui;
 
+import java.io.IOException;
 import java.util.LinkedList;
 
 import org.apache.log4j.Logger;
@@ -23,6 +24,7 @@ import com.vaadin.ui.Window;
 import fi.csc.chipster.web.adminweb.ChipsterAdminUI;
 import fi.csc.chipster.web.adminweb.data.DateContainerFilter;
 import fi.csc.chipster.web.adminweb.data.JobLogContainer;
+import fi.csc.microarray.util.Strings;
 
 public class JobLogView extends VerticalLayout implements ClickListener  {
 	
@@ -194,7 +196,13 @@ public class JobLogView extends VerticalLayout implements ClickListener  {
 		Property<?> outputProperty = dataSource.getContainerProperty(itemId, JobLogContainer.OUTPUT_TEXT);
 		
 		if (outputProperty != null) {
-			output = (String) outputProperty.getValue();
+			// long outputs may be stored compressed
+			try {
+				output = Strings.decompress((String) outputProperty.getValue());
+			} catch (IOException e) {
+				logger.error("unable to decompress job output", e);
+				output = "unable to decompress job output";
+			}
 		}
 		
 		showTextWindow("Job output", output);
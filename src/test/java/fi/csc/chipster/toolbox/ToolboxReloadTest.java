@@ -0,0 +1,86 @@
+package fi.csc.chipster.toolbox;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ToolboxReloadTest {
+
+	private File modulesDir;
+	private File moduleDir;
+
+	@Before
+	public void init() throws IOException {
+		modulesDir = File.createTempFile("toolbox-reload-test", "");
+		modulesDir.delete();
+		moduleDir = new File(modulesDir, "test");
+		new File(moduleDir, "R").mkdirs();
+		writeModule("tool1.R");
+		writeTool("tool1.R", "First tool");
+	}
+
+	@After
+	public void clean() throws IOException {
+		FileUtils.deleteDirectory(modulesDir);
+	}
+
+	@Test
+	public void testReload() throws Exception {
+		Toolbox toolbox = new Toolbox(modulesDir);
+		Assert.assertNotNull(toolbox.getTool("tool1.R"));
+		Assert.assertNotNull(toolbox.getModule("test"));
+		Assert.assertEquals(1, toolbox.getModuleDescriptions().size());
+		Assert.assertNotSame(toolbox.getModuleDescriptions().get(0), toolbox.getModuleDescriptions().get(0));
+
+		writeTool("tool2.R", "Second tool");
+		writeModule("tool1.R", "tool2.R");
+		toolbox.reload();
+		Assert.assertNotNull(toolbox.getTool("tool2.R"));
+		Assert.assertTrue(toolbox.getModuleDescriptions().get(0).getModuleXmlString().contains("Second tool"));
+
+		// a broken module file doesn't remove the tools
+		FileUtils.writeStringToFile(new File(moduleDir, "test-module.xml"), "<module");
+		toolbox.reload();
+		Assert.assertNotNull(toolbox.getTool("tool2.R"));
+	}
+
+	@Test
+	public void testWatch() throws Exception {
+		Toolbox toolbox = new Toolbox(modulesDir);
+		toolbox.startWatching();
+		try {
+			writeTool("tool2.R", "Second tool");
+			writeModule("tool1.R", "tool2.R");
+
+			long timeout = System.currentTimeMillis() + 20 * 1000;
+			while (toolbox.getTool("tool2.R") == null && System.currentTimeMillis() < timeout) {
+				Thread.sleep(100);
+			}
+			Assert.assertNotNull(toolbox.getTool("tool2.R"));
+		} finally {
+			toolbox.close();
+		}
+	}
+
+	private void writeModule(String... tools) throws IOException {
+		StringBuilder xml = new StringBuilder("<module name=\"test\"><category name=\"Test\" color=\"#d5c796\">");
+		for (String tool : tools) {
+			xml.append("<tool runtime=\"R\"><resource>" + tool + "</resource></tool>");
+		}
+		xml.append("</category></module>");
+		FileUtils.writeStringToFile(new File(moduleDir, "test-module.xml"), xml.toString());
+	}
+
+	private void writeTool(String id, String name) throws IOException {
+		FileUtils.writeStringToFile(new File(moduleDir, "R" + File.separator + id), 
+				"# TOOL " + id + ": \"" + name + "\" (Test tool.)\n" +
+				"# OUTPUT output.txt\n" +
+				"\n" +
+				"write(1, \"output.txt\")\n");
+	}
+}
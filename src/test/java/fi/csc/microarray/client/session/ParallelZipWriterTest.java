@@ -0,0 +1,120 @@
+package fi.csc.microarray.client.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParallelZipWriterTest {
+
+	@Test
+	public void testFile() throws IOException {
+		Map<String, byte[]> contents = createContents();
+
+		File file = File.createTempFile("parallel-zip-writer-test", ".zip");
+		try {
+			try (FileOutputStream out = new FileOutputStream(file)) {
+				write(contents, out);
+			}
+
+			try (ZipFile zipFile = new ZipFile(file)) {
+				Assert.assertEquals(contents.size(), zipFile.size());
+				for (String name : contents.keySet()) {
+					ZipEntry entry = zipFile.getEntry(name);
+					Assert.assertEquals(name.startsWith("stored") ? ZipEntry.STORED : ZipEntry.DEFLATED, entry.getMethod());
+					Assert.assertArrayEquals(name, contents.get(name), readAll(zipFile.getInputStream(entry)));
+				}
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testMemory() throws IOException {
+		Map<String, byte[]> contents = new LinkedHashMap<String, byte[]>();
+		contents.put("session.xml", createText(100 * 1024));
+		contents.put("source-code-0-test.txt", createText(3 * 1024 * 1024));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		write(contents, out);
+
+		// read without the central directory like the remote sessions are read
+		try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+			int count = 0;
+			ZipEntry entry;
+			while ((entry = in.getNextEntry()) != null) {
+				Assert.assertArrayEquals(entry.getName(), contents.get(entry.getName()), readAll(in));
+				count++;
+			}
+			Assert.assertEquals(contents.size(), count);
+		}
+	}
+
+	private void write(Map<String, byte[]> contents, OutputStream out) throws IOException {
+		ParallelZipWriter writer = new ParallelZipWriter(out, Deflater.BEST_SPEED, 3);
+		try {
+			for (String name : contents.keySet()) {
+				byte[] content = contents.get(name);
+				writer.putEntry(name, new ByteArrayInputStream(content), !name.startsWith("stored"), name.contains("unknown") ? -1 : content.length);
+			}
+			writer.finish();
+		} finally {
+			writer.close();
+		}
+	}
+
+	private Map<String, byte[]> createContents() {
+		Random random = new Random(1);
+		Map<String, byte[]> contents = new LinkedHashMap<String, byte[]>();
+		contents.put("empty", new byte[0]);
+		contents.put("small", createText(1000));
+		// exactly one block and one block followed by a short one
+		contents.put("block", createText(512 * 1024));
+		contents.put("blocks", createText(512 * 1024 + 1));
+		contents.put("large", createText(10 * 1024 * 1024));
+		contents.put("large-unknown-size", createText(3 * 1024 * 1024));
+		byte[] randomBytes = new byte[2 * 1024 * 1024 + 100];
+		random.nextBytes(randomBytes);
+		contents.put("stored-random", randomBytes);
+		contents.put("stored-empty", new byte[0]);
+		return contents;
+	}
+
+	/**
+	 * Compressible content with long repeats over the block boundaries.
+	 */
+	private byte[] createText(int size) {
+		Random random = new Random(size);
+		String[] words = new String[] { "chr1\t", "12345\t", "ACGT", "GATTACA\t", "0.001\n", "+\t" };
+		ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+		while (out.size() < size) {
+			byte[] word = words[random.nextInt(words.length)].getBytes();
+			out.write(word, 0, Math.min(word.length, size - out.size()));
+		}
+		return out.toByteArray();
+	}
+
+	private byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int length;
+		while ((length = in.read(buffer)) != -1) {
+			out.write(buffer, 0, length);
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,55 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.fileIndex;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Chromosome;
+
+public class CoverageCacheTest {
+
+	private static final Chromosome CHR = new Chromosome("1");
+
+	private CoverageCache.Key key(long bin) {
+		return new CoverageCache.Key("file:/test.bam", "test", CHR, bin, 1000);
+	}
+
+	@Test
+	public void leastRecentlyUsedIsEvicted() {
+
+		CoverageCache cache = new CoverageCache(300);
+
+		cache.put(key(1), "1", 100);
+		cache.put(key(2), "2", 100);
+		cache.put(key(3), "3", 100);
+
+		// touch the oldest, so the second one becomes the least recently used
+		Assert.assertEquals("1", cache.get(key(1)));
+
+		cache.put(key(4), "4", 100);
+
+		Assert.assertNull(cache.get(key(2)));
+		Assert.assertEquals("1", cache.get(key(1)));
+		Assert.assertEquals("3", cache.get(key(3)));
+		Assert.assertEquals("4", cache.get(key(4)));
+		Assert.assertEquals(300, cache.getBytes());
+		Assert.assertEquals(3, cache.size());
+	}
+
+	@Test
+	public void statistics() {
+
+		CoverageCache cache = new CoverageCache(1000);
+
+		cache.put(key(1), "1", 100);
+		// replacing a value must not count its size twice
+		cache.put(key(1), "1", 200);
+
+		cache.get(key(1));
+		cache.get(key(2));
+		cache.get(new CoverageCache.Key("file:/test.bam", "test", CHR, 1, 2000));
+
+		Assert.assertEquals(1, cache.getHits());
+		Assert.assertEquals(2, cache.getMisses());
+		Assert.assertEquals(200, cache.getBytes());
+	}
+}
@@ -43,6 +43,37 @@ public class BinarySearchIndexTest {
 		runTests(testFile);		
 		testFile.delete();
 	}
+	
+	@Test
+	public void indexFile() throws IOException, UnsortedDataException, GBrowserException, URISyntaxException {
+		
+		File testFile = getTestFile(1);
+		File indexFile = File.createTempFile("RandomAccessBinarySearchTest-index", ".index");
+		indexFile.delete();
+		
+		RandomAccessLineDataSource dataSource = new RandomAccessLineDataSource(new DataUrl(testFile));
+		BinarySearchIndex index = new BinarySearchIndex(dataSource, new GtfLineParser(), indexFile);
+		runTests(index);
+		index.save();
+		Assert.assertTrue(indexFile.exists());
+		
+		//Nothing new to save when the index is loaded from the file
+		long modified = indexFile.lastModified();
+		index = new BinarySearchIndex(new RandomAccessLineDataSource(new DataUrl(testFile)), new GtfLineParser(), indexFile);
+		indexFile.setLastModified(modified - 10000);
+		index.save();
+		Assert.assertEquals(modified - 10000, indexFile.lastModified());
+		runTests(index);
+		
+		//Index file of other data isn't used
+		File otherFile = getTestFile(20);
+		index = new BinarySearchIndex(new RandomAccessLineDataSource(new DataUrl(otherFile)), new GtfLineParser(), indexFile);
+		runTests(index);
+		
+		testFile.delete();
+		otherFile.delete();
+		indexFile.delete();
+	}
 
 	private static void runTests(File file) throws IOException,
 			GBrowserException, UnsortedDataException, FileNotFoundException,
@@ -53,6 +84,11 @@ public class BinarySearchIndexTest {
 		Index index = new BinarySearchIndex(new RandomAccessLineDataSource(dataUrl), new GtfLineParser());		
 		//Index index = new InMemoryIndex(new LineDataSource(testFile.toURI().toURL(), null), new StackGtfParser());
 		
+		runTests(index);
+	}
+	
+	private static void runTests(Index index) throws IOException, GBrowserException {
+		
 		//Empty region
 		Region region = new Region(1l, 1l, new Chromosome("chr1"));
 		Collection<String> lines = index.getFileLines(region).values();
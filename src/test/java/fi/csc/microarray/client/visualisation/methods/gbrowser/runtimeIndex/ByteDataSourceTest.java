@@ -0,0 +1,106 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import fi.csc.microarray.client.visualisation.methods.gbrowser.gui.DataUrl;
+
+/**
+ * Test for reading {@link ByteDataSource} and {@link RandomAccessLineReader} over http. 
+ * Serves a temp file with range requests and compares the results to the file.
+ */
+public class ByteDataSourceTest {
+
+	private HttpServer server;
+	private File testFile;
+	private byte[] content;
+	private AtomicInteger rangeRequests = new AtomicInteger();
+
+	@Before
+	public void init() throws IOException {
+		testFile = RandomAccessLineReaderTest.getTestFile(true, 200);
+		content = FileUtils.readFileToByteArray(testFile);
+
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				String range = exchange.getRequestHeaders().getFirst("Range");
+				int start = 0;
+				int end = content.length - 1;
+				if (range != null) {
+					rangeRequests.incrementAndGet();
+					String[] limits = range.substring("bytes=".length()).split("-");
+					start = Integer.parseInt(limits[0]);
+					end = Math.min(Integer.parseInt(limits[1]), end);
+				}
+				exchange.sendResponseHeaders(range != null ? 206 : 200, end - start + 1);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(content, start, end - start + 1);
+				} catch (IOException e) {
+					// client read only the headers
+				}
+			}
+		});
+		server.start();
+	}
+
+	@After
+	public void clean() {
+		server.stop(0);
+		testFile.delete();
+	}
+
+	private DataUrl getDataUrl(String name) throws IOException {
+		return new DataUrl(new URL("http://localhost:" + server.getAddress().getPort() + "/" + name), name);
+	}
+
+	@Test
+	public void testRandomRead() throws Exception {
+		ByteDataSource dataSource = new ByteDataSource(getDataUrl("random"));
+		Assert.assertEquals(content.length, dataSource.length());
+
+		Random random = new Random(1);
+		for (int i = 0; i < 100; i++) {
+			int position = random.nextInt(content.length);
+			int length = random.nextInt(3 * ByteDataSource.BLOCK_SIZE);
+			int end = Math.min(position + length, content.length);
+			Assert.assertArrayEquals(Arrays.copyOfRange(content, position, end), dataSource.read(position, length));
+		}
+		Assert.assertNull(dataSource.read(content.length, 10));
+	}
+
+	@Test
+	public void testSequentialLines() throws Exception {
+		RandomAccessLineReader reader = new RandomAccessLineReader(getDataUrl("sequential"));
+		List<String> lines = RandomAccessLineReaderTest.getTestReferenceList(testFile);
+
+		Assert.assertTrue(reader.setPosition(0));
+		for (String line : lines) {
+			Assert.assertEquals(line, reader.readLine());
+		}
+		Assert.assertNull(reader.readLine());
+
+		// one request per block
+		int blocks = (content.length + ByteDataSource.BLOCK_SIZE - 1) / ByteDataSource.BLOCK_SIZE;
+		Assert.assertEquals(blocks, rangeRequests.get());
+		reader.close();
+	}
+}
@@ -0,0 +1,111 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Chromosome;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataRequest;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataStatus;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.DataType;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
+
+public class DataRequestQueueTest {
+
+	private static final Chromosome CHR = new Chromosome("1");
+
+	private static Region region(long start, long end) {
+		return new Region(start, end, CHR);
+	}
+
+	private static DataRequest request(long start, long end, DataType... types) {
+		Set<DataType> contents = new HashSet<DataType>(Arrays.asList(types));
+		return new DataRequest(region(start, end), contents, new DataStatus());
+	}
+
+	@Test
+	public void overlappingRequestsAreCombined() throws InterruptedException {
+
+		DataRequestQueue queue = new DataRequestQueue();
+
+		queue.add(request(100, 200, DataType.ID), region(0, 1000), region(0, 1000));
+		queue.add(request(150, 300, DataType.ID), region(0, 1000), region(0, 1000));
+		// different contents
+		queue.add(request(150, 300, DataType.SEQUENCE), region(0, 1000), region(0, 1000));
+
+		Assert.assertEquals(2, queue.size());
+
+		DataRequest combined = queue.take();
+		Assert.assertEquals(100, (long) combined.start.bp);
+		Assert.assertEquals(300, (long) combined.end.bp);
+		Assert.assertTrue(combined.getRequestedContents().contains(DataType.ID));
+
+		Assert.assertTrue(queue.take().getRequestedContents().contains(DataType.SEQUENCE));
+	}
+
+	@Test
+	public void requestsOutsideDataRegionAreDropped() {
+
+		DataRequestQueue queue = new DataRequestQueue();
+
+		queue.add(request(100, 200, DataType.ID), region(0, 1000), region(0, 1000));
+		// the view moved far away
+		queue.add(request(5000, 6000, DataType.ID), region(5000, 6000), region(5000, 6000));
+
+		Assert.assertEquals(1, queue.size());
+	}
+
+	@Test
+	public void visibleRequestsAreTakenFirst() throws InterruptedException {
+
+		DataRequestQueue queue = new DataRequestQueue();
+
+		queue.add(request(0, 100, DataType.ID), region(0, 1000), region(400, 600));
+		queue.add(request(450, 550, DataType.SEQUENCE), region(0, 1000), region(400, 600));
+
+		Assert.assertEquals(450, (long) queue.take().start.bp);
+		Assert.assertEquals(0, (long) queue.take().start.bp);
+	}
+
+	@Test
+	public void otherRequestsAreKept() throws InterruptedException {
+
+		DataRequestQueue queue = new DataRequestQueue();
+
+		DataRequest cancel = request(100, 200, DataType.CANCEL);
+		queue.add(request(100, 200, DataType.ID), region(0, 1000), region(0, 1000));
+		queue.add(cancel, region(0, 1000), region(0, 1000));
+		queue.add(new DataRequest(new Region(), null, null), null, null);
+
+		Assert.assertEquals(3, queue.size());
+		queue.take();
+		Assert.assertSame(cancel, queue.take());
+		Assert.assertNull(queue.take().getRequestedContents());
+	}
+
+	@Test
+	public void supersededRequest() {
+
+		DataRequestQueue queue = new DataRequestQueue();
+
+		DataRequest processed = request(0, 1000, DataType.ID);
+		queue.add(request(2000, 3000, DataType.ID), region(2000, 3000), region(2000, 3000));
+
+		Assert.assertTrue(queue.isSuperseded(processed));
+
+		// zoomed in, the queued request covers the part that is still needed
+		queue = new DataRequestQueue();
+		queue.add(request(400, 600, DataType.ID), region(400, 600), region(450, 550));
+
+		Assert.assertTrue(queue.isSuperseded(processed));
+
+		// moved a little, only the new part is requested again
+		queue = new DataRequestQueue();
+		queue.add(request(1000, 1200, DataType.ID), region(200, 1200), region(450, 950));
+
+		Assert.assertFalse(queue.isSuperseded(processed));
+	}
+}
@@ -0,0 +1,102 @@
+package fi.csc.microarray.client.visualisation.methods.gbrowser.runtimeIndex;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import fi.csc.microarray.client.visualisation.methods.gbrowser.gui.DataUrl;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Chromosome;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.IndexKey;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Region;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.util.GBrowserException;
+
+public class InMemoryIndexTest {
+
+	//unsorted, two lines with the same start position
+	private static final String[] LINES = new String[] {
+		line("chr2", 100, "a"),
+		line("chr1", 300, "b"),
+		line("chr1", 100, "c"),
+		line("chr1", 100, "d"),
+		line("chr1", 200, "e"),
+		line("chr2", 50, "f"),
+	};
+
+	private File testFile;
+	private InMemoryIndex index;
+
+	@Before
+	public void init() throws IOException, URISyntaxException {
+		testFile = File.createTempFile("InMemoryIndexTest", ".gtf");
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(testFile))) {
+			for (String line : LINES) {
+				writer.write(line);
+				writer.newLine();
+			}
+		}
+		index = new InMemoryIndex(new LineDataSource(new DataUrl(testFile)), new GtfLineParser());
+	}
+
+	@After
+	public void clean() {
+		testFile.delete();
+	}
+
+	@Test
+	public void testSortOrder() {
+
+		//equal start positions keep the order of the file
+		TreeMap<IndexKey, String> lines = index.getFileLines(region("chr1", 0, 1000));
+		Assert.assertEquals(Arrays.asList(LINES[2], LINES[3], LINES[4], LINES[1]), new ArrayList<String>(lines.values()));
+
+		//other chromosome
+		lines = index.getFileLines(region("chr2", 0, 1000));
+		Assert.assertEquals(Arrays.asList(LINES[5], LINES[0]), new ArrayList<String>(lines.values()));
+	}
+
+	@Test
+	public void testRegionBounds() {
+
+		//lines starting at the region end are excluded
+		Assert.assertEquals(Arrays.asList(LINES[2], LINES[3]), new ArrayList<String>(index.getFileLines(region("chr1", 100, 200)).values()));
+		Assert.assertEquals(Arrays.asList(LINES[4]), new ArrayList<String>(index.getFileLines(region("chr1", 101, 201)).values()));
+		Assert.assertTrue(index.getFileLines(region("chr1", 0, 100)).isEmpty());
+		Assert.assertTrue(index.getFileLines(region("chr1", 301, 1000)).isEmpty());
+		Assert.assertTrue(index.getFileLines(region("chr3", 0, 1000)).isEmpty());
+	}
+
+	@Test
+	public void testFileLines() throws IOException, GBrowserException {
+
+		//all lines in the sort order
+		List<String> sorted = Arrays.asList(LINES[2], LINES[3], LINES[4], LINES[1], LINES[5], LINES[0]);
+		Assert.assertEquals(sorted, index.getFileLines());
+
+		List<String> lines = new ArrayList<String>();
+		Iterator<String> iterator = index.getFileLineIterator();
+		while (iterator.hasNext()) {
+			lines.add(iterator.next());
+		}
+		Assert.assertEquals(sorted, lines);
+	}
+
+	private static Region region(String chr, long start, long end) {
+		return new Region(start, end, new Chromosome(chr));
+	}
+
+	private static String line(String chr, long start, String name) {
+		return chr + "\tsource\tfeature\t" + start + "\t" + (start + 10) + "\t.\t+\t.\tgene_id \"" + name + "\";";
+	}
+}
@@ -0,0 +1,46 @@
+package fi.csc.microarray.comp;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompCapacityTest {
+
+	@Test
+	public void testReserveAndRelease() {
+		CompCapacity capacity = new CompCapacity(8, 16000);
+
+		Assert.assertTrue(capacity.reserve("a", 4, 8000));
+		Assert.assertTrue(capacity.reserve("b", 2, 4000));
+		// reserving again doesn't count twice
+		Assert.assertTrue(capacity.reserve("b", 2, 4000));
+		Assert.assertEquals(2, capacity.getFreeCpu());
+		Assert.assertEquals(4000, capacity.getFreeMemory());
+
+		// not enough cores or memory
+		Assert.assertFalse(capacity.reserve("c", 4, 1000));
+		Assert.assertFalse(capacity.reserve("c", 1, 5000));
+		Assert.assertTrue(capacity.fits(2, 4000));
+
+		capacity.release("a");
+		capacity.release("a");
+		Assert.assertEquals(6, capacity.getFreeCpu());
+		Assert.assertEquals(12000, capacity.getFreeMemory());
+		Assert.assertTrue(capacity.reserve("c", 4, 1000));
+	}
+
+	@Test
+	public void testTooLargeJob() {
+		CompCapacity capacity = new CompCapacity(4, 8000);
+
+		// limited to the whole comp, so it can run when nothing else is running
+		Assert.assertTrue(capacity.reserve("small", 1, 1000));
+		Assert.assertFalse(capacity.reserve("large", 16, 64000));
+		capacity.release("small");
+		Assert.assertTrue(capacity.reserve("large", 16, 64000));
+		Assert.assertEquals(0, capacity.getFreeCpu());
+		Assert.assertEquals(0, capacity.getFreeMemory());
+
+		capacity.release("large");
+		Assert.assertEquals(4, capacity.getFreeCpu());
+	}
+}
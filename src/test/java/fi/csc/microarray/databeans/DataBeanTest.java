@@ -0,0 +1,104 @@
+package fi.csc.microarray.databeans;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.SwingUtilities;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import fi.csc.microarray.module.Module;
+
+public class DataBeanTest {
+
+	private static final TypeTag TAG = new TypeTag("test-tag", "tag for tests");
+
+	private DataManager manager;
+	private AtomicInteger taggingCount;
+	private AtomicBoolean taggedInEDT;
+
+	@Before
+	public void init() throws Exception {
+		manager = new DataManager();
+		manager.setEventsEnabled(true);
+		taggingCount = new AtomicInteger();
+		taggedInEDT = new AtomicBoolean();
+
+		// module that reads the tags of the bean while adding them, like the real modules do
+		Module module = (Module) Proxy.newProxyInstance(Module.class.getClassLoader(), new Class<?>[] { Module.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if ("addTypeTags".equals(method.getName())) {
+					DataBean data = (DataBean) args[0];
+					taggingCount.incrementAndGet();
+					if (SwingUtilities.isEventDispatchThread()) {
+						taggedInEDT.set(true);
+					}
+					if (!data.hasTypeTag(TAG)) {
+						data.addTypeTag(TAG);
+					}
+				}
+				return null;
+			}
+		});
+		manager.setModules(new LinkedList<Module>(Arrays.asList(module)));
+	}
+
+	private DataBean createLazyBean() {
+		DataBean bean = new DataBean("test", new ContentType("text/plain", true, false, "text", null, "txt"), manager);
+		manager.connectChildren(Arrays.asList(bean), manager.getRootFolder(), false);
+		return bean;
+	}
+
+	@Test
+	public void testLazyTypeTags() {
+
+		DataBean bean = createLazyBean();
+		Assert.assertEquals(0, taggingCount.get());
+
+		// added on the first use
+		Assert.assertTrue(bean.hasTypeTag(TAG));
+		Assert.assertEquals(Arrays.asList(TAG), bean.getTypeTags());
+		Assert.assertEquals(1, taggingCount.get());
+	}
+
+	@Test
+	public void testLazyTypeTagsInEDT() throws Exception {
+
+		final DataBean bean = createLazyBean();
+
+		final CountDownLatch changed = new CountDownLatch(1);
+		manager.addDataChangeListener(new DataChangeListener() {
+			@Override
+			public void dataChanged(DataChangeEvent event) {
+				if (event instanceof ContentChangedEvent && event.getDataItem() == bean) {
+					changed.countDown();
+				}
+			}
+		});
+
+		SwingUtilities.invokeAndWait(new Runnable() {
+			@Override
+			public void run() {
+				// not ready yet, the content isn't read in the EDT
+				bean.hasTypeTag(TAG);
+				bean.getTypeTags();
+			}
+		});
+
+		// the views are notified, when the tags are ready
+		Assert.assertTrue(changed.await(10, TimeUnit.SECONDS));
+		Assert.assertTrue(bean.hasTypeTag(TAG));
+		Assert.assertEquals(1, taggingCount.get());
+		Assert.assertFalse(taggedInEDT.get());
+	}
+}
@@ -0,0 +1,123 @@
+package fi.csc.microarray.filebroker;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CacheIndexTest {
+
+	private File root;
+	private File indexFile;
+
+	@Before
+	public void init() throws IOException {
+		root = java.nio.file.Files.createTempDirectory("cache-index-test").toFile();
+		indexFile = new File(root.getParentFile(), root.getName() + ".tsv");
+	}
+
+	@After
+	public void clean() throws IOException {
+		FileUtils.deleteDirectory(root);
+		indexFile.delete();
+	}
+
+	@Test
+	public void testListAndEvict() throws IOException {
+
+		// oldest first by modification time
+		createFile("b", 100, 3000);
+		createFile("a", 200, 2000);
+		createFile("c", 300, 1000);
+		Md5FileUtils.writeMd5("00fdcd1c90cf409169750ea88ad22899", new File(root, "c"));
+
+		CacheIndex index = new CacheIndex(root, indexFile);
+		index.load();
+		Assert.assertEquals(Arrays.asList("b", "a", "c"), Arrays.asList(index.getSizes().keySet().toArray()));
+		Assert.assertEquals(600, index.getTotalSize());
+
+		// access moves to the end
+		index.fileAccessed("c");
+		index.fileAdded("d", 400);
+		Assert.assertEquals(Arrays.asList("b", "a", "c", "d"), Arrays.asList(index.getSizes().keySet().toArray()));
+
+		// "b" and "a" were accessed a long time ago
+		Assert.assertEquals(300, index.evict(250, 60 * 1000));
+		Assert.assertFalse(new File(root, "a").exists());
+		Assert.assertFalse(new File(root, "b").exists());
+		Assert.assertTrue(new File(root, "c").exists());
+
+		// the rest are too new
+		Assert.assertEquals(0, index.evict(1000, 60 * 1000));
+
+		index.fileRemoved("d");
+		Assert.assertEquals(300, index.evict(1000, -1));
+		Assert.assertFalse(new File(root, "c").exists());
+		Assert.assertFalse(Md5FileUtils.getMd5File(new File(root, "c")).exists());
+		Assert.assertEquals(0, index.getFileCount());
+	}
+
+	@Test
+	public void testSaveAndLoad() throws IOException {
+
+		createFile("a", 100, 2000);
+		createFile("b", 200, 1000);
+
+		CacheIndex index = new CacheIndex(root, indexFile);
+		index.load();
+		index.fileAccessed("b");
+		index.save();
+
+		// the saved order is used instead of the modification times
+		CacheIndex loaded = new CacheIndex(root, indexFile);
+		loaded.fileAdded("c", 300);
+		loaded.load();
+		Assert.assertEquals(Arrays.asList("a", "b", "c"), Arrays.asList(loaded.getSizes().keySet().toArray()));
+		Assert.assertEquals(600, loaded.getTotalSize());
+
+		// deleted after loading
+		Assert.assertFalse(indexFile.exists());
+	}
+
+	@Test
+	public void testFilesAddedWithoutIndex() throws IOException {
+
+		createFile("a", 100, 3000);
+
+		CacheIndex index = new CacheIndex(root, indexFile);
+		index.load();
+
+		// moved to the cache directory by a comp with a local file broker
+		createFile("b", 200, 2000);
+		createFile("c", 300, 1000);
+		index.fileAccessed("c");
+		Assert.assertEquals(Arrays.asList("a", "c"), Arrays.asList(index.getSizes().keySet().toArray()));
+		Assert.assertEquals(400, index.getTotalSize());
+
+		// leftover of an interrupted upload
+		new File(root, "tmp").mkdir();
+		createFile("tmp/d.upload", 400, 2500);
+
+		// "b" and "tmp/d.upload" are found by listing the directory, "c" was accessed just now
+		Assert.assertEquals(700, index.evict(1000, 60 * 1000));
+		Assert.assertFalse(new File(root, "b").exists());
+		Assert.assertFalse(new File(root, "tmp/d.upload").exists());
+		Assert.assertTrue(new File(root, "c").exists());
+		Assert.assertEquals(Arrays.asList("c"), Arrays.asList(index.getSizes().keySet().toArray()));
+		Assert.assertEquals(300, index.getTotalSize());
+	}
+
+	private void createFile(String name, int size, long age) throws IOException {
+		File file = new File(root, name);
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			out.write(new byte[size]);
+		}
+		file.setLastModified(System.currentTimeMillis() - age * 1000);
+	}
+}
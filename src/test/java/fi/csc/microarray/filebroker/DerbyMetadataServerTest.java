@@ -0,0 +1,92 @@
+package fi.csc.microarray.filebroker;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DerbyMetadataServerTest {
+
+	private static final String URL = "jdbc:derby:memory:DerbyMetadataServerTest";
+	
+	private Connection connection;
+	private DerbyMetadataServer metadataServer;
+
+	@Before
+	public void init() throws Exception {
+		Class.forName("org.apache.derby.jdbc.EmbeddedDriver").newInstance();
+		connection = DriverManager.getConnection(URL + ";create=true");
+		metadataServer = new DerbyMetadataServer(connection);
+	}
+
+	@After
+	public void clean() throws SQLException {
+		connection.close();
+		try {
+			DriverManager.getConnection(URL + ";drop=true");
+		} catch (SQLException e) {
+			// dropping is reported with an exception
+		}
+	}
+
+	@Test
+	public void testReplaceSession() throws SQLException {
+
+		metadataServer.addFile("session1", 10);
+		metadataServer.addFile("a", 100);
+		metadataServer.addFile("b", 200);
+		metadataServer.addSession("user", "session", "session1");
+		metadataServer.linkFileToSession("a", "session1");
+		metadataServer.linkFileToSession("b", "session1");
+
+		metadataServer.addFile("session2", 10);
+		metadataServer.addFile("c", 300);
+		List<String> removed = metadataServer.replaceSession("user", "session", "session1", "session2", Arrays.asList("c"), Arrays.asList("b"));
+
+		Assert.assertEquals(Arrays.asList("session1", "b"), removed);
+		Assert.assertEquals("session2", metadataServer.fetchSession("user", "session"));
+		Assert.assertEquals(1, metadataServer.listSessions("user").size());
+		Assert.assertNull(metadataServer.fetchFile("b"));
+		Assert.assertNotNull(metadataServer.fetchFile("a"));
+		
+		// linked files of the new revision are kept when it's removed
+		Assert.assertEquals(Arrays.asList("a", "c", "session2"), sorted(metadataServer.removeSession("session2")));
+	}
+
+	@Test
+	public void testReplaceSessionRollback() throws SQLException {
+
+		metadataServer.addFile("session1", 10);
+		metadataServer.addFile("a", 100);
+		metadataServer.addSession("user", "session", "session1");
+		metadataServer.linkFileToSession("a", "session1");
+
+		// the new session id is in use already
+		metadataServer.addSession("user", "other", "session2");
+		try {
+			metadataServer.replaceSession("user", "session", "session1", "session2", Collections.<String>emptyList(), Arrays.asList("a"));
+			Assert.fail();
+		} catch (SQLException e) {
+			// expected
+		}
+
+		// the previous revision is untouched
+		Assert.assertTrue(connection.getAutoCommit());
+		Assert.assertEquals("session1", metadataServer.fetchSession("user", "session"));
+		Assert.assertNull(metadataServer.fetchSession("user", "_session"));
+		Assert.assertNotNull(metadataServer.fetchFile("a"));
+		Assert.assertEquals(Arrays.asList("a", "session1"), sorted(metadataServer.removeSession("session1")));
+	}
+
+	private List<String> sorted(List<String> list) {
+		Collections.sort(list);
+		return list;
+	}
+}
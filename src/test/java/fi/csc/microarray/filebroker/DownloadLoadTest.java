@@ -0,0 +1,135 @@
+package fi.csc.microarray.filebroker;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fi.csc.microarray.config.DirectoryLayout;
+
+/**
+ * Load test for the downloads of the embedded JettyFileServer. Creates files in a temporary
+ * directory, starts the server and then downloads the files with several threads, either
+ * completely or as random ranges like the genome browser does. Prints the throughput.
+ *
+ * Usage: DownloadLoadTest [threads] [requests] [file size in MB] [range size in kB, 0 for whole files]
+ */
+public class DownloadLoadTest {
+
+	private static final int PORT = 18080;
+	private static final int FILE_COUNT = 10;
+
+	private static AtomicLong bytes = new AtomicLong();
+	private static AtomicLong errors = new AtomicLong();
+
+	public static void main(String args[]) throws Exception {
+
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		int requests = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		final int fileSize = (args.length > 2 ? Integer.parseInt(args[2]) : 10) * 1024 * 1024;
+		final int rangeSize = (args.length > 3 ? Integer.parseInt(args[3]) : 0) * 1024;
+
+		DirectoryLayout.initialiseServerLayout(Arrays.asList(new String[] {"filebroker"}));
+
+		File root = Files.createTempDirectory("download-load-test").toFile();
+		final URL[] urls = new URL[FILE_COUNT];
+		try {
+			File cache = new File(root, FileServer.CACHE_PATH);
+			cache.mkdir();
+			for (int i = 0; i < FILE_COUNT; i++) {
+				String dataId = UUID.randomUUID().toString();
+				createFile(new File(cache, dataId), fileSize);
+				urls[i] = new URL("http://localhost:" + PORT + "/" + FileServer.CACHE_PATH + "/" + dataId);
+			}
+
+			AuthorisedUrlRepository urlRepository = new AuthorisedUrlRepository("http://localhost", PORT, FileServer.CACHE_PATH, FileServer.STORAGE_PATH);
+			JettyFileServer server = new JettyFileServer(urlRepository, null, null);
+			server.start(root.getPath(), PORT, "http");
+
+			System.out.println("Make " + requests + " requests with " + threads + " threads, " +
+					(rangeSize > 0 ? rangeSize / 1024 + " kB ranges" : "whole files") + " of " + fileSize / 1024 / 1024 + " MB files");
+
+			final Random random = new Random();
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			long t = System.currentTimeMillis();
+			for (int i = 0; i < requests; i++) {
+				final URL url = urls[i % FILE_COUNT];
+				final long start = rangeSize > 0 ? random.nextInt(fileSize - rangeSize) : -1;
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							download(url, start, rangeSize);
+						} catch (IOException e) {
+							errors.incrementAndGet();
+							e.printStackTrace();
+						}
+					}
+				});
+			}
+
+			executor.shutdown();
+			while (!executor.awaitTermination(3, TimeUnit.SECONDS)) {
+				System.out.println(bytes.get() / 1024 / 1024 + " MB downloaded");
+			}
+
+			long time = System.currentTimeMillis() - t;
+			System.out.println(requests + " requests in " + time + " ms, " +
+					requests * 1000 / Math.max(1, time) + " requests/s, " +
+					bytes.get() / 1024 / 1024 * 1000 / Math.max(1, time) + " MB/s, " +
+					errors.get() + " errors");
+
+		} finally {
+			for (File file : new File(root, FileServer.CACHE_PATH).listFiles()) {
+				file.delete();
+			}
+			new File(root, FileServer.CACHE_PATH).delete();
+			root.delete();
+		}
+		System.exit(0);
+	}
+
+	private static void createFile(File file, int size) throws IOException {
+		byte[] buffer = new byte[1024 * 1024];
+		new Random().nextBytes(buffer);
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			for (int written = 0; written < size; written += buffer.length) {
+				out.write(buffer, 0, Math.min(buffer.length, size - written));
+			}
+		}
+	}
+
+	/**
+	 * @param start first byte of the range, -1 for the whole file
+	 */
+	private static void download(URL url, long start, int rangeSize) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		if (start >= 0) {
+			connection.setRequestProperty("Range", "bytes=" + start + "-" + (start + rangeSize - 1));
+		}
+
+		try (InputStream in = connection.getInputStream()) {
+			byte[] buffer = new byte[64 * 1024];
+			long count = 0;
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				count += read;
+			}
+
+			if (start >= 0 && (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL || count != rangeSize)) {
+				throw new IOException("unexpected range response " + connection.getResponseCode() + ", " + count + " bytes");
+			}
+			bytes.addAndGet(count);
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package fi.csc.microarray.gbrowser.intervals;
+
+import java.util.List;
+import java.util.Random;
+
+import fi.csc.microarray.client.visualisation.methods.gbrowser.message.Feature;
+import fi.csc.microarray.client.visualisation.methods.gbrowser.util.RegionOperations;
+
+/**
+ * Compares region intersection based on interval index to the plain Cartesian product 
+ * on synthetic BED inputs, where the region density is kept constant. Run manually, e.g. with region counts as arguments: 
+ * <code>RegionOperationsBenchmark 1000 10000 100000</code>. The Cartesian product is 
+ * skipped for sizes where it would take too long.
+ */
+public class RegionOperationsBenchmark {
+
+	private static final int MAX_CARTESIAN_SIZE = 10000;
+	private static final int ROUNDS = 5;
+	private static final int BASES_PER_REGION = 1000;
+
+	public static void main(String[] args) {
+		
+		int[] sizes = new int[] { 1000, 10000, 100000, 500000 };
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				sizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+		
+		RegionOperations tool = new RegionOperations();
+		Random random = new Random(1);
+		
+		for (int size : sizes) {
+			List<Feature> left = RegionOperationsTest.createRandomRegions(random, size, size * BASES_PER_REGION);
+			List<Feature> right = RegionOperationsTest.createRandomRegions(random, size, size * BASES_PER_REGION);
+			
+			// warm up
+			intersect(tool, left, right, new RegionOperations.IntersectingPairRule(1L));
+			
+			long indexed = 0;
+			for (int i = 0; i < ROUNDS; i++) {
+				indexed += intersect(tool, left, right, new RegionOperations.IntersectingPairRule(1L));
+			}
+			System.out.println(size + " regions, indexed: " + indexed / ROUNDS + " ms");
+			
+			if (size <= MAX_CARTESIAN_SIZE) {
+				long cartesian = 0;
+				for (int i = 0; i < ROUNDS; i++) {
+					cartesian += intersect(tool, left, right, RegionOperationsTest.createCartesianRule(1L));
+				}
+				System.out.println(size + " regions, cartesian: " + cartesian / ROUNDS + " ms");
+			}
+		}
+	}
+
+	private static long intersect(RegionOperations tool, List<Feature> left, List<Feature> right, RegionOperations.PairRule pairRule) {
+		long t = System.currentTimeMillis();
+		tool.operate(left, right, pairRule, RegionOperations.EXCLUDE_ORPHAN_POLICY, RegionOperations.EXCLUDE_ORPHAN_POLICY, RegionOperations.LEFT_PAIR_POLICY, false);
+		return System.currentTimeMillis() - t;
+	}
+}
@@ -7,6 +7,7 @@ import java.io.OutputStream;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -152,9 +153,67 @@ public class RegionOperationsTest {
 	}
 	
 	
+	@Test
+	public void testIndexedOperationsMatchCartesian() {
+		RegionOperations tool = new RegionOperations();
+		Random random = new Random(1);
+		
+		for (int round = 0; round < 20; round++) {
+			List<Feature> left = createRandomRegions(random, 200);
+			List<Feature> right = createRandomRegions(random, 300);
+			
+			for (long minLength : new long[] { 1L, 20L }) {
+				RegionOperations.PairRule indexed = new RegionOperations.IntersectingPairRule(minLength);
+				RegionOperations.PairRule cartesian = createCartesianRule(minLength);
+				
+				Assert.assertEquals(
+						tool.operate(left, right, cartesian, RegionOperations.INCLUDE_ORPHAN_POLICY, RegionOperations.INCLUDE_ORPHAN_POLICY, RegionOperations.ORIGINALS_PAIR_POLICY, false),
+						tool.operate(left, right, indexed, RegionOperations.INCLUDE_ORPHAN_POLICY, RegionOperations.INCLUDE_ORPHAN_POLICY, RegionOperations.ORIGINALS_PAIR_POLICY, false));
+				Assert.assertEquals(
+						tool.operate(left, right, cartesian, RegionOperations.INCLUDE_ORPHAN_POLICY, RegionOperations.EXCLUDE_ORPHAN_POLICY, RegionOperations.EXCLUDE_PAIR_POLICY, true),
+						tool.operate(left, right, indexed, RegionOperations.INCLUDE_ORPHAN_POLICY, RegionOperations.EXCLUDE_ORPHAN_POLICY, RegionOperations.EXCLUDE_PAIR_POLICY, true));
+				Assert.assertEquals(
+						tool.operate(left, right, cartesian, RegionOperations.EXCLUDE_ORPHAN_POLICY, RegionOperations.EXCLUDE_ORPHAN_POLICY, RegionOperations.INTERSECT_PAIR_POLICY, true),
+						tool.operate(left, right, indexed, RegionOperations.EXCLUDE_ORPHAN_POLICY, RegionOperations.EXCLUDE_ORPHAN_POLICY, RegionOperations.INTERSECT_PAIR_POLICY, true));
+			}
+		}
+	}
+	
+	/**
+	 * Same rule as {@link RegionOperations.IntersectingPairRule}, but hidden from RegionOperations
+	 * so that it has to use Cartesian product.
+	 */
+	public static RegionOperations.PairRule createCartesianRule(Long minLength) {
+		final RegionOperations.PairRule rule = new RegionOperations.IntersectingPairRule(minLength);
+		return new RegionOperations.PairRule() {
+			public boolean isPair(Region left, Region right) {
+				return rule.isPair(left, right);
+			}
+		};
+	}
+	
+	public static List<Feature> createRandomRegions(Random random, int count) {
+		return createRandomRegions(random, count, 10000);
+	}
+	
+	public static List<Feature> createRandomRegions(Random random, int count, int chromosomeLength) {
+		LinkedList<Feature> regions = new LinkedList<Feature>();
+		String[] chromosomes = new String[] { "1", "2", "X" };
+		for (int i = 0; i < count; i++) {
+			long start = random.nextInt(chromosomeLength);
+			long end = start + random.nextInt(random.nextBoolean() ? 50 : 1000);
+			Chromosome chr = new Chromosome(chromosomes[random.nextInt(chromosomes.length)]);
+			LinkedHashMap<DataType, Object> values = new LinkedHashMap<DataType, Object>();
+			values.put(DataType.ID, "region" + i);
+			regions.add(new Feature(new Region(start, end, chr), values));
+		}
+		return regions;
+	}
+	
 	public static void main(String[] args) throws Exception {
 		new RegionOperationsTest().test();
 		new RegionOperationsTest().testSort();
+		new RegionOperationsTest().testIndexedOperationsMatchCartesian();
 		System.out.println("OK");
 	}
 }
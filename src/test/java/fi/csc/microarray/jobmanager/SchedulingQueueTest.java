@@ -0,0 +1,109 @@
+package fi.csc.microarray.jobmanager;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SchedulingQueueTest {
+
+	@Test
+	public void testFairShare() {
+		SchedulingQueue queue = new SchedulingQueue(60 * 1000);
+		long now = System.currentTimeMillis();
+
+		// "a" submitted first and has a job running already
+		queue.addActive("a0", "a");
+		queue.add("a1", "a", 0, now - 5000);
+		queue.add("a2", "a", 0, now - 4000);
+		queue.add("a3", "a", 0, now - 3000);
+		queue.add("b1", "b", 0, now - 2000);
+		queue.add("c1", "c", 0, now - 1000);
+
+		Assert.assertEquals(Arrays.asList("b1", "c1", "a1", "a2"), queue.next(4));
+
+		// offered jobs wait for the offer interval
+		Assert.assertEquals(Arrays.asList("a3"), queue.next(4));
+		Assert.assertTrue(queue.next(4).isEmpty());
+
+	}
+
+	@Test
+	public void testRefused() throws InterruptedException {
+		SchedulingQueue queue = new SchedulingQueue(60 * 1000);
+		long now = System.currentTimeMillis();
+
+		queue.add("a1", "a", 0, now - 1000);
+		Assert.assertEquals(Arrays.asList("a1"), queue.next(1));
+
+		// offered again after a short delay
+		queue.refused("a1");
+		queue.refused("a1");
+		Assert.assertTrue(queue.next(1).isEmpty());
+		Thread.sleep(1100);
+		Assert.assertEquals(Arrays.asList("a1"), queue.next(1));
+
+		// the delay grows
+		queue.refused("a1");
+		Thread.sleep(1100);
+		Assert.assertTrue(queue.next(1).isEmpty());
+		Thread.sleep(1000);
+		Assert.assertEquals(Arrays.asList("a1"), queue.next(1));
+	}
+
+	@Test
+	public void testRemoveWaiting() {
+		SchedulingQueue queue = new SchedulingQueue(60 * 1000);
+		long now = System.currentTimeMillis();
+
+		queue.addActive("a0", "a");
+		queue.add("a1", "a", 0, now - 3000);
+		queue.add("a2", "a", 0, now - 2000);
+		queue.add("b1", "b", 0, now - 1000);
+
+		queue.removeWaiting("a0");
+		queue.removeWaiting("a1");
+		Assert.assertEquals(2, queue.size());
+
+		// the running job of "a" is still counted
+		Assert.assertEquals(Arrays.asList("b1", "a2"), queue.next(2));
+	}
+
+	@Test
+	public void testPriority() {
+		SchedulingQueue queue = new SchedulingQueue(60 * 1000);
+		long now = System.currentTimeMillis();
+
+		queue.add("a1", "a", 0, now - 3000);
+		queue.add("b1", "b", 1, now - 2000);
+		queue.add("b2", "b", 1, now - 1000);
+
+		Assert.assertEquals(Arrays.asList("b1", "b2", "a1"), queue.next(3));
+	}
+
+	@Test
+	public void testScheduledAndExpired() {
+		SchedulingQueue queue = new SchedulingQueue(60 * 1000);
+		long now = System.currentTimeMillis();
+
+		queue.add("a1", "a", 0, now - 3000);
+		queue.add("a2", "a", 0, now - 2000);
+		queue.add("b1", "b", 0, now - 1000);
+		queue.add("b2", "b", 0, now - 1000 * 1000);
+
+		Assert.assertEquals(Arrays.asList("b2"), queue.removeExpired(100 * 1000));
+
+		queue.scheduled("b1");
+		Assert.assertEquals(2, queue.size());
+
+		// "b" has a job running now
+		queue.add("b3", "b", 0, now);
+		Assert.assertEquals(Arrays.asList("a1", "a2"), queue.next(2));
+
+		queue.remove("b1");
+		queue.remove("a1");
+		queue.remove("a2");
+		Assert.assertEquals(Arrays.asList("b3"), queue.next(2));
+		Assert.assertTrue(queue.getReport().startsWith("waiting: 1\n"));
+	}
+}
@@ -0,0 +1,106 @@
+package fi.csc.microarray.manager;
+
+import java.util.Date;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import fi.csc.microarray.messaging.JobState;
+import fi.csc.microarray.messaging.message.JobLogMessage;
+import fi.csc.microarray.util.Strings;
+
+public class JobLogWriterTest {
+
+	private JdbcTemplate jdbcTemplate;
+
+	@Before
+	public void init() {
+		DriverManagerDataSource dataSource = new DriverManagerDataSource();
+		dataSource.setDriverClassName("org.h2.Driver");
+		dataSource.setUrl("jdbc:h2:mem:job-log-writer-test;DB_CLOSE_DELAY=-1");
+		dataSource.setUsername("sa");
+		dataSource.setPassword("");
+		jdbcTemplate = new JdbcTemplate(dataSource);
+		jdbcTemplate.execute("CREATE TABLE jobs (" +
+				"id VARCHAR(100) PRIMARY KEY, operation VARCHAR(200), status VARCHAR(200), " +
+				"starttime DATETIME DEFAULT NULL, endtime DATETIME DEFAULT NULL, wallclockTime INT DEFAULT NULL, " +
+				"errorMessage TEXT DEFAULT NULL, outputText TEXT DEFAULT NULL, username VARCHAR(200), compHost VARCHAR(500));");
+	}
+
+	@After
+	public void clean() {
+		jdbcTemplate.execute("DROP TABLE jobs");
+		jdbcTemplate.execute("DROP TABLE IF EXISTS job_stats");
+	}
+
+	@Test
+	public void testWrite() throws Exception {
+		JobLogWriter writer = new JobLogWriter(jdbcTemplate, null, 10, 4, 1000);
+
+		Date start = new Date(System.currentTimeMillis() - 60 * 1000);
+		Date end = new Date();
+		for (int i = 0; i < 50; i++) {
+			writer.write(new JobLogMessage("tool.R", JobState.COMPLETED, null, "job-" + i, start, end, null, "output " + i, "user", "comp"));
+		}
+		// duplicate fails alone
+		writer.write(new JobLogMessage("tool.R", JobState.COMPLETED, null, "job-0", start, end, null, null, "user", "comp"));
+
+		String longOutput = Strings.repeat("line\n", 1000);
+		writer.write(new JobLogMessage("tool.R", JobState.FAILED, null, "job-long", start, null, "error", longOutput, "user", null));
+		writer.close();
+
+		Assert.assertEquals(51, jdbcTemplate.queryForInt("SELECT COUNT(*) FROM jobs"));
+
+		Map<?, ?> row = jdbcTemplate.queryForMap("SELECT * FROM jobs WHERE id='job-1'");
+		Assert.assertEquals("output 1", row.get("OUTPUTTEXT"));
+		Assert.assertEquals(60, ((Number) row.get("WALLCLOCKTIME")).intValue());
+
+		row = jdbcTemplate.queryForMap("SELECT * FROM jobs WHERE id='job-long'");
+		String stored = (String) row.get("OUTPUTTEXT");
+		Assert.assertTrue(stored.length() < longOutput.length());
+		Assert.assertEquals(longOutput, Strings.decompress(stored));
+		Assert.assertNull(row.get("WALLCLOCKTIME"));
+
+		// written directly after closing
+		writer.write(new JobLogMessage("tool.R", JobState.COMPLETED, null, "job-late", start, end, null, null, "user", "comp"));
+		Assert.assertEquals(52, jdbcTemplate.queryForInt("SELECT COUNT(*) FROM jobs"));
+	}
+
+	@Test
+	public void testStats() throws Exception {
+		Date start = new Date(System.currentTimeMillis() - 60 * 1000);
+		Date end = new Date();
+
+		// old jobs are counted when the table is created
+		JobLogWriter writer = new JobLogWriter(jdbcTemplate, null, 10, 4, 0);
+		writer.write(new JobLogMessage("tool.R", JobState.COMPLETED, null, "job-1", start, end, null, null, "user1", "comp"));
+		writer.write(new JobLogMessage("tool.R", JobState.FAILED, null, "job-2", start, end, null, null, "user1", "comp"));
+		writer.close();
+
+		JobStatsTable statsTable = new JobStatsTable(jdbcTemplate);
+		statsTable.create();
+		statsTable.create();
+
+		writer = new JobLogWriter(jdbcTemplate, statsTable, 10, 4, 0);
+		writer.write(new JobLogMessage("tool.R", JobState.COMPLETED, null, "job-3", start, end, null, null, "user1", "comp"));
+		writer.write(new JobLogMessage("tool.R", JobState.COMPLETED, null, "job-4", start, end, null, null, "user2", "comp"));
+		writer.write(new JobLogMessage("other.py", JobState.COMPLETED, null, "job-5", start, null, null, null, "user2", "comp"));
+		// duplicate isn't counted
+		writer.write(new JobLogMessage("tool.R", JobState.COMPLETED, null, "job-1", start, end, null, null, "user1", "comp"));
+		writer.close();
+
+		Map<?, ?> row = jdbcTemplate.queryForMap("SELECT * FROM job_stats WHERE operation='tool.R' AND username='user1'");
+		Assert.assertEquals(3, ((Number) row.get("JOBCOUNT")).intValue());
+		Assert.assertEquals(1, ((Number) row.get("FAILCOUNT")).intValue());
+		Assert.assertEquals(180, ((Number) row.get("WALLCLOCKTIME")).intValue());
+
+		Assert.assertEquals(3, jdbcTemplate.queryForInt("SELECT COUNT(*) FROM job_stats"));
+		Assert.assertEquals(5, jdbcTemplate.queryForInt("SELECT SUM(jobCount) FROM job_stats"));
+		Assert.assertEquals(5, jdbcTemplate.queryForInt("SELECT COUNT(*) FROM jobs"));
+	}
+}
@@ -22,6 +22,17 @@ public class StringsTest {
 		Assert.assertEquals(Strings.removeEmptyLinesFromBeginning(input), expect);
 	}
 
+	@Test
+	public void testCompress() throws IOException {
+		String input = Strings.repeat("R output line \u00e4\n", 1000);
+		String compressed = Strings.compress(input);
+
+		Assert.assertTrue(compressed.length() < input.length() / 10);
+		Assert.assertEquals(input, Strings.decompress(compressed));
+		Assert.assertEquals("plain text", Strings.decompress("plain text"));
+		Assert.assertNull(Strings.decompress(null));
+	}
+
 	
 
 